@@ -0,0 +1,100 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.json.SpeechletResponseEnvelope;
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.ui.PlainTextOutputSpeech;
+import com.amazon.speech.ui.Reprompt;
+import com.amazon.speech.ui.SimpleCard;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the SDK (de)serialization of realistic request and response envelopes.
+ *
+ * @author zacheusz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvelopeJsonBenchmark {
+
+    private byte[] intentRequest;
+
+    private SpeechletResponseEnvelope responseEnvelope;
+
+    @Setup
+    public void setUp() {
+        final Map<String, String> slots = new LinkedHashMap<>();
+        slots.put("City", "Seattle");
+        slots.put("Date", "2018-06-01");
+        slots.put("Product", "extra large pepperoni pizza");
+        this.intentRequest = Envelopes.intentRequest("GetOpeningHoursIntent", slots);
+
+        final PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+        speech.setText("The Seattle store is open from 9 am to 9 pm on Friday, June first. "
+                + "Would you like to hear the opening hours of another store?");
+        final PlainTextOutputSpeech repromptSpeech = new PlainTextOutputSpeech();
+        repromptSpeech.setText("Which store would you like to know about?");
+        final Reprompt reprompt = new Reprompt();
+        reprompt.setOutputSpeech(repromptSpeech);
+        final SimpleCard card = new SimpleCard();
+        card.setTitle("Opening hours");
+        card.setContent("Seattle: 9 am - 9 pm");
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("lastIntent", "GetOpeningHoursIntent");
+        attributes.put("counter", 4);
+        this.responseEnvelope = new SpeechletResponseEnvelope();
+        this.responseEnvelope.setVersion(Sdk.VERSION);
+        this.responseEnvelope.setResponse(SpeechletResponse.newAskResponse(speech, reprompt, card));
+        this.responseEnvelope.setSessionAttributes(attributes);
+    }
+
+    @Benchmark
+    public SpeechletRequestEnvelope<?> parseIntentRequest() throws IOException {
+        return SpeechletRequestEnvelope.fromJson(this.intentRequest);
+    }
+
+    @Benchmark
+    public byte[] serializeResponse() throws IOException {
+        return this.responseEnvelope.toJsonBytes();
+    }
+}
@@ -0,0 +1,113 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.ui.PlainTextOutputSpeech;
+import eu.zacheusz.alexa.handler.IntentHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of {@link AlexaSlingSpeechlet#onIntent} dispatch with a growing number of bound handlers.
+ * The requested intent is served by the last bound handler.
+ *
+ * @author zacheusz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntentRoutingBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int handlerCount;
+
+    @Param({"true", "false"})
+    public boolean declaredIntents;
+
+    private AlexaSlingSpeechlet speechlet;
+
+    private SpeechletRequestEnvelope<IntentRequest> envelope;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        this.speechlet = new AlexaSlingSpeechlet();
+        this.speechlet.activate(new HashMap<>());
+        for (int i = 0; i < this.handlerCount; i++) {
+            final String intentName = "Intent" + i;
+            final Map<String, Object> properties = this.declaredIntents
+                    ? Collections.singletonMap(IntentHandler.INTENTS_PROPERTY, new String[]{intentName})
+                    : Collections.emptyMap();
+            this.speechlet.bindIntentHandler(new FixedIntentHandler(intentName), properties);
+        }
+        this.envelope = (SpeechletRequestEnvelope<IntentRequest>) SpeechletRequestEnvelope.fromJson(
+                Envelopes.intentRequest("Intent" + (this.handlerCount - 1), Collections.emptyMap()));
+    }
+
+    @Benchmark
+    public SpeechletResponse onIntent() {
+        return this.speechlet.onIntent(this.envelope);
+    }
+
+    static final class FixedIntentHandler implements IntentHandler {
+
+        private final String intentName;
+
+        private final SpeechletResponse response;
+
+        FixedIntentHandler(final String intentName) {
+            this.intentName = intentName;
+            final PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+            speech.setText("Handled " + intentName);
+            this.response = SpeechletResponse.newTellResponse(speech);
+        }
+
+        @Override
+        public boolean supportsIntent(final String intentName) {
+            return this.intentName.equals(intentName);
+        }
+
+        @Override
+        public SpeechletResponse handleIntent(final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+            return this.response;
+        }
+    }
+}
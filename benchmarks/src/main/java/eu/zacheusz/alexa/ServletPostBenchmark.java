@@ -0,0 +1,130 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.Sdk;
+import eu.zacheusz.alexa.authentication.SigningCertificateChainCache;
+import eu.zacheusz.alexa.handler.IntentHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.X509TrustManager;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full {@link AlexaSlingSpeechletServlet#doPost} path with mocked Sling request and response objects,
+ * with and without signature verification against a local certificate chain.
+ *
+ * @author zacheusz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServletPostBenchmark {
+
+    @Param({"false", "true"})
+    public boolean signatureCheck;
+
+    @Param({"false", "true"})
+    public boolean pooledBuffers;
+
+    private LocalCertificateAuthority authority;
+
+    private AlexaSlingSpeechletServlet servlet;
+
+    private byte[] body;
+
+    private Map<String, String> headers;
+
+    private final ServletMocks.CapturedResponse response = new ServletMocks.CapturedResponse();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        this.authority = new LocalCertificateAuthority();
+        final String chainUrl = this.authority.startChainServer();
+        final AlexaSlingSpeechlet speechlet = new AlexaSlingSpeechlet();
+        speechlet.activate(new HashMap<>());
+        for (int i = 0; i < 10; i++) {
+            speechlet.bindIntentHandler(new IntentRoutingBenchmark.FixedIntentHandler("Intent" + i),
+                    Collections.singletonMap(IntentHandler.INTENTS_PROPERTY, new String[]{"Intent" + i}));
+        }
+        final X509TrustManager trustManager = this.authority.trustManager();
+        this.servlet = new AlexaSlingSpeechletServlet() {
+            @Override
+            protected SigningCertificateChainCache newCertificateChainCache() {
+                return new SigningCertificateChainCache(trustManager, false,
+                        SigningCertificateChainCache.DEFAULT_MAX_ENTRIES, SigningCertificateChainCache.DEFAULT_TIMEOUT_MILLIS);
+            }
+        };
+        this.servlet.bindSlingSpeechlet(speechlet);
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY, !this.signatureCheck);
+        properties.put(AlexaSlingSpeechletServlet.POOLED_BUFFERS_ENABLED_PROPERTY, this.pooledBuffers);
+        // the same request is posted for the whole iteration, measure the handler path and not the duplicates
+        properties.put(AlexaSlingSpeechletServlet.REQUEST_DEDUPLICATION_ENABLED_PROPERTY, false);
+        properties.put(AlexaSlingSpeechletServlet.CERTIFICATE_CHAIN_PREFETCH_URLS_PROPERTY, new String[]{chainUrl});
+        this.servlet.activate(ServletMocks.componentContext(properties));
+        this.headers = new HashMap<>();
+        this.headers.put(Sdk.SIGNATURE_CERTIFICATE_CHAIN_URL_REQUEST_HEADER, chainUrl);
+    }
+
+    /**
+     * Refresh the request timestamp so it stays within the SDK timestamp tolerance.
+     */
+    @Setup(Level.Iteration)
+    public void newRequest() throws Exception {
+        this.body = Envelopes.intentRequest("Intent5", Collections.singletonMap("City", "Seattle"));
+        this.headers.put(Sdk.SIGNATURE_REQUEST_HEADER, this.authority.sign(this.body));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.authority.close();
+    }
+
+    @Benchmark
+    public int doPost() throws Exception {
+        this.response.reset();
+        this.servlet.doPost(ServletMocks.postRequest(this.body, this.headers), this.response.response);
+        if (this.response.status != 200) {
+            throw new IllegalStateException("POST failed with status " + this.response.status);
+        }
+        return this.response.body.size();
+    }
+}
@@ -0,0 +1,110 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.Sdk;
+import eu.zacheusz.alexa.authentication.SigningCertificateChainCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.net.ssl.X509TrustManager;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request signature verification with a locally generated key pair and certificate chain:
+ * the bare signature check, a cached chain and a chain downloaded for every request.
+ *
+ * @author zacheusz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignatureVerificationBenchmark {
+
+    private LocalCertificateAuthority authority;
+
+    private X509TrustManager trustManager;
+
+    private String chainUrl;
+
+    private byte[] body;
+
+    private String signature;
+
+    private X509Certificate signingCertificate;
+
+    private SigningCertificateChainCache cache;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.authority = new LocalCertificateAuthority();
+        this.trustManager = this.authority.trustManager();
+        this.chainUrl = this.authority.startChainServer();
+        this.body = Envelopes.intentRequest("GetOpeningHoursIntent", Collections.singletonMap("City", "Seattle"));
+        this.signature = this.authority.sign(this.body);
+        this.cache = newCache();
+        this.signingCertificate = this.cache.getSigningCertificate(this.chainUrl);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.authority.close();
+    }
+
+    private SigningCertificateChainCache newCache() {
+        return new SigningCertificateChainCache(this.trustManager, false,
+                SigningCertificateChainCache.DEFAULT_MAX_ENTRIES, SigningCertificateChainCache.DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    @Benchmark
+    public boolean signatureOnly() throws Exception {
+        final Signature verifier = Signature.getInstance(Sdk.SIGNATURE_ALGORITHM);
+        verifier.initVerify(this.signingCertificate.getPublicKey());
+        verifier.update(this.body);
+        return verifier.verify(Base64.getDecoder().decode(this.signature));
+    }
+
+    @Benchmark
+    public void cachedChain() {
+        this.cache.checkRequestSignature(this.body, this.signature, this.chainUrl);
+    }
+
+    @Benchmark
+    public void downloadedChain() {
+        newCache().checkRequestSignature(this.body, this.signature, this.chainUrl);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import eu.zacheusz.alexa.slot.SlotIndex;
+import eu.zacheusz.alexa.slot.SlotMatch;
+import eu.zacheusz.alexa.slot.SlotValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SlotIndex} lookups and compilation with catalogs of generated product names.
+ * Every value has one synonym. Fuzzy lookups have one substituted character.
+ *
+ * @author zacheusz
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SlotResolutionBenchmark {
+
+    private static final String[] SYLLABLES = {"ka", "lo", "mi", "ren", "to", "sa", "vi", "dor", "pe", "lu",
+            "na", "zo", "bri", "ta", "gen", "ul", "fa", "qui", "ser", "mon"};
+
+    private static final int QUERIES = 1024;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int catalogSize;
+
+    private List<SlotValue> catalog;
+
+    private SlotIndex index;
+
+    private final String[] exact = new String[QUERIES];
+
+    private final String[] synonyms = new String[QUERIES];
+
+    private final String[] typos = new String[QUERIES];
+
+    private final String[] misses = new String[QUERIES];
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(42);
+        this.catalog = new ArrayList<>(this.catalogSize);
+        for (int i = 0; i < this.catalogSize; i++) {
+            final String name = word(random) + ' ' + word(random) + ' ' + (i % 1000);
+            this.catalog.add(new SlotValue(Integer.toString(i), name, name + " " + word(random)));
+        }
+        this.index = SlotIndex.build(this.catalog);
+        for (int i = 0; i < QUERIES; i++) {
+            final SlotValue value = this.catalog.get(random.nextInt(this.catalogSize));
+            this.exact[i] = value.getValue().toUpperCase();
+            this.synonyms[i] = value.getSynonyms().get(0);
+            final char[] typo = value.getValue().toCharArray();
+            typo[random.nextInt(typo.length - 4)] = 'x';
+            this.typos[i] = new String(typo);
+            this.misses[i] = "qq" + word(random) + "qq " + word(random);
+        }
+    }
+
+    private static String word(final Random random) {
+        final StringBuilder word = new StringBuilder();
+        final int syllables = 2 + random.nextInt(3);
+        for (int i = 0; i < syllables; i++) {
+            word.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return word.toString();
+    }
+
+    private int nextQuery() {
+        return this.next++ & (QUERIES - 1);
+    }
+
+    @Benchmark
+    public SlotMatch exact() {
+        return this.index.resolve(this.exact[nextQuery()]);
+    }
+
+    @Benchmark
+    public SlotMatch synonym() {
+        return this.index.resolve(this.synonyms[nextQuery()]);
+    }
+
+    @Benchmark
+    public SlotMatch fuzzy() {
+        return this.index.resolve(this.typos[nextQuery()]);
+    }
+
+    @Benchmark
+    public SlotMatch miss() {
+        return this.index.resolve(this.misses[nextQuery()]);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SlotIndex build() {
+        return SlotIndex.build(this.catalog);
+    }
+}
@@ -0,0 +1,224 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.ui.PlainTextOutputSpeech;
+import eu.zacheusz.alexa.capture.TrafficCaptureReader;
+import eu.zacheusz.alexa.capture.TrafficCaptureReader.CapturedRequest;
+import eu.zacheusz.alexa.handler.IntentHandler;
+import eu.zacheusz.alexa.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replays a traffic capture of {@link eu.zacheusz.alexa.capture.TrafficCapture} and reports throughput
+ * and latency percentiles.<br>
+ *
+ * Requests are sent at their original pace, scaled by the rate, or as fast as possible with rate 0.
+ * Latency is measured from the scheduled send time, so queueing in the replay itself is included.
+ * By default the envelopes are passed through {@link AlexaSlingSpeechletServlet#handleSpeechletCall(byte[])}
+ * of a local servlet, whose handler answers every intent after <code>--handler-millis</code>.
+ * With <code>--url</code> they are posted to a running servlet, which should have signature checking,
+ * the timestamp check and request deduplication disabled.
+ *
+ * <pre>
+ * java -cp benchmarks.jar eu.zacheusz.alexa.TrafficReplay capture-file [--rate 1.0] [--threads 16]
+ *      [--handler-millis 0] [--url http://localhost:8080/bin/services/alexa]
+ * </pre>
+ *
+ * @author zacheusz
+ */
+public final class TrafficReplay {
+
+    private final List<CapturedRequest> requests;
+
+    private final double rate;
+
+    private final int threads;
+
+    private final Target target;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final LongAdder errors = new LongAdder();
+
+    private TrafficReplay(final List<CapturedRequest> requests, final double rate, final int threads,
+                          final Target target) {
+        this.requests = requests;
+        this.rate = rate;
+        this.threads = threads;
+        this.target = target;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: TrafficReplay capture-file [--rate 1.0] [--threads 16]"
+                    + " [--handler-millis 0] [--url servlet-url]");
+            System.exit(2);
+        }
+        double rate = 1.0;
+        int threads = 16;
+        long handlerMillis = 0L;
+        String url = null;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--rate":
+                    rate = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--handler-millis":
+                    handlerMillis = Long.parseLong(args[i + 1]);
+                    break;
+                case "--url":
+                    url = args[i + 1];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        final List<CapturedRequest> requests;
+        try (final TrafficCaptureReader reader = new TrafficCaptureReader(Paths.get(args[0]))) {
+            requests = reader.readAll();
+        }
+        final Target target = url == null ? localServlet(handlerMillis) : httpTarget(new URL(url));
+        new TrafficReplay(requests, rate, threads, target).run();
+    }
+
+    private void run() throws InterruptedException {
+        if (this.requests.isEmpty()) {
+            System.out.println("The capture is empty.");
+            return;
+        }
+        final ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        final long firstArrival = this.requests.get(0).getArrivalMillis();
+        final long started = System.nanoTime();
+        for (final CapturedRequest request : this.requests) {
+            final long scheduled = this.rate <= 0 ? System.nanoTime() : started + (long) (
+                    TimeUnit.MILLISECONDS.toNanos(request.getArrivalMillis() - firstArrival) / this.rate);
+            final long wait = scheduled - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            executor.execute(() -> {
+                try {
+                    this.target.send(request.getBody());
+                } catch (Exception ex) {
+                    this.errors.increment();
+                } finally {
+                    this.latency.record(System.nanoTime() - scheduled);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        final double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("requests:   %d (%d errors)%n", this.latency.getCount(), this.errors.sum());
+        System.out.printf("duration:   %.2f s%n", seconds);
+        System.out.printf("throughput: %.1f requests/s%n", this.latency.getCount() / seconds);
+        System.out.printf("latency:    mean %.0f us, p50 %d us, p90 %d us, p99 %d us, p99.9 %d us%n",
+                this.latency.getMeanMicros(), this.latency.getPercentileMicros(0.5),
+                this.latency.getPercentileMicros(0.9), this.latency.getPercentileMicros(0.99),
+                this.latency.getPercentileMicros(0.999));
+    }
+
+    private static Target localServlet(final long handlerMillis) throws Exception {
+        final AlexaSlingSpeechlet speechlet = new AlexaSlingSpeechlet();
+        speechlet.activate(new HashMap<>());
+        final PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+        speech.setText("Replayed");
+        final SpeechletResponse response = SpeechletResponse.newTellResponse(speech);
+        speechlet.bindIntentHandler(new IntentHandler() {
+            @Override
+            public boolean supportsIntent(final String intentName) {
+                return true;
+            }
+
+            @Override
+            public SpeechletResponse handleIntent(final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+                if (handlerMillis > 0) {
+                    try {
+                        Thread.sleep(handlerMillis);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return response;
+            }
+        }, Collections.<String, Object>emptyMap());
+        final AlexaSlingSpeechletServlet servlet = new AlexaSlingSpeechletServlet();
+        servlet.bindSlingSpeechlet(speechlet);
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY, true);
+        properties.put(AlexaSlingSpeechletServlet.REQUEST_DEDUPLICATION_ENABLED_PROPERTY, false);
+        properties.put(AlexaSlingSpeechletServlet.TIMESTAMP_TOLERANCE_SECONDS_PROPERTY, 0L);
+        servlet.activate(ServletMocks.componentContext(properties));
+        return servlet::handleSpeechletCall;
+    }
+
+    private static Target httpTarget(final URL url) {
+        return body -> {
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (final OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            final int status = connection.getResponseCode();
+            try (final InputStream in = status < HttpURLConnection.HTTP_BAD_REQUEST
+                    ? connection.getInputStream() : connection.getErrorStream()) {
+                if (in != null) {
+                    final byte[] buffer = new byte[4096];
+                    while (in.read(buffer) >= 0) {
+                        // discard, keeps the connection alive
+                    }
+                }
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + status);
+            }
+        };
+    }
+
+    private interface Target {
+        void send(byte[] body) throws Exception;
+    }
+}
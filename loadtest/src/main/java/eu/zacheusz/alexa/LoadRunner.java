@@ -0,0 +1,556 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.ui.PlainTextOutputSpeech;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import eu.zacheusz.alexa.authentication.SigningCertificateChainCache;
+import eu.zacheusz.alexa.handler.IntentHandler;
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.osgi.service.component.ComponentContext;
+
+import javax.net.ssl.X509TrustManager;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * End-to-end load test of {@link AlexaSlingSpeechletServlet} with signature verification enabled.<br>
+ *
+ * A {@link LocalCertificateAuthority} serves its certificate chain over HTTP and signs the envelopes,
+ * the servlet trusts only that authority. The servlet runs in an embedded Jetty and a fixed number of
+ * client threads post signed intent requests over keep-alive connections, each sending the next request
+ * as soon as the previous one is answered. The envelopes are re-signed every minute, so they pass the
+ * timestamp check on long runs.<br>
+ *
+ * After the warm-up, the test reports throughput, exact latency percentiles and the bytes allocated by
+ * the server threads. With thresholds given it exits with status 1 when one is exceeded or a request
+ * fails, so it can guard CI builds. The report is also written as JSON with <code>--report</code>.
+ *
+ * It runs in the <code>verify</code> phase of the load test module, with the options and thresholds
+ * of the <code>loadtest.args</code> property:
+ *
+ * <pre>
+ * mvn -f loadtest/pom.xml verify [-Dloadtest.args="..."]
+ * </pre>
+ *
+ * <pre>
+ * LoadRunner [--duration 30] [--warmup 10] [--threads 32]
+ *      [--server-threads 200] [--intents 10] [--handler-millis 0] [--envelopes 1000]
+ *      [--signature-check true] [--async false] [--report load-test.json]
+ *      [--max-p99-millis 0] [--min-throughput 0] [--max-allocation-per-request 0]
+ * </pre>
+ *
+ * @author zacheusz
+ */
+public final class LoadRunner {
+
+    private static final String SERVLET_PATH = "/bin/services/alexa";
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final Map<String, String> options;
+
+    private final LocalCertificateAuthority authority;
+
+    private final AtomicReference<SignedEnvelope[]> envelopes = new AtomicReference<>();
+
+    private final AtomicInteger nextEnvelope = new AtomicInteger();
+
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * Ids of the client and signing threads, excluded from the server allocation.
+     */
+    private final Set<Long> loadThreads = Collections.synchronizedSet(new HashSet<>());
+
+    private String chainUrl;
+
+    private ServerConnector connector;
+
+    private LoadRunner(final Map<String, String> options) throws GeneralSecurityException {
+        this.options = options;
+        this.authority = new LocalCertificateAuthority();
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>();
+        options.put("duration", "30");
+        options.put("warmup", "10");
+        options.put("threads", "32");
+        options.put("server-threads", "200");
+        options.put("intents", "10");
+        options.put("handler-millis", "0");
+        options.put("envelopes", "1000");
+        options.put("signature-check", "true");
+        options.put("async", "false");
+        options.put("max-p99-millis", "0");
+        options.put("min-throughput", "0");
+        options.put("max-allocation-per-request", "0");
+        options.put("report", "");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--") || !options.containsKey(args[i].substring(2))) {
+                System.err.println("Unknown option " + args[i]);
+                System.exit(2);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        // the JDK keeps only 5 idle connections per host by default, the clients would reconnect
+        System.setProperty("http.maxConnections", options.get("threads"));
+        final LoadRunner test = new LoadRunner(options);
+        final int status;
+        try {
+            status = test.run();
+        } finally {
+            test.authority.close();
+        }
+        System.exit(status);
+    }
+
+    private int intOption(final String name) {
+        return Integer.parseInt(this.options.get(name));
+    }
+
+    private long longOption(final String name) {
+        return Long.parseLong(this.options.get(name));
+    }
+
+    private int run() throws Exception {
+        this.chainUrl = this.authority.startChainServer();
+        final ScheduledExecutorService signer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(() -> {
+                this.loadThreads.add(Thread.currentThread().getId());
+                runnable.run();
+            }, "load-test-signer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        signer.submit(this::signEnvelopes).get();
+        signer.scheduleWithFixedDelay(this::signEnvelopes, 60L, 60L, TimeUnit.SECONDS);
+
+        final Server server = startServer(newServlet());
+        final URL url = new URL("http://127.0.0.1:" + this.connector.getLocalPort() + SERVLET_PATH);
+        try {
+            return measure(url);
+        } finally {
+            server.stop();
+            signer.shutdownNow();
+        }
+    }
+
+    private void signEnvelopes() {
+        final int count = intOption("envelopes");
+        final int intents = intOption("intents");
+        final SignedEnvelope[] signed = new SignedEnvelope[count];
+        try {
+            for (int i = 0; i < count; i++) {
+                final byte[] body = Envelopes.intentRequest("Intent" + (i % intents),
+                        Collections.singletonMap("City", "Seattle"));
+                signed[i] = new SignedEnvelope(body, this.authority.sign(body));
+            }
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Unable to sign envelopes", ex);
+        }
+        this.envelopes.set(signed);
+    }
+
+    private AlexaSlingSpeechletServlet newServlet() throws Exception {
+        final AlexaSlingSpeechlet speechlet = new AlexaSlingSpeechlet();
+        speechlet.activate(new HashMap<>());
+        final long handlerMillis = longOption("handler-millis");
+        for (int i = 0; i < intOption("intents"); i++) {
+            final String intentName = "Intent" + i;
+            speechlet.bindIntentHandler(new LoadIntentHandler(intentName, handlerMillis),
+                    Collections.singletonMap(IntentHandler.INTENTS_PROPERTY, new String[]{intentName}));
+        }
+        final X509TrustManager trustManager = this.authority.trustManager();
+        final AlexaSlingSpeechletServlet servlet = new AlexaSlingSpeechletServlet() {
+            @Override
+            protected SigningCertificateChainCache newCertificateChainCache() {
+                return new SigningCertificateChainCache(trustManager, false,
+                        SigningCertificateChainCache.DEFAULT_MAX_ENTRIES, SigningCertificateChainCache.DEFAULT_TIMEOUT_MILLIS);
+            }
+        };
+        servlet.bindSlingSpeechlet(speechlet);
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY,
+                !Boolean.parseBoolean(this.options.get("signature-check")));
+        properties.put(AlexaSlingSpeechletServlet.ASYNC_ENABLED_PROPERTY, Boolean.parseBoolean(this.options.get("async")));
+        // the envelopes are reused for a minute, measure the handler path and not the duplicates
+        properties.put(AlexaSlingSpeechletServlet.REQUEST_DEDUPLICATION_ENABLED_PROPERTY, false);
+        properties.put(AlexaSlingSpeechletServlet.CERTIFICATE_CHAIN_PREFETCH_URLS_PROPERTY, new String[]{this.chainUrl});
+        servlet.activate((ComponentContext) Proxy.newProxyInstance(LoadRunner.class.getClassLoader(),
+                new Class<?>[]{ComponentContext.class}, (proxy, method, args) ->
+                        "getProperties".equals(method.getName()) ? properties : null));
+        return servlet;
+    }
+
+    private Server startServer(final AlexaSlingSpeechletServlet servlet) throws Exception {
+        final QueuedThreadPool threadPool = new QueuedThreadPool(intOption("server-threads"));
+        threadPool.setName("load-test-server");
+        final Server server = new Server(threadPool);
+        final ServerConnector connector = new ServerConnector(server);
+        connector.setHost("127.0.0.1");
+        connector.setPort(0);
+        server.addConnector(connector);
+        final ServletContextHandler context = new ServletContextHandler();
+        context.setContextPath("/");
+        final ServletHolder holder = new ServletHolder(new SlingServletAdapter(servlet));
+        holder.setAsyncSupported(true);
+        context.addServlet(holder, SERVLET_PATH);
+        server.setHandler(context);
+        server.start();
+        this.connector = connector;
+        return server;
+    }
+
+    private int measure(final URL url) throws Exception {
+        final int threads = intOption("threads");
+        final long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(longOption("warmup"));
+        final long stopAt = measureFrom + TimeUnit.SECONDS.toNanos(longOption("duration"));
+        final List<long[]> latencies = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch finished = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            final Thread client = new Thread(() -> {
+                this.loadThreads.add(Thread.currentThread().getId());
+                try {
+                    latencies.add(runClient(url, measureFrom, stopAt));
+                } finally {
+                    finished.countDown();
+                }
+            }, "load-test-client-" + i);
+            client.setDaemon(true);
+            client.start();
+        }
+        TimeUnit.NANOSECONDS.sleep(measureFrom - System.nanoTime());
+        this.errors.reset();
+        final Map<Long, Long> allocatedBefore = allocatedBytes();
+        finished.await();
+        final double seconds = (System.nanoTime() - measureFrom) / 1e9;
+        final Map<Long, Long> allocatedAfter = allocatedBytes();
+        long serverAllocated = 0L;
+        for (final Map.Entry<Long, Long> thread : allocatedAfter.entrySet()) {
+            if (!this.loadThreads.contains(thread.getKey()) && thread.getKey() != Thread.currentThread().getId()) {
+                serverAllocated += thread.getValue() - allocatedBefore.getOrDefault(thread.getKey(), 0L);
+            }
+        }
+
+        int count = 0;
+        for (final long[] clientLatencies : latencies) {
+            count += clientLatencies.length;
+        }
+        final long[] sorted = new long[count];
+        int offset = 0;
+        for (final long[] clientLatencies : latencies) {
+            System.arraycopy(clientLatencies, 0, sorted, offset, clientLatencies.length);
+            offset += clientLatencies.length;
+        }
+        Arrays.sort(sorted);
+        return report(new Result(sorted, this.errors.sum(), seconds, serverAllocated));
+    }
+
+    /**
+     * @return latencies in nanoseconds of the requests sent after the warm-up
+     */
+    private long[] runClient(final URL url, final long measureFrom, final long stopAt) {
+        long[] latencies = new long[1024];
+        int count = 0;
+        long now = System.nanoTime();
+        while (now < stopAt) {
+            final SignedEnvelope[] signed = this.envelopes.get();
+            final SignedEnvelope envelope = signed[(this.nextEnvelope.getAndIncrement() & Integer.MAX_VALUE) % signed.length];
+            final long started = now;
+            boolean ok;
+            try {
+                ok = post(url, envelope) == HttpURLConnection.HTTP_OK;
+            } catch (IOException ex) {
+                ok = false;
+            }
+            now = System.nanoTime();
+            if (started >= measureFrom) {
+                if (!ok) {
+                    this.errors.increment();
+                }
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = now - started;
+            }
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    private int post(final URL url, final SignedEnvelope envelope) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(envelope.body.length);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty(Sdk.SIGNATURE_REQUEST_HEADER, envelope.signature);
+        connection.setRequestProperty(Sdk.SIGNATURE_CERTIFICATE_CHAIN_URL_REQUEST_HEADER, this.chainUrl);
+        try (final OutputStream out = connection.getOutputStream()) {
+            out.write(envelope.body);
+        }
+        final int status = connection.getResponseCode();
+        try (final InputStream in = status < HttpURLConnection.HTTP_BAD_REQUEST
+                ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                final byte[] buffer = new byte[4096];
+                while (in.read(buffer) >= 0) {
+                    // discard, keeps the connection alive
+                }
+            }
+        }
+        return status;
+    }
+
+    private static Map<Long, Long> allocatedBytes() {
+        final long[] ids = THREADS.getAllThreadIds();
+        final long[] bytes = THREADS.getThreadAllocatedBytes(ids);
+        final Map<Long, Long> allocated = new HashMap<>(ids.length * 2);
+        for (int i = 0; i < ids.length; i++) {
+            if (bytes[i] >= 0) {
+                allocated.put(ids[i], bytes[i]);
+            }
+        }
+        return allocated;
+    }
+
+    private int report(final Result result) throws IOException {
+        System.out.printf("requests:   %d (%d errors)%n", result.latencies.length, result.errors);
+        System.out.printf("duration:   %.2f s%n", result.seconds);
+        System.out.printf("throughput: %.1f requests/s%n", result.throughput());
+        System.out.printf("latency:    mean %.0f us, p50 %d us, p99 %d us, p99.9 %d us, max %d us%n",
+                result.meanMicros(), result.percentileMicros(0.5), result.percentileMicros(0.99),
+                result.percentileMicros(0.999), result.percentileMicros(1.0));
+        System.out.printf("allocation: %d bytes/request, %.1f MB/s by server threads%n",
+                result.allocationPerRequest(), result.allocatedBytes / result.seconds / (1024 * 1024));
+
+        final String reportFile = this.options.get("report");
+        if (!reportFile.isEmpty()) {
+            try (final OutputStream out = Files.newOutputStream(Paths.get(reportFile));
+                 final JsonGenerator json = new JsonFactory().createGenerator(out, JsonEncoding.UTF8)) {
+                json.writeStartObject();
+                json.writeObjectFieldStart("configuration");
+                for (final Map.Entry<String, String> option : this.options.entrySet()) {
+                    json.writeStringField(option.getKey(), option.getValue());
+                }
+                json.writeEndObject();
+                json.writeNumberField("requests", result.latencies.length);
+                json.writeNumberField("errors", result.errors);
+                json.writeNumberField("durationSeconds", result.seconds);
+                json.writeNumberField("throughput", result.throughput());
+                json.writeObjectFieldStart("latencyMicros");
+                json.writeNumberField("mean", result.meanMicros());
+                json.writeNumberField("p50", result.percentileMicros(0.5));
+                json.writeNumberField("p99", result.percentileMicros(0.99));
+                json.writeNumberField("p99.9", result.percentileMicros(0.999));
+                json.writeNumberField("max", result.percentileMicros(1.0));
+                json.writeEndObject();
+                json.writeNumberField("allocationBytesPerRequest", result.allocationPerRequest());
+                json.writeNumberField("allocationBytesPerSecond", (long) (result.allocatedBytes / result.seconds));
+                json.writeEndObject();
+            }
+        }
+
+        final List<String> failures = new ArrayList<>();
+        if (result.errors > 0) {
+            failures.add(result.errors + " requests failed");
+        }
+        final long maxP99Millis = longOption("max-p99-millis");
+        if (maxP99Millis > 0 && result.percentileMicros(0.99) > TimeUnit.MILLISECONDS.toMicros(maxP99Millis)) {
+            failures.add("p99 latency above " + maxP99Millis + " ms");
+        }
+        final double minThroughput = Double.parseDouble(this.options.get("min-throughput"));
+        if (minThroughput > 0 && result.throughput() < minThroughput) {
+            failures.add("throughput below " + minThroughput + " requests/s");
+        }
+        final long maxAllocation = longOption("max-allocation-per-request");
+        if (maxAllocation > 0 && result.allocationPerRequest() > maxAllocation) {
+            failures.add("allocation above " + maxAllocation + " bytes/request");
+        }
+        for (final String failure : failures) {
+            System.out.println("FAILED:     " + failure);
+        }
+        return failures.isEmpty() ? 0 : 1;
+    }
+
+    private static final class SignedEnvelope {
+
+        private final byte[] body;
+
+        private final String signature;
+
+        SignedEnvelope(final byte[] body, final String signature) {
+            this.body = body;
+            this.signature = signature;
+        }
+    }
+
+    private static final class Result {
+
+        private final long[] latencies;
+
+        private final long errors;
+
+        private final double seconds;
+
+        private final long allocatedBytes;
+
+        Result(final long[] latencies, final long errors, final double seconds, final long allocatedBytes) {
+            this.latencies = latencies;
+            this.errors = errors;
+            this.seconds = seconds;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        double throughput() {
+            return this.latencies.length / this.seconds;
+        }
+
+        long percentileMicros(final double quantile) {
+            if (this.latencies.length == 0) {
+                return 0L;
+            }
+            final int rank = (int) Math.ceil(quantile * this.latencies.length);
+            return TimeUnit.NANOSECONDS.toMicros(this.latencies[Math.max(0, rank - 1)]);
+        }
+
+        double meanMicros() {
+            long total = 0L;
+            for (final long latency : this.latencies) {
+                total += latency;
+            }
+            return this.latencies.length == 0 ? 0d : total / 1000d / this.latencies.length;
+        }
+
+        long allocationPerRequest() {
+            return this.latencies.length == 0 ? 0L : this.allocatedBytes / this.latencies.length;
+        }
+    }
+
+    /**
+     * Serves the Sling servlet in a plain servlet container. The Sling request and response delegate
+     * to the container's, Sling specific methods aren't used by the servlet and aren't supported.
+     */
+    private static final class SlingServletAdapter extends HttpServlet {
+
+        private final AlexaSlingSpeechletServlet servlet;
+
+        SlingServletAdapter(final AlexaSlingSpeechletServlet servlet) {
+            this.servlet = servlet;
+        }
+
+        @Override
+        protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+            this.servlet.doPost(delegate(SlingHttpServletRequest.class, request),
+                    delegate(SlingHttpServletResponse.class, response));
+        }
+
+        private static <T> T delegate(final Class<T> type, final Object target) {
+            return type.cast(Proxy.newProxyInstance(LoadRunner.class.getClassLoader(), new Class<?>[]{type},
+                    (proxy, method, args) -> {
+                        if (!method.getDeclaringClass().isInstance(target)) {
+                            throw new UnsupportedOperationException(method.toString());
+                        }
+                        try {
+                            return method.invoke(target, args);
+                        } catch (InvocationTargetException ex) {
+                            throw ex.getCause();
+                        }
+                    }));
+        }
+    }
+
+    private static final class LoadIntentHandler implements IntentHandler {
+
+        private final String intentName;
+
+        private final long handlerMillis;
+
+        private final SpeechletResponse response;
+
+        LoadIntentHandler(final String intentName, final long handlerMillis) {
+            this.intentName = intentName;
+            this.handlerMillis = handlerMillis;
+            final PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+            speech.setText("Handled " + intentName);
+            this.response = SpeechletResponse.newTellResponse(speech);
+        }
+
+        @Override
+        public boolean supportsIntent(final String intentName) {
+            return this.intentName.equals(intentName);
+        }
+
+        @Override
+        public SpeechletResponse handleIntent(final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+            if (this.handlerMillis > 0) {
+                try {
+                    Thread.sleep(this.handlerMillis);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return this.response;
+        }
+    }
+}
@@ -20,22 +20,40 @@
  */
 package eu.zacheusz.alexa;
 
+import com.amazon.speech.Sdk;
 import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.json.SpeechletResponseEnvelope;
 import com.amazon.speech.speechlet.*;
+import com.amazon.speech.speechlet.util.UserAgentUtils;
 import com.amazon.speech.ui.PlainTextOutputSpeech;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.function.Supplier;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import eu.zacheusz.alexa.cache.ResponseCache;
+import eu.zacheusz.alexa.content.ResponseContentService;
+import eu.zacheusz.alexa.handler.AsyncIntentHandler;
+import eu.zacheusz.alexa.handler.BatchSessionEndedHandler;
+import eu.zacheusz.alexa.handler.CacheableIntentHandler;
 import eu.zacheusz.alexa.handler.IntentHandler;
 
 import eu.zacheusz.alexa.handler.LaunchHandler;
 import eu.zacheusz.alexa.handler.SessionEndedHandler;
 import eu.zacheusz.alexa.handler.SessionStartedHandler;
+import eu.zacheusz.alexa.handler.SkillConstants;
+import eu.zacheusz.alexa.limit.ConcurrencyLimiter;
+import eu.zacheusz.alexa.metrics.SpeechletMetrics;
+import eu.zacheusz.alexa.session.SessionStateService;
+import eu.zacheusz.alexa.user.UserContextService;
 import org.apache.felix.scr.annotations.*;
 import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.slf4j.Logger;
@@ -55,9 +73,18 @@ public class AlexaSlingSpeechlet implements SpeechletV2 {
 
     protected final Logger log = LoggerFactory.getLogger(getClass());
 
-    @Property(label = "Supported skill name.") //TODO
+    @Property(label = "Supported skill name. Only handlers without the alexa.skill service property "
+            + "or listing this name are used. Empty uses all handlers.", value = "")
     private static final String SKILL_PROPERTY = "skill";
 
+    @Property(label = "Application ids of the skill. Empty serves requests of any application id "
+            + "not claimed by another skill.", cardinality = Integer.MAX_VALUE)
+    private static final String APPLICATION_IDS_PROPERTY = "applicationIds";
+
+    private volatile String skill;
+
+    private volatile String[] applicationIds = new String[0];
+
     @Property(label = "Default onLaunch message.", value = "")
     private static final String ON_LAUNCH_MESSAGE_PROPERTY = "onLaunchMessage";
 
@@ -69,40 +96,222 @@ public class AlexaSlingSpeechlet implements SpeechletV2 {
 
     private String noHandlerMessage = ""; //TODO documentation
 
+    /**
+     * Key of the localized launch text, used instead of the launch message when present.
+     */
+    public static final String LAUNCH_CONTENT_KEY = "launch";
+
+    /**
+     * Key of the localized no-handler text, used instead of the no-handler message when present.
+     */
+    public static final String NO_HANDLER_CONTENT_KEY = "noHandler";
+
+    @Property(label = "Maximum number of cached responses of cacheable intent handlers. 0 disables the cache.",
+            intValue = 1000)
+    private static final String RESPONSE_CACHE_SIZE_PROPERTY = "responseCacheSize";
+
+    @Property(label = "Limit concurrent intent handler calls, adapting the limits to their latency.", boolValue = false)
+    private static final String CONCURRENCY_LIMIT_ENABLED_PROPERTY = "concurrencyLimitEnabled";
+
+    @Property(label = "Initial limit of concurrent intent handler calls.", intValue = 50)
+    private static final String GLOBAL_INITIAL_LIMIT_PROPERTY = "globalConcurrencyLimit";
+
+    @Property(label = "Maximum limit of concurrent intent handler calls.", intValue = 200)
+    private static final String GLOBAL_MAX_LIMIT_PROPERTY = "globalConcurrencyMaxLimit";
+
+    @Property(label = "Initial limit of concurrent calls per intent.", intValue = 20)
+    private static final String INTENT_INITIAL_LIMIT_PROPERTY = "intentConcurrencyLimit";
+
+    @Property(label = "Maximum limit of concurrent calls per intent.", intValue = 100)
+    private static final String INTENT_MAX_LIMIT_PROPERTY = "intentConcurrencyMaxLimit";
+
+    @Property(label = "Handler latency in milliseconds above which the limit of the intent is lowered, "
+            + "at most once per this period.", longValue = 2000L)
+    private static final String LATENCY_TARGET_PROPERTY = "concurrencyLatencyTargetMillis";
+
+    @Property(label = "Speech response when a concurrency limit is reached or an asynchronous handler times out.",
+            value = "I'm sorry - I'm busy right now. Please try again in a moment.")
+    private static final String TRY_AGAIN_MESSAGE_PROPERTY = "tryAgainMessage";
+
+    @Property(label = "Maximum time in milliseconds to wait for asynchronous intent handlers of synchronous requests. "
+            + "The servlet deadline bounds asynchronous requests.", longValue = 5000L)
+    static final String ASYNC_HANDLER_TIMEOUT_PROPERTY = "asyncHandlerTimeoutMillis";
+
+    private volatile long asyncHandlerTimeoutMillis = 5000L;
+
+    private volatile ConcurrencyLimiter concurrencyLimiter;
+
+    @Property(label = "Run session ended handlers on a background executor. Session started handlers always run "
+            + "on the request thread, the session attributes they set are part of the response.", boolValue = false)
+    private static final String SESSION_CALLBACKS_ASYNC_PROPERTY = "sessionCallbacksAsync";
+
+    @Property(label = "Session callback threads.", intValue = 2)
+    private static final String SESSION_CALLBACK_THREADS_PROPERTY = "sessionCallbackThreads";
+
+    @Property(label = "Maximum number of queued session callbacks. Further callbacks run on the request thread.",
+            intValue = 1000)
+    private static final String SESSION_CALLBACK_QUEUE_SIZE_PROPERTY = "sessionCallbackQueueSize";
+
+    @Property(label = "Maximum number of ended sessions passed to a batch session ended handler at once.",
+            intValue = 100)
+    private static final String SESSION_ENDED_BATCH_SIZE_PROPERTY = "sessionEndedBatchSize";
+
+    @Property(label = "Maximum time in milliseconds an ended session waits for its batch.", longValue = 1000L)
+    private static final String SESSION_ENDED_BATCH_MILLIS_PROPERTY = "sessionEndedBatchMillis";
+
+    /**
+     * Maximum time the queued session callbacks may take on deactivation.
+     */
+    private static final long SESSION_CALLBACK_DRAIN_MILLIS = 10000L;
+
+    private volatile SessionCallbackExecutor sessionCallbacks;
+
+    private volatile SpeechletResponse tryAgainResponse;
+
+    private volatile ResponseCache responseCache;
+
+    private volatile SpeechletResponse defaultOnLaunchResponse;
+
+    private volatile SpeechletResponse noHandlerResponse;
+
+    private volatile byte[] noHandlerResponseEnvelope;
+
     @Reference(cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE,
-            bind = "bindHanlder", unbind = "unbindHanlder",
+            bind = "bindIntentHandler", unbind = "unbindIntentHandler",
             referenceInterface = IntentHandler.class,
             policy = ReferencePolicy.DYNAMIC)
-    protected final List<IntentHandler> handlers = new ArrayList<>();
+    private final SkillScopedHandlers<IntentHandler> intentHandlers = new SkillScopedHandlers<>();
 
-    @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY,
+    /**
+     * Intent handlers serving this skill in routing order.
+     *
+     * @deprecated intents are routed with {@link #routingTable}, this list is only kept in sync for subclasses
+     */
+    @Deprecated
+    protected final List<IntentHandler> handlers = new CopyOnWriteArrayList<>();
+
+    protected volatile IntentRoutingTable routingTable = IntentRoutingTable.EMPTY;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE,
+            bind = "bindSessionStartedHandler", unbind = "unbindSessionStartedHandler",
             referenceInterface = SessionStartedHandler.class,
             policy = ReferencePolicy.DYNAMIC)
+    private final SkillScopedHandlers<SessionStartedHandler> sessionStartedHandlers = new SkillScopedHandlers<>();
+
     protected volatile SessionStartedHandler sessionStartedHandler;
 
-    @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY,
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE,
+            bind = "bindSessionEndedHandler", unbind = "unbindSessionEndedHandler",
             referenceInterface = SessionEndedHandler.class,
             policy = ReferencePolicy.DYNAMIC)
+    private final SkillScopedHandlers<SessionEndedHandler> sessionEndedHandlers = new SkillScopedHandlers<>();
+
     protected volatile SessionEndedHandler sessionEndedHandler;
 
-    @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY,
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE,
+            bind = "bindLaunchHandler", unbind = "unbindLaunchHandler",
             referenceInterface = LaunchHandler.class,
             policy = ReferencePolicy.DYNAMIC)
+    private final SkillScopedHandlers<LaunchHandler> launchHandlers = new SkillScopedHandlers<>();
+
     protected volatile LaunchHandler launchHandler;
 
+    /**
+     * Selected handlers which opted out of the warm-up with {@link SkillConstants#WARMUP_PROPERTY}.
+     */
+    private volatile Set<Object> coldHandlers = Collections.emptySet();
+
+    private final List<Runnable> handlerListeners = new CopyOnWriteArrayList<>();
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY,
+            referenceInterface = SpeechletMetrics.class,
+            policy = ReferencePolicy.DYNAMIC)
+    protected volatile SpeechletMetrics metrics;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY,
+            referenceInterface = SessionStateService.class,
+            policy = ReferencePolicy.DYNAMIC)
+    protected volatile SessionStateService sessionStateService;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY,
+            referenceInterface = ResponseContentService.class,
+            policy = ReferencePolicy.DYNAMIC)
+    protected volatile ResponseContentService responseContentService;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY,
+            referenceInterface = UserContextService.class,
+            policy = ReferencePolicy.DYNAMIC)
+    protected volatile UserContextService userContextService;
+
     @Activate
     protected final void activate(final Map<String, Object> properties) throws Exception {
+        final String skillName = PropertiesUtil.toString(properties.get(SKILL_PROPERTY), "");
+        this.skill = skillName.isEmpty() ? null : skillName;
+        this.applicationIds = PropertiesUtil.toStringArray(properties.get(APPLICATION_IDS_PROPERTY), new String[0]);
         this.onLaunchMessage = PropertiesUtil.toString(properties.get(ON_LAUNCH_MESSAGE_PROPERTY), "");
         this.noHandlerMessage = PropertiesUtil.toString(properties.get(NO_HANDLER_MESSAGE_PROPERTY), "");
+        this.defaultOnLaunchResponse = newTellResponse(this.onLaunchMessage);
+        this.noHandlerResponse = newTellResponse(this.noHandlerMessage);
+        final SpeechletResponseEnvelope noHandlerEnvelope = new SpeechletResponseEnvelope();
+        // the fields the SDK request handler writes, a tell response carries no session attributes
+        noHandlerEnvelope.setVersion(Sdk.VERSION);
+        noHandlerEnvelope.setUserAgent(UserAgentUtils.getUserAgent());
+        noHandlerEnvelope.setResponse(this.noHandlerResponse);
+        this.noHandlerResponseEnvelope = noHandlerEnvelope.toJsonBytes();
+        final int responseCacheSize = PropertiesUtil.toInteger(properties.get(RESPONSE_CACHE_SIZE_PROPERTY), 1000);
+        this.responseCache = responseCacheSize > 0 ? new ResponseCache(responseCacheSize) : null;
+        this.asyncHandlerTimeoutMillis = PropertiesUtil.toLong(properties.get(ASYNC_HANDLER_TIMEOUT_PROPERTY), 5000L);
+        this.tryAgainResponse = newTellResponse(PropertiesUtil.toString(properties.get(TRY_AGAIN_MESSAGE_PROPERTY),
+                "I'm sorry - I'm busy right now. Please try again in a moment."));
+        if (PropertiesUtil.toBoolean(properties.get(CONCURRENCY_LIMIT_ENABLED_PROPERTY), false)) {
+            this.concurrencyLimiter = new ConcurrencyLimiter(
+                    PropertiesUtil.toInteger(properties.get(GLOBAL_INITIAL_LIMIT_PROPERTY), 50),
+                    PropertiesUtil.toInteger(properties.get(GLOBAL_MAX_LIMIT_PROPERTY), 200),
+                    PropertiesUtil.toInteger(properties.get(INTENT_INITIAL_LIMIT_PROPERTY), 20),
+                    PropertiesUtil.toInteger(properties.get(INTENT_MAX_LIMIT_PROPERTY), 100),
+                    PropertiesUtil.toLong(properties.get(LATENCY_TARGET_PROPERTY), 2000L));
+        }
+        if (PropertiesUtil.toBoolean(properties.get(SESSION_CALLBACKS_ASYNC_PROPERTY), false)) {
+            this.sessionCallbacks = new SessionCallbackExecutor(
+                    PropertiesUtil.toInteger(properties.get(SESSION_CALLBACK_THREADS_PROPERTY), 2),
+                    PropertiesUtil.toInteger(properties.get(SESSION_CALLBACK_QUEUE_SIZE_PROPERTY), 1000),
+                    PropertiesUtil.toInteger(properties.get(SESSION_ENDED_BATCH_SIZE_PROPERTY), 100),
+                    PropertiesUtil.toLong(properties.get(SESSION_ENDED_BATCH_MILLIS_PROPERTY), 1000L),
+                    () -> this.sessionEndedHandler);
+        }
+        selectHandlers();
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        final SessionCallbackExecutor callbacks = this.sessionCallbacks;
+        if (callbacks != null) {
+            this.sessionCallbacks = null;
+            callbacks.drain(SESSION_CALLBACK_DRAIN_MILLIS);
+        }
     }
 
     @Override
     public void onSessionStarted(SpeechletRequestEnvelope<SessionStartedRequest> requestEnvelope) {
         log.info("onSessionStarted"); //TODO improve log message and level
-        if (this.sessionStartedHandler != null) {
-            this.sessionStartedHandler.handleSessionStarted(requestEnvelope);
-        } else {
-            log.info("no sessionStartedHandler");
+        final SpeechletMetrics metrics = metrics();
+        final long started = metrics == null ? 0L : metrics.handlerStarted();
+        try {
+            final UserContextService userContexts = SpeechletWarmup.isWarmupCall() ? null : this.userContextService;
+            if (userContexts != null) {
+                // the first intent of the session usually needs the user's profile, load it meanwhile
+                userContexts.prefetch(requestEnvelope);
+            }
+            final SessionStartedHandler handler = this.sessionStartedHandler;
+            if (handler == null) {
+                log.info("no sessionStartedHandler");
+            } else {
+                handler.handleSessionStarted(requestEnvelope);
+            }
+        } finally {
+            if (metrics != null) {
+                metrics.handlerFinished("SessionStartedRequest", null, started);
+            }
         }
     }
 
@@ -110,17 +319,46 @@ public class AlexaSlingSpeechlet implements SpeechletV2 {
     @Override
     public SpeechletResponse onLaunch(SpeechletRequestEnvelope<LaunchRequest> requestEnvelope) {
         log.info("onLaunch"); //TODO improve log message and level
-        final SpeechletResponse response;
-        if (this.launchHandler != null) {
-            response = this.launchHandler.handleLaunch(requestEnvelope);
-        } else {
-            response = newDefaultOnLaunchMessage();
+        final SpeechletMetrics metrics = metrics();
+        final long started = metrics == null ? 0L : metrics.handlerStarted();
+        try {
+            final SpeechletResponse response;
+            if (this.launchHandler != null) {
+                response = this.launchHandler.handleLaunch(requestEnvelope);
+            } else {
+                response = newDefaultOnLaunchMessage(requestEnvelope.getRequest().getLocale());
+            }
+            return response;
+        } finally {
+            if (metrics != null) {
+                metrics.handlerFinished("LaunchRequest", null, started);
+            }
         }
-        return response;
+    }
+
+    /**
+     * @return the metrics service or <code>null</code> for warm-up calls, which would skew the latencies
+     */
+    private SpeechletMetrics metrics() {
+        return SpeechletWarmup.isWarmupCall() ? null : this.metrics;
+    }
+
+    protected SpeechletResponse newDefaultOnLaunchMessage(final Locale locale) {
+        final SpeechletResponse response = newContentResponse(locale, LAUNCH_CONTENT_KEY);
+        return response == null ? newDefaultOnLaunchMessage() : response;
+    }
+
+    /**
+     * @return the localized response of the key or <code>null</code> without the content service or text
+     */
+    protected SpeechletResponse newContentResponse(final Locale locale, final String key) {
+        final ResponseContentService contentService = this.responseContentService;
+        return contentService == null ? null : contentService.newTellResponse(locale, key, null);
     }
 
     protected SpeechletResponse newDefaultOnLaunchMessage() {
-        return newTellResponse(this.onLaunchMessage);
+        final SpeechletResponse response = this.defaultOnLaunchResponse;
+        return response == null ? newTellResponse(this.onLaunchMessage) : response;
     }
 
     protected SpeechletResponse newTellResponse(final String text) {
@@ -129,18 +367,134 @@ public class AlexaSlingSpeechlet implements SpeechletV2 {
         return SpeechletResponse.newTellResponse(speech);
     }
 
+    /**
+     * Handle the intent request, waiting for {@link AsyncIntentHandler}s at most for the handler timeout.
+     */
     @Override
     public SpeechletResponse onIntent(final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+        final CompletableFuture<SpeechletResponse> response = onIntentAsync(requestEnvelope);
+        try {
+            return response.get(this.asyncHandlerTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            log.warn("Handler of intent {} didn't answer within {} ms",
+                    requestEnvelope.getRequest().getIntent().getName(), this.asyncHandlerTimeoutMillis);
+            response.cancel(true);
+            return this.tryAgainResponse;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            response.cancel(true);
+            throw new IllegalStateException("Interrupted while waiting for the intent handler", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            } else if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw new IllegalStateException("Intent handler failed", ex.getCause());
+        }
+    }
+
+    /**
+     * Handle the intent request without waiting for {@link AsyncIntentHandler}s. The servlet uses it for
+     * asynchronous requests of such handlers, its deadline bounds the call instead of the handler timeout.
+     * Cancelling the returned future cancels the stage of the handler.
+     *
+     * @param requestEnvelope the intent request envelope to handle
+     * @return future completed with the response
+     */
+    public CompletableFuture<SpeechletResponse> onIntentAsync(
+            final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+        final SpeechletMetrics metrics = metrics();
+        final long started = metrics == null ? 0L : metrics.handlerStarted();
+        final CompletableFuture<SpeechletResponse> response = dispatchIntent(requestEnvelope);
+        if (metrics != null) {
+            final String intentName = requestEnvelope.getRequest().getIntent().getName();
+            response.whenComplete((result, ex) -> metrics.handlerFinished("IntentRequest", intentName, started));
+        }
+        return response;
+    }
+
+    /**
+     * @param response response of this speechlet
+     * @return <code>true</code> if it's the try again response answered instead of a handler,
+     * when a concurrency limit is reached or a handler doesn't answer in time
+     */
+    public boolean isTryAgainResponse(final SpeechletResponse response) {
+        return response != null && response == this.tryAgainResponse;
+    }
+
+    /**
+     * @param intentName the name of the requested intent
+     * @return <code>true</code> if an {@link AsyncIntentHandler} handles the intent
+     */
+    public boolean isAsyncIntent(final String intentName) {
+        return intentName != null && this.routingTable.lookup(intentName) instanceof AsyncIntentHandler;
+    }
+
+    private CompletableFuture<SpeechletResponse> dispatchIntent(
+            final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
         final IntentRequest request = requestEnvelope.getRequest();
         final String intentName = request.getIntent().getName();
         log.info("processing intent request {}", intentName);
-        //filter handlers
-        final Supplier<Stream<IntentHandler>> filtered =
-                () -> this.handlers.stream().filter(h -> h.supportsIntent(intentName));
-        if (filtered.get().count() > 1) {
-            log.warn("Multiple handlers supports {} intent.", intentName);
+        final IntentHandler handler = this.routingTable.lookup(intentName);
+        if (handler == null) {
+            return invokeHandler(this.defaultIntentHandler, requestEnvelope);
+        }
+        final ResponseCache cache = SpeechletWarmup.isWarmupCall() ? null : this.responseCache;
+        if (cache == null || !(handler instanceof CacheableIntentHandler)) {
+            return callHandler(handler, requestEnvelope);
+        }
+        final String key = ResponseCache.key(request);
+        final SpeechletResponse cached = cache.get(key);
+        if (cached != null) {
+            log.debug("cached response for intent {}", intentName);
+            return CompletableFuture.completedFuture(cached);
+        }
+        final CompletableFuture<SpeechletResponse> response = callHandler(handler, requestEnvelope);
+        response.thenAccept(result -> {
+            if (result != this.tryAgainResponse) {
+                cache.put(key, result, ((CacheableIntentHandler) handler).getResponseTtlMillis());
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Call the handler within the concurrency limits. When a limit is reached the try again
+     * response is returned right away instead of waiting. The permit is held until the response completes.
+     */
+    private CompletableFuture<SpeechletResponse> callHandler(
+            final IntentHandler handler, final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+        final ConcurrencyLimiter limiter = SpeechletWarmup.isWarmupCall() ? null : this.concurrencyLimiter;
+        if (limiter == null) {
+            return invokeHandler(handler, requestEnvelope);
+        }
+        final String intentName = requestEnvelope.getRequest().getIntent().getName();
+        final ConcurrencyLimiter.Permit permit = limiter.acquire(intentName);
+        if (permit == null) {
+            log.warn("Concurrency limit reached, rejecting intent {}", intentName);
+            return CompletableFuture.completedFuture(this.tryAgainResponse);
+        }
+        final CompletableFuture<SpeechletResponse> response = invokeHandler(handler, requestEnvelope);
+        response.whenComplete((result, ex) -> permit.release(ex == null && result != this.tryAgainResponse));
+        return response;
+    }
+
+    /**
+     * Call the handler. Synchronous handlers are called right away, failures included complete the future.
+     */
+    private static CompletableFuture<SpeechletResponse> invokeHandler(
+            final IntentHandler handler, final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+        try {
+            if (handler instanceof AsyncIntentHandler) {
+                return AsyncIntentHandler.start((AsyncIntentHandler) handler, requestEnvelope);
+            }
+            return CompletableFuture.completedFuture(handler.handleIntent(requestEnvelope));
+        } catch (RuntimeException | Error ex) {
+            final CompletableFuture<SpeechletResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(ex);
+            return failed;
         }
-        return filtered.get().findFirst().orElse(this.defaultIntentHandler).handleIntent(requestEnvelope);
     }
 
     protected final IntentHandler defaultIntentHandler = new IntentHandler() {
@@ -151,26 +505,223 @@ public class AlexaSlingSpeechlet implements SpeechletV2 {
 
         @Override
         public SpeechletResponse handleIntent(SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
-            return newTellResponse(AlexaSlingSpeechlet.this.noHandlerMessage);
+            final SpeechletResponse content = newContentResponse(requestEnvelope.getRequest().getLocale(),
+                    NO_HANDLER_CONTENT_KEY);
+            if (content != null) {
+                return content;
+            }
+            final SpeechletResponse response = AlexaSlingSpeechlet.this.noHandlerResponse;
+            return response == null ? newTellResponse(AlexaSlingSpeechlet.this.noHandlerMessage) : response;
         }
     };
 
     @Override
     public void onSessionEnded(SpeechletRequestEnvelope<SessionEndedRequest> requestEnvelope) {
         log.info("onSessionEnded"); //TODO improve log message and level
-        if (this.sessionEndedHandler != null) {
-            this.sessionEndedHandler.handleSessionEnded(requestEnvelope);
-        } else {
-            log.info("no sessionEndedHandler");
+        final SpeechletMetrics metrics = metrics();
+        final long started = metrics == null ? 0L : metrics.handlerStarted();
+        try {
+            final SessionEndedHandler handler = this.sessionEndedHandler;
+            final SessionCallbackExecutor callbacks = this.sessionCallbacks;
+            if (handler == null) {
+                log.info("no sessionEndedHandler");
+            } else if (callbacks == null) {
+                handler.handleSessionEnded(requestEnvelope);
+            } else if (handler instanceof BatchSessionEndedHandler) {
+                callbacks.sessionEnded(requestEnvelope);
+            } else {
+                callbacks.execute(() -> handler.handleSessionEnded(requestEnvelope));
+            }
+        } finally {
+            final SessionStateService sessionState = SpeechletWarmup.isWarmupCall() ? null : this.sessionStateService;
+            if (sessionState != null) {
+                sessionState.sessionEnded(requestEnvelope.getSession());
+            }
+            if (metrics != null) {
+                metrics.handlerFinished("SessionEndedRequest", null, started);
+            }
         }
     }
 
+    protected void bindIntentHandler(final IntentHandler handler, final Map<String, Object> properties) {
+        this.intentHandlers.bind(handler, properties);
+        selectHandlers();
+    }
+
+    protected void unbindIntentHandler(final IntentHandler handler) {
+        this.intentHandlers.unbind(handler);
+        selectHandlers();
+    }
+
+    /**
+     * @deprecated use {@link #bindIntentHandler(IntentHandler, Map)}, this binding ignores the service properties
+     */
+    @Deprecated
     protected void bindHanlder(final IntentHandler handler) {
-        this.handlers.add(handler);
+        bindIntentHandler(handler, null);
     }
 
+    /**
+     * @deprecated use {@link #unbindIntentHandler(IntentHandler)}
+     */
+    @Deprecated
     protected void unbindHanlder(final IntentHandler handler) {
-        this.handlers.remove(handler);
+        unbindIntentHandler(handler);
+    }
+
+    protected void bindSessionStartedHandler(final SessionStartedHandler handler,
+                                             final Map<String, Object> properties) {
+        this.sessionStartedHandlers.bind(handler, properties);
+        selectHandlers();
+    }
+
+    protected void unbindSessionStartedHandler(final SessionStartedHandler handler) {
+        this.sessionStartedHandlers.unbind(handler);
+        selectHandlers();
+    }
+
+    protected void bindSessionEndedHandler(final SessionEndedHandler handler, final Map<String, Object> properties) {
+        this.sessionEndedHandlers.bind(handler, properties);
+        selectHandlers();
+    }
+
+    protected void unbindSessionEndedHandler(final SessionEndedHandler handler) {
+        this.sessionEndedHandlers.unbind(handler);
+        selectHandlers();
+    }
+
+    protected void bindLaunchHandler(final LaunchHandler handler, final Map<String, Object> properties) {
+        this.launchHandlers.bind(handler, properties);
+        selectHandlers();
+    }
+
+    protected void unbindLaunchHandler(final LaunchHandler handler) {
+        this.launchHandlers.unbind(handler);
+        selectHandlers();
+    }
+
+    /**
+     * Select the bound handlers serving this skill and rebuild the intent routing table.
+     */
+    private synchronized void selectHandlers() {
+        final String skillName = this.skill;
+        final Map<IntentHandler, String[]> intents = new LinkedHashMap<>();
+        for (final Map.Entry<IntentHandler, Map<String, Object>> entry
+                : this.intentHandlers.select(skillName).entrySet()) {
+            intents.put(entry.getKey(), PropertiesUtil.toStringArray(entry.getValue().get(IntentHandler.INTENTS_PROPERTY)));
+        }
+        this.routingTable = IntentRoutingTable.build(intents);
+        this.handlers.retainAll(intents.keySet());
+        for (final IntentHandler handler : intents.keySet()) {
+            if (!this.handlers.contains(handler)) {
+                this.handlers.add(handler);
+            }
+        }
+        this.sessionStartedHandler = this.sessionStartedHandlers.first(skillName);
+        this.sessionEndedHandler = this.sessionEndedHandlers.first(skillName);
+        this.launchHandler = this.launchHandlers.first(skillName);
+        final Set<Object> cold = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final IntentHandler handler : intents.keySet()) {
+            if (!this.intentHandlers.isWarmedUp(handler)) {
+                cold.add(handler);
+            }
+        }
+        if (!this.sessionStartedHandlers.isWarmedUp(this.sessionStartedHandler)) {
+            cold.add(this.sessionStartedHandler);
+        }
+        if (!this.sessionEndedHandlers.isWarmedUp(this.sessionEndedHandler)) {
+            cold.add(this.sessionEndedHandler);
+        }
+        if (!this.launchHandlers.isWarmedUp(this.launchHandler)) {
+            cold.add(this.launchHandler);
+        }
+        this.coldHandlers = cold;
+        invalidateResponseCache();
+        for (final Runnable listener : this.handlerListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * @param listener called after handlers were bound or unbound, e.g. to warm them up
+     */
+    void addHandlerListener(final Runnable listener) {
+        this.handlerListeners.add(listener);
+    }
+
+    void removeHandlerListener(final Runnable listener) {
+        this.handlerListeners.remove(listener);
+    }
+
+    /**
+     * @param handler selected handler or <code>null</code>
+     * @return <code>false</code> if the handler opted out of the warm-up
+     */
+    boolean isWarmedUp(final Object handler) {
+        return handler == null || !this.coldHandlers.contains(handler);
+    }
+
+    /**
+     * @return name of the skill served by this speechlet or <code>null</code> if it serves all handlers
+     */
+    public String getSkill() {
+        return this.skill;
+    }
+
+    /**
+     * @return application ids dispatched to this speechlet, empty if it serves any unclaimed application id
+     */
+    public String[] getApplicationIds() {
+        return this.applicationIds.clone();
+    }
+
+    /**
+     * Answer the intent request without deserializing it when no handler supports the intent.
+     * The response ends the session, so session attributes aren't needed. Localized responses
+     * of the content service need the request locale, so there is no shortcut with the service bound.
+     * The servlet asks only for requests of sessions which aren't new and which pass the SDK verifiers.
+     *
+     * @param intentName the name of the requested intent
+     * @return serialized no-handler response envelope or <code>null</code> if the intent is supported
+     */
+    public byte[] getUnsupportedIntentResponse(final String intentName) {
+        final byte[] response = this.noHandlerResponseEnvelope;
+        if (response == null || intentName == null || this.responseContentService != null
+                || this.routingTable.lookup(intentName) != null) {
+            return null;
+        }
+        return response;
+    }
+
+    /**
+     * @return concurrency limits of intent handler calls or <code>null</code> if they're disabled
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return this.concurrencyLimiter;
+    }
+
+    /**
+     * @return current snapshot of the intent routing table
+     */
+    public IntentRoutingTable getRoutingTable() {
+        return this.routingTable;
+    }
+
+    /**
+     * @return cache of {@link CacheableIntentHandler} responses or <code>null</code> if it's disabled
+     */
+    public ResponseCache getResponseCache() {
+        return this.responseCache;
+    }
+
+    /**
+     * Drop all cached responses, e.g. after the content they were rendered from has changed.
+     */
+    public void invalidateResponseCache() {
+        final ResponseCache cache = this.responseCache;
+        if (cache != null) {
+            cache.invalidateAll();
+        }
     }
 
 }
@@ -21,26 +21,80 @@
 package eu.zacheusz.alexa;
 
 import com.amazon.speech.Sdk;
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.json.SpeechletResponseEnvelope;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.Session;
+import com.amazon.speech.speechlet.SessionStartedRequest;
 import com.amazon.speech.speechlet.SpeechletException;
 import com.amazon.speech.speechlet.SpeechletRequestHandler;
 import com.amazon.speech.speechlet.SpeechletRequestHandlerException;
+import com.amazon.speech.speechlet.SpeechletResponse;
 import com.amazon.speech.speechlet.SpeechletV2;
 import com.amazon.speech.speechlet.authentication.SpeechletRequestSignatureVerifier;
+import com.amazon.speech.speechlet.authentication.TimestampVerifier;
 import com.amazon.speech.speechlet.servlet.ServletSpeechletRequestHandler;
+import com.amazon.speech.speechlet.util.UserAgentUtils;
+import com.amazon.speech.speechlet.verifier.CardSpeechletResponseVerifier;
+import com.amazon.speech.speechlet.verifier.OutputSpeechSpeechletResponseVerifier;
+import com.amazon.speech.speechlet.verifier.ResponseSizeSpeechletResponseVerifier;
+import com.amazon.speech.speechlet.verifier.SpeechletResponseVerifier;
+import com.amazon.speech.ui.PlainTextOutputSpeech;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import eu.zacheusz.alexa.authentication.SigningCertificateChainCache;
+import eu.zacheusz.alexa.cache.RequestDeduplicationCache;
+import eu.zacheusz.alexa.capture.TrafficCapture;
+import eu.zacheusz.alexa.cache.ResponseCache;
+import eu.zacheusz.alexa.handler.AsyncIntentHandler;
+import eu.zacheusz.alexa.io.RequestBodyReader;
+import eu.zacheusz.alexa.io.RequestBodyTooLargeException;
+import eu.zacheusz.alexa.io.RequestEnvelopeHeader;
+import eu.zacheusz.alexa.limit.AdaptiveConcurrencyLimit;
+import eu.zacheusz.alexa.limit.ConcurrencyLimiter;
+import eu.zacheusz.alexa.metrics.RequestTimer;
+import eu.zacheusz.alexa.metrics.SpeechletMetrics;
 import org.apache.commons.io.IOUtils;
 import org.apache.felix.scr.annotations.*;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.servlets.SlingAllMethodsServlet;
 import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.BundleContext;
 import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.Servlet;
+import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  *
@@ -56,67 +110,777 @@ import java.util.Dictionary;
         @Property(name = "sling.servlet.paths", value = {"/bin/services/alexa"}, propertyPrivate = true),
         @Property(label = "Disable request signature checking.",
                 name = Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY, boolValue = false),
-        @Property(label = "Supported skill name.", name = "skill")})
+        @Property(label = "Cache signing certificate chains.",
+                name = AlexaSlingSpeechletServlet.CERTIFICATE_CACHE_ENABLED_PROPERTY, boolValue = true),
+        @Property(label = "Signing certificate chain URLs downloaded at activation.",
+                name = AlexaSlingSpeechletServlet.CERTIFICATE_CHAIN_PREFETCH_URLS_PROPERTY,
+                cardinality = Integer.MAX_VALUE),
+        @Property(label = "Process POST requests asynchronously.",
+                name = AlexaSlingSpeechletServlet.ASYNC_ENABLED_PROPERTY, boolValue = false),
+        @Property(label = "Asynchronous executor threads.",
+                name = AlexaSlingSpeechletServlet.ASYNC_POOL_SIZE_PROPERTY, intValue = 16),
+        @Property(label = "Asynchronous executor queue size.",
+                name = AlexaSlingSpeechletServlet.ASYNC_QUEUE_SIZE_PROPERTY, intValue = 64),
+        @Property(label = "Use virtual threads for asynchronous processing when the JVM supports them.",
+                name = AlexaSlingSpeechletServlet.ASYNC_VIRTUAL_THREADS_PROPERTY, boolValue = false),
+        @Property(label = "Asynchronous request deadline in milliseconds.",
+                name = AlexaSlingSpeechletServlet.DEADLINE_MILLIS_PROPERTY,
+                longValue = AlexaSlingSpeechletServlet.DEFAULT_DEADLINE_MILLIS),
+        @Property(label = "Speech response when the deadline is exceeded.",
+                name = AlexaSlingSpeechletServlet.DEADLINE_FALLBACK_MESSAGE_PROPERTY,
+                value = AlexaSlingSpeechletServlet.DEFAULT_DEADLINE_FALLBACK_MESSAGE),
+        @Property(label = "Read request bodies into presized arrays with a size limit, "
+                + "bodies without a content length through pooled buffers.",
+                name = AlexaSlingSpeechletServlet.POOLED_BUFFERS_ENABLED_PROPERTY, boolValue = false),
+        @Property(label = "Maximum request body size in bytes (pooled buffers mode).",
+                name = AlexaSlingSpeechletServlet.MAX_REQUEST_BODY_BYTES_PROPERTY,
+                intValue = RequestBodyReader.DEFAULT_MAX_BODY_BYTES),
+        @Property(label = "Maximum age of the request timestamp in seconds, checked before the signature. "
+                + "0 disables the check, as before. Alexa requires 150 seconds for certified skills.",
+                name = AlexaSlingSpeechletServlet.TIMESTAMP_TOLERANCE_SECONDS_PROPERTY,
+                longValue = AlexaSlingSpeechletServlet.DEFAULT_TIMESTAMP_TOLERANCE_SECONDS),
+        @Property(label = "Answer retried and replayed requests with the response of the first request with the same id.",
+                name = AlexaSlingSpeechletServlet.REQUEST_DEDUPLICATION_ENABLED_PROPERTY, boolValue = false),
+        @Property(label = "Maximum number of remembered request ids.",
+                name = AlexaSlingSpeechletServlet.REQUEST_DEDUPLICATION_MAX_ENTRIES_PROPERTY, intValue = 10000),
+        @Property(label = "Time a request id is remembered in seconds.",
+                name = AlexaSlingSpeechletServlet.REQUEST_DEDUPLICATION_TTL_SECONDS_PROPERTY,
+                longValue = AlexaSlingSpeechletServlet.DEFAULT_REQUEST_DEDUPLICATION_TTL_SECONDS),
+        @Property(label = "Warm up with synthetic requests after activation. GET answers 503 until the warm-up finishes.",
+                name = AlexaSlingSpeechletServlet.WARMUP_ENABLED_PROPERTY, boolValue = false),
+        @Property(label = "Number of warm-up passes over the synthetic requests. "
+                + "Every pass calls the bound handlers, which opt out with the alexa.warmup=false service property.",
+                name = AlexaSlingSpeechletServlet.WARMUP_ITERATIONS_PROPERTY,
+                intValue = AlexaSlingSpeechletServlet.DEFAULT_WARMUP_ITERATIONS),
+        @Property(label = "Intents warmed up. Empty warms up the declared intents of each skill.",
+                name = AlexaSlingSpeechletServlet.WARMUP_INTENTS_PROPERTY, cardinality = Integer.MAX_VALUE),
+        @Property(label = "Capture sampled request bodies for offline replay.",
+                name = AlexaSlingSpeechletServlet.CAPTURE_ENABLED_PROPERTY, boolValue = false),
+        @Property(label = "Traffic capture file, relative to sling.home unless absolute. "
+                + "A previous capture is rotated on activation.",
+                name = AlexaSlingSpeechletServlet.CAPTURE_FILE_PROPERTY,
+                value = AlexaSlingSpeechletServlet.DEFAULT_CAPTURE_FILE),
+        @Property(label = "Maximum traffic capture file size in bytes.",
+                name = AlexaSlingSpeechletServlet.CAPTURE_MAX_BYTES_PROPERTY, longValue = 256L * 1024 * 1024),
+        @Property(label = "Fraction of requests captured, between 0 and 1.",
+                name = AlexaSlingSpeechletServlet.CAPTURE_SAMPLE_RATE_PROPERTY, doubleValue = 1.0)})
 public class AlexaSlingSpeechletServlet extends SlingAllMethodsServlet {
 
     protected final Logger log = LoggerFactory.getLogger(getClass());
 
+    static final String CERTIFICATE_CACHE_ENABLED_PROPERTY = "certificateCacheEnabled";
+
+    static final String CERTIFICATE_CHAIN_PREFETCH_URLS_PROPERTY = "certificateChainPrefetchUrls";
+
+    static final String ASYNC_ENABLED_PROPERTY = "asyncEnabled";
+
+    static final String ASYNC_POOL_SIZE_PROPERTY = "asyncPoolSize";
+
+    static final String ASYNC_QUEUE_SIZE_PROPERTY = "asyncQueueSize";
+
+    static final String ASYNC_VIRTUAL_THREADS_PROPERTY = "asyncVirtualThreads";
+
+    static final String DEADLINE_MILLIS_PROPERTY = "deadlineMillis";
+
+    static final String DEADLINE_FALLBACK_MESSAGE_PROPERTY = "deadlineFallbackMessage";
+
+    static final String POOLED_BUFFERS_ENABLED_PROPERTY = "pooledBuffersEnabled";
+
+    static final String MAX_REQUEST_BODY_BYTES_PROPERTY = "maxRequestBodyBytes";
+
+    static final String TIMESTAMP_TOLERANCE_SECONDS_PROPERTY = "timestampToleranceSeconds";
+
+    static final String REQUEST_DEDUPLICATION_ENABLED_PROPERTY = "requestDeduplicationEnabled";
+
+    static final String REQUEST_DEDUPLICATION_MAX_ENTRIES_PROPERTY = "requestDeduplicationMaxEntries";
+
+    static final String REQUEST_DEDUPLICATION_TTL_SECONDS_PROPERTY = "requestDeduplicationTtlSeconds";
+
+    static final String WARMUP_ENABLED_PROPERTY = "warmupEnabled";
+
+    static final String WARMUP_ITERATIONS_PROPERTY = "warmupIterations";
+
+    static final int DEFAULT_WARMUP_ITERATIONS = 10;
+
+    static final String WARMUP_INTENTS_PROPERTY = "warmupIntents";
+
+    static final String CAPTURE_ENABLED_PROPERTY = "captureEnabled";
+
+    static final String CAPTURE_FILE_PROPERTY = "captureFile";
+
+    static final String DEFAULT_CAPTURE_FILE = "alexa/traffic.capture";
+
+    static final String CAPTURE_MAX_BYTES_PROPERTY = "captureMaxBytes";
+
+    static final String CAPTURE_SAMPLE_RATE_PROPERTY = "captureSampleRate";
+
+    private static final String SLING_HOME_PROPERTY = "sling.home";
+
+    static final long DEFAULT_DEADLINE_MILLIS = 6000L;
+
+    /**
+     * Covers the timestamp tolerance on both sides of the request timestamp.
+     */
+    static final long DEFAULT_REQUEST_DEDUPLICATION_TTL_SECONDS = 300L;
+
+    /**
+     * The check is off unless configured, the SDK request handler still applies its own tolerance.
+     */
+    static final long DEFAULT_TIMESTAMP_TOLERANCE_SECONDS = 0L;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String INTENT_REQUEST_TYPE = "IntentRequest";
+
+    /**
+     * Response verifiers of the SDK request handler, applied to responses of {@link AsyncIntentHandler}s.
+     */
+    private static final List<SpeechletResponseVerifier> RESPONSE_VERIFIERS = Arrays.asList(
+            new ResponseSizeSpeechletResponseVerifier(), new OutputSpeechSpeechletResponseVerifier(),
+            new CardSpeechletResponseVerifier());
+
+    /**
+     * Alexa waits at most 8 seconds for the response.
+     */
+    static final long ALEXA_RESPONSE_TIMEOUT_MILLIS = 8000L;
+
+    static final String DEFAULT_DEADLINE_FALLBACK_MESSAGE =
+            "I'm sorry - this is taking longer than expected. Please try again later.";
+
     @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY,
+            bind = "bindCustomSpeechlet", unbind = "unbindCustomSpeechlet",
             referenceInterface = SpeechletV2.class,
             policy = ReferencePolicy.DYNAMIC)
     protected volatile SpeechletV2 customSpeechlet;
 
-    @Reference
-    protected AlexaSlingSpeechlet slingSpeechlet;
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_MULTIPLE,
+            bind = "bindSlingSpeechlet", unbind = "unbindSlingSpeechlet",
+            referenceInterface = AlexaSlingSpeechlet.class,
+            policy = ReferencePolicy.DYNAMIC)
+    private final List<AlexaSlingSpeechlet> slingSpeechlets = new ArrayList<>();
+
+    protected volatile SkillDispatchTable skillDispatchTable = SkillDispatchTable.EMPTY;
+
+    /**
+     * @deprecated speechlets are chosen by application id with {@link #skillDispatchTable},
+     * this is the speechlet serving unclaimed application ids
+     */
+    @Deprecated
+    protected volatile AlexaSlingSpeechlet slingSpeechlet;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY,
+            referenceInterface = SpeechletMetrics.class,
+            policy = ReferencePolicy.DYNAMIC)
+    protected volatile SpeechletMetrics metrics;
 
     protected final SpeechletRequestHandler requestHandler = new ServletSpeechletRequestHandler();
 
+    /**
+     * Application ids accepted by the verifier of {@link #requestHandler}, empty if it accepts any.
+     */
+    private final Set<String> sdkApplicationIds = sdkApplicationIds();
+
+    /**
+     * Timestamp verifier of {@link #requestHandler} or <code>null</code> if it doesn't check timestamps.
+     */
+    private final TimestampVerifier sdkTimestampVerifier = sdkTimestampVerifier();
+
     protected boolean disableRequestSignatureCheck;
 
+    protected SigningCertificateChainCache certificateChainCache;
+
+    protected boolean certificateCacheEnabled;
+
+    protected volatile ExecutorService asyncExecutor;
+
+    protected volatile ScheduledExecutorService deadlineScheduler;
+
+    protected long deadlineMillis;
+
+    protected byte[] deadlineFallbackResponse;
+
+    protected RequestBodyReader requestBodyReader;
+
+    protected long timestampToleranceMillis = TimeUnit.SECONDS.toMillis(DEFAULT_TIMESTAMP_TOLERANCE_SECONDS);
+
+    protected RequestDeduplicationCache requestDeduplicationCache;
+
+    protected volatile TrafficCapture trafficCapture;
+
+    private volatile SpeechletWarmup warmup;
+
+    private volatile Thread warmupThread;
+
+    private final Runnable handlersChanged = this::startWarmup;
+
+    private volatile ThreadFactory warmupThreadFactory;
+
     @Activate
-    public void activate(final ComponentContext componentContext) {
+    public void activate(final ComponentContext componentContext) throws IOException {
         log.debug("Entering activate method.");
-        final Dictionary properties = componentContext.getProperties();
+        // the OSGi 4.2 component context returns a raw dictionary of String keys
+        @SuppressWarnings("unchecked")
+        final Dictionary<String, ?> properties = componentContext.getProperties();
         if (null != properties) {
             this.disableRequestSignatureCheck = PropertiesUtil.toBoolean(
                     properties.get(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY), true);
+            this.certificateCacheEnabled = PropertiesUtil.toBoolean(
+                    properties.get(CERTIFICATE_CACHE_ENABLED_PROPERTY), true);
         } else {
             this.disableRequestSignatureCheck = Boolean.parseBoolean(
                     System.getProperty(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY));
+            this.certificateCacheEnabled = true;
+        }
+        this.certificateChainCache = newCertificateChainCache();
+        if (this.certificateCacheEnabled && !this.disableRequestSignatureCheck && null != properties) {
+            this.certificateChainCache.prefetch(PropertiesUtil.toStringArray(
+                    properties.get(CERTIFICATE_CHAIN_PREFETCH_URLS_PROPERTY), new String[0]));
+        }
+        if (null != properties) {
+            this.timestampToleranceMillis = TimeUnit.SECONDS.toMillis(PropertiesUtil.toLong(
+                    properties.get(TIMESTAMP_TOLERANCE_SECONDS_PROPERTY), DEFAULT_TIMESTAMP_TOLERANCE_SECONDS));
+        }
+        if (null != properties && PropertiesUtil.toBoolean(properties.get(REQUEST_DEDUPLICATION_ENABLED_PROPERTY), false)) {
+            this.requestDeduplicationCache = new RequestDeduplicationCache(
+                    PropertiesUtil.toInteger(properties.get(REQUEST_DEDUPLICATION_MAX_ENTRIES_PROPERTY), 10000),
+                    TimeUnit.SECONDS.toMillis(PropertiesUtil.toLong(
+                            properties.get(REQUEST_DEDUPLICATION_TTL_SECONDS_PROPERTY),
+                            DEFAULT_REQUEST_DEDUPLICATION_TTL_SECONDS)));
+        }
+        if (null != properties && PropertiesUtil.toBoolean(properties.get(POOLED_BUFFERS_ENABLED_PROPERTY), false)) {
+            this.requestBodyReader = new RequestBodyReader(
+                    PropertiesUtil.toInteger(properties.get(MAX_REQUEST_BODY_BYTES_PROPERTY),
+                            RequestBodyReader.DEFAULT_MAX_BODY_BYTES),
+                    RequestBodyReader.DEFAULT_BUFFER_SIZE, RequestBodyReader.DEFAULT_POOL_SIZE);
+        }
+        if (null != properties && PropertiesUtil.toBoolean(properties.get(ASYNC_ENABLED_PROPERTY), false)) {
+            activateAsync(properties);
+        }
+        if (null != properties && PropertiesUtil.toBoolean(properties.get(CAPTURE_ENABLED_PROPERTY), false)) {
+            this.trafficCapture = new TrafficCapture(
+                    captureFile(componentContext, properties),
+                    PropertiesUtil.toLong(properties.get(CAPTURE_MAX_BYTES_PROPERTY), 256L * 1024 * 1024),
+                    PropertiesUtil.toDouble(properties.get(CAPTURE_SAMPLE_RATE_PROPERTY), 1.0));
+            log.info("Capturing traffic to {}", this.trafficCapture.getFile().toAbsolutePath());
+        }
+        if (null != properties && PropertiesUtil.toBoolean(properties.get(WARMUP_ENABLED_PROPERTY), false)) {
+            this.warmupThreadFactory = newThreadFactory("alexa-speechlet-warmup");
+            this.warmup = new SpeechletWarmup(this,
+                    PropertiesUtil.toInteger(properties.get(WARMUP_ITERATIONS_PROPERTY), DEFAULT_WARMUP_ITERATIONS),
+                    PropertiesUtil.toStringArray(properties.get(WARMUP_INTENTS_PROPERTY), new String[0]));
+            startWarmup();
         }
 
         log.debug("Exiting activate method.");
     }
 
+    /**
+     * Resolve the configured capture file against sling.home, so it doesn't depend on the working directory.
+     */
+    private static Path captureFile(final ComponentContext componentContext, final Dictionary<String, ?> properties) {
+        final Path file = Paths.get(PropertiesUtil.toString(properties.get(CAPTURE_FILE_PROPERTY),
+                DEFAULT_CAPTURE_FILE));
+        if (file.isAbsolute()) {
+            return file;
+        }
+        final BundleContext bundleContext = componentContext.getBundleContext();
+        String slingHome = bundleContext == null ? null : bundleContext.getProperty(SLING_HOME_PROPERTY);
+        if (slingHome == null) {
+            slingHome = System.getProperty(SLING_HOME_PROPERTY, "");
+        }
+        return Paths.get(slingHome).toAbsolutePath().resolve(file);
+    }
+
+    private void activateAsync(final Dictionary<String, ?> properties) throws IOException {
+        this.deadlineMillis = PropertiesUtil.toLong(properties.get(DEADLINE_MILLIS_PROPERTY), DEFAULT_DEADLINE_MILLIS);
+        if (this.deadlineMillis <= 0 || this.deadlineMillis >= ALEXA_RESPONSE_TIMEOUT_MILLIS) {
+            log.warn("Deadline {} ms is not below the Alexa timeout. Using {} ms.",
+                    this.deadlineMillis, DEFAULT_DEADLINE_MILLIS);
+            this.deadlineMillis = DEFAULT_DEADLINE_MILLIS;
+        }
+        final PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+        speech.setText(PropertiesUtil.toString(properties.get(DEADLINE_FALLBACK_MESSAGE_PROPERTY),
+                DEFAULT_DEADLINE_FALLBACK_MESSAGE));
+        final SpeechletResponseEnvelope fallback = new SpeechletResponseEnvelope();
+        fallback.setVersion(Sdk.VERSION);
+        fallback.setResponse(SpeechletResponse.newTellResponse(speech));
+        this.deadlineFallbackResponse = fallback.toJsonBytes();
+
+        this.deadlineScheduler = Executors.newSingleThreadScheduledExecutor(
+                newThreadFactory("alexa-speechlet-deadline"));
+        if (PropertiesUtil.toBoolean(properties.get(ASYNC_VIRTUAL_THREADS_PROPERTY), false)) {
+            this.asyncExecutor = newVirtualThreadExecutor();
+        }
+        if (this.asyncExecutor == null) {
+            final int poolSize = PropertiesUtil.toInteger(properties.get(ASYNC_POOL_SIZE_PROPERTY), 16);
+            final int queueSize = PropertiesUtil.toInteger(properties.get(ASYNC_QUEUE_SIZE_PROPERTY), 64);
+            this.asyncExecutor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueSize), newThreadFactory("alexa-speechlet-worker"),
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+        log.info("Asynchronous processing enabled with {} ms deadline.", this.deadlineMillis);
+    }
+
+    private ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            log.info("Virtual threads are not available. Using a bounded thread pool.");
+            return null;
+        }
+    }
+
+    private static ThreadFactory newThreadFactory(final String prefix) {
+        final AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, prefix + '-' + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    @Deactivate
+    public void deactivate() {
+        final SpeechletWarmup speechletWarmup = this.warmup;
+        if (speechletWarmup != null) {
+            speechletWarmup.stop();
+        }
+        final Thread thread = this.warmupThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        if (this.asyncExecutor != null) {
+            this.asyncExecutor.shutdown();
+        }
+        if (this.deadlineScheduler != null) {
+            this.deadlineScheduler.shutdownNow();
+        }
+        final TrafficCapture capture = this.trafficCapture;
+        if (capture != null) {
+            this.trafficCapture = null;
+            try {
+                capture.close();
+            } catch (IOException ex) {
+                log.warn("Unable to close traffic capture {}", capture.getFile(), ex);
+            }
+        }
+    }
+
     @Override
     protected void doPost(final SlingHttpServletRequest servletRequest, final SlingHttpServletResponse servletResponse)
             throws IOException {
+        if (this.asyncExecutor != null && servletRequest.isAsyncSupported()) {
+            doPostAsync(servletRequest);
+            return;
+        }
 
-        final byte[] output;
+        final RequestTimer timer = startTimer();
+        int status = HttpServletResponse.SC_OK;
         try {
-
-            final byte[] speechletRequest = IOUtils.toByteArray(servletRequest.getInputStream());
-            if (this.disableRequestSignatureCheck) {
-                log.warn("Speechlet request signature verification is disabled.");
-            } else {
-                checkRequestSignature(speechletRequest, servletRequest);
+            final byte[] output;
+            try {
+                output = processSpeechletRequest(servletRequest,
+                        servletRequest.getHeader(Sdk.SIGNATURE_REQUEST_HEADER),
+                        servletRequest.getHeader(Sdk.SIGNATURE_CERTIFICATE_CHAIN_URL_REQUEST_HEADER), timer);
+            } catch (Exception ex) {
+                status = getErrorStatus(ex);
+                log.error("Exception occurred during POST request processing. " +
+                        "Returning status code {}", status, ex);
+                servletResponse.sendError(status, ex.getMessage());
+                return;
             }
-            output = handleSpeechletCall(speechletRequest);
+            writeResponse(servletResponse, output);
+        } finally {
+            timer.finish(status);
+        }
+    }
 
-        } catch (SpeechletRequestHandlerException | SecurityException ex) {
-            final int status = HttpServletResponse.SC_BAD_REQUEST;
+    /**
+     * Process the POST request on the asynchronous executor and release the container thread.
+     * The fallback response is returned when the speechlet doesn't answer within the deadline,
+     * a saturated executor fails the request fast with 503.
+     * @param servletRequest HTTP Servlet request
+     */
+    protected void doPostAsync(final SlingHttpServletRequest servletRequest) {
+        final String signature = servletRequest.getHeader(Sdk.SIGNATURE_REQUEST_HEADER);
+        final String certificateChainUrl = servletRequest.getHeader(Sdk.SIGNATURE_CERTIFICATE_CHAIN_URL_REQUEST_HEADER);
+        final AsyncContext asyncContext = servletRequest.startAsync();
+        asyncContext.setTimeout(2 * this.deadlineMillis);
+        final AsyncSpeechletCall call = new AsyncSpeechletCall(asyncContext, this.deadlineFallbackResponse,
+                startTimer());
+        try {
+            call.setTask(this.asyncExecutor.submit(() -> {
+                final CompletableFuture<byte[]> output;
+                try {
+                    output = startSpeechletRequest(asyncContext.getRequest(), signature, certificateChainUrl,
+                            call.getTimer(), call);
+                } catch (Exception ex) {
+                    failAsync(call, ex);
+                    return;
+                }
+                // answered by the thread completing the output, asynchronous handlers don't hold this one
+                output.whenComplete((result, ex) -> {
+                    if (ex == null) {
+                        call.respond(result);
+                    } else {
+                        failAsync(call, unwrap(ex));
+                    }
+                });
+            }));
+            call.setDeadline(this.deadlineScheduler.schedule(call::fallback, this.deadlineMillis, TimeUnit.MILLISECONDS));
+        } catch (RejectedExecutionException ex) {
+            log.warn("Asynchronous executor is saturated. Returning status code {}",
+                    HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            call.fail(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                    new RejectedExecutionException("Asynchronous executor is saturated"));
+        }
+    }
+
+    private void failAsync(final AsyncSpeechletCall call, final Exception ex) {
+        final int status = getErrorStatus(ex);
+        if (ex instanceof CancellationException) {
+            log.debug("Speechlet call cancelled at the deadline");
+        } else {
             log.error("Exception occurred during POST request processing. " +
                     "Returning status code {}", status, ex);
-            servletResponse.sendError(status, ex.getMessage());
-            return;
-        } catch (Exception ex) {
-            final int status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
-            log.error("Exception occured during POST request processing. " +
-                    "Returning status code {}", status, ex);
-            servletResponse.sendError(status, ex.getMessage());
+        }
+        call.fail(status, ex);
+    }
+
+    private static Exception unwrap(final Throwable ex) {
+        final Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        return cause instanceof Exception ? (Exception) cause : new SpeechletException(cause);
+    }
+
+    /**
+     * Read the body, pre-parse it, check its signature and call the speechlet.<br>
+     *
+     * Requests for unknown applications and stale requests are rejected before the signature check.
+     * Requests with the id of a request in flight or recently answered share its response.
+     * @param servletRequest Servlet request
+     * @param signature signature header value
+     * @param certificateChainUrl certificate chain URL header value
+     * @param timer timer of the request phases
+     * @return serialized speechlet response
+     */
+    private byte[] processSpeechletRequest(final ServletRequest servletRequest, final String signature,
+                                           final String certificateChainUrl, final RequestTimer timer)
+            throws IOException, SpeechletRequestHandlerException, SpeechletException {
+        // only the response of the first request with the same id may still be pending here
+        return awaitResponse(startSpeechletRequest(servletRequest, signature, certificateChainUrl, timer, null));
+    }
+
+    /**
+     * {@link #processSpeechletRequest} for the synchronous and the asynchronous path.
+     * @param call the asynchronous call or <code>null</code> when the caller waits for the response
+     * @return future completed with the serialized speechlet response
+     */
+    private CompletableFuture<byte[]> startSpeechletRequest(final ServletRequest servletRequest,
+                                                            final String signature, final String certificateChainUrl,
+                                                            final RequestTimer timer, final AsyncSpeechletCall call)
+            throws IOException, SpeechletRequestHandlerException, SpeechletException {
+        final long arrivalMillis = System.currentTimeMillis();
+        final byte[] speechletRequest = readRequestBody(servletRequest);
+        timer.bodyRead();
+        final RequestEnvelopeHeader header = parseEnvelopeHeader(speechletRequest);
+        final SpeechletV2 speechlet = getSpeechlet(header);
+        checkTimestamp(header);
+        if (this.disableRequestSignatureCheck) {
+            log.warn("Speechlet request signature verification is disabled.");
+        } else {
+            checkRequestSignature(speechletRequest, signature, certificateChainUrl);
+            timer.signatureChecked();
+        }
+        // only requests which passed the checks, so forged or stale requests never reach the file
+        final TrafficCapture capture = this.trafficCapture;
+        if (capture != null) {
+            capture.offer(arrivalMillis, speechletRequest);
+        }
+        final ObservedSpeechlet observed = new ObservedSpeechlet(speechlet, timer);
+        final RequestDeduplicationCache deduplicationCache = this.requestDeduplicationCache;
+        final String requestId = header.getRequestId();
+        final CompletableFuture<byte[]> output;
+        if (deduplicationCache == null || requestId == null) {
+            output = callSpeechlet(speechlet, header, speechletRequest, observed, call);
+        } else {
+            final CompletableFuture<byte[]> execution = new CompletableFuture<>();
+            final CompletableFuture<byte[]> first = deduplicationCache.claim(requestId, execution);
+            if (first != null) {
+                log.info("Request {} is a duplicate. Sharing the response of the first request.", requestId);
+                output = first;
+            } else {
+                if (call != null) {
+                    // the fallback isn't the answer of the skill, a retry runs the speechlet again
+                    call.onFallback(() -> deduplicationCache.release(requestId, execution));
+                }
+                try {
+                    callSpeechlet(speechlet, header, speechletRequest, observed, call).whenComplete((result, ex) -> {
+                        if (ex == null) {
+                            if (observed.isTryAgain()) {
+                                deduplicationCache.release(requestId, execution);
+                            }
+                            execution.complete(result);
+                        } else {
+                            execution.completeExceptionally(unwrap(ex));
+                        }
+                    });
+                } catch (Throwable ex) {
+                    // errors too, or the duplicates wait for the response timeout and the id stays claimed
+                    execution.completeExceptionally(ex);
+                    throw ex;
+                }
+                output = execution;
+            }
+        }
+        // the returned stage completes after the mark, so the response is never written before it
+        return output.whenComplete((result, ex) -> timer.speechletCallFinished());
+    }
+
+    /**
+     * Call the speechlet. Intent requests without a handler are answered without deserializing the envelope
+     * when the session isn't new, so there is no session started callback to run, and the envelope passes
+     * the verifiers of the SDK request handler. Asynchronous calls of {@link AsyncIntentHandler}s passing
+     * the verifiers don't wait for the handler. Everything else takes the SDK path.
+     * @param observed the speechlet observed for this request, marks the speechlet callbacks on its timer
+     * @param call the asynchronous call or <code>null</code> when the caller waits for the response
+     */
+    private CompletableFuture<byte[]> callSpeechlet(final SpeechletV2 speechlet, final RequestEnvelopeHeader header,
+                                                    final byte[] speechletRequest, final ObservedSpeechlet observed,
+                                                    final AsyncSpeechletCall call)
+            throws IOException, SpeechletRequestHandlerException, SpeechletException {
+        final RequestTimer timer = observed.getTimer();
+        if (speechlet instanceof AlexaSlingSpeechlet && INTENT_REQUEST_TYPE.equals(header.getRequestType())
+                && passesSdkVerifiers(header)) {
+            final AlexaSlingSpeechlet slingSpeechlet = (AlexaSlingSpeechlet) speechlet;
+            if (!header.isNewSession()) {
+                final SpeechletMetrics metrics = this.metrics;
+                final long started = metrics == null ? 0L : metrics.handlerStarted();
+                timer.handlerStarted();
+                final byte[] output = slingSpeechlet.getUnsupportedIntentResponse(header.getIntentName());
+                if (output != null) {
+                    log.info("no handler for intent {}", header.getIntentName());
+                    timer.handlerFinished();
+                    if (metrics != null) {
+                        metrics.handlerFinished(INTENT_REQUEST_TYPE, header.getIntentName(), started);
+                    }
+                    return CompletableFuture.completedFuture(output);
+                }
+            }
+            if (call != null && slingSpeechlet.isAsyncIntent(header.getIntentName())) {
+                final CompletableFuture<byte[]> handlerCall = callAsyncHandler(slingSpeechlet, speechletRequest,
+                        observed);
+                call.setHandlerCall(handlerCall);
+                return handlerCall;
+            }
+        }
+        return CompletableFuture.completedFuture(handleSpeechletCall(observed, speechletRequest));
+    }
+
+    /**
+     * Call the {@link AsyncIntentHandler} of the intent without waiting for it, doing what the SDK request
+     * handler does around the call: the session started callback of a new session, the response envelope
+     * with the session attributes and the response verifiers.
+     * @return future completed with the serialized response envelope, cancelling it cancels the handler
+     */
+    private CompletableFuture<byte[]> callAsyncHandler(final AlexaSlingSpeechlet speechlet,
+                                                       final byte[] speechletRequest, final ObservedSpeechlet observed)
+            throws IOException, SpeechletRequestHandlerException, SpeechletException {
+        final RequestTimer timer = observed.getTimer();
+        final SpeechletRequestEnvelope<?> envelope = SpeechletRequestEnvelope.fromJson(speechletRequest);
+        if (!(envelope.getRequest() instanceof IntentRequest)) {
+            return CompletableFuture.completedFuture(handleSpeechletCall(observed, speechletRequest));
+        }
+        @SuppressWarnings("unchecked")
+        final SpeechletRequestEnvelope<IntentRequest> intentEnvelope = (SpeechletRequestEnvelope<IntentRequest>) envelope;
+        final IntentRequest request = intentEnvelope.getRequest();
+        final Session session = intentEnvelope.getSession();
+        timer.handlerStarted();
+        if (session != null && session.isNew()) {
+            speechlet.onSessionStarted(SpeechletRequestEnvelope.<SessionStartedRequest>builder()
+                    .withContext(intentEnvelope.getContext())
+                    .withRequest(SessionStartedRequest.builder()
+                            .withRequestId(request.getRequestId())
+                            .withLocale(request.getLocale())
+                            .build())
+                    .withSession(session)
+                    .withVersion(intentEnvelope.getVersion())
+                    .build());
+        }
+        final CompletableFuture<SpeechletResponse> response = speechlet.onIntentAsync(intentEnvelope);
+        final CompletableFuture<byte[]> output = response.thenApply(result -> {
+            timer.handlerFinished();
+            observed.intentAnswered(result);
+            try {
+                return toResponseEnvelope(result, session);
+            } catch (IOException | SpeechletRequestHandlerException ex) {
+                throw new CompletionException(ex);
+            }
+        });
+        output.whenComplete((result, ex) -> {
+            if (output.isCancelled()) {
+                response.cancel(true);
+            }
+        });
+        return output;
+    }
+
+    /**
+     * Serialize the response envelope the way the SDK request handler does.
+     */
+    private static byte[] toResponseEnvelope(final SpeechletResponse response, final Session session)
+            throws IOException, SpeechletRequestHandlerException {
+        final SpeechletResponseEnvelope envelope = new SpeechletResponseEnvelope();
+        envelope.setVersion(Sdk.VERSION);
+        envelope.setUserAgent(UserAgentUtils.getUserAgent());
+        envelope.setResponse(response);
+        if (session != null && response != null && !Boolean.TRUE.equals(response.getNullableShouldEndSession())) {
+            envelope.setSessionAttributes(session.getAttributes());
+        }
+        for (final SpeechletResponseVerifier verifier : RESPONSE_VERIFIERS) {
+            if (!verifier.verify(envelope, session)) {
+                throw new SpeechletRequestHandlerException("Could not validate SpeechletResponse using verifier "
+                        + verifier.getClass().getSimpleName() + ", rejecting response");
+            }
+        }
+        return envelope.toJsonBytes();
+    }
+
+    /**
+     * Apply the application id and timestamp checks of the SDK request handler to the envelope header.
+     * Envelopes failing them take the SDK path, which rejects them the way it always has.
+     */
+    private boolean passesSdkVerifiers(final RequestEnvelopeHeader header) {
+        if (!this.sdkApplicationIds.isEmpty() && !this.sdkApplicationIds.contains(header.getApplicationId())) {
+            return false;
+        }
+        final TimestampVerifier timestampVerifier = this.sdkTimestampVerifier;
+        return timestampVerifier == null || header.getTimestamp() != RequestEnvelopeHeader.UNKNOWN_TIMESTAMP
+                && timestampVerifier.isValid(new Date(header.getTimestamp()));
+    }
+
+    /**
+     * Read the supported application ids the way {@link ServletSpeechletRequestHandler} does.
+     */
+    private static Set<String> sdkApplicationIds() {
+        final String ids = System.getProperty(Sdk.SUPPORTED_APPLICATION_IDS_SYSTEM_PROPERTY);
+        return ids == null || ids.trim().isEmpty()
+                ? Collections.<String>emptySet()
+                : new HashSet<>(Arrays.asList(ids.split(",")));
+    }
+
+    /**
+     * Create the timestamp verifier the way {@link ServletSpeechletRequestHandler} does.
+     */
+    private static TimestampVerifier sdkTimestampVerifier() {
+        final String tolerance = System.getProperty(Sdk.TIMESTAMP_TOLERANCE_SYSTEM_PROPERTY);
+        if (tolerance == null || tolerance.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return new TimestampVerifier(Long.parseLong(tolerance), TimeUnit.SECONDS);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Wait for the response of the first request with the same id.
+     */
+    private byte[] awaitResponse(final CompletableFuture<byte[]> first)
+            throws IOException, SpeechletRequestHandlerException, SpeechletException {
+        try {
+            return first.get(ALEXA_RESPONSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SpeechletException("Interrupted while waiting for the first request with the same id", ex);
+        } catch (TimeoutException ex) {
+            throw new SpeechletException("The first request with the same id didn't finish in time", ex);
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof SpeechletRequestHandlerException) {
+                throw (SpeechletRequestHandlerException) cause;
+            } else if (cause instanceof SpeechletException) {
+                throw (SpeechletException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SpeechletException(cause);
+        }
+    }
+
+    /**
+     * Scan the fields of the envelope needed for routing and early rejection.
+     * @param speechletRequest serialized speechlet request
+     * @return the envelope header
+     * @throws SpeechletRequestHandlerException if the envelope isn't a JSON object
+     */
+    protected final RequestEnvelopeHeader parseEnvelopeHeader(final byte[] speechletRequest)
+            throws SpeechletRequestHandlerException {
+        try {
+            return RequestEnvelopeHeader.parse(speechletRequest);
+        } catch (IOException ex) {
+            throw new SpeechletRequestHandlerException("Unable to read the request envelope", ex);
+        }
+    }
+
+    /**
+     * Reject requests whose timestamp differs from now by more than the tolerance.
+     * @param header the envelope header
+     * @throws SpeechletRequestHandlerException if the request is outside the tolerance
+     */
+    protected void checkTimestamp(final RequestEnvelopeHeader header) throws SpeechletRequestHandlerException {
+        final long timestamp = header.getTimestamp();
+        if (this.timestampToleranceMillis <= 0 || timestamp == RequestEnvelopeHeader.UNKNOWN_TIMESTAMP) {
             return;
         }
+        if (Math.abs(System.currentTimeMillis() - timestamp) > this.timestampToleranceMillis) {
+            throw new SpeechletRequestHandlerException("Request timestamp is outside the tolerance of "
+                    + this.timestampToleranceMillis + " ms");
+        }
+    }
 
+    /**
+     * Map the exception thrown during POST request processing to the HTTP status code.
+     * @param ex the exception
+     * @return HTTP status code
+     */
+    protected int getErrorStatus(final Exception ex) {
+        if (ex instanceof SpeechletRequestHandlerException || ex instanceof SecurityException) {
+            return HttpServletResponse.SC_BAD_REQUEST;
+        } else if (ex instanceof RequestBodyTooLargeException) {
+            return HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+        }
+        return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    private RequestTimer startTimer() {
+        final SpeechletMetrics metrics = this.metrics;
+        return metrics == null ? RequestTimer.NOOP : metrics.startRequest();
+    }
+
+    /**
+     * Read the speechlet request body, presized and bounded when pooled buffers are enabled.
+     * @param servletRequest Servlet request
+     * @return serialized speechlet request
+     * @throws IOException if the body can't be read or exceeds the maximum size
+     */
+    protected byte[] readRequestBody(final ServletRequest servletRequest) throws IOException {
+        final RequestBodyReader reader = this.requestBodyReader;
+        if (reader == null) {
+            return IOUtils.toByteArray(servletRequest.getInputStream());
+        }
+        return reader.read(servletRequest.getInputStream(), servletRequest.getContentLength());
+    }
+
+    /**
+     * Write the serialized speechlet response.
+     * @param servletResponse HTTP Servlet response
+     * @param output serialized speechlet response
+     * @throws IOException if the response can't be written
+     */
+    static void writeResponse(final HttpServletResponse servletResponse, final byte[] output) throws IOException {
         servletResponse.setContentType("application/json");
         try (final OutputStream out = servletResponse.getOutputStream()) {
             servletResponse.setContentLength(output.length);
@@ -131,32 +895,294 @@ public class AlexaSlingSpeechletServlet extends SlingAllMethodsServlet {
      */
     protected final void checkRequestSignature(final byte[] speechletRequest,
                                                final SlingHttpServletRequest httpRequest) {
-        SpeechletRequestSignatureVerifier.checkRequestSignature(speechletRequest,
+        checkRequestSignature(speechletRequest,
                 httpRequest.getHeader(Sdk.SIGNATURE_REQUEST_HEADER),
                 httpRequest.getHeader(Sdk.SIGNATURE_CERTIFICATE_CHAIN_URL_REQUEST_HEADER));
     }
 
+    /**
+     * Check the signature and certificate provided in the request headers.
+     * @param speechletRequest serialized speechlet request
+     * @param signature signature header value
+     * @param certificateChainUrl certificate chain URL header value
+     */
+    protected final void checkRequestSignature(final byte[] speechletRequest, final String signature,
+                                               final String certificateChainUrl) {
+        if (this.certificateCacheEnabled) {
+            this.certificateChainCache.checkRequestSignature(speechletRequest, signature, certificateChainUrl);
+        } else {
+            SpeechletRequestSignatureVerifier.checkRequestSignature(speechletRequest, signature, certificateChainUrl);
+        }
+    }
+
+    /**
+     * Create the cache of signing certificate chains used when {@link #certificateCacheEnabled} is set.
+     * @return new certificate chain cache
+     */
+    protected SigningCertificateChainCache newCertificateChainCache() {
+        return new SigningCertificateChainCache();
+    }
+
     protected byte[] handleSpeechletCall(final byte[] speechletRequest)
             throws SpeechletRequestHandlerException, SpeechletException, IOException {
-        return this.requestHandler.handleSpeechletCall(getSpeechlet(), speechletRequest);
+        return handleSpeechletCall(getSpeechlet(parseEnvelopeHeader(speechletRequest)), speechletRequest);
+    }
+
+    protected byte[] handleSpeechletCall(final SpeechletV2 speechlet, final byte[] speechletRequest)
+            throws SpeechletRequestHandlerException, SpeechletException, IOException {
+        return this.requestHandler.handleSpeechletCall(speechlet, speechletRequest);
+    }
+
+    /**
+     * Choose the speechlet for the request. The custom speechlet takes precedence, otherwise the
+     * sling speechlet is chosen by the application id of the envelope.
+     * @param header the envelope header
+     * @return the speechlet
+     * @throws SpeechletRequestHandlerException if no speechlet serves the application
+     */
+    protected final SpeechletV2 getSpeechlet(final RequestEnvelopeHeader header)
+            throws SpeechletRequestHandlerException {
+        final SpeechletV2 custom = this.customSpeechlet;
+        if (custom != null) {
+            return custom;
+        }
+        final AlexaSlingSpeechlet speechlet = this.skillDispatchTable.lookup(header.getApplicationId());
+        if (speechlet == null) {
+            throw new SpeechletRequestHandlerException("No speechlet serves application " + header.getApplicationId());
+        }
+        return speechlet;
     }
 
+    /**
+     * Choose the speechlet without looking at the request.
+     * @return the custom speechlet or the sling speechlet serving unclaimed application ids
+     * @deprecated use {@link #getSpeechlet(RequestEnvelopeHeader)}, which chooses the speechlet of the skill
+     */
+    @Deprecated
     protected final SpeechletV2 getSpeechlet() {
-        return this.customSpeechlet == null ? this.slingSpeechlet : this.customSpeechlet;
+        final SpeechletV2 custom = this.customSpeechlet;
+        return custom == null ? this.skillDispatchTable.getDefaultSpeechlet() : custom;
+    }
+
+    protected void bindSlingSpeechlet(final AlexaSlingSpeechlet speechlet) {
+        synchronized (this.slingSpeechlets) {
+            this.slingSpeechlets.add(speechlet);
+            updateSkillDispatchTable();
+        }
+        speechlet.addHandlerListener(this.handlersChanged);
+        startWarmup();
+    }
+
+    protected void unbindSlingSpeechlet(final AlexaSlingSpeechlet speechlet) {
+        speechlet.removeHandlerListener(this.handlersChanged);
+        synchronized (this.slingSpeechlets) {
+            this.slingSpeechlets.remove(speechlet);
+            updateSkillDispatchTable();
+        }
+        startWarmup();
+    }
+
+    protected void bindCustomSpeechlet(final SpeechletV2 speechlet) {
+        this.customSpeechlet = speechlet;
+        startWarmup();
+    }
+
+    protected void unbindCustomSpeechlet(final SpeechletV2 speechlet) {
+        if (this.customSpeechlet == speechlet) {
+            this.customSpeechlet = null;
+            startWarmup();
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void updateSkillDispatchTable() {
+        final SkillDispatchTable table = SkillDispatchTable.build(this.slingSpeechlets);
+        this.skillDispatchTable = table;
+        this.slingSpeechlet = table.getDefaultSpeechlet();
     }
 
     @Override
     protected void doGet(final SlingHttpServletRequest servletRequest, final SlingHttpServletResponse servletResponse)
             throws IOException {
         log.warn("This is HTTP GET diagnostic mehtod. To run Alexa Skill logic use HTTP POST.");
+        if (!isReady()) {
+            servletResponse.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        }
+        if ("json".equals(servletRequest.getRequestPathInfo().getExtension())) {
+            servletResponse.setContentType("application/json");
+            servletResponse.setCharacterEncoding("UTF-8");
+            try (final PrintWriter writer = servletResponse.getWriter()) {
+                writeJsonDiagnostic(writer);
+            }
+            return;
+        }
         try ( final PrintWriter writer = servletResponse.getWriter()) {
             writer.write(getClass() + " is running\n");
+            writer.write("ready: " + isReady() + '\n');
+            if (warmup != null) {
+                writer.write("warmup: " + warmup + '\n');
+            }
             writer.write("customSpeechlet: " + customSpeechlet + '\n');
-            writer.write("slingSpeechlet: " + slingSpeechlet + '\n');
-            if (slingSpeechlet != null) {
-                writer.write("slingSpeechlet has " + slingSpeechlet.handlers.size() + " handlers\n");
+            for (final AlexaSlingSpeechlet slingSpeechlet : skillDispatchTable.getSpeechlets()) {
+                final IntentRoutingTable routingTable = slingSpeechlet.getRoutingTable();
+                writer.write("slingSpeechlet: " + slingSpeechlet + " skill " + slingSpeechlet.getSkill()
+                        + ", applicationIds " + Arrays.toString(slingSpeechlet.getApplicationIds())
+                        + ", " + routingTable.getHandlerCount() + " handlers, "
+                        + routingTable.getDeclaredIntentCount() + " declared intents\n");
+                final ResponseCache responseCache = slingSpeechlet.getResponseCache();
+                if (responseCache != null) {
+                    writer.write("responseCache: " + responseCache.size() + " entries, "
+                            + responseCache.getHitCount() + " hits, " + responseCache.getMissCount() + " misses\n");
+                }
+                final ConcurrencyLimiter limiter = slingSpeechlet.getConcurrencyLimiter();
+                if (limiter != null) {
+                    final AdaptiveConcurrencyLimit global = limiter.getGlobalLimit();
+                    writer.write("concurrencyLimit: " + global.getLimit() + " limit, " + global.getInFlight()
+                            + " in flight, " + limiter.getRejectedCount() + " rejected\n");
+                    for (final Map.Entry<String, AdaptiveConcurrencyLimit> intent
+                            : limiter.getIntentLimits().entrySet()) {
+                        writer.write("  " + intent.getKey() + ": " + intent.getValue().getLimit() + " limit, "
+                                + intent.getValue().getInFlight() + " in flight, "
+                                + intent.getValue().getRejectedCount() + " rejected\n");
+                    }
+                }
             }
             writer.write("disableRequestSignatureCheck: " + disableRequestSignatureCheck + '\n');
+            writer.write("certificateCacheEnabled: " + certificateCacheEnabled + '\n');
+            writer.write("pooledBuffersEnabled: " + (requestBodyReader != null) + '\n');
+            writer.write("asyncEnabled: " + (asyncExecutor != null) + '\n');
+            if (asyncExecutor != null) {
+                writer.write("deadlineMillis: " + deadlineMillis + '\n');
+            }
+            writer.write("timestampToleranceMillis: " + timestampToleranceMillis + '\n');
+            final TrafficCapture capture = trafficCapture;
+            if (capture != null) {
+                writer.write("trafficCapture: " + capture.getFile() + ", " + capture.getCapturedCount()
+                        + " captured, " + capture.getDroppedCount() + " dropped\n");
+            }
+            final RequestDeduplicationCache deduplicationCache = requestDeduplicationCache;
+            if (deduplicationCache != null) {
+                writer.write("requestDeduplicationCache: " + deduplicationCache.size() + " request ids, "
+                        + deduplicationCache.getDuplicateCount() + " duplicates\n");
+            }
+            if (certificateCacheEnabled && certificateChainCache != null) {
+                writer.write("certificateChainCache: " + certificateChainCache.size() + " chains, "
+                        + certificateChainCache.getHitCount() + " hits, "
+                        + certificateChainCache.getMissCount() + " misses\n");
+            }
+            final SpeechletMetrics speechletMetrics = metrics;
+            if (speechletMetrics != null) {
+                writer.write("metrics: " + speechletMetrics.getRequestCount() + " requests, "
+                        + speechletMetrics.getErrorCount() + " errors, "
+                        + speechletMetrics.getP99LatencyMicros() + " us p99 latency"
+                        + " (use the .json extension for details)\n");
+            }
+        }
+    }
+
+    /**
+     * The warm-up runs again whenever speechlets or their handlers are bound or unbound,
+     * so this answers <code>false</code> until handlers bound after activation are warmed up.
+     *
+     * @return <code>false</code> while the warm-up runs or when handlers changed since it ran
+     */
+    public boolean isReady() {
+        final SpeechletWarmup speechletWarmup = this.warmup;
+        return speechletWarmup == null || speechletWarmup.isReady();
+    }
+
+    /**
+     * Run the warm-up in the background if it is enabled. Called on activation and when handlers change.
+     */
+    private void startWarmup() {
+        final SpeechletWarmup speechletWarmup = this.warmup;
+        if (speechletWarmup != null && speechletWarmup.start()) {
+            final Thread thread = this.warmupThreadFactory.newThread(speechletWarmup);
+            this.warmupThread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Write the GET diagnostic as JSON, including the metrics when the metrics service is available.
+     * @param writer response writer
+     * @throws IOException if writing fails
+     */
+    protected void writeJsonDiagnostic(final Writer writer) throws IOException {
+        final JsonGenerator json = JSON_FACTORY.createGenerator(writer);
+        json.writeStartObject();
+        json.writeStringField("servlet", getClass().getName());
+        json.writeBooleanField("ready", isReady());
+        final SpeechletWarmup speechletWarmup = warmup;
+        if (speechletWarmup != null) {
+            json.writeFieldName("warmup");
+            speechletWarmup.writeStatus(json);
+        }
+        json.writeStringField("customSpeechlet", String.valueOf(customSpeechlet));
+        json.writeArrayFieldStart("slingSpeechlets");
+        for (final AlexaSlingSpeechlet slingSpeechlet : skillDispatchTable.getSpeechlets()) {
+            json.writeStartObject();
+            json.writeStringField("speechlet", String.valueOf(slingSpeechlet));
+            json.writeStringField("skill", slingSpeechlet.getSkill());
+            json.writeArrayFieldStart("applicationIds");
+            for (final String applicationId : slingSpeechlet.getApplicationIds()) {
+                json.writeString(applicationId);
+            }
+            json.writeEndArray();
+            final IntentRoutingTable routingTable = slingSpeechlet.getRoutingTable();
+            json.writeNumberField("handlers", routingTable.getHandlerCount());
+            json.writeNumberField("declaredIntents", routingTable.getDeclaredIntentCount());
+            final ResponseCache responseCache = slingSpeechlet.getResponseCache();
+            if (responseCache != null) {
+                json.writeObjectFieldStart("responseCache");
+                json.writeNumberField("size", responseCache.size());
+                json.writeNumberField("hits", responseCache.getHitCount());
+                json.writeNumberField("misses", responseCache.getMissCount());
+                json.writeEndObject();
+            }
+            final ConcurrencyLimiter limiter = slingSpeechlet.getConcurrencyLimiter();
+            if (limiter != null) {
+                json.writeFieldName("concurrencyLimits");
+                limiter.writeJson(json);
+            }
+            json.writeEndObject();
+        }
+        json.writeEndArray();
+        json.writeBooleanField("disableRequestSignatureCheck", disableRequestSignatureCheck);
+        json.writeBooleanField("pooledBuffersEnabled", requestBodyReader != null);
+        json.writeBooleanField("asyncEnabled", asyncExecutor != null);
+        if (asyncExecutor != null) {
+            json.writeNumberField("deadlineMillis", deadlineMillis);
+        }
+        json.writeNumberField("timestampToleranceMillis", timestampToleranceMillis);
+        final TrafficCapture capture = trafficCapture;
+        if (capture != null) {
+            json.writeObjectFieldStart("trafficCapture");
+            json.writeStringField("file", capture.getFile().toString());
+            json.writeNumberField("captured", capture.getCapturedCount());
+            json.writeNumberField("dropped", capture.getDroppedCount());
+            json.writeEndObject();
+        }
+        final RequestDeduplicationCache deduplicationCache = requestDeduplicationCache;
+        if (deduplicationCache != null) {
+            json.writeObjectFieldStart("requestDeduplicationCache");
+            json.writeNumberField("size", deduplicationCache.size());
+            json.writeNumberField("duplicates", deduplicationCache.getDuplicateCount());
+            json.writeEndObject();
+        }
+        if (certificateCacheEnabled && certificateChainCache != null) {
+            json.writeObjectFieldStart("certificateChainCache");
+            json.writeNumberField("size", certificateChainCache.size());
+            json.writeNumberField("hits", certificateChainCache.getHitCount());
+            json.writeNumberField("misses", certificateChainCache.getMissCount());
+            json.writeEndObject();
+        }
+        final SpeechletMetrics speechletMetrics = metrics;
+        if (speechletMetrics != null) {
+            json.writeFieldName("metrics");
+            speechletMetrics.writeJson(json);
         }
+        json.writeEndObject();
+        json.flush();
     }
 }
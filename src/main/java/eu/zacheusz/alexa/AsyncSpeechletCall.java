@@ -0,0 +1,200 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import eu.zacheusz.alexa.metrics.RequestTimer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Speechlet call processed outside of the container thread.<br>
+ *
+ * The call is answered exactly once: either with the speechlet output, an error
+ * or the fallback response when the deadline passes first. The call carries the timer
+ * of the request, which is finished by whichever thread answers it.
+ *
+ * @author zacheusz
+ */
+final class AsyncSpeechletCall implements AsyncListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncSpeechletCall.class);
+
+    private final AsyncContext asyncContext;
+
+    private final byte[] fallbackResponse;
+
+    private final RequestTimer timer;
+
+    private final AtomicBoolean answered = new AtomicBoolean();
+
+    private volatile Future<?> deadline;
+
+    private volatile Future<?> task;
+
+    private volatile Future<?> handlerCall;
+
+    private volatile Runnable fallbackListener;
+
+    AsyncSpeechletCall(final AsyncContext asyncContext, final byte[] fallbackResponse, final RequestTimer timer) {
+        this.asyncContext = asyncContext;
+        this.fallbackResponse = fallbackResponse;
+        this.timer = timer;
+        asyncContext.addListener(this);
+    }
+
+    RequestTimer getTimer() {
+        return this.timer;
+    }
+
+    void setDeadline(final Future<?> deadline) {
+        this.deadline = deadline;
+    }
+
+    void setTask(final Future<?> task) {
+        this.task = task;
+    }
+
+    /**
+     * @param handlerCall asynchronous handler call which outlives the task, cancelled with it
+     */
+    void setHandlerCall(final Future<?> handlerCall) {
+        this.handlerCall = handlerCall;
+        if (this.answered.get()) {
+            handlerCall.cancel(true);
+        }
+    }
+
+    /**
+     * @param listener run when the call is answered with the fallback response
+     */
+    void onFallback(final Runnable listener) {
+        this.fallbackListener = listener;
+    }
+
+    /**
+     * Answer with the speechlet output.
+     * @param output serialized speechlet response
+     */
+    void respond(final byte[] output) {
+        if (this.answered.compareAndSet(false, true)) {
+            cancelDeadline();
+            try {
+                AlexaSlingSpeechletServlet.writeResponse(response(), output);
+            } catch (IOException ex) {
+                LOG.warn("Unable to write speechlet response", ex);
+            } finally {
+                this.timer.finish(HttpServletResponse.SC_OK);
+                this.asyncContext.complete();
+            }
+        }
+    }
+
+    /**
+     * Answer with the HTTP error.
+     * @param status HTTP status code
+     * @param ex the cause
+     */
+    void fail(final int status, final Exception ex) {
+        if (this.answered.compareAndSet(false, true)) {
+            cancelDeadline();
+            try {
+                response().sendError(status, ex.getMessage());
+            } catch (IOException ioe) {
+                LOG.warn("Unable to send error {}", status, ioe);
+            } finally {
+                this.timer.finish(status);
+                this.asyncContext.complete();
+            }
+        }
+    }
+
+    /**
+     * Answer with the fallback response and interrupt the speechlet call if it still runs.
+     */
+    void fallback() {
+        if (this.answered.compareAndSet(false, true)) {
+            LOG.warn("Speechlet call exceeded its deadline. Returning fallback response.");
+            final Future<?> running = this.task;
+            if (running != null) {
+                running.cancel(true);
+            }
+            final Future<?> handler = this.handlerCall;
+            if (handler != null) {
+                handler.cancel(true);
+            }
+            final Runnable listener = this.fallbackListener;
+            if (listener != null) {
+                listener.run();
+            }
+            try {
+                AlexaSlingSpeechletServlet.writeResponse(response(), this.fallbackResponse);
+            } catch (IOException ex) {
+                LOG.warn("Unable to write fallback response", ex);
+            } finally {
+                this.timer.finish(HttpServletResponse.SC_OK);
+                this.asyncContext.complete();
+            }
+        }
+    }
+
+    private void cancelDeadline() {
+        final Future<?> scheduled = this.deadline;
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+    }
+
+    private HttpServletResponse response() {
+        return (HttpServletResponse) this.asyncContext.getResponse();
+    }
+
+    @Override
+    public void onTimeout(final AsyncEvent event) {
+        fallback();
+    }
+
+    @Override
+    public void onError(final AsyncEvent event) {
+        LOG.warn("Asynchronous speechlet call failed", event.getThrowable());
+        if (this.answered.compareAndSet(false, true)) {
+            this.timer.finish(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+        cancelDeadline();
+    }
+
+    @Override
+    public void onComplete(final AsyncEvent event) {
+        // nothing to clean up
+    }
+
+    @Override
+    public void onStartAsync(final AsyncEvent event) {
+        // not restarted
+    }
+}
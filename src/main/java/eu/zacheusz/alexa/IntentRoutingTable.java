@@ -0,0 +1,165 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import eu.zacheusz.alexa.handler.IntentHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable snapshot of the bound {@link IntentHandler}s used to route intent requests.<br>
+ *
+ * Handlers which declare their intents with the {@link IntentHandler#INTENTS_PROPERTY} service
+ * property are resolved with a single map lookup. The remaining handlers are probed with
+ * {@link IntentHandler#supportsIntent(String)} once per intent name and the result is remembered
+ * for the lifetime of the snapshot. A new snapshot is built whenever a handler is bound or unbound,
+ * so request threads never observe a table which is being modified.
+ *
+ * @author zacheusz
+ */
+public final class IntentRoutingTable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IntentRoutingTable.class);
+
+    /**
+     * Upper bound of remembered probe results, protects the table against unbounded intent names.
+     */
+    private static final int MAX_PROBED_INTENTS = 1024;
+
+    public static final IntentRoutingTable EMPTY = new IntentRoutingTable(
+            Collections.<String, IntentHandler>emptyMap(), Collections.<IntentHandler>emptyList(), 0);
+
+    private final Map<String, IntentHandler> declared;
+
+    private final List<IntentHandler> probed;
+
+    private final int handlerCount;
+
+    private final ConcurrentMap<String, Optional<IntentHandler>> probeResults = new ConcurrentHashMap<>();
+
+    private IntentRoutingTable(final Map<String, IntentHandler> declared, final List<IntentHandler> probed,
+                               final int handlerCount) {
+        this.declared = declared;
+        this.probed = probed;
+        this.handlerCount = handlerCount;
+    }
+
+    /**
+     * Build a routing table from the bound handlers.
+     *
+     * @param handlers handlers in binding order mapped to their declared intent names
+     *                 or <code>null</code> if the handler doesn't declare them
+     * @return the routing table
+     */
+    public static IntentRoutingTable build(final Map<IntentHandler, String[]> handlers) {
+        if (handlers.isEmpty()) {
+            return EMPTY;
+        }
+        final Map<String, IntentHandler> declared = new HashMap<>();
+        final List<IntentHandler> probed = new ArrayList<>();
+        for (final Map.Entry<IntentHandler, String[]> entry : handlers.entrySet()) {
+            final String[] intents = entry.getValue();
+            if (intents == null || intents.length == 0) {
+                probed.add(entry.getKey());
+                continue;
+            }
+            for (final String intent : intents) {
+                final IntentHandler previous = declared.putIfAbsent(intent, entry.getKey());
+                if (previous != null) {
+                    LOG.warn("Multiple handlers supports {} intent. Using {}.", intent, previous);
+                }
+            }
+        }
+        return new IntentRoutingTable(Collections.unmodifiableMap(declared),
+                Collections.unmodifiableList(probed), handlers.size());
+    }
+
+    /**
+     * Find the handler for the intent with the given name.
+     * Handlers declaring the intent take precedence over the probed ones.
+     *
+     * @param intentName the name of the intent
+     * @return the handler or <code>null</code> if no handler supports the intent
+     */
+    public IntentHandler lookup(final String intentName) {
+        if (intentName == null) {
+            return null;
+        }
+        final IntentHandler handler = this.declared.get(intentName);
+        if (handler != null || this.probed.isEmpty()) {
+            return handler;
+        }
+        final Optional<IntentHandler> known = this.probeResults.get(intentName);
+        if (known != null) {
+            return known.orElse(null);
+        }
+        final Optional<IntentHandler> found = probe(intentName);
+        if (this.probeResults.size() < MAX_PROBED_INTENTS) {
+            this.probeResults.putIfAbsent(intentName, found);
+        }
+        return found.orElse(null);
+    }
+
+    private Optional<IntentHandler> probe(final String intentName) {
+        IntentHandler found = null;
+        for (final IntentHandler candidate : this.probed) {
+            if (candidate.supportsIntent(intentName)) {
+                if (found != null) {
+                    LOG.warn("Multiple handlers supports {} intent.", intentName);
+                    break;
+                }
+                found = candidate;
+            }
+        }
+        return Optional.ofNullable(found);
+    }
+
+    /**
+     * @return number of handlers in this table
+     */
+    public int getHandlerCount() {
+        return this.handlerCount;
+    }
+
+    /**
+     * @return number of intents declared with the {@link IntentHandler#INTENTS_PROPERTY} service property
+     */
+    public int getDeclaredIntentCount() {
+        return this.declared.size();
+    }
+
+    /**
+     * @return names of the intents declared with the {@link IntentHandler#INTENTS_PROPERTY} service property
+     */
+    public Set<String> getDeclaredIntents() {
+        return Collections.unmodifiableSet(this.declared.keySet());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.LaunchRequest;
+import com.amazon.speech.speechlet.SessionEndedRequest;
+import com.amazon.speech.speechlet.SessionStartedRequest;
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.speechlet.SpeechletV2;
+import eu.zacheusz.alexa.metrics.RequestTimer;
+
+/**
+ * Speechlet handed to the SDK request handler for one request. It marks the speechlet callbacks
+ * on the timer of the request, so the handler phase is told apart from the SDK deserialization and
+ * serialization, and notes when the sling speechlet answers with its try again response instead
+ * of a handler.
+ *
+ * @author zacheusz
+ */
+final class ObservedSpeechlet implements SpeechletV2 {
+
+    private final SpeechletV2 speechlet;
+
+    private final RequestTimer timer;
+
+    private volatile boolean tryAgain;
+
+    ObservedSpeechlet(final SpeechletV2 speechlet, final RequestTimer timer) {
+        this.speechlet = speechlet;
+        this.timer = timer;
+    }
+
+    RequestTimer getTimer() {
+        return this.timer;
+    }
+
+    /**
+     * @return <code>true</code> if the intent was answered with the try again response of a concurrency
+     * limit or a handler timeout, which isn't an answer to remember
+     */
+    boolean isTryAgain() {
+        return this.tryAgain;
+    }
+
+    /**
+     * Note the response of an intent handled outside of {@link #onIntent}.
+     * @param response the intent response
+     */
+    void intentAnswered(final SpeechletResponse response) {
+        if (this.speechlet instanceof AlexaSlingSpeechlet
+                && ((AlexaSlingSpeechlet) this.speechlet).isTryAgainResponse(response)) {
+            this.tryAgain = true;
+        }
+    }
+
+    @Override
+    public void onSessionStarted(final SpeechletRequestEnvelope<SessionStartedRequest> requestEnvelope) {
+        this.timer.handlerStarted();
+        try {
+            this.speechlet.onSessionStarted(requestEnvelope);
+        } finally {
+            this.timer.handlerFinished();
+        }
+    }
+
+    @Override
+    public SpeechletResponse onLaunch(final SpeechletRequestEnvelope<LaunchRequest> requestEnvelope) {
+        this.timer.handlerStarted();
+        try {
+            return this.speechlet.onLaunch(requestEnvelope);
+        } finally {
+            this.timer.handlerFinished();
+        }
+    }
+
+    @Override
+    public SpeechletResponse onIntent(final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+        this.timer.handlerStarted();
+        try {
+            final SpeechletResponse response = this.speechlet.onIntent(requestEnvelope);
+            intentAnswered(response);
+            return response;
+        } finally {
+            this.timer.handlerFinished();
+        }
+    }
+
+    @Override
+    public void onSessionEnded(final SpeechletRequestEnvelope<SessionEndedRequest> requestEnvelope) {
+        this.timer.handlerStarted();
+        try {
+            this.speechlet.onSessionEnded(requestEnvelope);
+        } finally {
+            this.timer.handlerFinished();
+        }
+    }
+}
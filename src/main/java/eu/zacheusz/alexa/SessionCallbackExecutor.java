@@ -0,0 +1,195 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.SessionEndedRequest;
+import eu.zacheusz.alexa.handler.BatchSessionEndedHandler;
+import eu.zacheusz.alexa.handler.SessionEndedHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounded background executor of session ended callbacks.<br>
+ *
+ * Session started callbacks aren't run here, the attributes they set are part of the response.
+ * When the queue is full or the executor has been drained the callback runs on the request thread,
+ * which slows the producers down instead of dropping callbacks. Ended sessions for a
+ * {@link BatchSessionEndedHandler} are collected and passed in batches, when the batch is full or the
+ * batch interval passes. {@link #drain(long)} runs everything still queued.
+ *
+ * @author zacheusz
+ */
+final class SessionCallbackExecutor {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionCallbackExecutor.class);
+
+    private final ThreadPoolExecutor executor;
+
+    private final ScheduledExecutorService batchTimer;
+
+    private final Supplier<SessionEndedHandler> sessionEndedHandler;
+
+    private final int batchSize;
+
+    private final int maxPending;
+
+    private List<SpeechletRequestEnvelope<SessionEndedRequest>> pending = new ArrayList<>();
+
+    private boolean drained;
+
+    /**
+     * @param threads callback threads
+     * @param queueSize maximum number of queued callbacks and of collected ended sessions
+     * @param batchSize maximum number of ended sessions passed at once
+     * @param batchMillis maximum time an ended session waits for its batch
+     * @param sessionEndedHandler current session ended handler of the speechlet
+     */
+    SessionCallbackExecutor(final int threads, final int queueSize, final int batchSize, final long batchMillis,
+                            final Supplier<SessionEndedHandler> sessionEndedHandler) {
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    final Thread thread = new Thread(runnable, "alexa-session-callback-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, (callback, pool) -> callback.run());
+        this.batchTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "alexa-session-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.batchTimer.scheduleWithFixedDelay(this::submitBatch, batchMillis, batchMillis, TimeUnit.MILLISECONDS);
+        this.sessionEndedHandler = sessionEndedHandler;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxPending = Math.max(this.batchSize, queueSize);
+    }
+
+    /**
+     * Run the callback in the background or, when the queue is full or after {@link #drain(long)},
+     * on the calling thread. Unlike {@link ThreadPoolExecutor.CallerRunsPolicy} it doesn't discard
+     * callbacks after the shutdown, callers may still hold the executor while it's drained.
+     */
+    void execute(final Runnable callback) {
+        this.executor.execute(() -> {
+            try {
+                callback.run();
+            } catch (RuntimeException ex) {
+                LOG.error("Session callback failed", ex);
+            }
+        });
+    }
+
+    /**
+     * Collect the ended session for the next batch.
+     */
+    void sessionEnded(final SpeechletRequestEnvelope<SessionEndedRequest> requestEnvelope) {
+        final int size;
+        final boolean afterDrain;
+        synchronized (this) {
+            this.pending.add(requestEnvelope);
+            size = this.pending.size();
+            afterDrain = this.drained;
+        }
+        if (afterDrain) {
+            // the batch timer is gone, nothing would pick the session up
+            handleBatch(takeBatch());
+        } else if (size >= this.maxPending) {
+            LOG.warn("{} ended sessions are waiting, handling them on the request thread", size);
+            handleBatch(takeBatch());
+        } else if (size == this.batchSize) {
+            submitBatch();
+        }
+    }
+
+    private synchronized List<SpeechletRequestEnvelope<SessionEndedRequest>> takeBatch() {
+        final List<SpeechletRequestEnvelope<SessionEndedRequest>> batch = this.pending;
+        this.pending = new ArrayList<>();
+        return batch;
+    }
+
+    private void submitBatch() {
+        final List<SpeechletRequestEnvelope<SessionEndedRequest>> batch = takeBatch();
+        if (!batch.isEmpty()) {
+            execute(() -> handleBatch(batch));
+        }
+    }
+
+    private void handleBatch(final List<SpeechletRequestEnvelope<SessionEndedRequest>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final SessionEndedHandler handler = this.sessionEndedHandler.get();
+        if (handler instanceof BatchSessionEndedHandler) {
+            ((BatchSessionEndedHandler) handler).handleSessionsEnded(batch);
+        } else if (handler != null) {
+            for (final SpeechletRequestEnvelope<SessionEndedRequest> requestEnvelope : batch) {
+                handler.handleSessionEnded(requestEnvelope);
+            }
+        } else {
+            LOG.info("no sessionEndedHandler for {} ended sessions", batch.size());
+        }
+    }
+
+    /**
+     * Stop accepting callbacks and run the queued ones.
+     *
+     * @param timeoutMillis maximum time to wait for the queued callbacks
+     */
+    void drain(final long timeoutMillis) {
+        this.batchTimer.shutdown();
+        final List<SpeechletRequestEnvelope<SessionEndedRequest>> batch;
+        synchronized (this) {
+            this.drained = true;
+            batch = takeBatch();
+        }
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                LOG.warn("{} session callbacks didn't finish in {} ms", this.executor.getQueue().size(), timeoutMillis);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            handleBatch(batch);
+        } catch (RuntimeException ex) {
+            LOG.error("Session callback failed", ex);
+        }
+    }
+
+    /**
+     * @return number of queued callbacks
+     */
+    int getQueuedCount() {
+        return this.executor.getQueue().size();
+    }
+}
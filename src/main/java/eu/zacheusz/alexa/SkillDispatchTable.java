@@ -0,0 +1,120 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the bound {@link AlexaSlingSpeechlet} configurations used to dispatch requests
+ * by the application id of the envelope.<br>
+ *
+ * Each application id is resolved with a single map lookup. The first speechlet without application ids
+ * serves the requests of application ids not claimed by any other speechlet. A new snapshot is built
+ * whenever a speechlet is bound or unbound.
+ *
+ * @author zacheusz
+ */
+public final class SkillDispatchTable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SkillDispatchTable.class);
+
+    public static final SkillDispatchTable EMPTY = new SkillDispatchTable(
+            Collections.<String, AlexaSlingSpeechlet>emptyMap(), null, Collections.<AlexaSlingSpeechlet>emptyList());
+
+    private final Map<String, AlexaSlingSpeechlet> byApplicationId;
+
+    private final AlexaSlingSpeechlet defaultSpeechlet;
+
+    private final List<AlexaSlingSpeechlet> speechlets;
+
+    private SkillDispatchTable(final Map<String, AlexaSlingSpeechlet> byApplicationId,
+                               final AlexaSlingSpeechlet defaultSpeechlet, final List<AlexaSlingSpeechlet> speechlets) {
+        this.byApplicationId = byApplicationId;
+        this.defaultSpeechlet = defaultSpeechlet;
+        this.speechlets = speechlets;
+    }
+
+    /**
+     * Build a dispatch table from the bound speechlets.
+     *
+     * @param speechlets speechlets in binding order
+     * @return the dispatch table
+     */
+    public static SkillDispatchTable build(final Collection<AlexaSlingSpeechlet> speechlets) {
+        if (speechlets.isEmpty()) {
+            return EMPTY;
+        }
+        final Map<String, AlexaSlingSpeechlet> byApplicationId = new HashMap<>();
+        AlexaSlingSpeechlet defaultSpeechlet = null;
+        for (final AlexaSlingSpeechlet speechlet : speechlets) {
+            final String[] applicationIds = speechlet.getApplicationIds();
+            if (applicationIds.length == 0) {
+                if (defaultSpeechlet == null) {
+                    defaultSpeechlet = speechlet;
+                } else {
+                    LOG.warn("Multiple speechlets without application ids. Using {}.", defaultSpeechlet);
+                }
+                continue;
+            }
+            for (final String applicationId : applicationIds) {
+                final AlexaSlingSpeechlet previous = byApplicationId.putIfAbsent(applicationId, speechlet);
+                if (previous != null) {
+                    LOG.warn("Multiple speechlets serve application {}. Using {}.", applicationId, previous);
+                }
+            }
+        }
+        return new SkillDispatchTable(Collections.unmodifiableMap(byApplicationId), defaultSpeechlet,
+                Collections.unmodifiableList(new ArrayList<>(speechlets)));
+    }
+
+    /**
+     * Find the speechlet serving the application.
+     *
+     * @param applicationId application id of the request envelope, may be <code>null</code>
+     * @return the speechlet or <code>null</code> if no speechlet serves the application
+     */
+    public AlexaSlingSpeechlet lookup(final String applicationId) {
+        final AlexaSlingSpeechlet speechlet = applicationId == null ? null : this.byApplicationId.get(applicationId);
+        return speechlet == null ? this.defaultSpeechlet : speechlet;
+    }
+
+    /**
+     * @return speechlet serving unclaimed application ids or <code>null</code> if there is none
+     */
+    public AlexaSlingSpeechlet getDefaultSpeechlet() {
+        return this.defaultSpeechlet;
+    }
+
+    /**
+     * @return all speechlets in binding order
+     */
+    public List<AlexaSlingSpeechlet> getSpeechlets() {
+        return this.speechlets;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import eu.zacheusz.alexa.handler.SkillConstants;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.framework.Constants;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Handlers of one type bound to a speechlet, together with their service properties.<br>
+ *
+ * A handler with the skills service property, e.g. {@link SkillConstants#SKILLS_PROPERTY},
+ * serves only the listed skills. A handler without it serves every skill. Handlers are ordered by
+ * their <code>service.ranking</code>, highest first, then by their <code>service.id</code>, the way
+ * OSGi picks the service of a unary reference.
+ *
+ * @param <T> handler type
+ * @author zacheusz
+ */
+final class SkillScopedHandlers<T> {
+
+    private static final Comparator<Map<String, Object>> RANKING_ORDER = Comparator
+            .comparingInt((Map<String, Object> properties) ->
+                    -PropertiesUtil.toInteger(properties.get(Constants.SERVICE_RANKING), 0))
+            .thenComparingLong(properties -> PropertiesUtil.toLong(properties.get(Constants.SERVICE_ID), Long.MAX_VALUE));
+
+    private final Map<T, Map<String, Object>> bound = new LinkedHashMap<>();
+
+    synchronized void bind(final T handler, final Map<String, Object> properties) {
+        this.bound.put(handler, properties == null ? new LinkedHashMap<>() : properties);
+    }
+
+    synchronized void unbind(final T handler) {
+        this.bound.remove(handler);
+    }
+
+    /**
+     * @param skill skill name or <code>null</code> to select all handlers
+     * @return handlers serving the skill in ranking order, mapped to their service properties
+     */
+    synchronized Map<T, Map<String, Object>> select(final String skill) {
+        final List<Map.Entry<T, Map<String, Object>>> serving = new ArrayList<>();
+        for (final Map.Entry<T, Map<String, Object>> entry : this.bound.entrySet()) {
+            if (serves(entry.getValue(), skill)) {
+                serving.add(entry);
+            }
+        }
+        // stable, handlers of equal ranking without a service id keep their binding order
+        serving.sort(Map.Entry.comparingByValue(RANKING_ORDER));
+        final Map<T, Map<String, Object>> selected = new LinkedHashMap<>();
+        for (final Map.Entry<T, Map<String, Object>> entry : serving) {
+            selected.put(entry.getKey(), entry.getValue());
+        }
+        return selected;
+    }
+
+    /**
+     * @param skill skill name or <code>null</code> to select all handlers
+     * @return the highest ranked handler serving the skill or <code>null</code> if there is none
+     */
+    synchronized T first(final String skill) {
+        Map.Entry<T, Map<String, Object>> first = null;
+        for (final Map.Entry<T, Map<String, Object>> entry : this.bound.entrySet()) {
+            if (serves(entry.getValue(), skill)
+                    && (first == null || RANKING_ORDER.compare(entry.getValue(), first.getValue()) < 0)) {
+                first = entry;
+            }
+        }
+        return first == null ? null : first.getKey();
+    }
+
+    /**
+     * @param handler bound handler
+     * @return <code>false</code> if the handler opted out of the warm-up with {@link SkillConstants#WARMUP_PROPERTY}
+     */
+    synchronized boolean isWarmedUp(final T handler) {
+        final Map<String, Object> properties = this.bound.get(handler);
+        return properties == null || PropertiesUtil.toBoolean(properties.get(SkillConstants.WARMUP_PROPERTY), true);
+    }
+
+    private boolean serves(final Map<String, Object> properties, final String skill) {
+        if (skill == null) {
+            return true;
+        }
+        final String[] skills = PropertiesUtil.toStringArray(properties.get(SkillConstants.SKILLS_PROPERTY));
+        return skills == null || skills.length == 0 || Arrays.asList(skills).contains(skill);
+    }
+}
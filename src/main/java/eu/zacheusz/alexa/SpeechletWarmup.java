@@ -0,0 +1,327 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.speechlet.SpeechletV2;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Warm-up of the speechlet servlet with synthetic request envelopes.<br>
+ *
+ * A launch request, a request for each warmed-up intent and a session ended request are passed
+ * through {@link AlexaSlingSpeechletServlet#handleSpeechletCall(SpeechletV2, byte[])} of every skill,
+ * so the JIT, the SDK serializers and the handlers are warm before real traffic arrives.
+ * Signature checking is bypassed, since the envelopes are created locally. Every pass serializes new
+ * envelopes, so their timestamps stay within the SDK tolerance during a long warm-up.<br>
+ *
+ * Warm-up calls are marked with {@link #isWarmupCall()}, so the speechlet keeps them out of the metrics,
+ * the concurrency limits, the response cache and the user and session services. Handlers which opted out
+ * with {@link eu.zacheusz.alexa.handler.SkillConstants#WARMUP_PROPERTY} aren't called. The warm-up remembers
+ * the handlers it warmed up and isn't ready again until the servlet has run it after handlers were bound
+ * or unbound.
+ *
+ * @author zacheusz
+ */
+final class SpeechletWarmup implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpeechletWarmup.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String WARMUP_APPLICATION_ID = "amzn1.ask.skill.warmup";
+
+    private static final ThreadLocal<Boolean> WARMUP_CALL = new ThreadLocal<>();
+
+    private final AlexaSlingSpeechletServlet servlet;
+
+    private final int iterations;
+
+    private final String[] intents;
+
+    private boolean running;
+
+    private boolean stopped;
+
+    private boolean rerun;
+
+    private volatile List<Object> warmedHandlers;
+
+    private volatile int runs;
+
+    private volatile int calls;
+
+    private volatile int failures;
+
+    private volatile long firstIterationMicros;
+
+    private volatile long lastIterationMicros;
+
+    private volatile long durationMillis;
+
+    /**
+     * @param servlet the warmed-up servlet
+     * @param iterations number of passes over the synthetic envelopes
+     * @param intents intent names to warm up, empty to warm up the declared intents of each skill
+     */
+    SpeechletWarmup(final AlexaSlingSpeechletServlet servlet, final int iterations, final String[] intents) {
+        this.servlet = servlet;
+        this.iterations = Math.max(1, iterations);
+        this.intents = intents;
+    }
+
+    /**
+     * Mark the warm-up as running unless it is stopped. A running warm-up runs once more when it finishes,
+     * since handlers may have changed after it took their snapshot.
+     *
+     * @return <code>true</code> if the caller has to run it
+     */
+    synchronized boolean start() {
+        if (this.stopped) {
+            return false;
+        }
+        if (this.running) {
+            this.rerun = true;
+            return false;
+        }
+        this.running = true;
+        return true;
+    }
+
+    /**
+     * Prevent further runs, e.g. when the servlet is deactivated.
+     */
+    synchronized void stop() {
+        this.stopped = true;
+    }
+
+    /**
+     * @return <code>true</code> if the warm-up has to run once more
+     */
+    private synchronized boolean finished() {
+        this.running = this.rerun && !this.stopped;
+        this.rerun = false;
+        return this.running;
+    }
+
+    private synchronized boolean isRunning() {
+        return this.running;
+    }
+
+    /**
+     * @return <code>true</code> if the calling thread is running the warm-up
+     */
+    static boolean isWarmupCall() {
+        return WARMUP_CALL.get() != null;
+    }
+
+    @Override
+    public void run() {
+        boolean again;
+        do {
+            try {
+                warmUp();
+            } finally {
+                again = finished();
+            }
+        } while (again);
+    }
+
+    private void warmUp() {
+        final long started = System.nanoTime();
+        final List<Object> handlers = boundHandlers();
+        WARMUP_CALL.set(Boolean.TRUE);
+        try {
+            final Map<SpeechletV2, String> applicationIds = new LinkedHashMap<>();
+            final SpeechletV2 custom = this.servlet.customSpeechlet;
+            if (custom != null) {
+                applicationIds.put(custom, WARMUP_APPLICATION_ID);
+            } else {
+                for (final AlexaSlingSpeechlet speechlet : this.servlet.skillDispatchTable.getSpeechlets()) {
+                    final String[] ids = speechlet.getApplicationIds();
+                    applicationIds.put(speechlet, ids.length == 0 ? WARMUP_APPLICATION_ID : ids[0]);
+                }
+            }
+            for (int i = 0; i < this.iterations && !Thread.currentThread().isInterrupted(); i++) {
+                final long iterationStarted = System.nanoTime();
+                for (final Map.Entry<SpeechletV2, String> entry : applicationIds.entrySet()) {
+                    for (final byte[] envelope : envelopes(entry.getKey(), entry.getValue())) {
+                        call(entry.getKey(), envelope);
+                    }
+                }
+                final long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - iterationStarted);
+                if (i == 0) {
+                    this.firstIterationMicros = micros;
+                }
+                this.lastIterationMicros = micros;
+            }
+        } catch (IOException | RuntimeException ex) {
+            LOG.warn("Warm-up failed", ex);
+        } finally {
+            WARMUP_CALL.remove();
+            this.durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            this.runs++;
+            this.warmedHandlers = handlers;
+            LOG.info("Warm-up finished in {} ms with {} calls, {} failures. First pass {} us, last pass {} us.",
+                    this.durationMillis, this.calls, this.failures, this.firstIterationMicros,
+                    this.lastIterationMicros);
+        }
+    }
+
+    private void call(final SpeechletV2 speechlet, final byte[] envelope) {
+        this.calls++;
+        try {
+            this.servlet.handleSpeechletCall(speechlet, envelope);
+        } catch (Exception ex) {
+            this.failures++;
+            LOG.debug("Warm-up call failed", ex);
+        }
+    }
+
+    /**
+     * Synthetic envelopes for the speechlet, leaving out the requests answered by handlers which opted out.
+     * A session started handler which opted out is left out by sending envelopes of a running session.
+     */
+    private List<byte[]> envelopes(final SpeechletV2 speechlet, final String applicationId) throws IOException {
+        final AlexaSlingSpeechlet sling = speechlet instanceof AlexaSlingSpeechlet
+                ? (AlexaSlingSpeechlet) speechlet : null;
+        final String[] intentNames = this.intents.length > 0 || sling == null ? this.intents
+                : sling.getRoutingTable().getDeclaredIntents().toArray(new String[0]);
+        final boolean newSession = sling == null || sling.isWarmedUp(sling.sessionStartedHandler);
+        final List<byte[]> envelopes = new ArrayList<>(intentNames.length + 2);
+        if (sling == null || sling.isWarmedUp(sling.launchHandler)) {
+            envelopes.add(envelope(applicationId, "LaunchRequest", null, newSession));
+        }
+        for (final String intent : intentNames) {
+            if (sling == null || sling.isWarmedUp(sling.getRoutingTable().lookup(intent))) {
+                envelopes.add(envelope(applicationId, "IntentRequest", intent, newSession));
+            }
+        }
+        if (sling == null || sling.isWarmedUp(sling.sessionEndedHandler)) {
+            envelopes.add(envelope(applicationId, "SessionEndedRequest", null, false));
+        }
+        return envelopes;
+    }
+
+    /**
+     * Snapshot of the speechlets and their selected handlers. The routing table is rebuilt whenever
+     * intent handlers are bound or unbound, so it stands for them.
+     */
+    private List<Object> boundHandlers() {
+        final SpeechletV2 custom = this.servlet.customSpeechlet;
+        if (custom != null) {
+            return Arrays.<Object>asList(custom);
+        }
+        final List<Object> handlers = new ArrayList<>();
+        for (final AlexaSlingSpeechlet speechlet : this.servlet.skillDispatchTable.getSpeechlets()) {
+            handlers.add(speechlet);
+            handlers.add(speechlet.getRoutingTable());
+            handlers.add(speechlet.launchHandler);
+            handlers.add(speechlet.sessionStartedHandler);
+            handlers.add(speechlet.sessionEndedHandler);
+        }
+        return handlers;
+    }
+
+    /**
+     * Serialize a synthetic request envelope.
+     */
+    static byte[] envelope(final String applicationId, final String requestType, final String intentName,
+            final boolean newSession) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+        try (final JsonGenerator json = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            json.writeStringField("version", Sdk.VERSION);
+            json.writeObjectFieldStart("session");
+            json.writeBooleanField("new", newSession);
+            json.writeStringField("sessionId", "amzn1.echo-api.session.warmup");
+            json.writeObjectFieldStart("application");
+            json.writeStringField("applicationId", applicationId);
+            json.writeEndObject();
+            json.writeObjectFieldStart("user");
+            json.writeStringField("userId", "amzn1.ask.account.warmup");
+            json.writeEndObject();
+            json.writeEndObject();
+            json.writeObjectFieldStart("request");
+            json.writeStringField("type", requestType);
+            json.writeStringField("requestId", "amzn1.echo-api.request.warmup-" + UUID.randomUUID());
+            // the SDK parses timestamps without fractions of a second
+            json.writeStringField("timestamp", Instant.now().truncatedTo(ChronoUnit.SECONDS).toString());
+            json.writeStringField("locale", "en-US");
+            if (intentName != null) {
+                json.writeObjectFieldStart("intent");
+                json.writeStringField("name", intentName);
+                json.writeObjectFieldStart("slots");
+                json.writeEndObject();
+                json.writeEndObject();
+            }
+            if ("SessionEndedRequest".equals(requestType)) {
+                json.writeStringField("reason", "USER_INITIATED");
+            }
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return <code>true</code> when the warm-up has run for the currently bound handlers
+     */
+    boolean isReady() {
+        final List<Object> warmed = this.warmedHandlers;
+        return warmed != null && !isRunning() && warmed.equals(boundHandlers());
+    }
+
+    void writeStatus(final JsonGenerator json) throws IOException {
+        json.writeStartObject();
+        json.writeBooleanField("ready", isReady());
+        json.writeNumberField("runs", this.runs);
+        json.writeNumberField("calls", this.calls);
+        json.writeNumberField("failures", this.failures);
+        json.writeNumberField("firstIterationMicros", this.firstIterationMicros);
+        json.writeNumberField("lastIterationMicros", this.lastIterationMicros);
+        json.writeNumberField("durationMillis", this.durationMillis);
+        json.writeEndObject();
+    }
+
+    @Override
+    public String toString() {
+        return (isReady() ? "ready" : "warming up") + ", " + this.runs + " runs, " + this.calls + " calls, "
+                + this.failures + " failures, first pass " + this.firstIterationMicros + " us, last pass "
+                + this.lastIterationMicros + " us, " + this.durationMillis + " ms";
+    }
+}
@@ -0,0 +1,415 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.authentication;
+
+import com.amazon.speech.Sdk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Verifies speechlet request signatures using signing certificate chains cached by their URL.<br>
+ *
+ * A chain is downloaded and validated once and reused until the first certificate in the chain expires.
+ * Concurrent requests for the same URL wait for a single download. The cache can be pre-warmed with
+ * {@link #prefetch(String...)}.<br>
+ *
+ * Chains are keyed by the normalized URL, so case and dot segment variants of one URL share an entry.
+ * When the cache is full the expired chains are dropped first and then the least recently used one.
+ *
+ * @author zacheusz
+ */
+public class SigningCertificateChainCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SigningCertificateChainCache.class);
+
+    private static final String VALID_SIGNING_CERT_CHAIN_PROTOCOL = "https";
+    private static final String VALID_SIGNING_CERT_CHAIN_URL_HOST_NAME = "s3.amazonaws.com";
+    private static final String VALID_SIGNING_CERT_CHAIN_URL_PATH_PREFIX = "/echo.api/";
+    private static final int VALID_SIGNING_CERT_CHAIN_URL_PORT = 443;
+    private static final int UNSPECIFIED_SIGNING_CERT_CHAIN_URL_PORT = -1;
+    private static final int SUBJECT_ALTERNATIVE_NAME_DNS = 2;
+
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+    public static final int DEFAULT_TIMEOUT_MILLIS = 5000;
+
+    private final ConcurrentMap<String, Entry> chains = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private final X509TrustManager trustManager;
+
+    private final boolean checkChainUrl;
+
+    private final int maxEntries;
+
+    private final int timeoutMillis;
+
+    /**
+     * Create the cache validating chains with the default JVM trust store and Amazon URL rules.
+     */
+    public SigningCertificateChainCache() {
+        this(defaultTrustManager(), true, DEFAULT_MAX_ENTRIES, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * @param trustManager trust manager validating downloaded chains
+     * @param checkChainUrl <code>false</code> disables the Amazon specific chain URL rules,
+     *                      e.g. to download the chain from a local server
+     * @param maxEntries maximum number of cached chains
+     * @param timeoutMillis connect and read timeout of the chain download
+     */
+    public SigningCertificateChainCache(final X509TrustManager trustManager, final boolean checkChainUrl,
+                                        final int maxEntries, final int timeoutMillis) {
+        this.trustManager = trustManager;
+        this.checkChainUrl = checkChainUrl;
+        this.maxEntries = maxEntries;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Check the signature of the speechlet request with the certificate from the given chain URL.
+     *
+     * @param serializedSpeechletRequest serialized speechlet request
+     * @param baseEncoded64Signature the signature header value
+     * @param signingCertificateChainUrl the certificate chain URL header value
+     * @throws SecurityException if the signature or the certificate chain is invalid
+     */
+    public void checkRequestSignature(final byte[] serializedSpeechletRequest, final String baseEncoded64Signature,
+                                      final String signingCertificateChainUrl) {
+        if (baseEncoded64Signature == null || signingCertificateChainUrl == null) {
+            throw new SecurityException("Missing signature/certificate for the provided speechlet request");
+        }
+        final X509Certificate signingCertificate = getSigningCertificate(signingCertificateChainUrl);
+        try {
+            final Signature signature = Signature.getInstance(Sdk.SIGNATURE_ALGORITHM);
+            signature.initVerify(signingCertificate.getPublicKey());
+            signature.update(serializedSpeechletRequest);
+            if (!signature.verify(Base64.getMimeDecoder().decode(baseEncoded64Signature))) {
+                throw new SecurityException("Failed to verify the signature/certificate for the provided speechlet request");
+            }
+        } catch (GeneralSecurityException | IllegalArgumentException ex) {
+            throw new SecurityException("Failed to verify the signature/certificate for the provided speechlet request", ex);
+        }
+    }
+
+    /**
+     * Get the validated signing certificate, downloading the chain if it isn't cached or has expired.
+     *
+     * @param signingCertificateChainUrl the certificate chain URL
+     * @return the signing certificate
+     * @throws SecurityException if the chain can't be downloaded or is invalid
+     */
+    public X509Certificate getSigningCertificate(final String signingCertificateChainUrl) {
+        return getSigningCertificate(signingCertificateChainUrl, System.currentTimeMillis());
+    }
+
+    X509Certificate getSigningCertificate(final String signingCertificateChainUrl, final long now) {
+        final String key = canonicalUrl(signingCertificateChainUrl);
+        Entry cached = this.chains.get(key);
+        if (cached != null && cached.isExpired(now)) {
+            this.chains.remove(key, cached);
+            cached = null;
+        }
+        if (cached == null) {
+            final Entry loading = new Entry();
+            if (this.chains.size() >= this.maxEntries) {
+                evict(now);
+            }
+            cached = this.chains.putIfAbsent(key, loading);
+            if (cached == null) {
+                this.misses.increment();
+                load(key, loading);
+                cached = loading;
+            } else {
+                this.hits.increment();
+            }
+        } else {
+            this.hits.increment();
+        }
+        cached.lastAccess = System.nanoTime();
+        try {
+            return cached.chain.get().getSigningCertificate(now);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SecurityException("Interrupted while retrieving certificate chain", ex);
+        } catch (ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            throw cause instanceof SecurityException
+                    ? (SecurityException) cause
+                    : new SecurityException("Unable to retrieve certificate chain", cause);
+        }
+    }
+
+    private void load(final String key, final Entry loading) {
+        try {
+            loading.chain.complete(new CachedChain(retrieveAndVerifyCertificateChain(key)));
+        } catch (RuntimeException ex) {
+            this.chains.remove(key, loading);
+            loading.chain.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Drop the expired chains and, if the cache is still full, the least recently used ones.
+     * Runs on misses only, the linear scan is bounded by the small maximum size.
+     */
+    private void evict(final long now) {
+        this.chains.entrySet().removeIf(entry -> entry.getValue().isExpired(now));
+        while (this.chains.size() >= this.maxEntries) {
+            Map.Entry<String, Entry> eldest = null;
+            for (final Map.Entry<String, Entry> entry : this.chains.entrySet()) {
+                if (eldest == null || entry.getValue().lastAccess - eldest.getValue().lastAccess < 0) {
+                    eldest = entry;
+                }
+            }
+            if (eldest == null) {
+                return;
+            }
+            if (this.chains.remove(eldest.getKey(), eldest.getValue())) {
+                this.evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Normalize the chain URL so that equivalent spellings map to one cache entry: the scheme and host
+     * are lower cased, the default port is dropped and dot segments of the path are resolved.
+     * The path keeps its case, as S3 keys are case sensitive.
+     *
+     * @param signingCertificateChainUrl the certificate chain URL header value
+     * @return the canonical URL
+     * @throws SecurityException if the URL is malformed
+     */
+    static String canonicalUrl(final String signingCertificateChainUrl) {
+        try {
+            final URI uri = new URI(signingCertificateChainUrl).normalize();
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                throw new SecurityException("Invalid signing certificate chain URL " + signingCertificateChainUrl);
+            }
+            final String scheme = uri.getScheme().toLowerCase(Locale.ROOT);
+            final int port = uri.getPort() == defaultPort(scheme) ? UNSPECIFIED_SIGNING_CERT_CHAIN_URL_PORT : uri.getPort();
+            return new URI(scheme, uri.getUserInfo(), uri.getHost().toLowerCase(Locale.ROOT), port,
+                    uri.getPath(), uri.getQuery(), null).toString();
+        } catch (URISyntaxException ex) {
+            throw new SecurityException("Invalid signing certificate chain URL " + signingCertificateChainUrl, ex);
+        }
+    }
+
+    private static int defaultPort(final String scheme) {
+        switch (scheme) {
+            case "https":
+                return VALID_SIGNING_CERT_CHAIN_URL_PORT;
+            case "http":
+                return 80;
+            default:
+                return UNSPECIFIED_SIGNING_CERT_CHAIN_URL_PORT;
+        }
+    }
+
+    /**
+     * Download and cache the chains from the given URLs. Failures are logged and not cached.
+     *
+     * @param signingCertificateChainUrls certificate chain URLs
+     */
+    public void prefetch(final String... signingCertificateChainUrls) {
+        for (final String url : signingCertificateChainUrls) {
+            try {
+                getSigningCertificate(url);
+                LOG.info("Prefetched certificate chain {}", url);
+            } catch (SecurityException ex) {
+                LOG.warn("Unable to prefetch certificate chain {}", url, ex);
+            }
+        }
+    }
+
+    /**
+     * Remove all cached chains.
+     */
+    public void clear() {
+        this.chains.clear();
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    public int size() {
+        return this.chains.size();
+    }
+
+    protected X509Certificate[] retrieveAndVerifyCertificateChain(final String signingCertificateChainUrl) {
+        final URL url;
+        try {
+            url = new URI(signingCertificateChainUrl).normalize().toURL();
+        } catch (URISyntaxException | IOException | IllegalArgumentException ex) {
+            throw new SecurityException("Invalid signing certificate chain URL " + signingCertificateChainUrl, ex);
+        }
+        if (this.checkChainUrl && !isValidSigningCertificateChainUrl(url)) {
+            throw new SecurityException("The provided certificate chain URL is invalid: " + signingCertificateChainUrl);
+        }
+        final X509Certificate[] chain;
+        try {
+            final URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(this.timeoutMillis);
+            connection.setReadTimeout(this.timeoutMillis);
+            try (final InputStream in = connection.getInputStream()) {
+                final Collection<? extends Certificate> certificates =
+                        CertificateFactory.getInstance(Sdk.SIGNATURE_CERTIFICATE_TYPE).generateCertificates(in);
+                chain = certificates.toArray(new X509Certificate[certificates.size()]);
+            }
+        } catch (IOException | CertificateException | ArrayStoreException ex) {
+            throw new SecurityException("Unable to retrieve certificate chain " + signingCertificateChainUrl, ex);
+        }
+        if (chain.length == 0) {
+            throw new SecurityException("Empty certificate chain " + signingCertificateChainUrl);
+        }
+        try {
+            this.trustManager.checkServerTrusted(chain, Sdk.SIGNATURE_KEY_TYPE);
+            chain[0].checkValidity();
+            if (!subjectAlternativeNameListContainsEchoSdkDomainName(chain[0].getSubjectAlternativeNames())) {
+                throw new SecurityException("The provided certificate is not valid for the Echo SDK");
+            }
+        } catch (CertificateException ex) {
+            throw new SecurityException("Unable to verify certificate chain " + signingCertificateChainUrl, ex);
+        }
+        return chain;
+    }
+
+    private static boolean isValidSigningCertificateChainUrl(final URL url) {
+        final int port = url.getPort();
+        return VALID_SIGNING_CERT_CHAIN_PROTOCOL.equalsIgnoreCase(url.getProtocol())
+                && VALID_SIGNING_CERT_CHAIN_URL_HOST_NAME.equalsIgnoreCase(url.getHost())
+                && url.getPath().startsWith(VALID_SIGNING_CERT_CHAIN_URL_PATH_PREFIX)
+                && (port == VALID_SIGNING_CERT_CHAIN_URL_PORT || port == UNSPECIFIED_SIGNING_CERT_CHAIN_URL_PORT);
+    }
+
+    private static boolean subjectAlternativeNameListContainsEchoSdkDomainName(
+            final Collection<List<?>> subjectAlternativeNames) {
+        if (subjectAlternativeNames == null) {
+            return false;
+        }
+        for (final List<?> name : subjectAlternativeNames) {
+            if (name.size() > 1 && Integer.valueOf(SUBJECT_ALTERNATIVE_NAME_DNS).equals(name.get(0))
+                    && Sdk.ECHO_API_DOMAIN_NAME.equals(name.get(1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static X509TrustManager defaultTrustManager() {
+        try {
+            final TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            factory.init((KeyStore) null);
+            for (final TrustManager trustManager : factory.getTrustManagers()) {
+                if (trustManager instanceof X509TrustManager) {
+                    return (X509TrustManager) trustManager;
+                }
+            }
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Unable to initialize the default trust manager", ex);
+        }
+        throw new IllegalStateException("No X509TrustManager available");
+    }
+
+    /**
+     * Cache entry, the download in progress or its result, with the time of the last lookup.
+     */
+    private static final class Entry {
+
+        private final CompletableFuture<CachedChain> chain = new CompletableFuture<>();
+
+        private volatile long lastAccess = System.nanoTime();
+
+        boolean isExpired(final long now) {
+            return this.chain.isDone() && !this.chain.isCompletedExceptionally() && this.chain.join().isExpired(now);
+        }
+    }
+
+    /**
+     * Validated chain with the validity period of its signing certificate.
+     */
+    private static final class CachedChain {
+
+        private final X509Certificate signingCertificate;
+
+        private final long notBefore;
+
+        private final long notAfter;
+
+        CachedChain(final X509Certificate[] chain) {
+            this.signingCertificate = chain[0];
+            this.notBefore = chain[0].getNotBefore().getTime();
+            this.notAfter = chain[0].getNotAfter().getTime();
+        }
+
+        boolean isExpired(final long now) {
+            return now > this.notAfter;
+        }
+
+        X509Certificate getSigningCertificate(final long now) {
+            if (now < this.notBefore || now > this.notAfter) {
+                throw new SecurityException("Signing certificate is not valid at " + new Date(now));
+            }
+            return this.signingCertificate;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.cache;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, expiring cache of serialized responses keyed by the Alexa request id.<br>
+ *
+ * The first request with a given id claims it and completes the shared future with its response.
+ * Retries arriving while it's in flight, and later replays within the time to live, get the same
+ * future instead of running the handlers again. Failed executions are forgotten, so a retry runs again,
+ * and so are released claims of executions whose response isn't worth sharing.
+ * The cache doesn't lock: entries live in a concurrent map and are expired in insertion order.
+ *
+ * @author zacheusz
+ */
+public class RequestDeduplicationCache {
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Queue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final int maxEntries;
+
+    private final long ttlMillis;
+
+    private final LongAdder duplicates = new LongAdder();
+
+    /**
+     * @param maxEntries maximum number of remembered request ids
+     * @param ttlMillis time a request id is remembered in milliseconds
+     */
+    public RequestDeduplicationCache(final int maxEntries, final long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Claim the request id.
+     *
+     * @param requestId the Alexa request id
+     * @param execution future completed by the caller with the response if the claim succeeds
+     * @return <code>null</code> if the caller claimed the id and must complete <code>execution</code>,
+     * otherwise the future of the first request with this id
+     */
+    public CompletableFuture<byte[]> claim(final String requestId, final CompletableFuture<byte[]> execution) {
+        final long now = System.currentTimeMillis();
+        expire(now);
+        final Entry entry = new Entry(requestId, execution, now + this.ttlMillis);
+        while (true) {
+            final Entry previous = this.entries.putIfAbsent(requestId, entry);
+            if (previous == null) {
+                this.size.incrementAndGet();
+                this.insertionOrder.add(entry);
+                execution.whenComplete((output, ex) -> {
+                    if (ex != null) {
+                        forget(entry);
+                    }
+                });
+                return null;
+            }
+            if (previous.expiresAt > now) {
+                this.duplicates.increment();
+                return previous.execution;
+            }
+            if (this.entries.remove(requestId, previous)) {
+                this.size.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Forget the claim so a later request with the same id runs again. Requests already sharing
+     * the execution still get its response.
+     *
+     * @param requestId the Alexa request id
+     * @param execution the future passed to the successful {@link #claim}
+     */
+    public void release(final String requestId, final CompletableFuture<byte[]> execution) {
+        final Entry entry = this.entries.get(requestId);
+        if (entry != null && entry.execution == execution) {
+            forget(entry);
+        }
+    }
+
+    private void expire(final long now) {
+        Entry eldest;
+        while ((eldest = this.insertionOrder.peek()) != null
+                && (eldest.expiresAt <= now || this.size.get() >= this.maxEntries)) {
+            if (this.insertionOrder.remove(eldest)) {
+                forget(eldest);
+            }
+        }
+    }
+
+    private void forget(final Entry entry) {
+        if (this.entries.remove(entry.requestId, entry)) {
+            this.size.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return number of remembered request ids
+     */
+    public int size() {
+        return this.size.get();
+    }
+
+    /**
+     * @return number of requests answered with the response of an earlier request with the same id
+     */
+    public long getDuplicateCount() {
+        return this.duplicates.sum();
+    }
+
+    private static final class Entry {
+
+        private final String requestId;
+
+        private final CompletableFuture<byte[]> execution;
+
+        private final long expiresAt;
+
+        Entry(final String requestId, final CompletableFuture<byte[]> execution, final long expiresAt) {
+            this.requestId = requestId;
+            this.execution = execution;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.cache;
+
+import com.amazon.speech.slu.Intent;
+import com.amazon.speech.slu.Slot;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.SpeechletResponse;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of speechlet responses keyed by intent name, slot values and locale.<br>
+ *
+ * Entries expire after their time to live and the least recently used entry is evicted
+ * when the cache is full. Large caches are split by key into segments with their own lock
+ * and recency order, so the eviction order is exact only within a segment.
+ *
+ * @author zacheusz
+ */
+public class ResponseCache {
+
+    private static final char SEPARATOR = '\u0000';
+
+    /**
+     * Caches up to twice this size keep one segment, so their eviction order is exact.
+     */
+    private static final int ENTRIES_PER_SEGMENT = 256;
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Segment[] segments;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param maxEntries maximum number of cached responses
+     */
+    public ResponseCache(final int maxEntries) {
+        this.segments = new Segment[Math.min(MAX_SEGMENTS,
+                Integer.highestOneBit(Math.max(1, maxEntries / ENTRIES_PER_SEGMENT)))];
+        for (int i = 0; i < this.segments.length; i++) {
+            this.segments[i] = new Segment((maxEntries + this.segments.length - 1) / this.segments.length);
+        }
+    }
+
+    /**
+     * Build the cache key of the intent request.
+     * Slots without a value add only their name, so they never match a slot spoken as "null".
+     *
+     * @param request the intent request
+     * @return the key made of the intent name, the locale and the sorted slot values
+     */
+    public static String key(final IntentRequest request) {
+        final Intent intent = request.getIntent();
+        final StringBuilder key = new StringBuilder(64)
+                .append(intent.getName()).append(SEPARATOR).append(request.getLocale());
+        final Map<String, Slot> slots = intent.getSlots();
+        if (slots != null && !slots.isEmpty()) {
+            for (final Map.Entry<String, Slot> slot : new TreeMap<>(slots).entrySet()) {
+                key.append(SEPARATOR).append(slot.getKey());
+                final String value = slot.getValue() == null ? null : slot.getValue().getValue();
+                if (value != null) {
+                    key.append('=').append(value);
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param key the cache key
+     * @return the cached response or <code>null</code> if it isn't cached or has expired
+     */
+    public SpeechletResponse get(final String key) {
+        final long now = System.currentTimeMillis();
+        final Segment segment = segment(key);
+        synchronized (segment) {
+            final Entry entry = segment.entries.get(key);
+            if (entry != null) {
+                if (entry.expires > now) {
+                    this.hits.increment();
+                    return entry.response;
+                }
+                segment.entries.remove(key);
+            }
+        }
+        this.misses.increment();
+        return null;
+    }
+
+    /**
+     * @param key the cache key
+     * @param response the response to cache
+     * @param ttlMillis time to live in milliseconds, the response isn't cached if it isn't positive
+     */
+    public void put(final String key, final SpeechletResponse response, final long ttlMillis) {
+        if (ttlMillis <= 0 || response == null) {
+            return;
+        }
+        final Entry entry = new Entry(response, System.currentTimeMillis() + ttlMillis);
+        final Segment segment = segment(key);
+        synchronized (segment) {
+            segment.entries.put(key, entry);
+        }
+    }
+
+    /**
+     * Remove all cached responses of the intent.
+     *
+     * @param intentName the name of the intent
+     */
+    public void invalidate(final String intentName) {
+        final String prefix = intentName + SEPARATOR;
+        for (final Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.entries.keySet().removeIf(key -> key.startsWith(prefix));
+            }
+        }
+    }
+
+    /**
+     * Remove all cached responses.
+     */
+    public void invalidateAll() {
+        for (final Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.entries.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segment(final String key) {
+        final int hash = key.hashCode();
+        return this.segments[(hash ^ (hash >>> 16)) & (this.segments.length - 1)];
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    private static final class Segment {
+
+        private final Map<String, Entry> entries;
+
+        Segment(final int maxEntries) {
+            this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+    }
+
+    private static final class Entry {
+
+        private final SpeechletResponse response;
+
+        private final long expires;
+
+        Entry(final SpeechletResponse response, final long expires) {
+            this.response = response;
+            this.expires = expires;
+        }
+    }
+}
@@ -0,0 +1,368 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.capture;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Append-only, memory-mapped log of sampled request bodies.<br>
+ *
+ * Request threads only offer the body to a bounded queue, a background thread appends it to the file.
+ * Bodies are dropped when the queue is full or the file reached its maximum size, so capturing never
+ * blocks a request. The file starts with {@link #MAGIC} followed by records of the arrival time in
+ * epoch milliseconds (8 bytes), the body length (4 bytes) and the body.<br>
+ *
+ * The writer replaces user, person and device ids and the access and consent tokens with pseudonyms
+ * before the body reaches the file. The pseudonyms are stable within one capture, so a replay still
+ * sees the same users, but can't be linked to the ids. Everything else, e.g. slot values and session
+ * attributes, is captured as sent. An existing capture file is rotated, keeping
+ * {@link #MAX_ROTATED_FILES} previous captures.
+ *
+ * @author zacheusz
+ */
+public class TrafficCapture implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TrafficCapture.class);
+
+    /**
+     * File header, also identifies the record format version.
+     */
+    public static final long MAGIC = 0x414c58434150_0001L;
+
+    static final int RECORD_HEADER_BYTES = Long.BYTES + Integer.BYTES;
+
+    private static final int MAPPED_CHUNK_BYTES = 8 * 1024 * 1024;
+
+    private static final int QUEUE_SIZE = 1024;
+
+    /**
+     * Number of previous captures kept as file.1 (the latest) up to file.5.
+     */
+    public static final int MAX_ROTATED_FILES = 5;
+
+    private static final long CLOSE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final Set<String> SCRUBBED_FIELDS = new HashSet<>(Arrays.asList(
+            "userId", "personId", "deviceId", "accessToken", "apiAccessToken", "consentToken"));
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static final Record POISON = new Record(0L, new byte[0]);
+
+    private final Path file;
+
+    private final long maxBytes;
+
+    private final double sampleRate;
+
+    private final FileChannel channel;
+
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+
+    private final Thread writer;
+
+    private final LongAdder captured = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final byte[] salt = new byte[16];
+
+    private final MessageDigest digest;
+
+    private MappedByteBuffer mapped;
+
+    private long mappedStart;
+
+    private long position;
+
+    private volatile boolean full;
+
+    /**
+     * Open a new capture file, rotating an existing one.
+     *
+     * @param file the capture file
+     * @param maxBytes maximum size of the file
+     * @param sampleRate fraction of requests captured, between 0 and 1
+     * @throws IOException if the file can't be opened
+     */
+    public TrafficCapture(final Path file, final long maxBytes, final double sampleRate) throws IOException {
+        this.file = file;
+        this.maxBytes = maxBytes;
+        this.sampleRate = sampleRate;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException("SHA-256 is not available to scrub the captured requests", ex);
+        }
+        new SecureRandom().nextBytes(this.salt);
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        rotate(file);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        map(0L, Long.BYTES);
+        this.mapped.putLong(MAGIC);
+        this.position = Long.BYTES;
+        this.writer = new Thread(this::write, "alexa-traffic-capture");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    private static void rotate(final Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        for (int i = MAX_ROTATED_FILES - 1; i > 0; i--) {
+            final Path older = rotated(file, i);
+            if (Files.exists(older)) {
+                Files.move(older, rotated(file, i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        Files.move(file, rotated(file, 1), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * @param file the capture file
+     * @param index 1 for the latest previous capture
+     * @return the file of a previous capture
+     */
+    public static Path rotated(final Path file, final int index) {
+        return file.resolveSibling(file.getFileName() + "." + index);
+    }
+
+    /**
+     * Offer the request body, sampled, without blocking.
+     *
+     * @param arrivalMillis arrival time in epoch milliseconds
+     * @param body the request body, not modified afterwards
+     */
+    public void offer(final long arrivalMillis, final byte[] body) {
+        if (this.full || (this.sampleRate < 1.0 && ThreadLocalRandom.current().nextDouble() >= this.sampleRate)) {
+            return;
+        }
+        if (!this.queue.offer(new Record(arrivalMillis, body))) {
+            this.dropped.increment();
+        }
+    }
+
+    private void write() {
+        try {
+            while (true) {
+                final Record record = this.queue.take();
+                if (record == POISON) {
+                    return;
+                }
+                append(record);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            LOG.warn("Traffic capture to {} failed", this.file, ex);
+            this.full = true;
+        }
+    }
+
+    private void append(final Record record) throws IOException {
+        final byte[] body;
+        try {
+            body = scrub(record.body);
+        } catch (IOException ex) {
+            LOG.debug("Unable to scrub captured request", ex);
+            this.dropped.increment();
+            return;
+        }
+        final int length = RECORD_HEADER_BYTES + body.length;
+        if (this.position + length > this.maxBytes) {
+            if (!this.full) {
+                LOG.info("Traffic capture {} reached {} bytes", this.file, this.position);
+            }
+            this.full = true;
+            this.dropped.increment();
+            return;
+        }
+        if (this.position + length > this.mappedStart + this.mapped.capacity()) {
+            map(this.position, length);
+        }
+        this.mapped.putLong(record.arrivalMillis);
+        this.mapped.putInt(body.length);
+        this.mapped.put(body);
+        this.position += length;
+        this.captured.increment();
+    }
+
+    /**
+     * Copy the body with the ids and tokens replaced by their pseudonyms.
+     */
+    byte[] scrub(final byte[] body) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(body.length);
+        try (final JsonParser parser = JSON_FACTORY.createParser(body);
+             final JsonGenerator json = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                json.copyCurrentEvent(parser);
+                if (token == JsonToken.FIELD_NAME && SCRUBBED_FIELDS.contains(parser.getCurrentName())) {
+                    final String field = parser.getCurrentName();
+                    if (parser.nextToken() == JsonToken.VALUE_STRING) {
+                        json.writeString(pseudonym(field, parser.getText()));
+                    } else {
+                        json.copyCurrentStructure(parser);
+                    }
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Salted hash of the value. Ids keep their prefix, e.g. amzn1.ask.account., tokens are replaced as a whole.
+     */
+    private String pseudonym(final String field, final String value) {
+        this.digest.update(this.salt);
+        final byte[] hash = this.digest.digest(value.getBytes(StandardCharsets.UTF_8));
+        final StringBuilder pseudonym = new StringBuilder(value.length() + 32);
+        if (field.endsWith("Id")) {
+            pseudonym.append(value, 0, value.lastIndexOf('.') + 1);
+        }
+        pseudonym.append("scrubbed-");
+        for (int i = 0; i < 12; i++) {
+            pseudonym.append(HEX[(hash[i] >> 4) & 0xf]).append(HEX[hash[i] & 0xf]);
+        }
+        return pseudonym.toString();
+    }
+
+    private void map(final long start, final int minSize) throws IOException {
+        final long size = Math.min(Math.max(MAPPED_CHUNK_BYTES, minSize), Math.max(minSize, this.maxBytes - start));
+        this.mapped = this.channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+        this.mappedStart = start;
+    }
+
+    /**
+     * Write the queued bodies and trim the file to its content. A writer that doesn't finish in time is
+     * interrupted and the bodies still queued are lost.
+     */
+    @Override
+    public void close() throws IOException {
+        this.full = true;
+        boolean interrupted = false;
+        try {
+            if (!this.queue.offer(POISON, CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Traffic capture {} didn't drain its queue in time, dropping the queued requests", this.file);
+                this.writer.interrupt();
+            }
+            this.writer.join(CLOSE_TIMEOUT_MILLIS);
+            if (this.writer.isAlive()) {
+                this.writer.interrupt();
+                this.writer.join(CLOSE_TIMEOUT_MILLIS);
+            }
+        } catch (InterruptedException ex) {
+            interrupted = true;
+            this.writer.interrupt();
+            joinWriter();
+        }
+        try {
+            // the channel would be closed by the interrupt before the file is trimmed
+            this.mapped.force();
+            if (this.channel.isOpen()) {
+                this.channel.truncate(this.position);
+                this.channel.close();
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Wait for the interrupted writer, which stops after the record it is appending.
+     */
+    private void joinWriter() {
+        try {
+            this.writer.join(CLOSE_TIMEOUT_MILLIS);
+        } catch (InterruptedException ex) {
+            LOG.warn("Interrupted while closing traffic capture {}", this.file);
+        }
+    }
+
+    /**
+     * @return number of captured request bodies
+     */
+    public long getCapturedCount() {
+        return this.captured.sum();
+    }
+
+    /**
+     * @return number of request bodies dropped because the queue or the file was full
+     */
+    public long getDroppedCount() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * @return the capture file
+     */
+    public Path getFile() {
+        return this.file;
+    }
+
+    private static final class Record {
+
+        private final long arrivalMillis;
+
+        private final byte[] body;
+
+        Record(final long arrivalMillis, final byte[] body) {
+            this.arrivalMillis = arrivalMillis;
+            this.body = body;
+        }
+    }
+}
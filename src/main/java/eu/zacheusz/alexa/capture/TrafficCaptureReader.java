@@ -0,0 +1,119 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.capture;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the request bodies written by {@link TrafficCapture}.
+ *
+ * @author zacheusz
+ */
+public class TrafficCaptureReader implements Closeable {
+
+    private final FileChannel channel;
+
+    private final MappedByteBuffer mapped;
+
+    /**
+     * @param file the capture file
+     * @throws IOException if the file can't be read or isn't a capture file
+     */
+    public TrafficCaptureReader(final Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.mapped = this.channel.map(FileChannel.MapMode.READ_ONLY, 0L, this.channel.size());
+        if (this.mapped.remaining() < Long.BYTES || this.mapped.getLong() != TrafficCapture.MAGIC) {
+            this.channel.close();
+            throw new IOException(file + " is not a traffic capture file");
+        }
+    }
+
+    /**
+     * @return the next captured request or <code>null</code> at the end of the file
+     */
+    public CapturedRequest next() {
+        if (this.mapped.remaining() < TrafficCapture.RECORD_HEADER_BYTES) {
+            return null;
+        }
+        final long arrivalMillis = this.mapped.getLong();
+        final int length = this.mapped.getInt();
+        // unused mapped space of a capture that wasn't closed is zero filled
+        if (arrivalMillis == 0L || length < 0 || length > this.mapped.remaining()) {
+            return null;
+        }
+        final byte[] body = new byte[length];
+        this.mapped.get(body);
+        return new CapturedRequest(arrivalMillis, body);
+    }
+
+    /**
+     * @return all remaining captured requests
+     */
+    public List<CapturedRequest> readAll() {
+        final List<CapturedRequest> requests = new ArrayList<>();
+        CapturedRequest request;
+        while ((request = next()) != null) {
+            requests.add(request);
+        }
+        return requests;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    /**
+     * Request body with its arrival time.
+     */
+    public static final class CapturedRequest {
+
+        private final long arrivalMillis;
+
+        private final byte[] body;
+
+        CapturedRequest(final long arrivalMillis, final byte[] body) {
+            this.arrivalMillis = arrivalMillis;
+            this.body = body;
+        }
+
+        /**
+         * @return arrival time in epoch milliseconds
+         */
+        public long getArrivalMillis() {
+            return this.arrivalMillis;
+        }
+
+        /**
+         * @return the request body
+         */
+        public byte[] getBody() {
+            return this.body;
+        }
+    }
+}
@@ -0,0 +1,423 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.content;
+
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.ui.OutputSpeech;
+import com.amazon.speech.ui.PlainTextOutputSpeech;
+import com.amazon.speech.ui.Reprompt;
+import com.amazon.speech.ui.SimpleCard;
+import com.amazon.speech.ui.SsmlOutputSpeech;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.api.SlingConstants;
+import org.apache.sling.api.resource.LoginException;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.osgi.service.event.Event;
+import org.osgi.service.event.EventConstants;
+import org.osgi.service.event.EventHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Localized response texts read from the repository and kept in memory.<br>
+ *
+ * Texts are stored as string properties of resources at <code>rootPath/&lt;locale&gt;/&lt;key&gt;</code>,
+ * e.g. <code>/apps/alexa/content/en-US/weather/sunny</code> with <code>text</code>,
+ * <code>reprompt</code>, <code>cardTitle</code> and <code>cardContent</code> properties. A locale
+ * falls back to its language (<code>en</code>) and then to the <code>default</code> folder.
+ * Every property is compiled to a {@link ResponseTemplate} with <code>{name}</code> placeholders.<br>
+ *
+ * All texts are loaded on activation and missing ones on first use. Cached entries, including
+ * known missing ones, are dropped only when a resource change event is received for their path,
+ * so handlers don't read the repository while serving requests.
+ *
+ * @author zacheusz
+ */
+@Component(label = "Alexa Response Content Service",
+        description = "Alexa Response Content Service",
+        metatype = true)
+@Service({ResponseContentService.class, EventHandler.class})
+@Properties({
+        @Property(name = EventConstants.EVENT_TOPIC, value = {
+                SlingConstants.TOPIC_RESOURCE_ADDED,
+                SlingConstants.TOPIC_RESOURCE_CHANGED,
+                SlingConstants.TOPIC_RESOURCE_REMOVED}, propertyPrivate = true)})
+public class ResponseContentService implements EventHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ResponseContentService.class);
+
+    public static final String DEFAULT_LOCALE = "default";
+
+    public static final String TEXT_PROPERTY = "text";
+
+    /**
+     * SSML speech, used instead of {@link #TEXT_PROPERTY} when present.
+     */
+    public static final String SSML_PROPERTY = "ssml";
+
+    public static final String REPROMPT_PROPERTY = "reprompt";
+
+    public static final String CARD_TITLE_PROPERTY = "cardTitle";
+
+    public static final String CARD_CONTENT_PROPERTY = "cardContent";
+
+    @Property(label = "Repository path of the response texts.", value = "/apps/alexa/content")
+    private static final String ROOT_PATH_PROPERTY = "rootPath";
+
+    @Property(label = "Service user mapping sub-service name.", value = "response-content")
+    private static final String SUBSERVICE_PROPERTY = "subservice";
+
+    @Reference
+    private ResourceResolverFactory resourceResolverFactory;
+
+    private final ConcurrentMap<String, Optional<ResponseContent>> contents = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented on every invalidation, so a load racing with a change isn't cached.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile boolean active;
+
+    private String rootPath;
+
+    private String subservice;
+
+    @Activate
+    protected void activate(final Map<String, Object> properties) {
+        this.rootPath = trimSlash(PropertiesUtil.toString(properties.get(ROOT_PATH_PROPERTY), "/apps/alexa/content"));
+        this.subservice = PropertiesUtil.toString(properties.get(SUBSERVICE_PROPERTY), "response-content");
+        this.contents.clear();
+        this.active = true;
+        preload();
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        this.active = false;
+        this.contents.clear();
+    }
+
+    protected void bindResourceResolverFactory(final ResourceResolverFactory factory) {
+        this.resourceResolverFactory = factory;
+    }
+
+    protected void unbindResourceResolverFactory(final ResourceResolverFactory factory) {
+        if (this.resourceResolverFactory == factory) {
+            this.resourceResolverFactory = null;
+        }
+    }
+
+    private void preload() {
+        final long start = System.nanoTime();
+        final long loadGeneration = this.generation.get();
+        final Map<String, Optional<ResponseContent>> loaded = new HashMap<>();
+        try {
+            final ResourceResolver resolver = login();
+            try {
+                final Resource root = resolver.getResource(this.rootPath);
+                if (root != null) {
+                    for (final Resource locale : root.getChildren()) {
+                        preload(locale, loaded);
+                    }
+                }
+            } finally {
+                resolver.close();
+            }
+        } catch (LoginException | RuntimeException ex) {
+            LOG.warn("Unable to preload response texts from {}, loading on demand", this.rootPath, ex);
+            return;
+        }
+        if (this.generation.get() == loadGeneration) {
+            loaded.forEach(this.contents::putIfAbsent);
+        }
+        LOG.info("Loaded {} response texts from {} in {} ms", loaded.size(), this.rootPath,
+                (System.nanoTime() - start) / 1000000L);
+    }
+
+    private void preload(final Resource resource, final Map<String, Optional<ResponseContent>> loaded) {
+        for (final Resource child : resource.getChildren()) {
+            final ResponseContent content = ResponseContent.of(child);
+            if (content != null) {
+                loaded.put(child.getPath(), Optional.of(content));
+            }
+            preload(child, loaded);
+        }
+    }
+
+    private ResourceResolver login() throws LoginException {
+        return this.resourceResolverFactory.getServiceResourceResolver(
+                Collections.singletonMap(ResourceResolverFactory.SUBSERVICE, (Object) this.subservice));
+    }
+
+    /**
+     * Get the texts of the key, falling back to the language and default locale.
+     *
+     * @param locale request locale, may be <code>null</code>
+     * @param key content key, relative to the locale folder, e.g. <code>weather/sunny</code>
+     * @return the texts or <code>null</code> when none of the locales has the key
+     */
+    public ResponseContent getContent(final Locale locale, final String key) {
+        final String relativeKey = relative(key);
+        if (locale != null) {
+            ResponseContent content = get(locale.toLanguageTag(), relativeKey);
+            if (content == null && !locale.getCountry().isEmpty()) {
+                content = get(locale.getLanguage(), relativeKey);
+            }
+            if (content != null) {
+                return content;
+            }
+        }
+        return get(DEFAULT_LOCALE, relativeKey);
+    }
+
+    private ResponseContent get(final String locale, final String key) {
+        final String path = this.rootPath + '/' + locale + '/' + key;
+        final Optional<ResponseContent> cached = this.contents.get(path);
+        if (cached != null) {
+            return cached.orElse(null);
+        }
+        final long loadGeneration = this.generation.get();
+        final Optional<ResponseContent> loaded = load(path);
+        if (loaded != null && this.active && this.generation.get() == loadGeneration) {
+            this.contents.putIfAbsent(path, loaded);
+        }
+        return loaded == null ? null : loaded.orElse(null);
+    }
+
+    /**
+     * @return the loaded texts, empty for a missing resource or <code>null</code> when the repository failed
+     */
+    private Optional<ResponseContent> load(final String path) {
+        try {
+            final ResourceResolver resolver = login();
+            try {
+                final Resource resource = resolver.getResource(path);
+                return Optional.ofNullable(resource == null ? null : ResponseContent.of(resource));
+            } finally {
+                resolver.close();
+            }
+        } catch (LoginException | RuntimeException ex) {
+            LOG.warn("Unable to load response texts from {}", path, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Render a text of the key.
+     *
+     * @param locale request locale
+     * @param key content key
+     * @param property text property, e.g. {@link #TEXT_PROPERTY}
+     * @param values placeholder values
+     * @return the text or <code>null</code> when missing
+     */
+    public String render(final Locale locale, final String key, final String property, final Map<String, ?> values) {
+        final ResponseContent content = getContent(locale, key);
+        return content == null ? null : content.render(property, values);
+    }
+
+    /**
+     * Build a response ending the session from the key's speech and card texts.
+     *
+     * @param locale request locale
+     * @param key content key
+     * @param values placeholder values
+     * @return the response or <code>null</code> when the key has no speech text
+     */
+    public SpeechletResponse newTellResponse(final Locale locale, final String key, final Map<String, ?> values) {
+        final ResponseContent content = getContent(locale, key);
+        final OutputSpeech speech = content == null ? null : content.speech(SSML_PROPERTY, TEXT_PROPERTY, values);
+        if (speech == null) {
+            return null;
+        }
+        final SimpleCard card = content.card(values);
+        return card == null ? SpeechletResponse.newTellResponse(speech)
+                : SpeechletResponse.newTellResponse(speech, card);
+    }
+
+    /**
+     * Build a response keeping the session open from the key's speech, reprompt and card texts.
+     * The speech is repeated when the key has no reprompt.
+     *
+     * @param locale request locale
+     * @param key content key
+     * @param values placeholder values
+     * @return the response or <code>null</code> when the key has no speech text
+     */
+    public SpeechletResponse newAskResponse(final Locale locale, final String key, final Map<String, ?> values) {
+        final ResponseContent content = getContent(locale, key);
+        final OutputSpeech speech = content == null ? null : content.speech(SSML_PROPERTY, TEXT_PROPERTY, values);
+        if (speech == null) {
+            return null;
+        }
+        final OutputSpeech repromptSpeech = content.speech(null, REPROMPT_PROPERTY, values);
+        final Reprompt reprompt = new Reprompt();
+        reprompt.setOutputSpeech(repromptSpeech == null ? speech : repromptSpeech);
+        final SimpleCard card = content.card(values);
+        return card == null ? SpeechletResponse.newAskResponse(speech, reprompt)
+                : SpeechletResponse.newAskResponse(speech, reprompt, card);
+    }
+
+    /**
+     * Drop the cached texts of the changed resource, its descendants and its content ancestor.
+     */
+    @Override
+    public void handleEvent(final Event event) {
+        final Object path = event.getProperty(SlingConstants.PROPERTY_PATH);
+        if (path instanceof String) {
+            invalidate((String) path);
+        }
+    }
+
+    /**
+     * @param path repository path of the changed resource or property
+     */
+    public void invalidate(final String path) {
+        if (!path.equals(this.rootPath) && !path.startsWith(this.rootPath + '/')) {
+            return;
+        }
+        this.generation.incrementAndGet();
+        final String prefix = path + '/';
+        this.contents.keySet().removeIf(cached -> cached.equals(path) || cached.startsWith(prefix)
+                || path.startsWith(cached + '/'));
+        LOG.debug("Invalidated response texts of {}", path);
+    }
+
+    /**
+     * @return number of cached keys, including known missing ones
+     */
+    public int size() {
+        return this.contents.size();
+    }
+
+    private static String trimSlash(final String path) {
+        int end = path.length();
+        while (end > 1 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(0, end);
+    }
+
+    private static String relative(final String key) {
+        int start = 0;
+        while (start < key.length() && key.charAt(start) == '/') {
+            start++;
+        }
+        return trimSlash(key.substring(start));
+    }
+
+    /**
+     * Compiled text properties of one content resource.
+     */
+    public static final class ResponseContent {
+
+        private final String path;
+
+        private final Map<String, ResponseTemplate> templates;
+
+        private ResponseContent(final String path, final Map<String, ResponseTemplate> templates) {
+            this.path = path;
+            this.templates = templates;
+        }
+
+        static ResponseContent of(final Resource resource) {
+            final Map<String, ResponseTemplate> templates = new HashMap<>();
+            for (final Map.Entry<String, Object> property : resource.getValueMap().entrySet()) {
+                if (property.getValue() instanceof String && property.getKey().indexOf(':') < 0) {
+                    templates.put(property.getKey(), ResponseTemplate.compile((String) property.getValue()));
+                }
+            }
+            return templates.isEmpty() ? null : new ResponseContent(resource.getPath(), templates);
+        }
+
+        /**
+         * @param property text property
+         * @return the template or <code>null</code> when missing
+         */
+        public ResponseTemplate getTemplate(final String property) {
+            return this.templates.get(property);
+        }
+
+        /**
+         * @param property text property
+         * @param values placeholder values
+         * @return the text or <code>null</code> when missing
+         */
+        public String render(final String property, final Map<String, ?> values) {
+            final ResponseTemplate template = this.templates.get(property);
+            return template == null ? null : template.render(values);
+        }
+
+        OutputSpeech speech(final String ssmlProperty, final String textProperty, final Map<String, ?> values) {
+            final String ssml = ssmlProperty == null ? null : render(ssmlProperty, values);
+            if (ssml != null) {
+                final SsmlOutputSpeech speech = new SsmlOutputSpeech();
+                speech.setSsml(ssml);
+                return speech;
+            }
+            final String text = render(textProperty, values);
+            if (text == null) {
+                return null;
+            }
+            final PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+            speech.setText(text);
+            return speech;
+        }
+
+        SimpleCard card(final Map<String, ?> values) {
+            final String title = render(CARD_TITLE_PROPERTY, values);
+            final String content = render(CARD_CONTENT_PROPERTY, values);
+            if (title == null && content == null) {
+                return null;
+            }
+            final SimpleCard card = new SimpleCard();
+            card.setTitle(title);
+            card.setContent(content);
+            return card;
+        }
+
+        /**
+         * @return repository path of the texts
+         */
+        public String getPath() {
+            return this.path;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.content;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response text with <code>{name}</code> placeholders, parsed once and rendered many times.<br>
+ *
+ * Placeholders without a value render as empty text. Braces not enclosing a placeholder name
+ * are kept as they are.
+ *
+ * @author zacheusz
+ */
+public final class ResponseTemplate {
+
+    private final String source;
+
+    /**
+     * Literal text and placeholder names alternate, starting with literal text.
+     */
+    private final String[] segments;
+
+    private final int literalLength;
+
+    private ResponseTemplate(final String source, final String[] segments, final int literalLength) {
+        this.source = source;
+        this.segments = segments;
+        this.literalLength = literalLength;
+    }
+
+    /**
+     * Parse the template.
+     *
+     * @param source template text
+     * @return the compiled template
+     */
+    public static ResponseTemplate compile(final String source) {
+        final List<String> segments = new ArrayList<>();
+        final StringBuilder literal = new StringBuilder(source.length());
+        int literalLength = 0;
+        int i = 0;
+        while (i < source.length()) {
+            final char c = source.charAt(i);
+            final int end = c == '{' ? placeholderEnd(source, i + 1) : -1;
+            if (end < 0) {
+                literal.append(c);
+                i++;
+                continue;
+            }
+            segments.add(literal.toString());
+            literalLength += literal.length();
+            literal.setLength(0);
+            segments.add(source.substring(i + 1, end));
+            i = end + 1;
+        }
+        segments.add(literal.toString());
+        literalLength += literal.length();
+        return new ResponseTemplate(source, segments.toArray(new String[0]), literalLength);
+    }
+
+    private static int placeholderEnd(final String source, final int start) {
+        for (int i = start; i < source.length(); i++) {
+            final char c = source.charAt(i);
+            if (c == '}') {
+                return i > start ? i : -1;
+            }
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '.' && c != '-') {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Render the template.
+     *
+     * @param values placeholder values, may be <code>null</code>
+     * @return the rendered text
+     */
+    public String render(final Map<String, ?> values) {
+        if (this.segments.length == 1) {
+            return this.segments[0];
+        }
+        final StringBuilder text = new StringBuilder(this.literalLength + 16 * (this.segments.length / 2));
+        for (int i = 0; i < this.segments.length; i++) {
+            if ((i & 1) == 0) {
+                text.append(this.segments[i]);
+            } else if (values != null) {
+                final Object value = values.get(this.segments[i]);
+                if (value != null) {
+                    text.append(value);
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return the template text
+     */
+    public String getSource() {
+        return this.source;
+    }
+
+    @Override
+    public String toString() {
+        return this.source;
+    }
+}
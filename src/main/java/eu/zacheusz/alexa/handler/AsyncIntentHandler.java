@@ -0,0 +1,75 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.handler;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.SpeechletResponse;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * {@link IntentHandler} producing its response asynchronously.<br>
+ *
+ * Register it as an {@link IntentHandler} service. Asynchronous servlet requests don't hold a thread
+ * while the stage runs and cancel it when the servlet deadline passes. Otherwise the speechlet waits
+ * for the response at most until its handler timeout. Either way backend calls can run concurrently,
+ * e.g. with {@link FanOut}.
+ *
+ * @author zacheusz
+ */
+public interface AsyncIntentHandler extends IntentHandler {
+
+    /**
+     * Handle the intent request asynchronously.
+     *
+     * @param requestEnvelope the intent request envelope to handle
+     * @return stage completed with the response, spoken and visual, to the request, never <code>null</code>
+     */
+    CompletionStage<SpeechletResponse> handleIntentAsync(SpeechletRequestEnvelope<IntentRequest> requestEnvelope);
+
+    /**
+     * Wait for the asynchronous response without a timeout.
+     */
+    @Override
+    default SpeechletResponse handleIntent(final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+        return start(this, requestEnvelope).join();
+    }
+
+    /**
+     * Call the handler. Cancelling the returned future cancels the stage when it is a {@link CompletableFuture}.
+     *
+     * @param handler the handler
+     * @param requestEnvelope the intent request envelope to handle
+     * @return future completed with the response
+     * @throws IllegalStateException if the handler returned no stage
+     */
+    static CompletableFuture<SpeechletResponse> start(final AsyncIntentHandler handler,
+                                                      final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+        final CompletionStage<SpeechletResponse> stage = handler.handleIntentAsync(requestEnvelope);
+        if (stage == null) {
+            throw new IllegalStateException("Asynchronous handler " + handler.getClass().getName()
+                    + " returned no stage for intent " + requestEnvelope.getRequest().getIntent().getName());
+        }
+        return stage.toCompletableFuture();
+    }
+}
@@ -0,0 +1,53 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.handler;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.SessionEndedRequest;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link SessionEndedHandler} receiving ended sessions in bulk.<br>
+ *
+ * When the speechlet runs session ended callbacks in the background, ended sessions are collected and
+ * passed to {@link #handleSessionsEnded(List)} in batches, e.g. to write analytics with a single call.
+ *
+ * @author zacheusz
+ */
+public interface BatchSessionEndedHandler extends SessionEndedHandler {
+
+    /**
+     * Callback used to notify that the sessions ended.
+     *
+     * @param requestEnvelopes the end of session request envelopes in arrival order
+     */
+    void handleSessionsEnded(List<SpeechletRequestEnvelope<SessionEndedRequest>> requestEnvelopes);
+
+    /**
+     * Pass the single ended session as a batch.
+     */
+    @Override
+    default void handleSessionEnded(final SpeechletRequestEnvelope<SessionEndedRequest> requestEnvelope) {
+        handleSessionsEnded(Collections.singletonList(requestEnvelope));
+    }
+}
@@ -0,0 +1,37 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.handler;
+
+/**
+ * {@link IntentHandler} whose responses depend only on the intent name, slot values and locale.<br>
+ *
+ * Responses of such handlers are cached by the speechlet and reused for identical intent requests
+ * until the time to live passes, so the handler isn't invoked for them.
+ *
+ * @author zacheusz
+ */
+public interface CacheableIntentHandler extends IntentHandler {
+
+    /**
+     * @return how long a response of this handler may be reused, in milliseconds
+     */
+    long getResponseTtlMillis();
+}
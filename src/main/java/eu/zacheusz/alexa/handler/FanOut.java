@@ -0,0 +1,154 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Concurrent backend calls of an {@link AsyncIntentHandler} sharing one deadline.<br>
+ *
+ * Each call starts right away on the executor. {@link #join()} completes when all calls finished
+ * or the deadline passed, whichever comes first. Calls which failed or didn't finish in time
+ * return their fallback, so the handler can answer with partial results. Calls still running at the
+ * deadline are cancelled and interrupted, so a late result never replaces the fallback.
+ * <pre>
+ * FanOut fanOut = new FanOut(executor, 1500);
+ * FanOut.Call&lt;Weather&gt; weather = fanOut.call(() -&gt; weatherService.get(city), null);
+ * FanOut.Call&lt;Traffic&gt; traffic = fanOut.call(() -&gt; trafficService.get(city), Traffic.UNKNOWN);
+ * return fanOut.join().thenApply(done -&gt; render(weather.get(), traffic.get()));
+ * </pre>
+ * The latency of the handler is the latency of its slowest call, bounded by the deadline.
+ *
+ * @author zacheusz
+ */
+public final class FanOut {
+
+    private final ScheduledExecutorService executor;
+
+    private final long deadlineNanos;
+
+    private final List<Call<?>> calls = new ArrayList<>();
+
+    /**
+     * @param executor executor of the calls and the deadline, owned by the caller
+     * @param deadlineMillis time from now after which unfinished calls return their fallback
+     */
+    public FanOut(final ScheduledExecutorService executor, final long deadlineMillis) {
+        this.executor = executor;
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+    }
+
+    /**
+     * Start the call.
+     *
+     * @param supplier the backend call
+     * @param fallback result when the call fails or doesn't finish before the deadline
+     * @param <T> result type
+     * @return the call
+     */
+    public <T> Call<T> call(final Supplier<T> supplier, final T fallback) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final Future<?> task = this.executor.submit(() -> {
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
+            }
+        });
+        final Call<T> call = new Call<>(future, task, fallback);
+        this.calls.add(call);
+        return call;
+    }
+
+    /**
+     * @return stage completed when all calls finished or the deadline passed, never exceptionally
+     */
+    public CompletionStage<Void> join() {
+        final Call<?>[] started = this.calls.toArray(new Call<?>[0]);
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[started.length];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = started[i].future;
+        }
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        CompletableFuture.allOf(futures).whenComplete((ignored, ex) -> done.complete(null));
+        if (!done.isDone()) {
+            final ScheduledFuture<?> deadline = this.executor.schedule(() -> expire(started, done),
+                    Math.max(0L, this.deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+            done.whenComplete((ignored, ex) -> deadline.cancel(false));
+        }
+        return done;
+    }
+
+    private static void expire(final Call<?>[] started, final CompletableFuture<Void> done) {
+        for (final Call<?> call : started) {
+            call.cancel();
+        }
+        done.complete(null);
+    }
+
+    /**
+     * Backend call of the fan-out.
+     *
+     * @param <T> result type
+     */
+    public static final class Call<T> {
+
+        private final CompletableFuture<T> future;
+
+        private final Future<?> task;
+
+        private final T fallback;
+
+        private Call(final CompletableFuture<T> future, final Future<?> task, final T fallback) {
+            this.future = future;
+            this.task = task;
+            this.fallback = fallback;
+        }
+
+        private void cancel() {
+            if (this.future.cancel(false)) {
+                this.task.cancel(true);
+            }
+        }
+
+        /**
+         * @return the result if the call has finished successfully, otherwise the fallback
+         */
+        public T get() {
+            return isAvailable() ? this.future.join() : this.fallback;
+        }
+
+        /**
+         * @return <code>true</code> if the call has finished successfully
+         */
+        public boolean isAvailable() {
+            return this.future.isDone() && !this.future.isCompletedExceptionally();
+        }
+    }
+}
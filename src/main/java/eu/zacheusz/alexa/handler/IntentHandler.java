@@ -34,6 +34,12 @@ import com.amazon.speech.speechlet.SpeechletResponse;
  */
 public interface IntentHandler {
 
+    /**
+     * Optional service property listing the names of the intents supported by the handler.
+     * Handlers which declare it are routed without calling {@link #supportsIntent(String)}.
+     */
+    String INTENTS_PROPERTY = "alexa.intents";
+
     /**
      * Check if the handler has logic implementation for the intent with the given name.
      *
@@ -33,7 +33,6 @@ import com.amazon.speech.speechlet.SpeechletResponse;
  */
 public interface LaunchHandler {
 
-
     /**
      * Entry point for handling a speech initiated request to start the skill
      * without providing an {@code Intent}.<br>
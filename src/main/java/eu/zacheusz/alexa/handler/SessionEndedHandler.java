@@ -31,6 +31,7 @@ import com.amazon.speech.speechlet.SessionStartedRequest;
  * @author zacheusz
  */
 public interface SessionEndedHandler {
+
     /**
      * Callback used to notify that the session ended as a result of the user interacting, or not
      * interacting with the device. This method is not invoked if the {@code IntentHandler} itself
@@ -0,0 +1,44 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.handler;
+
+/**
+ * Service properties shared by the intent, launch and session handlers.
+ *
+ * @author zacheusz
+ */
+public final class SkillConstants {
+
+    /**
+     * Optional service property listing the names of the skills served by a handler.
+     * Handlers without it serve every skill.
+     */
+    public static final String SKILLS_PROPERTY = "alexa.skill";
+
+    /**
+     * Optional boolean service property. Handlers with <code>false</code> aren't called by the warm-up
+     * of the speechlet servlet, e.g. because they have side effects or call paid services.
+     */
+    public static final String WARMUP_PROPERTY = "alexa.warmup";
+
+    private SkillConstants() {
+    }
+}
@@ -0,0 +1,133 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Reads request bodies with a bounded size and a minimal number of allocations.<br>
+ *
+ * When the content length is known the body is read straight into an array of the exact size.
+ * Otherwise it is read into a pooled buffer and copied once. Bodies larger than the maximum are
+ * rejected before they are read completely.<br>
+ *
+ * Alexa always sends a content length, so its requests take the presized path. That array is the
+ * only allocation and can't be pooled, the SDK keeps the body it is given for the signature check
+ * and the deserialization. The pool serves chunked bodies, e.g. requests relayed by a proxy.
+ *
+ * @author zacheusz
+ */
+public class RequestBodyReader {
+
+    public static final int DEFAULT_MAX_BODY_BYTES = 128 * 1024;
+
+    public static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+
+    public static final int DEFAULT_POOL_SIZE = 64;
+
+    private final int maxBodyBytes;
+
+    private final int bufferSize;
+
+    private final BlockingQueue<byte[]> pool;
+
+    public RequestBodyReader() {
+        this(DEFAULT_MAX_BODY_BYTES, DEFAULT_BUFFER_SIZE, DEFAULT_POOL_SIZE);
+    }
+
+    /**
+     * @param maxBodyBytes maximum accepted body size
+     * @param bufferSize size of the pooled buffers
+     * @param poolSize maximum number of idle pooled buffers
+     */
+    public RequestBodyReader(final int maxBodyBytes, final int bufferSize, final int poolSize) {
+        this.maxBodyBytes = maxBodyBytes;
+        this.bufferSize = Math.max(1, Math.min(bufferSize, maxBodyBytes));
+        this.pool = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+    }
+
+    /**
+     * Read the whole body.
+     *
+     * @param in the body stream
+     * @param contentLength declared content length or a negative value if unknown
+     * @return the body
+     * @throws RequestBodyTooLargeException if the body exceeds the maximum
+     * @throws IOException if the body can't be read
+     */
+    public byte[] read(final InputStream in, final long contentLength) throws IOException {
+        if (contentLength > this.maxBodyBytes) {
+            throw new RequestBodyTooLargeException(this.maxBodyBytes);
+        }
+        return contentLength >= 0 ? readExactly(in, (int) contentLength) : readUnknownLength(in);
+    }
+
+    private static byte[] readExactly(final InputStream in, final int contentLength) throws IOException {
+        final byte[] body = new byte[contentLength];
+        int offset = 0;
+        while (offset < contentLength) {
+            final int read = in.read(body, offset, contentLength - offset);
+            if (read < 0) {
+                throw new EOFException("Request body is shorter than its content length " + contentLength);
+            }
+            offset += read;
+        }
+        return body;
+    }
+
+    private byte[] readUnknownLength(final InputStream in) throws IOException {
+        final byte[] pooled = borrow();
+        byte[] buffer = pooled;
+        int length = 0;
+        try {
+            int read;
+            while ((read = in.read(buffer, length, buffer.length - length)) >= 0) {
+                length += read;
+                if (length == buffer.length) {
+                    if (length == this.maxBodyBytes) {
+                        if (in.read() >= 0) {
+                            throw new RequestBodyTooLargeException(this.maxBodyBytes);
+                        }
+                        break;
+                    }
+                    buffer = Arrays.copyOf(buffer, (int) Math.min(2L * buffer.length, this.maxBodyBytes));
+                }
+            }
+            return Arrays.copyOf(buffer, length);
+        } finally {
+            this.pool.offer(pooled);
+        }
+    }
+
+    private byte[] borrow() {
+        final byte[] buffer = this.pool.poll();
+        return buffer == null ? new byte[this.bufferSize] : buffer;
+    }
+
+    public int getMaxBodyBytes() {
+        return this.maxBodyBytes;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.io;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Fields of the serialized request envelope needed before the speechlet call.<br>
+ *
+ * The envelope is scanned token by token and only the request id, request type, intent name, timestamp,
+ * application id and the new session flag are kept, so nothing is data bound and unrelated objects are skipped.
+ *
+ * @author zacheusz
+ */
+public final class RequestEnvelopeHeader {
+
+    /**
+     * Value of {@link #getTimestamp()} when the envelope has no readable timestamp.
+     */
+    public static final long UNKNOWN_TIMESTAMP = Long.MIN_VALUE;
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String[] CONTEXT_APPLICATION_ID = {"System", "application", "applicationId"};
+
+    private static final String[] APPLICATION_ID = {"applicationId"};
+
+    private static final String[] INTENT_NAME = {"name"};
+
+    private final String requestId;
+
+    private final String requestType;
+
+    private final String intentName;
+
+    private final long timestamp;
+
+    private final String applicationId;
+
+    private final boolean newSession;
+
+    private RequestEnvelopeHeader(final String requestId, final String requestType, final String intentName,
+                                  final long timestamp, final String applicationId, final boolean newSession) {
+        this.requestId = requestId;
+        this.requestType = requestType;
+        this.intentName = intentName;
+        this.timestamp = timestamp;
+        this.applicationId = applicationId;
+        this.newSession = newSession;
+    }
+
+    /**
+     * Scan the serialized request envelope.
+     *
+     * @param speechletRequest serialized request envelope
+     * @return the envelope header
+     * @throws IOException if the envelope isn't a JSON object
+     */
+    public static RequestEnvelopeHeader parse(final byte[] speechletRequest) throws IOException {
+        String contextApplicationId = null;
+        String sessionApplicationId = null;
+        String requestId = null;
+        String requestType = null;
+        String intentName = null;
+        long timestamp = UNKNOWN_TIMESTAMP;
+        boolean newSession = true;
+        try (final JsonParser parser = JSON_FACTORY.createParser(speechletRequest)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Request envelope is not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String name = parser.getCurrentName();
+                final JsonToken value = parser.nextToken();
+                if ("context".equals(name)) {
+                    contextApplicationId = readString(parser, CONTEXT_APPLICATION_ID, 0);
+                } else if ("session".equals(name) && value == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        final String field = parser.getCurrentName();
+                        final JsonToken fieldValue = parser.nextToken();
+                        if ("new".equals(field) && fieldValue.isBoolean()) {
+                            newSession = fieldValue == JsonToken.VALUE_TRUE;
+                        } else if ("application".equals(field)) {
+                            sessionApplicationId = readString(parser, APPLICATION_ID, 0);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else if ("request".equals(name) && value == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        final String field = parser.getCurrentName();
+                        final JsonToken fieldValue = parser.nextToken();
+                        if ("type".equals(field) && fieldValue == JsonToken.VALUE_STRING) {
+                            requestType = parser.getText();
+                        } else if ("requestId".equals(field) && fieldValue == JsonToken.VALUE_STRING) {
+                            requestId = parser.getText();
+                        } else if ("timestamp".equals(field)) {
+                            timestamp = readTimestamp(parser, fieldValue);
+                        } else if ("intent".equals(field)) {
+                            intentName = readString(parser, INTENT_NAME, 0);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return new RequestEnvelopeHeader(requestId, requestType, intentName, timestamp,
+                contextApplicationId != null ? contextApplicationId : sessionApplicationId, newSession);
+    }
+
+    private static long readTimestamp(final JsonParser parser, final JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        if (value != JsonToken.VALUE_STRING) {
+            parser.skipChildren();
+            return UNKNOWN_TIMESTAMP;
+        }
+        final String text = parser.getText();
+        try {
+            return Instant.parse(text).toEpochMilli();
+        } catch (DateTimeParseException ex) {
+            try {
+                return OffsetDateTime.parse(text).toInstant().toEpochMilli();
+            } catch (DateTimeParseException ignored) {
+                return UNKNOWN_TIMESTAMP;
+            }
+        }
+    }
+
+    /**
+     * Read the string at the path within the current value and skip the rest of it.
+     */
+    private static String readString(final JsonParser parser, final String[] path, final int depth)
+            throws IOException {
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+        String found = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String name = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if (found == null && path[depth].equals(name)) {
+                if (depth < path.length - 1) {
+                    found = readString(parser, path, depth + 1);
+                } else if (value == JsonToken.VALUE_STRING) {
+                    found = parser.getText();
+                } else {
+                    parser.skipChildren();
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return request id or <code>null</code> if the envelope has none
+     */
+    public String getRequestId() {
+        return this.requestId;
+    }
+
+    /**
+     * @return request type, e.g. <code>IntentRequest</code>, or <code>null</code> if the envelope has none
+     */
+    public String getRequestType() {
+        return this.requestType;
+    }
+
+    /**
+     * @return intent name of intent requests or <code>null</code>
+     */
+    public String getIntentName() {
+        return this.intentName;
+    }
+
+    /**
+     * @return request timestamp in epoch milliseconds or {@link #UNKNOWN_TIMESTAMP}
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * @return application id from the context or the session or <code>null</code> if the envelope has none
+     */
+    public String getApplicationId() {
+        return this.applicationId;
+    }
+
+    /**
+     * @return <code>false</code> only if the envelope has a session which isn't new
+     */
+    public boolean isNewSession() {
+        return this.newSession;
+    }
+}
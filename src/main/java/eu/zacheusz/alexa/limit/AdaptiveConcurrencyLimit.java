@@ -0,0 +1,135 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.limit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrency limit adapting to the observed latency with additive increase, multiplicative decrease.<br>
+ *
+ * A call finishing within the latency target raises the limit by one, if the limit was
+ * nearly used. A slower or failed call lowers it by {@link #BACKOFF_RATIO}, at most once per sampling
+ * window of the latency target, so the calls that were in flight together with a slow one don't lower
+ * it again for the same overload. Calls over the limit are rejected right away instead of waiting.
+ *
+ * @author zacheusz
+ */
+public final class AdaptiveConcurrencyLimit {
+
+    static final double BACKOFF_RATIO = 0.9;
+
+    private final int minLimit;
+
+    private final int maxLimit;
+
+    private final long latencyTargetNanos;
+
+    private final AtomicInteger limit;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicLong lastBackoff;
+
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * @param initialLimit initial number of concurrent calls
+     * @param maxLimit maximum number of concurrent calls
+     * @param latencyTargetMillis latency above which the limit is lowered
+     */
+    public AdaptiveConcurrencyLimit(final int initialLimit, final int maxLimit, final long latencyTargetMillis) {
+        this.minLimit = 1;
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = new AtomicInteger(Math.max(this.minLimit, Math.min(initialLimit, this.maxLimit)));
+        this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMillis);
+        this.lastBackoff = new AtomicLong(System.nanoTime() - this.latencyTargetNanos);
+    }
+
+    /**
+     * @return <code>true</code> if the call is admitted and {@link #release} must follow
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            final int current = this.inFlight.get();
+            if (current >= this.limit.get()) {
+                this.rejected.increment();
+                return false;
+            }
+            if (this.inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Release the admitted call without adapting the limit.
+     */
+    public void cancel() {
+        this.inFlight.decrementAndGet();
+    }
+
+    /**
+     * Release the admitted call and adapt the limit.
+     *
+     * @param latencyNanos duration of the call
+     * @param success <code>false</code> if the call failed
+     */
+    public void release(final long latencyNanos, final boolean success) {
+        release(latencyNanos, success, System.nanoTime());
+    }
+
+    void release(final long latencyNanos, final boolean success, final long now) {
+        final int concurrent = this.inFlight.getAndDecrement();
+        if (!success || latencyNanos > this.latencyTargetNanos) {
+            final long last = this.lastBackoff.get();
+            if (now - last >= this.latencyTargetNanos && this.lastBackoff.compareAndSet(last, now)) {
+                this.limit.updateAndGet(current -> Math.max(this.minLimit, (int) (current * BACKOFF_RATIO)));
+            }
+        } else {
+            this.limit.updateAndGet(current ->
+                    concurrent * 2 >= current && current < this.maxLimit ? current + 1 : current);
+        }
+    }
+
+    /**
+     * @return current number of admitted concurrent calls
+     */
+    public int getLimit() {
+        return this.limit.get();
+    }
+
+    /**
+     * @return number of calls in flight
+     */
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * @return number of rejected calls
+     */
+    public long getRejectedCount() {
+        return this.rejected.sum();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.limit;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Global and per-intent {@link AdaptiveConcurrencyLimit}s of a speechlet.<br>
+ *
+ * A call is admitted when both the global limit and the limit of its intent allow it.
+ * Per-intent limits are kept for a bounded number of intent names, further intents are limited
+ * only globally.<br>
+ *
+ * A slow or failed call lowers the limit of its intent and the global limit. The intent limit sheds
+ * the calls of one slow backend, the global limit protects the skill when many intents are slow.
+ *
+ * @author zacheusz
+ */
+public class ConcurrencyLimiter {
+
+    /**
+     * Upper bound of tracked intent names, protects the limiter against unbounded intent names.
+     */
+    private static final int MAX_INTENTS = 512;
+
+    private final AdaptiveConcurrencyLimit global;
+
+    private final ConcurrentMap<String, AdaptiveConcurrencyLimit> intents = new ConcurrentHashMap<>();
+
+    private final int intentInitialLimit;
+
+    private final int intentMaxLimit;
+
+    private final long latencyTargetMillis;
+
+    /**
+     * @param globalInitialLimit initial global limit
+     * @param globalMaxLimit maximum global limit
+     * @param intentInitialLimit initial limit of each intent
+     * @param intentMaxLimit maximum limit of each intent
+     * @param latencyTargetMillis latency above which limits are lowered
+     */
+    public ConcurrencyLimiter(final int globalInitialLimit, final int globalMaxLimit, final int intentInitialLimit,
+                              final int intentMaxLimit, final long latencyTargetMillis) {
+        this.global = new AdaptiveConcurrencyLimit(globalInitialLimit, globalMaxLimit, latencyTargetMillis);
+        this.intentInitialLimit = intentInitialLimit;
+        this.intentMaxLimit = intentMaxLimit;
+        this.latencyTargetMillis = latencyTargetMillis;
+    }
+
+    /**
+     * Admit the call of the intent handler.
+     *
+     * @param intentName the name of the intent
+     * @return the permit to release when the call finishes or <code>null</code> if the call is rejected
+     */
+    public Permit acquire(final String intentName) {
+        if (!this.global.tryAcquire()) {
+            return null;
+        }
+        final AdaptiveConcurrencyLimit intent = intentLimit(intentName);
+        if (intent != null && !intent.tryAcquire()) {
+            this.global.cancel();
+            return null;
+        }
+        return new Permit(intent);
+    }
+
+    private AdaptiveConcurrencyLimit intentLimit(final String intentName) {
+        final AdaptiveConcurrencyLimit limit = this.intents.get(intentName);
+        if (limit != null || this.intents.size() >= MAX_INTENTS) {
+            return limit;
+        }
+        return this.intents.computeIfAbsent(intentName, name ->
+                new AdaptiveConcurrencyLimit(this.intentInitialLimit, this.intentMaxLimit, this.latencyTargetMillis));
+    }
+
+    /**
+     * @return the global limit
+     */
+    public AdaptiveConcurrencyLimit getGlobalLimit() {
+        return this.global;
+    }
+
+    /**
+     * @return limits of the intents sorted by intent name
+     */
+    public Map<String, AdaptiveConcurrencyLimit> getIntentLimits() {
+        return new TreeMap<>(this.intents);
+    }
+
+    /**
+     * @return number of calls rejected by the global or an intent limit
+     */
+    public long getRejectedCount() {
+        long rejected = this.global.getRejectedCount();
+        for (final AdaptiveConcurrencyLimit limit : this.intents.values()) {
+            rejected += limit.getRejectedCount();
+        }
+        return rejected;
+    }
+
+    /**
+     * Write the current limits as a JSON object.
+     *
+     * @param json the generator
+     * @throws IOException if writing fails
+     */
+    public void writeJson(final JsonGenerator json) throws IOException {
+        json.writeStartObject();
+        json.writeFieldName("global");
+        writeJson(json, this.global);
+        json.writeObjectFieldStart("intents");
+        for (final Map.Entry<String, AdaptiveConcurrencyLimit> entry : getIntentLimits().entrySet()) {
+            json.writeFieldName(entry.getKey());
+            writeJson(json, entry.getValue());
+        }
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+
+    private static void writeJson(final JsonGenerator json, final AdaptiveConcurrencyLimit limit) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("limit", limit.getLimit());
+        json.writeNumberField("inFlight", limit.getInFlight());
+        json.writeNumberField("rejected", limit.getRejectedCount());
+        json.writeEndObject();
+    }
+
+    /**
+     * Admission of a single call.
+     */
+    public final class Permit {
+
+        private final AdaptiveConcurrencyLimit intent;
+
+        private final long started = System.nanoTime();
+
+        private Permit(final AdaptiveConcurrencyLimit intent) {
+            this.intent = intent;
+        }
+
+        /**
+         * Release the permit and adapt the limits to the latency of the call.
+         *
+         * @param success <code>false</code> if the call failed
+         */
+        public void release(final boolean success) {
+            final long latency = System.nanoTime() - this.started;
+            ConcurrencyLimiter.this.global.release(latency, success);
+            if (this.intent != null) {
+                this.intent.release(latency, success);
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.metrics;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power of two microsecond buckets.<br>
+ *
+ * Recording only increments striped counters, so concurrent requests don't contend on it.
+ * Percentiles are reported as the upper bound of the bucket containing them.
+ *
+ * @author zacheusz
+ */
+public final class LatencyHistogram {
+
+    private static final int BUCKETS = 32;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder totalMicros = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos the recorded latency in nanoseconds
+     */
+    public void record(final long nanos) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0L, nanos));
+        this.buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))].increment();
+        this.count.increment();
+        this.totalMicros.add(micros);
+    }
+
+    public long getCount() {
+        return this.count.sum();
+    }
+
+    public double getMeanMicros() {
+        final long n = this.count.sum();
+        return n == 0 ? 0d : (double) this.totalMicros.sum() / n;
+    }
+
+    /**
+     * @param quantile the quantile between 0 and 1
+     * @return upper bound in microseconds of the bucket containing the quantile
+     */
+    public long getPercentileMicros(final double quantile) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0L;
+        }
+        final long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBoundMicros(i);
+            }
+        }
+        return upperBoundMicros(BUCKETS - 1);
+    }
+
+    private static long upperBoundMicros(final int bucket) {
+        return bucket == 0 ? 0L : (1L << bucket) - 1;
+    }
+
+    void writeJson(final JsonGenerator json) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("count", getCount());
+        json.writeNumberField("meanMicros", getMeanMicros());
+        json.writeNumberField("p50Micros", getPercentileMicros(0.5));
+        json.writeNumberField("p90Micros", getPercentileMicros(0.9));
+        json.writeNumberField("p99Micros", getPercentileMicros(0.99));
+        json.writeNumberField("p999Micros", getPercentileMicros(0.999));
+        json.writeEndObject();
+    }
+}
@@ -0,0 +1,136 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.metrics;
+
+/**
+ * Timestamps of the phases of a single POST request.<br>
+ *
+ * The speechlet call of the SDK deserializes the request, invokes the speechlet and serializes
+ * the response, so the deserialization and serialization phases are derived from the time the
+ * first speechlet callback started and the last one finished.<br>
+ *
+ * The timer is passed explicitly along the request, asynchronous requests record the phases
+ * from different threads, so the timestamps are volatile.
+ *
+ * @author zacheusz
+ */
+public class RequestTimer {
+
+    /**
+     * Timer used when metrics aren't collected.
+     */
+    public static final RequestTimer NOOP = new RequestTimer(null) {
+        @Override
+        public void bodyRead() {
+        }
+
+        @Override
+        public void signatureChecked() {
+        }
+
+        @Override
+        public void handlerStarted() {
+        }
+
+        @Override
+        public void handlerFinished() {
+        }
+
+        @Override
+        public void speechletCallFinished() {
+        }
+
+        @Override
+        public void finish(final int status) {
+        }
+    };
+
+    private final SpeechletMetrics metrics;
+
+    private final long started = System.nanoTime();
+
+    private volatile long bodyRead;
+
+    private volatile long signatureChecked;
+
+    private volatile long firstHandlerStarted;
+
+    private volatile long lastHandlerFinished;
+
+    private volatile long speechletCallFinished;
+
+    RequestTimer(final SpeechletMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void bodyRead() {
+        this.bodyRead = System.nanoTime();
+    }
+
+    public void signatureChecked() {
+        this.signatureChecked = System.nanoTime();
+    }
+
+    /**
+     * Mark the start of a speechlet callback, only the first one of the request is kept.
+     */
+    public void handlerStarted() {
+        if (this.firstHandlerStarted == 0L) {
+            this.firstHandlerStarted = System.nanoTime();
+        }
+    }
+
+    /**
+     * Mark the end of a speechlet callback, the last one of the request is kept.
+     */
+    public void handlerFinished() {
+        this.lastHandlerFinished = System.nanoTime();
+    }
+
+    public void speechletCallFinished() {
+        this.speechletCallFinished = System.nanoTime();
+    }
+
+    /**
+     * Record the phases and the response status.
+     * @param status HTTP status code of the response
+     */
+    public void finish(final int status) {
+        final long finished = System.nanoTime();
+        if (this.bodyRead != 0L) {
+            this.metrics.record(Phase.BODY_READ, this.bodyRead - this.started);
+        }
+        if (this.signatureChecked != 0L) {
+            this.metrics.record(Phase.SIGNATURE_CHECK, this.signatureChecked - this.bodyRead);
+        }
+        final long callStarted = this.signatureChecked != 0L ? this.signatureChecked : this.bodyRead;
+        // an asynchronous call answered at its deadline may finish before its handler
+        if (this.firstHandlerStarted != 0L && this.lastHandlerFinished != 0L && callStarted != 0L) {
+            this.metrics.record(Phase.DESERIALIZATION, this.firstHandlerStarted - callStarted);
+            this.metrics.record(Phase.HANDLER, this.lastHandlerFinished - this.firstHandlerStarted);
+            if (this.speechletCallFinished != 0L) {
+                this.metrics.record(Phase.SERIALIZATION, this.speechletCallFinished - this.lastHandlerFinished);
+            }
+        }
+        this.metrics.record(Phase.TOTAL, finished - this.started);
+        this.metrics.recordStatus(status);
+    }
+}
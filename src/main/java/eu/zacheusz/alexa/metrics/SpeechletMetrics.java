@@ -0,0 +1,254 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.metrics;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counters and latency histograms of the speechlet servlet and the speechlet.<br>
+ *
+ * Counters are striped {@link LongAdder}s and histograms are lock-free, so recording doesn't
+ * introduce contention between request threads. The metrics are available as an OSGi service,
+ * as the <code>eu.zacheusz.alexa:type=SpeechletMetrics</code> MBean and as JSON.
+ *
+ * @author zacheusz
+ */
+@Component
+@Service(SpeechletMetrics.class)
+public class SpeechletMetrics implements SpeechletMetricsMBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpeechletMetrics.class);
+
+    public static final String OBJECT_NAME = "eu.zacheusz.alexa:type=SpeechletMetrics";
+
+    /**
+     * Upper bound of separately tracked intents, the remaining ones are counted as {@link #OTHER_INTENTS}.
+     */
+    private static final int MAX_INTENTS = 512;
+
+    static final String OTHER_INTENTS = "_other";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final Map<Phase, LatencyHistogram> phases = new EnumMap<>(Phase.class);
+
+    private final ConcurrentMap<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, LatencyHistogram> requestTypes = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, LatencyHistogram> intents = new ConcurrentHashMap<>();
+
+    private ObjectName objectName;
+
+    public SpeechletMetrics() {
+        for (final Phase phase : Phase.values()) {
+            this.phases.put(phase, new LatencyHistogram());
+        }
+    }
+
+    @Activate
+    protected void activate() {
+        try {
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+                this.objectName = name;
+            }
+        } catch (JMException ex) {
+            LOG.warn("Unable to register {} MBean", OBJECT_NAME, ex);
+        }
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        if (this.objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            } catch (JMException ex) {
+                LOG.warn("Unable to unregister {} MBean", OBJECT_NAME, ex);
+            }
+            this.objectName = null;
+        }
+    }
+
+    /**
+     * Start timing a POST request. The caller passes the timer along the request
+     * and finishes it once the response is written.
+     * @return the request timer
+     */
+    public RequestTimer startRequest() {
+        return new RequestTimer(this);
+    }
+
+    /**
+     * Mark the start of a speechlet callback.
+     * @return start time to pass to {@link #handlerFinished(String, String, long)}
+     */
+    public long handlerStarted() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record a finished speechlet callback.
+     * @param requestType the speechlet request type
+     * @param intentName the intent name or <code>null</code> if it isn't an intent request
+     * @param started value returned by {@link #handlerStarted()}
+     */
+    public void handlerFinished(final String requestType, final String intentName, final long started) {
+        final long now = System.nanoTime();
+        histogram(this.requestTypes, requestType).record(now - started);
+        if (intentName != null) {
+            final String key = this.intents.size() < MAX_INTENTS || this.intents.containsKey(intentName)
+                    ? intentName : OTHER_INTENTS;
+            histogram(this.intents, key).record(now - started);
+        }
+    }
+
+    private static LatencyHistogram histogram(final ConcurrentMap<String, LatencyHistogram> histograms,
+                                              final String key) {
+        final LatencyHistogram histogram = histograms.get(key);
+        return histogram != null ? histogram : histograms.computeIfAbsent(key, k -> new LatencyHistogram());
+    }
+
+    void record(final Phase phase, final long nanos) {
+        this.phases.get(phase).record(nanos);
+    }
+
+    void recordStatus(final int status) {
+        this.requests.increment();
+        if (status >= 400) {
+            this.errors.increment();
+        }
+        LongAdder counter = this.statuses.get(status);
+        if (counter == null) {
+            counter = this.statuses.computeIfAbsent(status, s -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    public LatencyHistogram getPhase(final Phase phase) {
+        return this.phases.get(phase);
+    }
+
+    @Override
+    public long getRequestCount() {
+        return this.requests.sum();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return this.errors.sum();
+    }
+
+    @Override
+    public double getMeanLatencyMicros() {
+        return this.phases.get(Phase.TOTAL).getMeanMicros();
+    }
+
+    @Override
+    public long getP99LatencyMicros() {
+        return this.phases.get(Phase.TOTAL).getPercentileMicros(0.99);
+    }
+
+    @Override
+    public String getSnapshotJson() {
+        final StringWriter writer = new StringWriter();
+        try {
+            writeJson(writer);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Write all metrics as a JSON object.
+     * @param writer the target writer, not closed
+     * @throws IOException if writing fails
+     */
+    public void writeJson(final Writer writer) throws IOException {
+        final JsonGenerator json = JSON_FACTORY.createGenerator(writer);
+        json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        writeJson(json);
+        json.close();
+    }
+
+    /**
+     * Write all metrics as a JSON object.
+     * @param json the target generator
+     * @throws IOException if writing fails
+     */
+    public void writeJson(final JsonGenerator json) throws IOException {
+        json.writeStartObject();
+        json.writeNumberField("requests", getRequestCount());
+        json.writeNumberField("errors", getErrorCount());
+        json.writeObjectFieldStart("statuses");
+        for (final Map.Entry<Integer, LongAdder> status : new TreeMap<>(this.statuses).entrySet()) {
+            json.writeNumberField(String.valueOf(status.getKey()), status.getValue().sum());
+        }
+        json.writeEndObject();
+        json.writeObjectFieldStart("phases");
+        for (final Map.Entry<Phase, LatencyHistogram> phase : this.phases.entrySet()) {
+            json.writeFieldName(phase.getKey().getJsonName());
+            phase.getValue().writeJson(json);
+        }
+        json.writeEndObject();
+        writeHistograms(json, "requestTypes", this.requestTypes);
+        writeHistograms(json, "intents", this.intents);
+        json.writeEndObject();
+    }
+
+    private static void writeHistograms(final JsonGenerator json, final String name,
+                                        final Map<String, LatencyHistogram> histograms) throws IOException {
+        json.writeObjectFieldStart(name);
+        for (final Map.Entry<String, LatencyHistogram> histogram : new TreeMap<>(histograms).entrySet()) {
+            json.writeFieldName(histogram.getKey());
+            histogram.getValue().writeJson(json);
+        }
+        json.writeEndObject();
+    }
+}
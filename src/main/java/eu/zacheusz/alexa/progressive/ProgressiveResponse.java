@@ -0,0 +1,89 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.progressive;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progressive responses of a single request.<br>
+ *
+ * Interim speech is sent in the background while the handler keeps working on the final response.
+ * Create it with {@link ProgressiveResponseClient#forRequest} at the beginning of the handler.
+ *
+ * @author zacheusz
+ */
+public final class ProgressiveResponse {
+
+    /**
+     * Alexa accepts at most five progressive responses per request.
+     */
+    public static final int MAX_DIRECTIVES = 5;
+
+    private final ProgressiveResponseClient client;
+
+    private final String requestId;
+
+    private final String url;
+
+    private final String apiAccessToken;
+
+    private final AtomicInteger sent = new AtomicInteger();
+
+    ProgressiveResponse(final ProgressiveResponseClient client, final String requestId, final String url,
+                        final String apiAccessToken) {
+        this.client = client;
+        this.requestId = requestId;
+        this.url = url;
+        this.apiAccessToken = apiAccessToken;
+    }
+
+    /**
+     * @return <code>true</code> if the request envelope allows progressive responses
+     */
+    public boolean isAvailable() {
+        return this.url != null;
+    }
+
+    /**
+     * Speak the text to the user without waiting for the directive endpoint.
+     *
+     * @param speech plain text or SSML speech
+     * @return future of the HTTP status code of the directive endpoint, completed exceptionally
+     * if the directive wasn't sent
+     */
+    public CompletableFuture<Integer> speak(final String speech) {
+        if (!isAvailable()) {
+            return failed(new IllegalStateException("Request " + this.requestId + " has no API access token"));
+        }
+        if (this.sent.incrementAndGet() > MAX_DIRECTIVES) {
+            return failed(new IllegalStateException("Request " + this.requestId + " exceeded "
+                    + MAX_DIRECTIVES + " progressive responses"));
+        }
+        return this.client.send(this.url, this.apiAccessToken, this.requestId, speech);
+    }
+
+    private static CompletableFuture<Integer> failed(final Exception ex) {
+        final CompletableFuture<Integer> future = new CompletableFuture<>();
+        future.completeExceptionally(ex);
+        return future;
+    }
+}
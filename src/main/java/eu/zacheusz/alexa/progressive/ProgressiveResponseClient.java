@@ -0,0 +1,230 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.progressive;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.Context;
+import com.amazon.speech.speechlet.interfaces.system.SystemInterface;
+import com.amazon.speech.speechlet.interfaces.system.SystemState;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends progressive responses to the Alexa directive endpoint.<br>
+ *
+ * Directives are sent by a small pool of background threads over keep-alive HTTP connections,
+ * so handlers never wait for the endpoint. Directives are dropped when the pool is saturated,
+ * because a late progressive response is useless.
+ *
+ * @author zacheusz
+ */
+@Component(label = "Alexa Progressive Response Client",
+        description = "Alexa Progressive Response Client",
+        metatype = true)
+@Service(ProgressiveResponseClient.class)
+public class ProgressiveResponseClient {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ProgressiveResponseClient.class);
+
+    static final String DIRECTIVES_PATH = "/v1/directives";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Property(label = "Directive endpoint base URL. Empty uses the API endpoint of the request envelope.", value = "")
+    private static final String ENDPOINT_PROPERTY = "endpoint";
+
+    @Property(label = "Connect timeout in milliseconds.", intValue = 1000)
+    private static final String CONNECT_TIMEOUT_PROPERTY = "connectTimeoutMillis";
+
+    @Property(label = "Read timeout in milliseconds.", intValue = 2000)
+    private static final String READ_TIMEOUT_PROPERTY = "readTimeoutMillis";
+
+    @Property(label = "Sender threads.", intValue = 4)
+    private static final String THREADS_PROPERTY = "threads";
+
+    @Property(label = "Maximum number of directives waiting to be sent.", intValue = 256)
+    private static final String QUEUE_SIZE_PROPERTY = "queueSize";
+
+    private String endpoint;
+
+    private int connectTimeoutMillis;
+
+    private int readTimeoutMillis;
+
+    private ThreadPoolExecutor sender;
+
+    @Activate
+    protected void activate(final Map<String, Object> properties) {
+        start(PropertiesUtil.toString(properties.get(ENDPOINT_PROPERTY), ""),
+                PropertiesUtil.toInteger(properties.get(CONNECT_TIMEOUT_PROPERTY), 1000),
+                PropertiesUtil.toInteger(properties.get(READ_TIMEOUT_PROPERTY), 2000),
+                PropertiesUtil.toInteger(properties.get(THREADS_PROPERTY), 4),
+                PropertiesUtil.toInteger(properties.get(QUEUE_SIZE_PROPERTY), 256));
+    }
+
+    /**
+     * Start the client outside of OSGi, e.g. against a local stand-in endpoint.
+     *
+     * @param endpoint directive endpoint base URL or empty to use the API endpoint of the request envelope
+     * @param connectTimeoutMillis connect timeout
+     * @param readTimeoutMillis read timeout
+     * @param threads sender threads
+     * @param queueSize maximum number of directives waiting to be sent
+     */
+    public void start(final String endpoint, final int connectTimeoutMillis, final int readTimeoutMillis,
+                      final int threads, final int queueSize) {
+        this.endpoint = endpoint == null || endpoint.isEmpty() ? null : endpoint;
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        final AtomicInteger counter = new AtomicInteger();
+        this.sender = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueSize), runnable -> {
+                    final Thread thread = new Thread(runnable, "alexa-progressive-response-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        this.sender.shutdownNow();
+    }
+
+    /**
+     * Create the progressive response context of the request.
+     *
+     * @param requestEnvelope the request envelope
+     * @return the progressive response context, which doesn't send anything when the envelope
+     * has no API access token
+     */
+    public ProgressiveResponse forRequest(final SpeechletRequestEnvelope<?> requestEnvelope) {
+        String apiEndpoint = null;
+        String apiAccessToken = null;
+        final Context context = requestEnvelope.getContext();
+        final SystemState system = context == null ? null : context.getState(SystemInterface.class, SystemState.class);
+        if (system != null) {
+            apiEndpoint = system.getApiEndpoint();
+            apiAccessToken = system.getApiAccessToken();
+        }
+        final String base = this.endpoint != null ? this.endpoint : apiEndpoint;
+        return new ProgressiveResponse(this, requestEnvelope.getRequest().getRequestId(),
+                base == null || apiAccessToken == null ? null : base + DIRECTIVES_PATH, apiAccessToken);
+    }
+
+    /**
+     * Send the speech directive in the background.
+     *
+     * @return future of the HTTP status code, completed exceptionally if the directive wasn't sent
+     */
+    CompletableFuture<Integer> send(final String url, final String apiAccessToken, final String requestId,
+                                    final String speech) {
+        final CompletableFuture<Integer> status = new CompletableFuture<>();
+        try {
+            this.sender.execute(() -> {
+                try {
+                    status.complete(post(url, apiAccessToken, directive(requestId, speech)));
+                } catch (IOException | RuntimeException ex) {
+                    LOG.warn("Unable to send progressive response of request {}", requestId, ex);
+                    status.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            LOG.warn("Progressive response sender is saturated. Dropping response of request {}.", requestId);
+            status.completeExceptionally(ex);
+        }
+        return status;
+    }
+
+    private static byte[] directive(final String requestId, final String speech) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(128 + speech.length());
+        try (final JsonGenerator json = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            json.writeStartObject();
+            json.writeObjectFieldStart("header");
+            json.writeStringField("requestId", requestId);
+            json.writeEndObject();
+            json.writeObjectFieldStart("directive");
+            json.writeStringField("type", "VoicePlayer.Speak");
+            json.writeStringField("speech", speech);
+            json.writeEndObject();
+            json.writeEndObject();
+        }
+        return out.toByteArray();
+    }
+
+    private int post(final String url, final String apiAccessToken, final byte[] body) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(this.connectTimeoutMillis);
+        connection.setReadTimeout(this.readTimeoutMillis);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", "application/json");
+        connection.setRequestProperty("Authorization", "Bearer " + apiAccessToken);
+        try (final OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        final int status = connection.getResponseCode();
+        // read the response fully, so the connection returns to the keep-alive cache
+        try (final InputStream in = status < HttpURLConnection.HTTP_BAD_REQUEST
+                ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                final byte[] buffer = new byte[512];
+                while (in.read(buffer) >= 0) {
+                    // discard
+                }
+            }
+        }
+        if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+            LOG.warn("Directive endpoint answered {}", status);
+        }
+        return status;
+    }
+
+    /**
+     * @return number of directives waiting to be sent
+     */
+    public int getQueuedCount() {
+        return this.sender.getQueue().size();
+    }
+}
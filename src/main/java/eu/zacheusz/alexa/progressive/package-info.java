@@ -0,0 +1,29 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+/**
+ * Progressive responses spoken while the final response is still being prepared.<br>
+ *
+ * {@link eu.zacheusz.alexa.progressive.ProgressiveResponseClient} posts <code>VoicePlayer.Speak</code>
+ * directives to the Alexa directive endpoint from its own sender threads and drops them when it falls
+ * behind. {@link eu.zacheusz.alexa.progressive.ProgressiveResponse} binds them to one request and
+ * enforces the limit of five directives per request.
+ */
+package eu.zacheusz.alexa.progressive;
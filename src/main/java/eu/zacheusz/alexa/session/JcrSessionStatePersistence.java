@@ -0,0 +1,212 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.session;
+
+import javax.jcr.Node;
+import javax.jcr.Property;
+import javax.jcr.PropertyIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stores session state attributes as properties of <code>nt:unstructured</code> nodes.<br>
+ *
+ * Each key is stored under <code>rootPath/&lt;shard&gt;/&lt;hash&gt;</code>, where the hash is
+ * the SHA-256 of the key, so Alexa ids don't appear in repository paths. A batch is written
+ * with a single session save.
+ *
+ * @author zacheusz
+ */
+public class JcrSessionStatePersistence implements SessionStatePersistence {
+
+    private static final String NODE_TYPE = "nt:unstructured";
+
+    private static final String ESCAPED_CHARACTERS = "%/:[]*|'\"\t\r\n";
+
+    /**
+     * Opens repository sessions, which are logged out after every load or store.
+     */
+    public interface SessionFactory {
+        Session open() throws RepositoryException;
+    }
+
+    private final SessionFactory sessionFactory;
+
+    private final String rootPath;
+
+    public JcrSessionStatePersistence(final SessionFactory sessionFactory, final String rootPath) {
+        this.sessionFactory = sessionFactory;
+        this.rootPath = rootPath.endsWith("/") ? rootPath.substring(0, rootPath.length() - 1) : rootPath;
+    }
+
+    @Override
+    public Map<String, Object> load(final String key) throws IOException {
+        final Map<String, Object> attributes = new HashMap<>();
+        Session session = null;
+        try {
+            session = this.sessionFactory.open();
+            final String path = path(key);
+            if (session.nodeExists(path)) {
+                final PropertyIterator properties = session.getNode(path).getProperties();
+                while (properties.hasNext()) {
+                    final Property property = properties.nextProperty();
+                    final String name = property.getName();
+                    if (!name.startsWith("jcr:") && !property.isMultiple()) {
+                        attributes.put(unescape(name), toValue(property));
+                    }
+                }
+            }
+        } catch (RepositoryException ex) {
+            throw new IOException("Unable to load session state", ex);
+        } finally {
+            if (session != null) {
+                session.logout();
+            }
+        }
+        return attributes;
+    }
+
+    @Override
+    public void store(final Map<String, Map<String, Object>> batch) throws IOException {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Session session = null;
+        try {
+            session = this.sessionFactory.open();
+            for (final Map.Entry<String, Map<String, Object>> entry : batch.entrySet()) {
+                write(getOrCreateNode(session, entry.getKey()), entry.getValue());
+            }
+            session.save();
+        } catch (RepositoryException ex) {
+            throw new IOException("Unable to store session state", ex);
+        } finally {
+            if (session != null) {
+                session.logout();
+            }
+        }
+    }
+
+    private static void write(final Node node, final Map<String, Object> attributes) throws RepositoryException {
+        final Set<String> names = new HashSet<>();
+        for (final Map.Entry<String, Object> attribute : attributes.entrySet()) {
+            final String name = escape(attribute.getKey());
+            names.add(name);
+            final Object value = attribute.getValue();
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                node.setProperty(name, ((Number) value).longValue());
+            } else if (value instanceof Number) {
+                node.setProperty(name, ((Number) value).doubleValue());
+            } else if (value instanceof Boolean) {
+                node.setProperty(name, (Boolean) value);
+            } else {
+                node.setProperty(name, String.valueOf(value));
+            }
+        }
+        final PropertyIterator properties = node.getProperties();
+        while (properties.hasNext()) {
+            final Property property = properties.nextProperty();
+            final String name = property.getName();
+            if (!name.startsWith("jcr:") && !names.contains(name)) {
+                property.remove();
+            }
+        }
+    }
+
+    private static Object toValue(final Property property) throws RepositoryException {
+        switch (property.getType()) {
+            case PropertyType.LONG:
+                return property.getLong();
+            case PropertyType.DOUBLE:
+                return property.getDouble();
+            case PropertyType.BOOLEAN:
+                return property.getBoolean();
+            default:
+                return property.getString();
+        }
+    }
+
+    private Node getOrCreateNode(final Session session, final String key) throws RepositoryException {
+        final String hash = hash(key);
+        Node node = session.getRootNode();
+        for (final String name : (this.rootPath.substring(1) + '/' + hash.substring(0, 2) + '/' + hash).split("/")) {
+            node = node.hasNode(name) ? node.getNode(name) : node.addNode(name, NODE_TYPE);
+        }
+        return node;
+    }
+
+    private String path(final String key) {
+        final String hash = hash(key);
+        return this.rootPath + '/' + hash.substring(0, 2) + '/' + hash;
+    }
+
+    private static String hash(final String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (final byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static String escape(final String name) {
+        final StringBuilder escaped = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (ESCAPED_CHARACTERS.indexOf(c) >= 0 || (i == 0 && c == '.')) {
+                escaped.append('%').append(Character.forDigit(c >> 4 & 0xF, 16)).append(Character.forDigit(c & 0xF, 16));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    static String unescape(final String name) {
+        if (name.indexOf('%') < 0) {
+            return name;
+        }
+        final StringBuilder unescaped = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            final char c = name.charAt(i);
+            if (c == '%' && i + 2 < name.length()) {
+                unescaped.append((char) Integer.parseInt(name.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+}
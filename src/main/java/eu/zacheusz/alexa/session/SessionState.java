@@ -0,0 +1,109 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.session;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Durable attributes of an Alexa user or session.<br>
+ *
+ * Changes are kept in memory and written to the repository in the background by
+ * {@link SessionStateService}. Supported values are strings, numbers and booleans,
+ * other values are stored as their string representation.
+ *
+ * @author zacheusz
+ */
+public final class SessionState {
+
+    private final String key;
+
+    private final SessionStateService owner;
+
+    private final Map<String, Object> attributes;
+
+    private final AtomicBoolean dirty = new AtomicBoolean();
+
+    SessionState(final String key, final SessionStateService owner, final Map<String, Object> attributes) {
+        this.key = key;
+        this.owner = owner;
+        this.attributes = new ConcurrentHashMap<>(attributes);
+    }
+
+    public String getKey() {
+        return this.key;
+    }
+
+    public Object getAttribute(final String name) {
+        return this.attributes.get(name);
+    }
+
+    /**
+     * @param name attribute name
+     * @param value attribute value, <code>null</code> removes the attribute
+     */
+    public void setAttribute(final String name, final Object value) {
+        if (value == null) {
+            removeAttribute(name);
+            return;
+        }
+        this.attributes.put(name, value);
+        markDirty();
+    }
+
+    public void removeAttribute(final String name) {
+        if (this.attributes.remove(name) != null) {
+            markDirty();
+        }
+    }
+
+    /**
+     * @return unmodifiable copy of the attributes
+     */
+    public Map<String, Object> getAttributes() {
+        return Collections.unmodifiableMap(new HashMap<>(this.attributes));
+    }
+
+    private void markDirty() {
+        this.dirty.set(true);
+        this.owner.markDirty(this);
+    }
+
+    boolean isDirty() {
+        return this.dirty.get();
+    }
+
+    /**
+     * Clear the dirty flag and take a snapshot of the attributes to write.
+     * @return the attributes snapshot
+     */
+    Map<String, Object> beginFlush() {
+        this.dirty.set(false);
+        return new HashMap<>(this.attributes);
+    }
+
+    void flushFailed() {
+        this.dirty.set(true);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.session;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Storage of {@link SessionState} attributes.
+ *
+ * @author zacheusz
+ */
+public interface SessionStatePersistence {
+
+    /**
+     * @param key the user or session id
+     * @return stored attributes, empty if nothing is stored for the key
+     * @throws IOException if the storage can't be read
+     */
+    Map<String, Object> load(String key) throws IOException;
+
+    /**
+     * Store the attributes of several keys at once.
+     *
+     * @param batch attributes by user or session id
+     * @throws IOException if the storage can't be written
+     */
+    void store(Map<String, Map<String, Object>> batch) throws IOException;
+}
@@ -0,0 +1,307 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.session;
+
+import com.amazon.speech.speechlet.Session;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.PropertyOption;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.apache.sling.jcr.api.SlingRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded in-memory store of {@link SessionState} keyed by the Alexa user or session id.<br>
+ *
+ * States are loaded lazily on first access. Changed states are written to the repository
+ * in batches by a background thread, so handlers don't wait for repository writes. The state
+ * of a session is flushed right after the session ends and all states are flushed on deactivation.
+ *
+ * @author zacheusz
+ */
+@Component(label = "Alexa Session State Service",
+        description = "Alexa Session State Service",
+        metatype = true)
+@Service(SessionStateService.class)
+public class SessionStateService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SessionStateService.class);
+
+    public static final String SCOPE_USER = "user";
+
+    public static final String SCOPE_SESSION = "session";
+
+    @Property(label = "Repository path of the stored states.", value = "/var/alexa/sessionstate")
+    private static final String ROOT_PATH_PROPERTY = "rootPath";
+
+    @Property(label = "State scope: per Alexa user or per Alexa session.", value = SCOPE_USER, options = {
+            @PropertyOption(name = SCOPE_USER, value = "User"),
+            @PropertyOption(name = SCOPE_SESSION, value = "Session")})
+    private static final String SCOPE_PROPERTY = "scope";
+
+    @Property(label = "Maximum number of states kept in memory.", intValue = 10000)
+    private static final String MAX_ENTRIES_PROPERTY = "maxEntries";
+
+    @Property(label = "Interval of background writes in milliseconds.", longValue = 1000L)
+    private static final String FLUSH_INTERVAL_PROPERTY = "flushIntervalMillis";
+
+    @Property(label = "Maximum number of states written with one repository save.", intValue = 100)
+    private static final String BATCH_SIZE_PROPERTY = "batchSize";
+
+    @Property(label = "Service user mapping sub-service name.", value = "session-state")
+    private static final String SUBSERVICE_PROPERTY = "subservice";
+
+    @Reference
+    private SlingRepository repository;
+
+    private SessionStatePersistence persistence;
+
+    private Map<String, SessionState> states;
+
+    /**
+     * States waiting to be written. Evicted states stay here until written, so they aren't lost.
+     */
+    private final ConcurrentMap<String, SessionState> dirty = new ConcurrentHashMap<>();
+
+    /**
+     * States being written. They stay visible to {@link #get(String)} until the write lands,
+     * so an evicted state isn't reloaded from the repository with its previous attributes.
+     */
+    private final ConcurrentMap<String, SessionState> writing = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService writer;
+
+    private boolean userScope = true;
+
+    private int batchSize = 100;
+
+    @Activate
+    protected void activate(final Map<String, Object> properties) {
+        final String subservice = PropertiesUtil.toString(properties.get(SUBSERVICE_PROPERTY), "session-state");
+        start(new JcrSessionStatePersistence(() -> this.repository.loginService(subservice, null),
+                        PropertiesUtil.toString(properties.get(ROOT_PATH_PROPERTY), "/var/alexa/sessionstate")),
+                SCOPE_USER.equals(PropertiesUtil.toString(properties.get(SCOPE_PROPERTY), SCOPE_USER)),
+                PropertiesUtil.toInteger(properties.get(MAX_ENTRIES_PROPERTY), 10000),
+                PropertiesUtil.toLong(properties.get(FLUSH_INTERVAL_PROPERTY), 1000L),
+                PropertiesUtil.toInteger(properties.get(BATCH_SIZE_PROPERTY), 100));
+    }
+
+    /**
+     * Start the store outside of OSGi, e.g. with an in-memory repository.
+     *
+     * @param persistence state storage
+     * @param userScope <code>true</code> to key states by user id, <code>false</code> by session id
+     * @param maxEntries maximum number of states kept in memory
+     * @param flushIntervalMillis interval of background writes
+     * @param batchSize maximum number of states written at once
+     */
+    public void start(final SessionStatePersistence persistence, final boolean userScope, final int maxEntries,
+                      final long flushIntervalMillis, final int batchSize) {
+        this.persistence = persistence;
+        this.userScope = userScope;
+        this.batchSize = Math.max(1, batchSize);
+        this.states = new LinkedHashMap<String, SessionState>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, SessionState> eldest) {
+                return size() > maxEntries;
+            }
+        };
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "alexa-session-state-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writer.scheduleWithFixedDelay(this::flushDirty, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        this.writer.shutdown();
+        try {
+            this.writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        flushDirty();
+    }
+
+    /**
+     * Get the state of the Alexa session's user or of the session itself, depending on the scope.
+     *
+     * @param session the Alexa session
+     * @return the state, loaded from the repository on first access
+     * @throws IOException if the state can't be loaded
+     */
+    public SessionState get(final Session session) throws IOException {
+        return get(key(session));
+    }
+
+    /**
+     * @param key user or session id
+     * @return the state, loaded from the repository on first access
+     * @throws IOException if the state can't be loaded
+     */
+    public SessionState get(final String key) throws IOException {
+        synchronized (this.states) {
+            final SessionState state = this.states.get(key);
+            if (state != null) {
+                return state;
+            }
+            final SessionState pending = getPending(key);
+            if (pending != null) {
+                this.states.put(key, pending);
+                return pending;
+            }
+        }
+        final SessionState loaded = new SessionState(key, this, this.persistence.load(key));
+        synchronized (this.states) {
+            final SessionState concurrent = this.states.get(key);
+            if (concurrent != null) {
+                return concurrent;
+            }
+            final SessionState pending = getPending(key);
+            final SessionState state = pending != null ? pending : loaded;
+            this.states.put(key, state);
+            return state;
+        }
+    }
+
+    /**
+     * @return the evicted state waiting for or in the middle of its write, <code>null</code> if there is none
+     */
+    private SessionState getPending(final String key) {
+        final SessionState dirtyState = this.dirty.get(key);
+        return dirtyState != null ? dirtyState : this.writing.get(key);
+    }
+
+    /**
+     * Write the state of the ended session in the background and, for session scoped states,
+     * release it from memory.
+     *
+     * @param session the ended Alexa session
+     */
+    public void sessionEnded(final Session session) {
+        final String key = key(session);
+        this.writer.execute(() -> {
+            flush(key);
+            if (!this.userScope) {
+                synchronized (this.states) {
+                    final SessionState state = this.states.get(key);
+                    if (state != null && !state.isDirty()) {
+                        this.states.remove(key);
+                    }
+                }
+            }
+        });
+    }
+
+    private String key(final Session session) {
+        return this.userScope ? session.getUser().getUserId() : session.getSessionId();
+    }
+
+    void markDirty(final SessionState state) {
+        this.dirty.put(state.getKey(), state);
+    }
+
+    private void flush(final String key) {
+        final SessionState state = this.dirty.get(key);
+        if (state != null) {
+            this.writing.put(key, state);
+            this.dirty.remove(key, state);
+            write(Collections.singletonMap(key, state));
+        }
+    }
+
+    /**
+     * Write all changed states in batches.
+     */
+    public void flushDirty() {
+        final Iterator<SessionState> pending = this.dirty.values().iterator();
+        while (pending.hasNext()) {
+            final Map<String, SessionState> batch = new HashMap<>();
+            while (pending.hasNext() && batch.size() < this.batchSize) {
+                final SessionState state = pending.next();
+                // visible as written before it stops being visible as dirty
+                this.writing.put(state.getKey(), state);
+                pending.remove();
+                batch.put(state.getKey(), state);
+            }
+            write(batch);
+        }
+    }
+
+    private void write(final Map<String, SessionState> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        final Map<String, Map<String, Object>> snapshots = new HashMap<>();
+        for (final Map.Entry<String, SessionState> entry : batch.entrySet()) {
+            snapshots.put(entry.getKey(), entry.getValue().beginFlush());
+        }
+        try {
+            this.persistence.store(snapshots);
+        } catch (IOException | RuntimeException ex) {
+            LOG.warn("Unable to write {} session states, retrying later", batch.size(), ex);
+            for (final Map.Entry<String, SessionState> entry : batch.entrySet()) {
+                entry.getValue().flushFailed();
+                this.dirty.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        } finally {
+            for (final Map.Entry<String, SessionState> entry : batch.entrySet()) {
+                this.writing.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return number of states kept in memory
+     */
+    public int size() {
+        synchronized (this.states) {
+            return this.states.size();
+        }
+    }
+
+    /**
+     * @return number of states waiting to be written
+     */
+    public int getDirtyCount() {
+        return this.dirty.size();
+    }
+}
@@ -0,0 +1,43 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.slot;
+
+import java.util.Collection;
+
+/**
+ * Values of a slot type, registered as a service and compiled by the {@link SlotResolver}.<br>
+ *
+ * Call {@link SlotResolver#update(SlotCatalog)} when the values change.
+ *
+ * @author zacheusz
+ */
+public interface SlotCatalog {
+
+    /**
+     * @return name of the catalog, usually the slot type
+     */
+    String getName();
+
+    /**
+     * @return the current values
+     */
+    Collection<SlotValue> getValues();
+}
@@ -0,0 +1,353 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.slot;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable index of catalog values compiled for spoken value lookups.<br>
+ *
+ * Values and synonyms are normalized by removing accents, case and punctuation. Exact and synonym
+ * lookups are a single hash lookup. Fuzzy lookups walk a trie of the normalized names, computing
+ * one Levenshtein distance row per trie node and skipping subtrees which can't beat the best match,
+ * so they visit a small part of large catalogs.<br>
+ *
+ * The trie is stored in flat arrays with the children of every node next to each other.
+ *
+ * @author zacheusz
+ */
+public final class SlotIndex {
+
+    private static final int SYNONYM = 1;
+
+    private final SlotValue[] values;
+
+    /**
+     * Normalized name to value index shifted left, with the lowest bit set for synonyms.
+     */
+    private final Map<String, Integer> names;
+
+    private final char[] labels;
+
+    /**
+     * Children of node <code>n</code> are nodes <code>firstChild[n]</code> to <code>firstChild[n + 1] - 1</code>.
+     */
+    private final int[] firstChild;
+
+    /**
+     * Packed value of the name ending at the node or -1.
+     */
+    private final int[] terminals;
+
+    private SlotIndex(final SlotValue[] values, final Map<String, Integer> names, final char[] labels,
+                      final int[] firstChild, final int[] terminals) {
+        this.values = values;
+        this.names = names;
+        this.labels = labels;
+        this.firstChild = firstChild;
+        this.terminals = terminals;
+    }
+
+    /**
+     * Compile the values. Canonical values take precedence over equal synonyms of other values.
+     *
+     * @param catalog the values
+     * @return the index
+     */
+    public static SlotIndex build(final Collection<SlotValue> catalog) {
+        final SlotValue[] values = catalog.toArray(new SlotValue[0]);
+        final Map<String, Integer> names = new HashMap<>(values.length * 2);
+        for (int i = 0; i < values.length; i++) {
+            final String name = normalize(values[i].getValue());
+            if (!name.isEmpty()) {
+                names.putIfAbsent(name, i << 1);
+            }
+        }
+        for (int i = 0; i < values.length; i++) {
+            for (final String synonym : values[i].getSynonyms()) {
+                final String name = normalize(synonym);
+                if (!name.isEmpty()) {
+                    names.putIfAbsent(name, i << 1 | SYNONYM);
+                }
+            }
+        }
+        final String[] keys = names.keySet().toArray(new String[0]);
+        Arrays.parallelSort(keys);
+        return new TrieBuilder(keys, names).build(values, names);
+    }
+
+    /**
+     * Normalize a value for comparison: accents removed, lower case, words separated by single spaces.
+     *
+     * @param value spoken or catalog value
+     * @return the normalized value, empty for <code>null</code>
+     */
+    public static String normalize(final String value) {
+        if (value == null) {
+            return "";
+        }
+        final String decomposed = isAscii(value) ? value : Normalizer.normalize(value, Normalizer.Form.NFKD);
+        final StringBuilder normalized = new StringBuilder(decomposed.length());
+        boolean space = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            final char c = decomposed.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;
+            }
+            if (Character.isLetterOrDigit(c)) {
+                if (space && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                space = false;
+                normalized.append(c);
+            } else if (c != '\'') {
+                space = true;
+            }
+        }
+        return normalized.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static boolean isAscii(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) > 0x7f) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Default edit distance allowed for a normalized value: none up to 2 characters,
+     * 1 up to 5 characters and 2 above.
+     *
+     * @param length normalized value length
+     * @return maximum number of edits
+     */
+    public static int defaultMaxEdits(final int length) {
+        return length < 3 ? 0 : length < 6 ? 1 : 2;
+    }
+
+    /**
+     * Resolve the spoken value, allowing the default edit distance of its length.
+     *
+     * @param spoken spoken slot value
+     * @return the match or <code>null</code>
+     */
+    public SlotMatch resolve(final String spoken) {
+        final String name = normalize(spoken);
+        return resolveNormalized(name, defaultMaxEdits(name.length()));
+    }
+
+    /**
+     * @param spoken spoken slot value
+     * @param maxEdits maximum number of character insertions, deletions and substitutions, 0 for exact lookups
+     * @return the match or <code>null</code>
+     */
+    public SlotMatch resolve(final String spoken, final int maxEdits) {
+        return resolveNormalized(normalize(spoken), maxEdits);
+    }
+
+    private SlotMatch resolveNormalized(final String name, final int maxEdits) {
+        if (name.isEmpty()) {
+            return null;
+        }
+        final Integer exact = this.names.get(name);
+        if (exact != null) {
+            return new SlotMatch(this.values[exact >>> 1],
+                    (exact & SYNONYM) == 0 ? SlotMatch.Type.EXACT : SlotMatch.Type.SYNONYM, 0);
+        }
+        if (maxEdits <= 0 || this.names.isEmpty()) {
+            return null;
+        }
+        final Search search = new Search(name.toCharArray(), maxEdits);
+        final int[] row = new int[name.length() + 1];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = i;
+        }
+        search.visit(0, row, 0);
+        return search.best < 0 ? null
+                : new SlotMatch(this.values[search.best >>> 1], SlotMatch.Type.FUZZY, search.bestDistance);
+    }
+
+    /**
+     * @return number of values
+     */
+    public int size() {
+        return this.values.length;
+    }
+
+    /**
+     * @return number of distinct normalized values and synonyms
+     */
+    public int getNameCount() {
+        return this.names.size();
+    }
+
+    /**
+     * @return number of trie nodes
+     */
+    public int getNodeCount() {
+        return this.labels.length;
+    }
+
+    private final class Search {
+
+        private final char[] query;
+
+        private final List<int[]> rows = new ArrayList<>();
+
+        private int best = -1;
+
+        private int bestDistance;
+
+        Search(final char[] query, final int maxEdits) {
+            this.query = query;
+            this.bestDistance = maxEdits + 1;
+        }
+
+        void visit(final int node, final int[] previous, final int depth) {
+            final int end = SlotIndex.this.firstChild[node + 1];
+            if (depth == this.rows.size()) {
+                this.rows.add(new int[previous.length]);
+            }
+            final int[] row = this.rows.get(depth);
+            for (int child = SlotIndex.this.firstChild[node]; child < end; child++) {
+                final char label = SlotIndex.this.labels[child];
+                row[0] = previous[0] + 1;
+                int min = row[0];
+                for (int i = 1; i < row.length; i++) {
+                    final int substitution = previous[i - 1] + (this.query[i - 1] == label ? 0 : 1);
+                    final int distance = Math.min(substitution, Math.min(previous[i], row[i - 1]) + 1);
+                    row[i] = distance;
+                    if (distance < min) {
+                        min = distance;
+                    }
+                }
+                final int terminal = SlotIndex.this.terminals[child];
+                if (terminal >= 0 && row[row.length - 1] < this.bestDistance) {
+                    this.best = terminal;
+                    this.bestDistance = row[row.length - 1];
+                }
+                if (min < this.bestDistance) {
+                    visit(child, row, depth + 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lays out the trie breadth first, so children of consecutive nodes are consecutive.
+     */
+    private static final class TrieBuilder {
+
+        private final String[] keys;
+
+        private final int[] packed;
+
+        private final char[] labels;
+
+        private final int[] firstChild;
+
+        private final int[] terminals;
+
+        private final int[] from;
+
+        private final int[] to;
+
+        private final int[] depths;
+
+        private int count;
+
+        TrieBuilder(final String[] keys, final Map<String, Integer> names) {
+            this.keys = keys;
+            this.packed = new int[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                this.packed[i] = names.get(keys[i]);
+            }
+            final int capacity = nodeCount(keys);
+            this.labels = new char[capacity];
+            this.firstChild = new int[capacity + 1];
+            this.terminals = new int[capacity];
+            this.from = new int[capacity];
+            this.to = new int[capacity];
+            this.depths = new int[capacity];
+        }
+
+        /**
+         * Every key adds a node for each character after the prefix shared with the previous key.
+         */
+        private static int nodeCount(final String[] keys) {
+            int count = 1;
+            String previous = "";
+            for (final String key : keys) {
+                final int length = Math.min(previous.length(), key.length());
+                int common = 0;
+                while (common < length && previous.charAt(common) == key.charAt(common)) {
+                    common++;
+                }
+                count += key.length() - common;
+                previous = key;
+            }
+            return count;
+        }
+
+        SlotIndex build(final SlotValue[] values, final Map<String, Integer> names) {
+            add('\u0000', 0, this.keys.length, 0);
+            for (int node = 0; node < this.count; node++) {
+                int start = this.from[node];
+                final int end = this.to[node];
+                final int depth = this.depths[node];
+                this.terminals[node] = -1;
+                if (start < end && this.keys[start].length() == depth) {
+                    this.terminals[node] = this.packed[start];
+                    start++;
+                }
+                this.firstChild[node] = this.count;
+                while (start < end) {
+                    final char label = this.keys[start].charAt(depth);
+                    int groupEnd = start + 1;
+                    while (groupEnd < end && this.keys[groupEnd].charAt(depth) == label) {
+                        groupEnd++;
+                    }
+                    add(label, start, groupEnd, depth + 1);
+                    start = groupEnd;
+                }
+            }
+            this.firstChild[this.count] = this.count;
+            return new SlotIndex(values, names, this.labels, this.firstChild, this.terminals);
+        }
+
+        private void add(final char label, final int start, final int end, final int depth) {
+            this.labels[this.count] = label;
+            this.from[this.count] = start;
+            this.to[this.count] = end;
+            this.depths[this.count] = depth;
+            this.count++;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.slot;
+
+/**
+ * Catalog value resolved from a spoken slot value.
+ *
+ * @author zacheusz
+ */
+public final class SlotMatch {
+
+    public enum Type {
+        /**
+         * The spoken value is the canonical value, ignoring case, accents and punctuation.
+         */
+        EXACT,
+        /**
+         * The spoken value is a synonym, ignoring case, accents and punctuation.
+         */
+        SYNONYM,
+        /**
+         * The spoken value is within the allowed edit distance of the value or a synonym.
+         */
+        FUZZY
+    }
+
+    private final SlotValue value;
+
+    private final Type type;
+
+    private final int distance;
+
+    SlotMatch(final SlotValue value, final Type type, final int distance) {
+        this.value = value;
+        this.type = type;
+        this.distance = distance;
+    }
+
+    public SlotValue getValue() {
+        return this.value;
+    }
+
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * @return number of character edits between the spoken and matched value, 0 unless fuzzy
+     */
+    public int getDistance() {
+        return this.distance;
+    }
+
+    @Override
+    public String toString() {
+        return this.type + "(" + this.distance + "):" + this.value;
+    }
+}
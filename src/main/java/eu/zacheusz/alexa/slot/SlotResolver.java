@@ -0,0 +1,144 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.slot;
+
+import com.amazon.speech.slu.Intent;
+import com.amazon.speech.slu.Slot;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.ReferencePolicy;
+import org.apache.felix.scr.annotations.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves spoken slot values to catalog values, shared by intent handlers.<br>
+ *
+ * Catalogs are registered as {@link SlotCatalog} services or set with {@link #update(String, Collection)}.
+ * Each catalog is compiled to a {@link SlotIndex} when it's bound or updated, and the new index replaces
+ * the old one at once, so lookups never see a partially built catalog and never wait for a rebuild.
+ *
+ * @author zacheusz
+ */
+@Component
+@Service(SlotResolver.class)
+public class SlotResolver {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SlotResolver.class);
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE,
+            bind = "bindCatalog", unbind = "unbindCatalog",
+            referenceInterface = SlotCatalog.class,
+            policy = ReferencePolicy.DYNAMIC)
+    private final Map<String, SlotCatalog> catalogs = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, SlotIndex> indexes = new ConcurrentHashMap<>();
+
+    protected synchronized void bindCatalog(final SlotCatalog catalog) {
+        this.catalogs.put(catalog.getName(), catalog);
+        update(catalog);
+    }
+
+    protected synchronized void unbindCatalog(final SlotCatalog catalog) {
+        if (this.catalogs.remove(catalog.getName(), catalog)) {
+            this.indexes.remove(catalog.getName());
+        }
+    }
+
+    /**
+     * Recompile the catalog after its values changed.
+     *
+     * @param catalog the catalog
+     */
+    public synchronized void update(final SlotCatalog catalog) {
+        if (this.catalogs.get(catalog.getName()) == catalog) {
+            this.indexes.put(catalog.getName(), compile(catalog.getName(), catalog.getValues()));
+        }
+    }
+
+    /**
+     * Compile the values and replace the catalog.
+     *
+     * @param name catalog name
+     * @param values the values
+     */
+    public synchronized void update(final String name, final Collection<SlotValue> values) {
+        this.indexes.put(name, compile(name, values));
+    }
+
+    /**
+     * @param name catalog name
+     */
+    public synchronized void remove(final String name) {
+        this.indexes.remove(name);
+    }
+
+    private static SlotIndex compile(final String name, final Collection<SlotValue> values) {
+        final long start = System.nanoTime();
+        final SlotIndex index = SlotIndex.build(values);
+        LOG.info("Compiled slot catalog {}: {} values, {} names, {} nodes in {} ms", name, index.size(),
+                index.getNameCount(), index.getNodeCount(), (System.nanoTime() - start) / 1000000L);
+        return index;
+    }
+
+    /**
+     * @param name catalog name
+     * @return the current index or <code>null</code> if there is no such catalog
+     */
+    public SlotIndex getIndex(final String name) {
+        return this.indexes.get(name);
+    }
+
+    /**
+     * @param catalog catalog name
+     * @param spoken spoken value
+     * @return the match or <code>null</code> if there is no match or no such catalog
+     */
+    public SlotMatch resolve(final String catalog, final String spoken) {
+        final SlotIndex index = this.indexes.get(catalog);
+        return index == null ? null : index.resolve(spoken);
+    }
+
+    /**
+     * @param catalog catalog name
+     * @param slot slot of the intent request
+     * @return the match or <code>null</code> if the slot is empty, there is no match or no such catalog
+     */
+    public SlotMatch resolve(final String catalog, final Slot slot) {
+        return slot == null ? null : resolve(catalog, slot.getValue());
+    }
+
+    /**
+     * @param catalog catalog name
+     * @param intent intent of the request
+     * @param slotName name of the slot
+     * @return the match or <code>null</code> if the slot is empty, there is no match or no such catalog
+     */
+    public SlotMatch resolve(final String catalog, final Intent intent, final String slotName) {
+        return resolve(catalog, intent.getSlot(slotName));
+    }
+}
@@ -0,0 +1,77 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.slot;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Canonical slot value of a catalog with its synonyms.
+ *
+ * @author zacheusz
+ */
+public final class SlotValue {
+
+    private final String id;
+
+    private final String value;
+
+    private final List<String> synonyms;
+
+    /**
+     * @param id identifier of the value, e.g. a product id
+     * @param value canonical value
+     * @param synonyms other names of the value
+     */
+    public SlotValue(final String id, final String value, final String... synonyms) {
+        this(id, value, Arrays.asList(synonyms));
+    }
+
+    /**
+     * @param id identifier of the value, e.g. a product id
+     * @param value canonical value
+     * @param synonyms other names of the value
+     */
+    public SlotValue(final String id, final String value, final List<String> synonyms) {
+        this.id = id;
+        this.value = value;
+        this.synonyms = synonyms.isEmpty() ? Collections.emptyList()
+                : Collections.unmodifiableList(Arrays.asList(synonyms.toArray(new String[0])));
+    }
+
+    public String getId() {
+        return this.id;
+    }
+
+    public String getValue() {
+        return this.value;
+    }
+
+    public List<String> getSynonyms() {
+        return this.synonyms;
+    }
+
+    @Override
+    public String toString() {
+        return this.id + '=' + this.value;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.user;
+
+/**
+ * Approximate access frequency of keys in a count-min sketch of 4 bit counters.<br>
+ *
+ * Counters are halved after every sample of increments, so frequencies follow recent traffic.
+ * Not thread safe.
+ *
+ * @author zacheusz
+ */
+final class FrequencySketch {
+
+    private static final int[] SEEDS = {0x97cb3127, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f};
+
+    private static final int MAX_COUNT = 15;
+
+    private final byte[] counters;
+
+    private final int mask;
+
+    private final int sampleSize;
+
+    private int additions;
+
+    /**
+     * @param maxEntries number of entries of the cache using the sketch
+     */
+    FrequencySketch(final int maxEntries) {
+        final int size = Integer.highestOneBit(Math.max(16, Math.min(1 << 24, maxEntries * 4)) - 1) << 1;
+        this.counters = new byte[size];
+        this.mask = size - 1;
+        this.sampleSize = 10 * Math.max(1, maxEntries);
+    }
+
+    void increment(final Object key) {
+        final int hash = key.hashCode();
+        boolean added = false;
+        for (final int seed : SEEDS) {
+            final int index = index(hash, seed);
+            if (this.counters[index] < MAX_COUNT) {
+                this.counters[index]++;
+                added = true;
+            }
+        }
+        if (added && ++this.additions >= this.sampleSize) {
+            reset();
+        }
+    }
+
+    int frequency(final Object key) {
+        final int hash = key.hashCode();
+        int frequency = MAX_COUNT;
+        for (final int seed : SEEDS) {
+            frequency = Math.min(frequency, this.counters[index(hash, seed)]);
+        }
+        return frequency;
+    }
+
+    private void reset() {
+        for (int i = 0; i < this.counters.length; i++) {
+            this.counters[i] >>= 1;
+        }
+        this.additions /= 2;
+    }
+
+    private int index(final int hash, final int seed) {
+        int h = (hash ^ seed) * 0x9e3779b9;
+        h ^= h >>> 16;
+        return h & this.mask;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.user;
+
+/**
+ * Internal profile of an Alexa user, valid until the access token it was resolved with expires.
+ *
+ * @author zacheusz
+ */
+public final class UserContext {
+
+    private final String userId;
+
+    private final String accessToken;
+
+    private final Object profile;
+
+    private final long expiresAtMillis;
+
+    /**
+     * @param userId Alexa user id
+     * @param accessToken linked account access token, may be <code>null</code>
+     * @param profile the internal profile
+     * @param expiresAtMillis expiry time of the access token in epoch milliseconds,
+     *                        0 for the configured default lifetime
+     */
+    public UserContext(final String userId, final String accessToken, final Object profile,
+                       final long expiresAtMillis) {
+        this.userId = userId;
+        this.accessToken = accessToken;
+        this.profile = profile;
+        this.expiresAtMillis = expiresAtMillis;
+    }
+
+    UserContext withExpiry(final long expiresAtMillis) {
+        return new UserContext(this.userId, this.accessToken, this.profile, expiresAtMillis);
+    }
+
+    public String getUserId() {
+        return this.userId;
+    }
+
+    public String getAccessToken() {
+        return this.accessToken;
+    }
+
+    public Object getProfile() {
+        return this.profile;
+    }
+
+    /**
+     * @param type profile class
+     * @return the profile
+     * @throws ClassCastException if the profile isn't of the type
+     */
+    public <T> T getProfile(final Class<T> type) {
+        return type.cast(this.profile);
+    }
+
+    public long getExpiresAtMillis() {
+        return this.expiresAtMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "UserContext{" + this.userId + ", expires " + this.expiresAtMillis + '}';
+    }
+}
@@ -0,0 +1,42 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.user;
+
+import java.io.IOException;
+
+/**
+ * Resolves Alexa users into internal profiles, e.g. with a remote call to the account linking provider.<br>
+ *
+ * Registered as a service and used by the {@link UserContextService}, which calls it at most once
+ * at a time for a user and access token.
+ *
+ * @author zacheusz
+ */
+public interface UserContextLoader {
+
+    /**
+     * @param userId Alexa user id
+     * @param accessToken linked account access token, <code>null</code> if the account isn't linked
+     * @return the profile with the access token expiry time
+     * @throws IOException if the profile can't be loaded
+     */
+    UserContext load(String userId, String accessToken) throws IOException;
+}
@@ -0,0 +1,421 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.user;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.Context;
+import com.amazon.speech.speechlet.User;
+import com.amazon.speech.speechlet.interfaces.system.SystemInterface;
+import com.amazon.speech.speechlet.interfaces.system.SystemState;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
+import org.apache.felix.scr.annotations.ReferencePolicy;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.commons.osgi.PropertiesUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of {@link UserContext} resolved by the {@link UserContextLoader} service.<br>
+ *
+ * Contexts are keyed by the user id and access token, and expire with the access token. Contexts
+ * close to expiry are reloaded in the background while the cached one is still served. Concurrent
+ * requests of a user share one load.<br>
+ *
+ * When the cache is full, a new context replaces the least recently used one only if its user
+ * was requested more often recently, so a burst of one-off users doesn't evict the regulars.<br>
+ *
+ * Large caches are split by user id into segments with their own lock, recency order and frequency
+ * counts, so requests of different users rarely wait for each other. The least recently used context
+ * is then chosen within the segment. Invalidating a user discards the loads of that user still in flight.
+ *
+ * @author zacheusz
+ */
+@Component(label = "Alexa User Context Service",
+        description = "Alexa User Context Service",
+        metatype = true)
+@Service(UserContextService.class)
+public class UserContextService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UserContextService.class);
+
+    private static final char SEPARATOR = '\u0000';
+
+    /**
+     * Caches up to twice this size keep one segment, so their eviction order is exact.
+     */
+    private static final int ENTRIES_PER_SEGMENT = 256;
+
+    private static final int MAX_SEGMENTS = 16;
+
+    @Property(label = "Maximum number of cached user contexts.", intValue = 10000)
+    private static final String MAX_ENTRIES_PROPERTY = "maxEntries";
+
+    @Property(label = "Lifetime of user contexts without access token expiry, in seconds.", longValue = 3600L)
+    private static final String DEFAULT_TTL_PROPERTY = "defaultTtlSeconds";
+
+    @Property(label = "Reload user contexts in the background this many seconds before they expire. 0 disables.",
+            longValue = 60L)
+    private static final String REFRESH_AHEAD_PROPERTY = "refreshAheadSeconds";
+
+    @Property(label = "Maximum time in milliseconds to wait for a user context loaded by another request.",
+            longValue = 2000L)
+    private static final String LOAD_TIMEOUT_PROPERTY = "loadTimeoutMillis";
+
+    @Property(label = "Number of background reload threads.", intValue = 2)
+    private static final String REFRESH_THREADS_PROPERTY = "refreshThreads";
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY,
+            referenceInterface = UserContextLoader.class,
+            policy = ReferencePolicy.DYNAMIC)
+    private volatile UserContextLoader loader;
+
+    private final ConcurrentMap<String, CompletableFuture<UserContext>> loading = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder refreshes = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    private Segment[] segments;
+
+    private ThreadPoolExecutor refresher;
+
+    private long defaultTtlMillis;
+
+    private long refreshAheadMillis;
+
+    private long loadTimeoutMillis;
+
+    @Activate
+    protected void activate(final Map<String, Object> properties) {
+        start(PropertiesUtil.toInteger(properties.get(MAX_ENTRIES_PROPERTY), 10000),
+                TimeUnit.SECONDS.toMillis(PropertiesUtil.toLong(properties.get(DEFAULT_TTL_PROPERTY), 3600L)),
+                TimeUnit.SECONDS.toMillis(PropertiesUtil.toLong(properties.get(REFRESH_AHEAD_PROPERTY), 60L)),
+                PropertiesUtil.toLong(properties.get(LOAD_TIMEOUT_PROPERTY), 2000L),
+                PropertiesUtil.toInteger(properties.get(REFRESH_THREADS_PROPERTY), 2));
+    }
+
+    /**
+     * Start the cache outside of OSGi.
+     *
+     * @param maxEntries maximum number of cached contexts
+     * @param defaultTtlMillis lifetime of contexts without access token expiry
+     * @param refreshAheadMillis reload contexts this long before they expire, 0 disables
+     * @param loadTimeoutMillis maximum time to wait for a load started by another request
+     * @param refreshThreads number of background reload threads
+     */
+    public void start(final int maxEntries, final long defaultTtlMillis, final long refreshAheadMillis,
+                      final long loadTimeoutMillis, final int refreshThreads) {
+        final int capacity = Math.max(1, maxEntries);
+        this.defaultTtlMillis = defaultTtlMillis;
+        this.refreshAheadMillis = refreshAheadMillis;
+        this.loadTimeoutMillis = loadTimeoutMillis;
+        final Segment[] created = new Segment[Math.min(MAX_SEGMENTS,
+                Integer.highestOneBit(Math.max(1, capacity / ENTRIES_PER_SEGMENT)))];
+        for (int i = 0; i < created.length; i++) {
+            created[i] = new Segment((capacity + created.length - 1) / created.length);
+        }
+        this.segments = created;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.refresher = new ThreadPoolExecutor(Math.max(1, refreshThreads), Math.max(1, refreshThreads),
+                60L, TimeUnit.SECONDS, new ArrayBlockingQueue<>(capacity), runnable -> {
+            final Thread thread = new Thread(runnable, "alexa-user-context-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.refresher.allowCoreThreadTimeOut(true);
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        this.refresher.shutdownNow();
+        for (final Segment segment : this.segments) {
+            synchronized (segment) {
+                segment.entries.clear();
+            }
+        }
+    }
+
+    protected void bindLoader(final UserContextLoader loader) {
+        this.loader = loader;
+    }
+
+    protected void unbindLoader(final UserContextLoader loader) {
+        if (this.loader == loader) {
+            this.loader = null;
+        }
+    }
+
+    /**
+     * Get the context of the request's user. The user of the system context is preferred over
+     * the session user, as only the former is sent with requests outside of a session.
+     *
+     * @param requestEnvelope the request envelope
+     * @return the context or <code>null</code> if the request has no user or there is no loader
+     * @throws IOException if the context can't be loaded
+     */
+    public UserContext get(final SpeechletRequestEnvelope<?> requestEnvelope) throws IOException {
+        final User user = user(requestEnvelope);
+        return user == null ? null : get(user.getUserId(), user.getAccessToken());
+    }
+
+    /**
+     * Start loading the context of the request's user in the background unless it's cached.
+     *
+     * @param requestEnvelope the request envelope
+     */
+    public void prefetch(final SpeechletRequestEnvelope<?> requestEnvelope) {
+        final User user = user(requestEnvelope);
+        final UserContextLoader loader = this.loader;
+        if (user == null || user.getUserId() == null || loader == null) {
+            return;
+        }
+        final String key = key(user.getUserId(), user.getAccessToken());
+        final Segment segment = segment(user.getUserId());
+        synchronized (segment) {
+            if (segment.entries.containsKey(key)) {
+                return;
+            }
+        }
+        load(loader, segment, key, user.getUserId(), user.getAccessToken(), true);
+    }
+
+    private static User user(final SpeechletRequestEnvelope<?> requestEnvelope) {
+        final Context context = requestEnvelope.getContext();
+        if (context != null) {
+            final SystemState system = context.getState(SystemInterface.class, SystemState.class);
+            if (system != null && system.getUser() != null) {
+                return system.getUser();
+            }
+        }
+        return requestEnvelope.getSession() == null ? null : requestEnvelope.getSession().getUser();
+    }
+
+    /**
+     * @param userId Alexa user id
+     * @param accessToken linked account access token, may be <code>null</code>
+     * @return the context or <code>null</code> if there is no loader
+     * @throws IOException if the context can't be loaded
+     */
+    public UserContext get(final String userId, final String accessToken) throws IOException {
+        final UserContextLoader loader = this.loader;
+        if (userId == null || loader == null) {
+            return null;
+        }
+        final String key = key(userId, accessToken);
+        final Segment segment = segment(userId);
+        final UserContext cached;
+        synchronized (segment) {
+            segment.sketch.increment(userId);
+            cached = segment.entries.get(key);
+        }
+        final long now = System.currentTimeMillis();
+        if (cached != null && cached.getExpiresAtMillis() > now) {
+            this.hits.increment();
+            if (cached.getExpiresAtMillis() - now < this.refreshAheadMillis) {
+                load(loader, segment, key, userId, accessToken, true);
+            }
+            return cached;
+        }
+        this.misses.increment();
+        return await(load(loader, segment, key, userId, accessToken, false), userId);
+    }
+
+    /**
+     * Load the context unless another request already does.
+     *
+     * @param async <code>true</code> to load in the background, <code>false</code> to load in the calling thread
+     */
+    private CompletableFuture<UserContext> load(final UserContextLoader loader, final Segment segment,
+                                                final String key, final String userId, final String accessToken,
+                                                final boolean async) {
+        final CompletableFuture<UserContext> created = new CompletableFuture<>();
+        final CompletableFuture<UserContext> existing = this.loading.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        final Runnable task = () -> {
+            try {
+                created.complete(store(segment, key, loader.load(userId, accessToken), created));
+            } catch (IOException | RuntimeException ex) {
+                if (async) {
+                    LOG.debug("Unable to reload the context of user {}", userId, ex);
+                }
+                created.completeExceptionally(ex);
+            } finally {
+                this.loading.remove(key, created);
+            }
+        };
+        if (!async) {
+            task.run();
+            return created;
+        }
+        try {
+            this.refresher.execute(task);
+            this.refreshes.increment();
+        } catch (RejectedExecutionException ex) {
+            this.loading.remove(key, created);
+            created.completeExceptionally(ex);
+        }
+        return created;
+    }
+
+    private UserContext await(final CompletableFuture<UserContext> future, final String userId) throws IOException {
+        try {
+            return future.get(this.loadTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted loading the context of user " + userId, ex);
+        } catch (TimeoutException ex) {
+            throw new IOException("Timed out loading the context of user " + userId, ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException("Unable to load the context of user " + userId, ex.getCause());
+        }
+    }
+
+    /**
+     * Cache the loaded context unless the user was invalidated since the load started.
+     * Invalidation unregisters the user's loads, so a load still registered wasn't invalidated.
+     */
+    private UserContext store(final Segment segment, final String key, final UserContext loaded,
+                              final CompletableFuture<UserContext> load) {
+        if (loaded == null) {
+            return null;
+        }
+        final UserContext context = loaded.getExpiresAtMillis() > 0 ? loaded
+                : loaded.withExpiry(System.currentTimeMillis() + this.defaultTtlMillis);
+        synchronized (segment) {
+            if (this.loading.get(key) != load) {
+                return context;
+            }
+            if (segment.entries.size() >= segment.maxEntries && !segment.entries.containsKey(key)) {
+                final Iterator<UserContext> eldest = segment.entries.values().iterator();
+                final UserContext victim = eldest.next();
+                if (victim.getExpiresAtMillis() > System.currentTimeMillis()
+                        && segment.sketch.frequency(victim.getUserId())
+                        >= segment.sketch.frequency(context.getUserId())) {
+                    return context;
+                }
+                eldest.remove();
+                this.evictions.increment();
+            }
+            segment.entries.put(key, context);
+        }
+        return context;
+    }
+
+    private Segment segment(final String userId) {
+        final int hash = userId.hashCode();
+        return this.segments[(hash ^ (hash >>> 16)) & (this.segments.length - 1)];
+    }
+
+    private static String key(final String userId, final String accessToken) {
+        return accessToken == null ? userId : userId + SEPARATOR + accessToken;
+    }
+
+    /**
+     * Remove the cached contexts of the user, e.g. after the profile changed.
+     *
+     * @param userId Alexa user id
+     */
+    public void invalidate(final String userId) {
+        final String prefix = userId + SEPARATOR;
+        final Segment segment = segment(userId);
+        synchronized (segment) {
+            segment.entries.keySet().removeIf(key -> key.equals(userId) || key.startsWith(prefix));
+            // the loads in flight aren't cached and later requests start a new load instead of joining them
+            this.loading.keySet().removeIf(key -> key.equals(userId) || key.startsWith(prefix));
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (final Segment segment : this.segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    /**
+     * @return number of background reloads
+     */
+    public long getRefreshCount() {
+        return this.refreshes.sum();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    /**
+     * Contexts of a share of the users, guarded by the segment's monitor.
+     */
+    private static final class Segment {
+
+        private final Map<String, UserContext> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        private final FrequencySketch sketch;
+
+        private final int maxEntries;
+
+        Segment(final int maxEntries) {
+            this.maxEntries = maxEntries;
+            this.sketch = new FrequencySketch(maxEntries);
+        }
+    }
+}
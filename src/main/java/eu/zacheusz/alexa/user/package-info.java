@@ -0,0 +1,29 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+/**
+ * Per-user data loaded once and shared by the requests of a user.<br>
+ *
+ * Skills register a {@link eu.zacheusz.alexa.user.UserContextLoader} service, e.g. to fetch the linked account
+ * profile. {@link eu.zacheusz.alexa.user.UserContextService} caches the loaded
+ * {@link eu.zacheusz.alexa.user.UserContext} until the access token expires, reloads it in the background
+ * shortly before, and keeps frequently seen users cached when one-off users arrive.
+ */
+package eu.zacheusz.alexa.user;
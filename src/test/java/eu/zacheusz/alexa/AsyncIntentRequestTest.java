@@ -0,0 +1,180 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.ui.PlainTextOutputSpeech;
+import eu.zacheusz.alexa.handler.AsyncIntentHandler;
+import eu.zacheusz.alexa.handler.IntentHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link AsyncIntentHandler}s behind the asynchronous path of {@link AlexaSlingSpeechletServlet}.
+ *
+ * @author zacheusz
+ */
+public class AsyncIntentRequestTest {
+
+    private final PendingHandler handler = new PendingHandler();
+
+    private final AlexaSlingSpeechlet speechlet = new AlexaSlingSpeechlet();
+
+    private AlexaSlingSpeechletServlet servlet;
+
+    @Before
+    public void setUp() throws Exception {
+        this.speechlet.activate(new HashMap<>());
+        this.speechlet.bindIntentHandler(this.handler,
+                Collections.singletonMap(IntentHandler.INTENTS_PROPERTY, new String[]{"Weather"}));
+        this.servlet = new AlexaSlingSpeechletServlet();
+        this.servlet.bindSlingSpeechlet(this.speechlet);
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY, true);
+        properties.put(AlexaSlingSpeechletServlet.ASYNC_ENABLED_PROPERTY, true);
+        properties.put(AlexaSlingSpeechletServlet.ASYNC_POOL_SIZE_PROPERTY, 1);
+        properties.put(AlexaSlingSpeechletServlet.DEADLINE_MILLIS_PROPERTY, 1000L);
+        this.servlet.activate(ServletMocks.componentContext(properties));
+    }
+
+    @After
+    public void tearDown() {
+        this.servlet.deactivate();
+    }
+
+    @Test
+    public void pendingHandlerDoesNotHoldWorkerThread() throws Exception {
+        final ServletMocks.AsyncPost first = post();
+        final ServletMocks.AsyncPost second = post();
+
+        // one worker thread, so the second call starts only if the first one released it
+        final CompletableFuture<SpeechletResponse> firstCall = this.handler.pending.poll(500, TimeUnit.MILLISECONDS);
+        final CompletableFuture<SpeechletResponse> secondCall = this.handler.pending.poll(500, TimeUnit.MILLISECONDS);
+        assertNotNull(firstCall);
+        assertNotNull("second request waited for the first handler", secondCall);
+
+        firstCall.complete(tell("Sunny"));
+        secondCall.complete(tell("Sunny"));
+        for (final ServletMocks.AsyncPost post : new ServletMocks.AsyncPost[]{first, second}) {
+            assertTrue(post.completed.await(1, TimeUnit.SECONDS));
+            assertEquals(200, post.response.status);
+            final String body = new String(post.response.body.toByteArray(), StandardCharsets.UTF_8);
+            assertTrue(body, body.contains("Sunny") && body.contains("\"version\":\"" + Sdk.VERSION + "\""));
+        }
+    }
+
+    @Test
+    public void cancelsHandlerAtDeadline() throws Exception {
+        final ServletMocks.AsyncPost post = post();
+        final CompletableFuture<SpeechletResponse> call = this.handler.pending.poll(500, TimeUnit.MILLISECONDS);
+        assertNotNull(call);
+
+        assertTrue(post.completed.await(2, TimeUnit.SECONDS));
+        final String body = new String(post.response.body.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(body, body.contains(AlexaSlingSpeechletServlet.DEFAULT_DEADLINE_FALLBACK_MESSAGE));
+        assertTrue(call.isCancelled());
+    }
+
+    @Test
+    public void rejectsMissingStage() throws Exception {
+        this.handler.noStage = true;
+
+        final ServletMocks.AsyncPost post = post();
+
+        assertTrue(post.completed.await(1, TimeUnit.SECONDS));
+        assertEquals(500, post.response.status);
+    }
+
+    @Test
+    public void synchronousCallRejectsMissingStage() throws Exception {
+        this.handler.noStage = true;
+        try {
+            this.handler.handleIntent(envelope());
+            fail("Missing stage accepted");
+        } catch (IllegalStateException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("Weather"));
+        }
+    }
+
+    private ServletMocks.AsyncPost post() throws Exception {
+        final ServletMocks.AsyncPost post = new ServletMocks.AsyncPost(
+                Envelopes.intentRequest("Weather", Collections.emptyMap()), new HashMap<>());
+        this.servlet.doPost(post.request, post.response.response);
+        return post;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SpeechletRequestEnvelope<IntentRequest> envelope() throws Exception {
+        return (SpeechletRequestEnvelope<IntentRequest>) SpeechletRequestEnvelope.fromJson(
+                Envelopes.intentRequest("Weather", Collections.emptyMap()));
+    }
+
+    private static SpeechletResponse tell(final String text) {
+        final PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+        speech.setText(text);
+        return SpeechletResponse.newTellResponse(speech);
+    }
+
+    /**
+     * Answers when the test completes the future of the call.
+     */
+    private static final class PendingHandler implements AsyncIntentHandler {
+
+        final BlockingQueue<CompletableFuture<SpeechletResponse>> pending = new LinkedBlockingQueue<>();
+
+        volatile boolean noStage;
+
+        @Override
+        public boolean supportsIntent(final String intentName) {
+            return "Weather".equals(intentName);
+        }
+
+        @Override
+        public CompletionStage<SpeechletResponse> handleIntentAsync(
+                final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+            if (this.noStage) {
+                return null;
+            }
+            final CompletableFuture<SpeechletResponse> response = new CompletableFuture<>();
+            this.pending.add(response);
+            return response;
+        }
+    }
+}
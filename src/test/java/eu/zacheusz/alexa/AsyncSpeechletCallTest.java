@@ -0,0 +1,179 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.ui.PlainTextOutputSpeech;
+import eu.zacheusz.alexa.handler.IntentHandler;
+import eu.zacheusz.alexa.metrics.RequestTimer;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link AsyncSpeechletCall} answers exactly once: the deadline fallback, late completions
+ * and the saturated executor of {@link AlexaSlingSpeechletServlet}.
+ *
+ * @author zacheusz
+ */
+public class AsyncSpeechletCallTest {
+
+    private static final byte[] FALLBACK = "fallback".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void fallbackCancelsRunningCall() throws Exception {
+        final ServletMocks.AsyncPost post = new ServletMocks.AsyncPost(new byte[0], new HashMap<>());
+        final AsyncSpeechletCall call = new AsyncSpeechletCall(post.request.startAsync(), FALLBACK, RequestTimer.NOOP);
+        final CompletableFuture<Void> task = new CompletableFuture<>();
+        final CompletableFuture<Void> handlerCall = new CompletableFuture<>();
+        final CompletableFuture<Void> deadline = new CompletableFuture<>();
+        call.setTask(task);
+        call.setHandlerCall(handlerCall);
+        call.setDeadline(deadline);
+
+        call.fallback();
+
+        assertTrue(post.completed.await(0, TimeUnit.MILLISECONDS));
+        assertEquals(200, post.response.status);
+        assertArrayEquals(FALLBACK, post.response.body.toByteArray());
+        assertTrue(task.isCancelled());
+        assertTrue(handlerCall.isCancelled());
+    }
+
+    @Test
+    public void ignoresLateCompletionAfterFallback() throws Exception {
+        final ServletMocks.AsyncPost post = new ServletMocks.AsyncPost(new byte[0], new HashMap<>());
+        final AsyncSpeechletCall call = new AsyncSpeechletCall(post.request.startAsync(), FALLBACK, RequestTimer.NOOP);
+
+        call.fallback();
+        call.respond("late".getBytes(StandardCharsets.UTF_8));
+        call.fail(500, new IllegalStateException("late"));
+        call.fallback();
+
+        assertEquals(200, post.response.status);
+        assertArrayEquals(FALLBACK, post.response.body.toByteArray());
+
+        final CompletableFuture<Void> handlerCall = new CompletableFuture<>();
+        call.setHandlerCall(handlerCall);
+        assertTrue("handler started after the fallback still runs", handlerCall.isCancelled());
+    }
+
+    @Test
+    public void responseCancelsDeadline() throws Exception {
+        final ServletMocks.AsyncPost post = new ServletMocks.AsyncPost(new byte[0], new HashMap<>());
+        final AsyncSpeechletCall call = new AsyncSpeechletCall(post.request.startAsync(), FALLBACK, RequestTimer.NOOP);
+        final CompletableFuture<Void> deadline = new CompletableFuture<>();
+        call.setDeadline(deadline);
+
+        call.respond("speech".getBytes(StandardCharsets.UTF_8));
+        call.fallback();
+
+        assertTrue(deadline.isCancelled());
+        assertEquals("speech", new String(post.response.body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void saturatedExecutorFailsFastWithServiceUnavailable() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AlexaSlingSpeechlet speechlet = new AlexaSlingSpeechlet();
+        speechlet.activate(new HashMap<>());
+        speechlet.bindIntentHandler(new BlockingHandler(release),
+                Collections.singletonMap(IntentHandler.INTENTS_PROPERTY, new String[]{"Weather"}));
+        final AlexaSlingSpeechletServlet servlet = new AlexaSlingSpeechletServlet();
+        servlet.bindSlingSpeechlet(speechlet);
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY, true);
+        properties.put(AlexaSlingSpeechletServlet.ASYNC_ENABLED_PROPERTY, true);
+        properties.put(AlexaSlingSpeechletServlet.ASYNC_POOL_SIZE_PROPERTY, 1);
+        properties.put(AlexaSlingSpeechletServlet.ASYNC_QUEUE_SIZE_PROPERTY, 1);
+        properties.put(AlexaSlingSpeechletServlet.DEADLINE_MILLIS_PROPERTY, 5000L);
+        servlet.activate(ServletMocks.componentContext(properties));
+        try {
+            final ServletMocks.AsyncPost running = post(servlet);
+            final ServletMocks.AsyncPost queued = post(servlet);
+            final ServletMocks.AsyncPost rejected = post(servlet);
+
+            assertTrue(rejected.completed.await(0, TimeUnit.MILLISECONDS));
+            assertEquals(503, rejected.response.status);
+            assertEquals(0, rejected.response.body.size());
+
+            release.countDown();
+            for (final ServletMocks.AsyncPost post : new ServletMocks.AsyncPost[]{running, queued}) {
+                assertTrue(post.completed.await(2, TimeUnit.SECONDS));
+                assertEquals(200, post.response.status);
+                final String body = new String(post.response.body.toByteArray(), StandardCharsets.UTF_8);
+                assertTrue(body, body.contains("Sunny"));
+            }
+        } finally {
+            release.countDown();
+            servlet.deactivate();
+        }
+    }
+
+    private static ServletMocks.AsyncPost post(final AlexaSlingSpeechletServlet servlet) throws Exception {
+        final ServletMocks.AsyncPost post = new ServletMocks.AsyncPost(
+                Envelopes.intentRequest("Weather", Collections.emptyMap()), new HashMap<>());
+        servlet.doPost(post.request, post.response.response);
+        return post;
+    }
+
+    /**
+     * Holds the worker thread until released.
+     */
+    private static final class BlockingHandler implements IntentHandler {
+
+        private final CountDownLatch release;
+
+        BlockingHandler(final CountDownLatch release) {
+            this.release = release;
+        }
+
+        @Override
+        public boolean supportsIntent(final String intentName) {
+            return "Weather".equals(intentName);
+        }
+
+        @Override
+        public SpeechletResponse handleIntent(final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+            try {
+                this.release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            final PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+            speech.setText("Sunny");
+            return SpeechletResponse.newTellResponse(speech);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+
+/**
+ * Realistic speechlet request envelopes for benchmarks.
+ *
+ * @author zacheusz
+ */
+public final class Envelopes {
+
+    public static final String APPLICATION_ID = "amzn1.ask.skill.0f3a5c4e-3b8a-4ad1-9d0c-7c1f2b7e6a11";
+
+    private Envelopes() {
+    }
+
+    /**
+     * @param intentName name of the intent
+     * @param slots slot names mapped to their values
+     * @return serialized intent request with the current timestamp
+     */
+    public static byte[] intentRequest(final String intentName, final Map<String, String> slots) {
+        final StringBuilder slotsJson = new StringBuilder();
+        for (final Map.Entry<String, String> slot : slots.entrySet()) {
+            if (slotsJson.length() > 0) {
+                slotsJson.append(',');
+            }
+            slotsJson.append('"').append(slot.getKey()).append("\":{\"name\":\"").append(slot.getKey())
+                    .append("\",\"value\":\"").append(slot.getValue()).append("\"}");
+        }
+        return envelope(APPLICATION_ID, "{\"type\":\"IntentRequest\","
+                + "\"requestId\":\"amzn1.echo-api.request." + UUID.randomUUID() + "\","
+                + "\"timestamp\":\"" + now() + "\",\"locale\":\"en-US\","
+                + "\"intent\":{\"name\":\"" + intentName + "\",\"slots\":{" + slotsJson + "}}}");
+    }
+
+    /**
+     * @return serialized launch request with the current timestamp
+     */
+    public static byte[] launchRequest() {
+        return envelope(APPLICATION_ID, "{\"type\":\"LaunchRequest\","
+                + "\"requestId\":\"amzn1.echo-api.request." + UUID.randomUUID() + "\","
+                + "\"timestamp\":\"" + now() + "\",\"locale\":\"en-US\"}");
+    }
+
+    /**
+     * @return serialized session ended request with the current timestamp
+     */
+    public static byte[] sessionEndedRequest() {
+        return envelope(APPLICATION_ID, "{\"type\":\"SessionEndedRequest\","
+                + "\"requestId\":\"amzn1.echo-api.request." + UUID.randomUUID() + "\","
+                + "\"timestamp\":\"" + now() + "\",\"locale\":\"en-US\",\"reason\":\"USER_INITIATED\"}");
+    }
+
+    /**
+     * @param applicationId the skill application id
+     * @param request serialized request object
+     * @return serialized envelope with a session and a context
+     */
+    public static byte[] envelope(final String applicationId, final String request) {
+        final String user = "amzn1.ask.account.AHXWZ5RDKA7S2Z4IEUSPQ5QRWZTHYAXZCJGRZHKVKLJ3GM6SZLMVKC4LEB6FJEBVQ7ZGPPOFE2XQ"
+                + "BGFHZR5ZVK73AXDZTFBYMF4JNUPN7TK6NWDLJ7ZQGIJQXHJ6GMBQ5VWSRSTFDQUOM5FHXCUCB4FBJNUQHYRKWBPYNVKDBEVQ";
+        final String json = "{\"version\":\"1.0\","
+                + "\"session\":{\"new\":false,"
+                + "\"sessionId\":\"amzn1.echo-api.session.7c9e4a2b-5f0d-4c1e-8a3b-2d6f9e1c0b7a\","
+                + "\"application\":{\"applicationId\":\"" + applicationId + "\"},"
+                + "\"attributes\":{\"lastIntent\":\"GetOpeningHoursIntent\",\"counter\":3},"
+                + "\"user\":{\"userId\":\"" + user + "\"}},"
+                + "\"context\":{\"System\":{"
+                + "\"application\":{\"applicationId\":\"" + applicationId + "\"},"
+                + "\"user\":{\"userId\":\"" + user + "\"},"
+                + "\"device\":{\"deviceId\":\"amzn1.ask.device.AEVJ2XWJ3LZV6Q\",\"supportedInterfaces\":{}},"
+                + "\"apiEndpoint\":\"https://api.amazonalexa.com\"}},"
+                + "\"request\":" + request + "}";
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String now() {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date());
+    }
+}
@@ -0,0 +1,162 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.SpeechletResponse;
+import eu.zacheusz.alexa.handler.IntentHandler;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * {@link IntentRoutingTable} routing of declared and probed intent handlers.
+ *
+ * @author zacheusz
+ */
+public class IntentRoutingTableTest {
+
+    @Test
+    public void routesDeclaredIntentsWithoutProbing() {
+        final ProbedHandler weather = new ProbedHandler("Weather");
+        final ProbedHandler duplicate = new ProbedHandler("Weather");
+        final Map<IntentHandler, String[]> handlers = new LinkedHashMap<>();
+        handlers.put(weather, new String[]{"Weather", "Forecast"});
+        handlers.put(duplicate, new String[]{"Weather"});
+
+        final IntentRoutingTable table = IntentRoutingTable.build(handlers);
+
+        assertSame(weather, table.lookup("Weather"));
+        assertSame(weather, table.lookup("Forecast"));
+        assertNull(table.lookup("News"));
+        assertNull(table.lookup(null));
+        assertEquals(0, weather.probes() + duplicate.probes());
+        assertEquals(2, table.getHandlerCount());
+        assertEquals(2, table.getDeclaredIntentCount());
+    }
+
+    @Test
+    public void probesUndeclaredHandlersOncePerIntent() {
+        final ProbedHandler declared = new ProbedHandler("Weather");
+        final ProbedHandler news = new ProbedHandler("News");
+        final ProbedHandler sports = new ProbedHandler("Sports");
+        final Map<IntentHandler, String[]> handlers = new LinkedHashMap<>();
+        handlers.put(declared, new String[]{"Weather"});
+        handlers.put(news, null);
+        handlers.put(sports, new String[0]);
+
+        final IntentRoutingTable table = IntentRoutingTable.build(handlers);
+
+        assertSame(declared, table.lookup("Weather"));
+        assertSame(news, table.lookup("News"));
+        assertSame(news, table.lookup("News"));
+        assertSame(sports, table.lookup("Sports"));
+        assertNull(table.lookup("Unknown"));
+        assertNull(table.lookup("Unknown"));
+        assertEquals(0, declared.probes());
+        assertEquals(3, news.probes());
+        assertEquals(3, sports.probes());
+    }
+
+    @Test
+    public void boundsRememberedProbeResults() {
+        final ProbedHandler handler = new ProbedHandler("Known");
+        final IntentRoutingTable table = IntentRoutingTable.build(
+                Collections.<IntentHandler, String[]>singletonMap(handler, null));
+
+        for (int i = 0; i < 1024; i++) {
+            assertNull(table.lookup("Intent" + i));
+        }
+        assertEquals(1024, handler.probes());
+        assertNull(table.lookup("Intent0"));
+        assertEquals(1024, handler.probes());
+
+        assertSame(handler, table.lookup("Known"));
+        assertSame(handler, table.lookup("Known"));
+        assertEquals(1026, handler.probes());
+    }
+
+    @Test
+    public void rebuildsTableWhenHandlersAreRebound() throws Exception {
+        final AlexaSlingSpeechlet speechlet = new AlexaSlingSpeechlet();
+        speechlet.activate(new HashMap<>());
+        final ProbedHandler first = new ProbedHandler("Weather");
+        final ProbedHandler second = new ProbedHandler("Weather");
+
+        speechlet.bindIntentHandler(first, null);
+        final IntentRoutingTable bound = speechlet.routingTable;
+        assertSame(first, bound.lookup("Weather"));
+        assertEquals(Collections.singletonList(first), speechlet.handlers);
+
+        speechlet.unbindIntentHandler(first);
+        speechlet.bindIntentHandler(second, Collections.<String, Object>singletonMap(
+                IntentHandler.INTENTS_PROPERTY, new String[]{"Weather"}));
+        final IntentRoutingTable rebound = speechlet.routingTable;
+
+        assertNotSame(bound, rebound);
+        assertSame(second, rebound.lookup("Weather"));
+        assertEquals(0, second.probes());
+        assertEquals(Collections.singleton("Weather"), rebound.getDeclaredIntents());
+        assertEquals(Arrays.asList(second), speechlet.handlers);
+
+        speechlet.unbindIntentHandler(second);
+        assertSame(IntentRoutingTable.EMPTY, speechlet.routingTable);
+        assertEquals(Collections.emptyList(), speechlet.handlers);
+    }
+
+    private static final class ProbedHandler implements IntentHandler {
+
+        private final String intentName;
+
+        private final Map<String, AtomicInteger> probes = new ConcurrentHashMap<>();
+
+        ProbedHandler(final String intentName) {
+            this.intentName = intentName;
+        }
+
+        int probes() {
+            return this.probes.values().stream().mapToInt(AtomicInteger::get).sum();
+        }
+
+        @Override
+        public boolean supportsIntent(final String intentName) {
+            this.probes.computeIfAbsent(intentName, name -> new AtomicInteger()).incrementAndGet();
+            return this.intentName.equals(intentName);
+        }
+
+        @Override
+        public SpeechletResponse handleIntent(final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+            return null;
+        }
+    }
+}
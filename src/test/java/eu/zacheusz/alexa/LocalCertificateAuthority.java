@@ -0,0 +1,188 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.Sdk;
+import com.sun.net.httpserver.HttpServer;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.KeyUsage;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.Signature;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local certificate authority issuing an Echo API signing certificate, with an HTTP server
+ * serving the certificate chain the way Amazon serves it from S3.
+ *
+ * @author zacheusz
+ */
+public final class LocalCertificateAuthority implements AutoCloseable {
+
+    public static final String CHAIN_PATH = "/echo.api/echo-api-cert.pem";
+
+    private static final long VALIDITY_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+    private final X509Certificate caCertificate;
+
+    private final KeyPair signingKeyPair;
+
+    private final X509Certificate signingCertificate;
+
+    private final AtomicInteger chainRequests = new AtomicInteger();
+
+    private HttpServer server;
+
+    public LocalCertificateAuthority() throws GeneralSecurityException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance(Sdk.SIGNATURE_KEY_TYPE);
+        generator.initialize(2048);
+        final KeyPair caKeyPair = generator.generateKeyPair();
+        this.signingKeyPair = generator.generateKeyPair();
+
+        final long now = System.currentTimeMillis();
+        final Date notBefore = new Date(now - TimeUnit.DAYS.toMillis(1));
+        final Date notAfter = new Date(now + VALIDITY_MILLIS);
+        final X500Name caName = new X500Name("CN=Local Alexa Test CA");
+        try {
+            final X509v3CertificateBuilder ca = new JcaX509v3CertificateBuilder(caName, BigInteger.ONE,
+                    notBefore, notAfter, caName, caKeyPair.getPublic());
+            ca.addExtension(Extension.basicConstraints, true, new BasicConstraints(true));
+            ca.addExtension(Extension.keyUsage, true, new KeyUsage(KeyUsage.keyCertSign | KeyUsage.cRLSign));
+            this.caCertificate = new JcaX509CertificateConverter().getCertificate(
+                    ca.build(new JcaContentSignerBuilder("SHA256withRSA").build(caKeyPair.getPrivate())));
+
+            final X509v3CertificateBuilder signing = new JcaX509v3CertificateBuilder(caName, BigInteger.valueOf(2),
+                    notBefore, notAfter, new X500Name("CN=" + Sdk.ECHO_API_DOMAIN_NAME), this.signingKeyPair.getPublic());
+            signing.addExtension(Extension.subjectAlternativeName, false,
+                    new GeneralNames(new GeneralName(GeneralName.dNSName, Sdk.ECHO_API_DOMAIN_NAME)));
+            signing.addExtension(Extension.keyUsage, true,
+                    new KeyUsage(KeyUsage.digitalSignature | KeyUsage.keyEncipherment));
+            this.signingCertificate = new JcaX509CertificateConverter().getCertificate(
+                    signing.build(new JcaContentSignerBuilder("SHA256withRSA").build(caKeyPair.getPrivate())));
+        } catch (Exception ex) {
+            throw new GeneralSecurityException("Unable to issue test certificates", ex);
+        }
+    }
+
+    /**
+     * @return trust manager trusting only this authority
+     */
+    public X509TrustManager trustManager() throws GeneralSecurityException, IOException {
+        final KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        trustStore.load(null, null);
+        trustStore.setCertificateEntry("local-ca", this.caCertificate);
+        final TrustManagerFactory factory = TrustManagerFactory.getInstance("PKIX");
+        factory.init(trustStore);
+        for (final TrustManager trustManager : factory.getTrustManagers()) {
+            if (trustManager instanceof X509TrustManager) {
+                return (X509TrustManager) trustManager;
+            }
+        }
+        throw new GeneralSecurityException("No X509TrustManager available");
+    }
+
+    /**
+     * @param body serialized speechlet request
+     * @return the base64 signature header value
+     */
+    public String sign(final byte[] body) throws GeneralSecurityException {
+        final Signature signature = Signature.getInstance(Sdk.SIGNATURE_ALGORITHM);
+        signature.initSign(this.signingKeyPair.getPrivate());
+        signature.update(body);
+        return Base64.getEncoder().encodeToString(signature.sign());
+    }
+
+    /**
+     * @return PEM encoded signing certificate followed by the authority certificate
+     */
+    public byte[] pemChain() throws GeneralSecurityException {
+        final Base64.Encoder encoder = Base64.getMimeEncoder(64, new byte[]{'\n'});
+        final StringBuilder pem = new StringBuilder();
+        for (final X509Certificate certificate : new X509Certificate[]{this.signingCertificate, this.caCertificate}) {
+            pem.append("-----BEGIN CERTIFICATE-----\n")
+                    .append(encoder.encodeToString(certificate.getEncoded()))
+                    .append("\n-----END CERTIFICATE-----\n");
+        }
+        return pem.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Start the HTTP server serving the chain on a free loopback port.
+     *
+     * @return URL of the chain
+     */
+    public String startChainServer() throws IOException, GeneralSecurityException {
+        final byte[] chain = pemChain();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext(CHAIN_PATH, exchange -> {
+            this.chainRequests.incrementAndGet();
+            exchange.sendResponseHeaders(200, chain.length);
+            try (final OutputStream out = exchange.getResponseBody()) {
+                out.write(chain);
+            }
+        });
+        this.server.start();
+        return "http://" + this.server.getAddress().getHostString() + ':' + this.server.getAddress().getPort()
+                + CHAIN_PATH;
+    }
+
+    /**
+     * @return number of chain downloads served
+     */
+    public int getChainRequestCount() {
+        return this.chainRequests.get();
+    }
+
+    public X509Certificate getSigningCertificate() {
+        return this.signingCertificate;
+    }
+
+    @Override
+    public void close() {
+        if (this.server != null) {
+            this.server.stop(0);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.SessionStartedRequest;
+import com.amazon.speech.speechlet.util.UserAgentUtils;
+import eu.zacheusz.alexa.handler.SessionStartedHandler;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Intent requests without a handler, answered with or without the SDK request handler.
+ *
+ * @author zacheusz
+ */
+public class NoHandlerShortcutTest {
+
+    private AlexaSlingSpeechletServlet servlet;
+
+    @After
+    public void tearDown() {
+        System.clearProperty(Sdk.SUPPORTED_APPLICATION_IDS_SYSTEM_PROPERTY);
+        if (this.servlet != null) {
+            this.servlet.deactivate();
+        }
+    }
+
+    @Test
+    public void answersIntentWithoutHandler() throws Exception {
+        this.servlet = newServlet(new AlexaSlingSpeechlet());
+
+        final ServletMocks.CapturedResponse response = post(Envelopes.intentRequest("Unknown", Collections.emptyMap()));
+
+        assertEquals(200, response.status);
+        assertTrue(response.body.size() > 0);
+    }
+
+    @Test
+    public void runsSessionStartedCallbackOfNewSession() throws Exception {
+        final AlexaSlingSpeechlet speechlet = new AlexaSlingSpeechlet();
+        final AtomicInteger started = new AtomicInteger();
+        this.servlet = newServlet(speechlet);
+        speechlet.bindSessionStartedHandler(new SessionStartedHandler() {
+            @Override
+            public void handleSessionStarted(final SpeechletRequestEnvelope<SessionStartedRequest> requestEnvelope) {
+                started.incrementAndGet();
+            }
+        }, new HashMap<>());
+        final String newSession = new String(Envelopes.intentRequest("Unknown", Collections.emptyMap()),
+                StandardCharsets.UTF_8).replace("\"new\":false", "\"new\":true");
+
+        final ServletMocks.CapturedResponse response = post(newSession.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(200, response.status);
+        assertEquals(1, started.get());
+    }
+
+    @Test
+    public void answersLikeSdkRequestHandler() throws Exception {
+        this.servlet = newServlet(new AlexaSlingSpeechlet());
+        final String existingSession = new String(Envelopes.intentRequest("Unknown", Collections.emptyMap()),
+                StandardCharsets.UTF_8);
+
+        final ServletMocks.CapturedResponse shortcut = post(existingSession.getBytes(StandardCharsets.UTF_8));
+        final ServletMocks.CapturedResponse sdk = post(existingSession.replace("\"new\":false", "\"new\":true")
+                .getBytes(StandardCharsets.UTF_8));
+
+        final String body = new String(shortcut.body.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(body, body.contains("\"userAgent\":\"" + UserAgentUtils.getUserAgent() + "\""));
+        assertEquals(new String(sdk.body.toByteArray(), StandardCharsets.UTF_8), body);
+    }
+
+    @Test
+    public void rejectsApplicationIdUnsupportedBySdk() throws Exception {
+        System.setProperty(Sdk.SUPPORTED_APPLICATION_IDS_SYSTEM_PROPERTY, "amzn1.ask.skill.other");
+        this.servlet = newServlet(new AlexaSlingSpeechlet());
+
+        final ServletMocks.CapturedResponse response = post(Envelopes.intentRequest("Unknown", Collections.emptyMap()));
+
+        assertEquals(400, response.status);
+    }
+
+    private static AlexaSlingSpeechletServlet newServlet(final AlexaSlingSpeechlet speechlet) throws Exception {
+        speechlet.activate(new HashMap<>());
+        final AlexaSlingSpeechletServlet servlet = new AlexaSlingSpeechletServlet();
+        servlet.bindSlingSpeechlet(speechlet);
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY, true);
+        servlet.activate(ServletMocks.componentContext(properties));
+        return servlet;
+    }
+
+    private ServletMocks.CapturedResponse post(final byte[] body) throws Exception {
+        final ServletMocks.CapturedResponse response = new ServletMocks.CapturedResponse();
+        this.servlet.doPost(ServletMocks.postRequest(body, new HashMap<>()), response.response);
+        return response;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.Sdk;
+import eu.zacheusz.alexa.capture.TrafficCaptureReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Traffic capture of {@link AlexaSlingSpeechletServlet} requests.
+ *
+ * @author zacheusz
+ */
+public class RequestCaptureTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void capturesOnlyRequestsPassingTheChecks() throws Exception {
+        final Path file = this.folder.getRoot().toPath().resolve("traffic.capture");
+        final AlexaSlingSpeechletServlet servlet = newServlet(file);
+        final byte[] stale = Envelopes.envelope(Envelopes.APPLICATION_ID, "{\"type\":\"LaunchRequest\","
+                + "\"requestId\":\"amzn1.echo-api.request.stale\",\"timestamp\":\"2017-01-01T00:00:00Z\","
+                + "\"locale\":\"en-US\"}");
+        try {
+            assertEquals(400, post(servlet, stale).status);
+            assertEquals(200, post(servlet, Envelopes.intentRequest("Weather", Collections.emptyMap())).status);
+        } finally {
+            servlet.deactivate();
+        }
+
+        try (final TrafficCaptureReader reader = new TrafficCaptureReader(file)) {
+            final List<TrafficCaptureReader.CapturedRequest> requests = reader.readAll();
+            assertEquals(1, requests.size());
+            assertTrue(new String(requests.get(0).getBody(), StandardCharsets.UTF_8).contains("\"Weather\""));
+        }
+    }
+
+    private static AlexaSlingSpeechletServlet newServlet(final Path file) throws Exception {
+        final AlexaSlingSpeechlet speechlet = new AlexaSlingSpeechlet();
+        speechlet.activate(new HashMap<>());
+        final AlexaSlingSpeechletServlet servlet = new AlexaSlingSpeechletServlet();
+        servlet.bindSlingSpeechlet(speechlet);
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY, true);
+        properties.put(AlexaSlingSpeechletServlet.CAPTURE_ENABLED_PROPERTY, true);
+        properties.put(AlexaSlingSpeechletServlet.CAPTURE_FILE_PROPERTY, file.toString());
+        properties.put(AlexaSlingSpeechletServlet.TIMESTAMP_TOLERANCE_SECONDS_PROPERTY, 150L);
+        servlet.activate(ServletMocks.componentContext(properties));
+        return servlet;
+    }
+
+    private static ServletMocks.CapturedResponse post(final AlexaSlingSpeechletServlet servlet, final byte[] body)
+            throws Exception {
+        final ServletMocks.CapturedResponse response = new ServletMocks.CapturedResponse();
+        servlet.doPost(ServletMocks.postRequest(body, new HashMap<>()), response.response);
+        return response;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.ui.PlainTextOutputSpeech;
+import eu.zacheusz.alexa.handler.AsyncIntentHandler;
+import eu.zacheusz.alexa.handler.IntentHandler;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Retried requests through {@link AlexaSlingSpeechletServlet} with request deduplication enabled.
+ *
+ * @author zacheusz
+ */
+public class RequestDeduplicationTest {
+
+    private final CountingHandler handler = new CountingHandler();
+
+    private AlexaSlingSpeechletServlet servlet;
+
+    @After
+    public void tearDown() {
+        this.servlet.deactivate();
+    }
+
+    @Test
+    public void answersRetryWithFirstResponse() throws Exception {
+        activate(this.handler, new HashMap<>(), deduplication());
+        final byte[] body = Envelopes.intentRequest("Weather", Collections.emptyMap());
+
+        final ServletMocks.CapturedResponse first = post(body);
+        final ServletMocks.CapturedResponse retry = post(body);
+
+        assertEquals(200, retry.status);
+        assertArrayEquals(first.body.toByteArray(), retry.body.toByteArray());
+        assertEquals(1, this.handler.calls.get());
+    }
+
+    @Test
+    public void runsRetryAgainAfterHandlerError() throws Exception {
+        activate(this.handler, new HashMap<>(), deduplication());
+        final byte[] body = Envelopes.intentRequest("Weather", Collections.emptyMap());
+        this.handler.errors.set(1);
+        try {
+            post(body);
+            fail("Handler error swallowed");
+        } catch (AssertionError expected) {
+            // thrown by the handler
+        }
+
+        final long started = System.nanoTime();
+        final ServletMocks.CapturedResponse retry = post(body);
+
+        assertEquals(200, retry.status);
+        assertEquals(2, this.handler.calls.get());
+        assertTrue("retry waited for the first request", System.nanoTime() - started < 2_000_000_000L);
+    }
+
+    @Test
+    public void runsRetryAgainAfterTryAgainResponse() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final AsyncIntentHandler pending = new AsyncIntentHandler() {
+            @Override
+            public boolean supportsIntent(final String intentName) {
+                return "Weather".equals(intentName);
+            }
+
+            @Override
+            public CompletionStage<SpeechletResponse> handleIntentAsync(
+                    final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+                calls.incrementAndGet();
+                return new CompletableFuture<>();
+            }
+        };
+        activate(pending, Collections.singletonMap(AlexaSlingSpeechlet.ASYNC_HANDLER_TIMEOUT_PROPERTY, 10L),
+                deduplication());
+        final byte[] body = Envelopes.intentRequest("Weather", Collections.emptyMap());
+
+        assertEquals(200, post(body).status);
+        assertEquals(200, post(body).status);
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void runsRetryAgainAfterDeadlineFallback() throws Exception {
+        final Hashtable<String, Object> properties = deduplication();
+        properties.put(AlexaSlingSpeechletServlet.ASYNC_ENABLED_PROPERTY, true);
+        properties.put(AlexaSlingSpeechletServlet.DEADLINE_MILLIS_PROPERTY, 100L);
+        this.handler.delayMillis = 300L;
+        activate(this.handler, new HashMap<>(), properties);
+        final byte[] body = Envelopes.intentRequest("Weather", Collections.emptyMap());
+
+        final ServletMocks.AsyncPost first = asyncPost(body);
+        assertTrue(first.completed.await(2, TimeUnit.SECONDS));
+        final String fallback = new String(first.response.body.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(fallback, fallback.contains(AlexaSlingSpeechletServlet.DEFAULT_DEADLINE_FALLBACK_MESSAGE));
+
+        this.handler.delayMillis = 0L;
+        final ServletMocks.AsyncPost retry = asyncPost(body);
+        assertTrue(retry.completed.await(2, TimeUnit.SECONDS));
+        final String answer = new String(retry.response.body.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(answer, answer.contains("Sunny"));
+        assertEquals(2, this.handler.calls.get());
+    }
+
+    @Test
+    public void isOffByDefault() throws Exception {
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY, true);
+        activate(this.handler, new HashMap<>(), properties);
+        final byte[] body = Envelopes.intentRequest("Weather", Collections.emptyMap());
+
+        post(body);
+        post(body);
+
+        assertEquals(2, this.handler.calls.get());
+    }
+
+    private void activate(final IntentHandler intentHandler, final Map<String, Object> speechletProperties,
+                          final Hashtable<String, Object> properties) throws Exception {
+        final AlexaSlingSpeechlet speechlet = new AlexaSlingSpeechlet();
+        speechlet.activate(new HashMap<>(speechletProperties));
+        speechlet.bindIntentHandler(intentHandler,
+                Collections.singletonMap(IntentHandler.INTENTS_PROPERTY, new String[]{"Weather"}));
+        this.servlet = new AlexaSlingSpeechletServlet();
+        this.servlet.bindSlingSpeechlet(speechlet);
+        this.servlet.activate(ServletMocks.componentContext(properties));
+    }
+
+    private static Hashtable<String, Object> deduplication() {
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY, true);
+        properties.put(AlexaSlingSpeechletServlet.REQUEST_DEDUPLICATION_ENABLED_PROPERTY, true);
+        return properties;
+    }
+
+    private ServletMocks.AsyncPost asyncPost(final byte[] body) throws Exception {
+        final ServletMocks.AsyncPost post = new ServletMocks.AsyncPost(body, new HashMap<>());
+        this.servlet.doPost(post.request, post.response.response);
+        return post;
+    }
+
+    private ServletMocks.CapturedResponse post(final byte[] body) throws Exception {
+        final ServletMocks.CapturedResponse response = new ServletMocks.CapturedResponse();
+        this.servlet.doPost(ServletMocks.postRequest(body, new HashMap<>()), response.response);
+        return response;
+    }
+
+    private static final class CountingHandler implements IntentHandler {
+
+        final AtomicInteger calls = new AtomicInteger();
+
+        final AtomicInteger errors = new AtomicInteger();
+
+        volatile long delayMillis;
+
+        @Override
+        public boolean supportsIntent(final String intentName) {
+            return "Weather".equals(intentName);
+        }
+
+        @Override
+        public SpeechletResponse handleIntent(final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+            this.calls.incrementAndGet();
+            if (this.errors.getAndDecrement() > 0) {
+                throw new AssertionError("handler bug");
+            }
+            if (this.delayMillis > 0L) {
+                try {
+                    Thread.sleep(this.delayMillis);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            final PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+            speech.setText("Sunny");
+            return SpeechletResponse.newTellResponse(speech);
+        }
+    }
+}
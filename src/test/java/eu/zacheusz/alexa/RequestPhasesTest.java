@@ -0,0 +1,191 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.ui.PlainTextOutputSpeech;
+import eu.zacheusz.alexa.handler.AsyncIntentHandler;
+import eu.zacheusz.alexa.handler.IntentHandler;
+import eu.zacheusz.alexa.metrics.Phase;
+import eu.zacheusz.alexa.metrics.SpeechletMetrics;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Request phases recorded by {@link SpeechletMetrics} on the synchronous and the asynchronous path
+ * of {@link AlexaSlingSpeechletServlet}.
+ *
+ * @author zacheusz
+ */
+public class RequestPhasesTest {
+
+    private static final long HANDLER_MILLIS = 50L;
+
+    private final SpeechletMetrics metrics = new SpeechletMetrics();
+
+    private final AlexaSlingSpeechlet speechlet = new AlexaSlingSpeechlet();
+
+    private AlexaSlingSpeechletServlet servlet;
+
+    @After
+    public void tearDown() {
+        this.servlet.deactivate();
+    }
+
+    @Test
+    public void recordsPhasesOfSynchronousRequest() throws Exception {
+        activate(new SlowHandler(), false);
+
+        final ServletMocks.CapturedResponse response = new ServletMocks.CapturedResponse();
+        this.servlet.doPost(ServletMocks.postRequest(Envelopes.intentRequest("Weather", Collections.emptyMap()),
+                new HashMap<>()), response.response);
+
+        assertEquals(200, response.status);
+        for (final Phase phase : new Phase[]{Phase.BODY_READ, Phase.DESERIALIZATION, Phase.HANDLER,
+                Phase.SERIALIZATION, Phase.TOTAL}) {
+            assertEquals(phase.name(), 1, this.metrics.getPhase(phase).getCount());
+        }
+        assertEquals(0, this.metrics.getPhase(Phase.SIGNATURE_CHECK).getCount());
+        assertTrue(this.metrics.getPhase(Phase.HANDLER).getMeanMicros() >= HANDLER_MILLIS * 1000);
+        assertEquals(1, this.metrics.getRequestCount());
+    }
+
+    @Test
+    public void recordsHandlerCompletedOnAnotherThread() throws Exception {
+        final PendingHandler handler = new PendingHandler();
+        activate(handler, true);
+
+        for (int i = 0; i < 2; i++) {
+            final ServletMocks.AsyncPost post = post();
+            final CompletableFuture<SpeechletResponse> call = handler.pending.poll(500, TimeUnit.MILLISECONDS);
+            assertNotNull(call);
+            Thread.sleep(HANDLER_MILLIS);
+            call.complete(tell());
+            assertTrue(post.completed.await(1, TimeUnit.SECONDS));
+            assertEquals(200, post.response.status);
+        }
+
+        assertEquals(2, this.metrics.getPhase(Phase.TOTAL).getCount());
+        assertEquals(2, this.metrics.getPhase(Phase.HANDLER).getCount());
+        assertEquals(2, this.metrics.getPhase(Phase.SERIALIZATION).getCount());
+        assertTrue(this.metrics.getPhase(Phase.HANDLER).getMeanMicros() >= HANDLER_MILLIS * 1000);
+        assertEquals(2, this.metrics.getRequestCount());
+    }
+
+    @Test
+    public void recordsFallbackWithoutHandlerPhase() throws Exception {
+        final PendingHandler handler = new PendingHandler();
+        activate(handler, true);
+
+        final ServletMocks.AsyncPost post = post();
+
+        assertTrue(post.completed.await(2, TimeUnit.SECONDS));
+        assertEquals(1, this.metrics.getPhase(Phase.TOTAL).getCount());
+        assertEquals(0, this.metrics.getPhase(Phase.HANDLER).getCount());
+        assertEquals(0, this.metrics.getErrorCount());
+    }
+
+    private void activate(final IntentHandler handler, final boolean async) throws Exception {
+        this.speechlet.activate(new HashMap<>());
+        this.speechlet.bindIntentHandler(handler,
+                Collections.singletonMap(IntentHandler.INTENTS_PROPERTY, new String[]{"Weather"}));
+        this.servlet = new AlexaSlingSpeechletServlet();
+        this.servlet.bindSlingSpeechlet(this.speechlet);
+        this.servlet.metrics = this.metrics;
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY, true);
+        properties.put(AlexaSlingSpeechletServlet.ASYNC_ENABLED_PROPERTY, async);
+        properties.put(AlexaSlingSpeechletServlet.ASYNC_POOL_SIZE_PROPERTY, 1);
+        properties.put(AlexaSlingSpeechletServlet.DEADLINE_MILLIS_PROPERTY, 500L);
+        this.servlet.activate(ServletMocks.componentContext(properties));
+    }
+
+    private ServletMocks.AsyncPost post() throws Exception {
+        final ServletMocks.AsyncPost post = new ServletMocks.AsyncPost(
+                Envelopes.intentRequest("Weather", Collections.emptyMap()), new HashMap<>());
+        this.servlet.doPost(post.request, post.response.response);
+        return post;
+    }
+
+    private static SpeechletResponse tell() {
+        final PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+        speech.setText("Sunny");
+        return SpeechletResponse.newTellResponse(speech);
+    }
+
+    /**
+     * Answers after {@link #HANDLER_MILLIS}.
+     */
+    private static final class SlowHandler implements IntentHandler {
+
+        @Override
+        public boolean supportsIntent(final String intentName) {
+            return "Weather".equals(intentName);
+        }
+
+        @Override
+        public SpeechletResponse handleIntent(final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+            try {
+                Thread.sleep(HANDLER_MILLIS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return tell();
+        }
+    }
+
+    /**
+     * Answers when the test completes the future of the call.
+     */
+    private static final class PendingHandler implements AsyncIntentHandler {
+
+        final BlockingQueue<CompletableFuture<SpeechletResponse>> pending = new LinkedBlockingQueue<>();
+
+        @Override
+        public boolean supportsIntent(final String intentName) {
+            return "Weather".equals(intentName);
+        }
+
+        @Override
+        public CompletionStage<SpeechletResponse> handleIntentAsync(
+                final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+            final CompletableFuture<SpeechletResponse> response = new CompletableFuture<>();
+            this.pending.add(response);
+            return response;
+        }
+    }
+}
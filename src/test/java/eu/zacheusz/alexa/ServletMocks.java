@@ -0,0 +1,188 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.SlingHttpServletResponse;
+import org.osgi.service.component.ComponentContext;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Dictionary;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Minimal Sling request, response and component context stand-ins built with dynamic proxies.
+ *
+ * @author zacheusz
+ */
+public final class ServletMocks {
+
+    private ServletMocks() {
+    }
+
+    /**
+     * @param body request body
+     * @param headers request headers
+     * @return POST request serving the body
+     */
+    public static SlingHttpServletRequest postRequest(final byte[] body, final Map<String, String> headers) {
+        final ByteArrayInputStream in = new ByteArrayInputStream(body);
+        final ServletInputStream servletIn = new ServletInputStream() {
+            @Override
+            public int read() {
+                return in.read();
+            }
+
+            @Override
+            public int read(final byte[] b, final int off, final int len) {
+                return in.read(b, off, len);
+            }
+        };
+        return (SlingHttpServletRequest) Proxy.newProxyInstance(ServletMocks.class.getClassLoader(),
+                new Class<?>[]{SlingHttpServletRequest.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getInputStream":
+                            return servletIn;
+                        case "getContentLength":
+                            return body.length;
+                        case "getHeader":
+                            return headers.get((String) args[0]);
+                        case "getMethod":
+                            return "POST";
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    /**
+     * POST request supporting asynchronous processing, its async context answers into the response.
+     */
+    public static final class AsyncPost {
+
+        public final CountDownLatch completed = new CountDownLatch(1);
+
+        public final CapturedResponse response = new CapturedResponse();
+
+        public final SlingHttpServletRequest request;
+
+        public AsyncPost(final byte[] body, final Map<String, String> headers) {
+            final SlingHttpServletRequest post = postRequest(body, headers);
+            final AsyncContext asyncContext = (AsyncContext) Proxy.newProxyInstance(ServletMocks.class.getClassLoader(),
+                    new Class<?>[]{AsyncContext.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "getRequest":
+                                return AsyncPost.this.request;
+                            case "getResponse":
+                                return this.response.response;
+                            case "complete":
+                                this.completed.countDown();
+                                return null;
+                            default:
+                                return defaultValue(method.getReturnType());
+                        }
+                    });
+            this.request = (SlingHttpServletRequest) Proxy.newProxyInstance(ServletMocks.class.getClassLoader(),
+                    new Class<?>[]{SlingHttpServletRequest.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "isAsyncSupported":
+                                return true;
+                            case "startAsync":
+                                return asyncContext;
+                            default:
+                                try {
+                                    return method.invoke(post, args);
+                                } catch (InvocationTargetException ex) {
+                                    throw ex.getCause();
+                                }
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Response collecting the written body and the status.
+     */
+    public static final class CapturedResponse {
+
+        public final ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+
+        public volatile int status = 200;
+
+        public final SlingHttpServletResponse response = (SlingHttpServletResponse) Proxy.newProxyInstance(
+                ServletMocks.class.getClassLoader(), new Class<?>[]{SlingHttpServletResponse.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getOutputStream":
+                            return new ServletOutputStream() {
+                                @Override
+                                public void write(final int b) {
+                                    body.write(b);
+                                }
+
+                                @Override
+                                public void write(final byte[] b, final int off, final int len) {
+                                    body.write(b, off, len);
+                                }
+                            };
+                        case "sendError":
+                        case "setStatus":
+                            status = (Integer) args[0];
+                            return null;
+                        default:
+                            return defaultValue(method.getReturnType());
+                    }
+                });
+
+        public void reset() {
+            this.body.reset();
+            this.status = 200;
+        }
+    }
+
+    /**
+     * @param properties component configuration
+     * @return component context returning the configuration
+     */
+    public static ComponentContext componentContext(final Dictionary<String, Object> properties) {
+        return (ComponentContext) Proxy.newProxyInstance(ServletMocks.class.getClassLoader(),
+                new Class<?>[]{ComponentContext.class}, (proxy, method, args) ->
+                        "getProperties".equals(method.getName()) ? properties : defaultValue(method.getReturnType()));
+    }
+
+    private static Object defaultValue(final Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        }
+        return null;
+    }
+}
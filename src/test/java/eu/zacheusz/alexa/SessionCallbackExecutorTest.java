@@ -0,0 +1,113 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.Session;
+import com.amazon.speech.speechlet.SessionEndedRequest;
+import com.amazon.speech.speechlet.SessionStartedRequest;
+import eu.zacheusz.alexa.handler.BatchSessionEndedHandler;
+import eu.zacheusz.alexa.handler.SessionStartedHandler;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * {@link SessionCallbackExecutor} and the session callbacks of {@link AlexaSlingSpeechlet}.
+ *
+ * @author zacheusz
+ */
+public class SessionCallbackExecutorTest {
+
+    private final List<SpeechletRequestEnvelope<SessionEndedRequest>> ended = new CopyOnWriteArrayList<>();
+
+    private final BatchSessionEndedHandler batchHandler = this.ended::addAll;
+
+    private final SessionCallbackExecutor executor = new SessionCallbackExecutor(1, 10, 100, 60_000L,
+            () -> this.batchHandler);
+
+    @After
+    public void tearDown() {
+        this.executor.drain(1000);
+    }
+
+    @Test
+    public void runsCallbackOnCallingThreadAfterDrain() {
+        this.executor.drain(1000);
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+
+        this.executor.execute(() -> thread.set(Thread.currentThread()));
+
+        assertSame(Thread.currentThread(), thread.get());
+    }
+
+    @Test
+    public void handlesEndedSessionAfterDrain() {
+        this.executor.sessionEnded(sessionEnded());
+        this.executor.drain(1000);
+        assertEquals(1, this.ended.size());
+
+        this.executor.sessionEnded(sessionEnded());
+
+        assertEquals(2, this.ended.size());
+    }
+
+    @Test
+    public void runsSessionStartedHandlerOnRequestThread() throws Exception {
+        final AlexaSlingSpeechlet speechlet = new AlexaSlingSpeechlet();
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("sessionCallbacksAsync", true);
+        speechlet.activate(properties);
+        final AtomicReference<Thread> thread = new AtomicReference<>();
+        final SessionStartedHandler handler = requestEnvelope -> {
+            thread.set(Thread.currentThread());
+            requestEnvelope.getSession().setAttribute("started", true);
+        };
+        speechlet.bindSessionStartedHandler(handler, Collections.emptyMap());
+        final Session session = Session.builder().withSessionId("session").withIsNew(true).build();
+        try {
+            speechlet.onSessionStarted(SpeechletRequestEnvelope.<SessionStartedRequest>builder()
+                    .withRequest(SessionStartedRequest.builder().withRequestId("request").build())
+                    .withSession(session)
+                    .build());
+        } finally {
+            speechlet.deactivate();
+        }
+
+        assertSame(Thread.currentThread(), thread.get());
+        assertEquals(true, session.getAttribute("started"));
+    }
+
+    private static SpeechletRequestEnvelope<SessionEndedRequest> sessionEnded() {
+        return SpeechletRequestEnvelope.<SessionEndedRequest>builder()
+                .withRequest(SessionEndedRequest.builder().withRequestId("request").build())
+                .build();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.Sdk;
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.ui.PlainTextOutputSpeech;
+import eu.zacheusz.alexa.authentication.SigningCertificateChainCache;
+import eu.zacheusz.alexa.handler.IntentHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.X509TrustManager;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Signed requests through {@link AlexaSlingSpeechletServlet#doPost} with signature verification enabled,
+ * against the chain of a {@link LocalCertificateAuthority}.
+ *
+ * @author zacheusz
+ */
+public class SignedRequestSmokeTest {
+
+    private LocalCertificateAuthority authority;
+
+    private AlexaSlingSpeechletServlet servlet;
+
+    private Map<String, String> headers;
+
+    @Before
+    public void setUp() throws Exception {
+        this.authority = new LocalCertificateAuthority();
+        final String chainUrl = this.authority.startChainServer();
+        final AlexaSlingSpeechlet speechlet = new AlexaSlingSpeechlet();
+        speechlet.activate(new HashMap<>());
+        speechlet.bindIntentHandler(new WeatherHandler(),
+                Collections.singletonMap(IntentHandler.INTENTS_PROPERTY, new String[]{"Weather"}));
+        final X509TrustManager trustManager = this.authority.trustManager();
+        this.servlet = new AlexaSlingSpeechletServlet() {
+            @Override
+            protected SigningCertificateChainCache newCertificateChainCache() {
+                return new SigningCertificateChainCache(trustManager, false,
+                        SigningCertificateChainCache.DEFAULT_MAX_ENTRIES, SigningCertificateChainCache.DEFAULT_TIMEOUT_MILLIS);
+            }
+        };
+        this.servlet.bindSlingSpeechlet(speechlet);
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Sdk.DISABLE_REQUEST_SIGNATURE_CHECK_SYSTEM_PROPERTY, false);
+        this.servlet.activate(ServletMocks.componentContext(properties));
+        this.headers = new HashMap<>();
+        this.headers.put(Sdk.SIGNATURE_CERTIFICATE_CHAIN_URL_REQUEST_HEADER, chainUrl);
+    }
+
+    @After
+    public void tearDown() {
+        this.servlet.deactivate();
+        this.authority.close();
+    }
+
+    @Test
+    public void signedRequestIsHandled() throws Exception {
+        final byte[] body = Envelopes.intentRequest("Weather", Collections.singletonMap("City", "Seattle"));
+        this.headers.put(Sdk.SIGNATURE_REQUEST_HEADER, this.authority.sign(body));
+
+        final ServletMocks.CapturedResponse response = post(body);
+
+        assertEquals(200, response.status);
+        assertTrue(new String(response.body.toByteArray(), StandardCharsets.UTF_8).contains("Sunny in Seattle"));
+    }
+
+    @Test
+    public void tamperedRequestIsRejected() throws Exception {
+        final byte[] body = Envelopes.intentRequest("Weather", Collections.singletonMap("City", "Seattle"));
+        this.headers.put(Sdk.SIGNATURE_REQUEST_HEADER, this.authority.sign(body));
+        final byte[] tampered = new String(body, StandardCharsets.UTF_8).replace("Seattle", "Redmond")
+                .getBytes(StandardCharsets.UTF_8);
+
+        final ServletMocks.CapturedResponse response = post(tampered);
+
+        assertNotEquals(200, response.status);
+        assertEquals(0, response.body.size());
+    }
+
+    @Test
+    public void requestFromUntrustedAuthorityIsRejected() throws Exception {
+        final byte[] body = Envelopes.intentRequest("Weather", Collections.singletonMap("City", "Seattle"));
+        try (final LocalCertificateAuthority other = new LocalCertificateAuthority()) {
+            this.headers.put(Sdk.SIGNATURE_REQUEST_HEADER, other.sign(body));
+        }
+
+        final ServletMocks.CapturedResponse response = post(body);
+
+        assertNotEquals(200, response.status);
+    }
+
+    private ServletMocks.CapturedResponse post(final byte[] body) throws Exception {
+        final ServletMocks.CapturedResponse response = new ServletMocks.CapturedResponse();
+        this.servlet.doPost(ServletMocks.postRequest(body, this.headers), response.response);
+        return response;
+    }
+
+    private static final class WeatherHandler implements IntentHandler {
+
+        @Override
+        public boolean supportsIntent(final String intentName) {
+            return "Weather".equals(intentName);
+        }
+
+        @Override
+        public SpeechletResponse handleIntent(final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+            final PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+            speech.setText("Sunny in " + requestEnvelope.getRequest().getIntent().getSlot("City").getValue());
+            return SpeechletResponse.newTellResponse(speech);
+        }
+    }
+}
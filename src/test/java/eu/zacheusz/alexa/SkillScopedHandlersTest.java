@@ -0,0 +1,108 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import eu.zacheusz.alexa.handler.SkillConstants;
+import org.junit.Test;
+import org.osgi.framework.Constants;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * {@link SkillScopedHandlers} skill scoping and ranking.
+ *
+ * @author zacheusz
+ */
+public class SkillScopedHandlersTest {
+
+    private final SkillScopedHandlers<String> handlers = new SkillScopedHandlers<>();
+
+    @Test
+    public void selectsHighestRankedHandlerOfTheSkill() {
+        this.handlers.bind("default", properties(null, null, 1L));
+        this.handlers.bind("weather", properties(new String[]{"weather"}, 10, 2L));
+        this.handlers.bind("news", properties(new String[]{"news"}, 20, 3L));
+
+        assertEquals("weather", this.handlers.first("weather"));
+        assertEquals("news", this.handlers.first("news"));
+        assertEquals("default", this.handlers.first("sports"));
+        assertEquals("news", this.handlers.first(null));
+    }
+
+    @Test
+    public void prefersLowerServiceIdOnEqualRanking() {
+        this.handlers.bind("newer", properties(null, 5, 7L));
+        this.handlers.bind("older", properties(null, 5, 3L));
+
+        assertEquals("older", this.handlers.first("weather"));
+    }
+
+    @Test
+    public void keepsBindingOrderWithoutRankingAndServiceId() {
+        this.handlers.bind("first", properties(null, null, null));
+        this.handlers.bind("second", properties(null, null, null));
+
+        assertEquals("first", this.handlers.first(null));
+        assertEquals(Arrays.asList("first", "second"), new ArrayList<>(this.handlers.select(null).keySet()));
+    }
+
+    @Test
+    public void selectsHandlersOfTheSkillInRankingOrder() {
+        this.handlers.bind("low", properties(null, -1, 1L));
+        this.handlers.bind("other", properties(new String[]{"news"}, 100, 2L));
+        this.handlers.bind("high", properties(new String[]{"weather", "news"}, 50, 3L));
+        this.handlers.bind("default", properties(null, null, 4L));
+
+        assertEquals(Arrays.asList("high", "default", "low"),
+                new ArrayList<>(this.handlers.select("weather").keySet()));
+    }
+
+    @Test
+    public void unbindsHandler() {
+        this.handlers.bind("high", properties(null, 10, 1L));
+        this.handlers.bind("low", properties(null, 0, 2L));
+        this.handlers.unbind("high");
+
+        assertEquals("low", this.handlers.first(null));
+        this.handlers.unbind("low");
+        assertNull(this.handlers.first(null));
+    }
+
+    private static Map<String, Object> properties(final String[] skills, final Integer ranking, final Long serviceId) {
+        final Map<String, Object> properties = new HashMap<>();
+        if (skills != null) {
+            properties.put(SkillConstants.SKILLS_PROPERTY, skills);
+        }
+        if (ranking != null) {
+            properties.put(Constants.SERVICE_RANKING, ranking);
+        }
+        if (serviceId != null) {
+            properties.put(Constants.SERVICE_ID, serviceId);
+        }
+        return properties;
+    }
+}
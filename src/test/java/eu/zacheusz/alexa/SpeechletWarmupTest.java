@@ -0,0 +1,197 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.ui.PlainTextOutputSpeech;
+import eu.zacheusz.alexa.handler.IntentHandler;
+import eu.zacheusz.alexa.handler.LaunchHandler;
+import eu.zacheusz.alexa.handler.SkillConstants;
+import eu.zacheusz.alexa.limit.ConcurrencyLimiter;
+import eu.zacheusz.alexa.metrics.SpeechletMetrics;
+import eu.zacheusz.alexa.user.UserContextService;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Warm-up of {@link AlexaSlingSpeechletServlet} with synthetic requests.
+ *
+ * @author zacheusz
+ */
+public class SpeechletWarmupTest {
+
+    private static final int ITERATIONS = 5;
+
+    private final AlexaSlingSpeechlet speechlet = new AlexaSlingSpeechlet();
+
+    private final AlexaSlingSpeechletServlet servlet = new AlexaSlingSpeechletServlet();
+
+    @After
+    public void tearDown() {
+        this.servlet.deactivate();
+    }
+
+    @Test
+    public void warmsUpWithoutMetricsLimitsOrUserContexts() throws Exception {
+        final SpeechletMetrics metrics = new SpeechletMetrics();
+        final AtomicInteger prefetches = new AtomicInteger();
+        this.speechlet.metrics = metrics;
+        this.speechlet.userContextService = new UserContextService() {
+            @Override
+            public void prefetch(final SpeechletRequestEnvelope<?> requestEnvelope) {
+                prefetches.incrementAndGet();
+            }
+        };
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("concurrencyLimitEnabled", true);
+        this.speechlet.activate(properties);
+        final RecordingHandler handler = bind("Weather");
+
+        activateAndAwaitReady();
+
+        assertEquals(ITERATIONS, handler.requestIds.size());
+        assertEquals(0, prefetches.get());
+        final ConcurrencyLimiter limiter = this.speechlet.getConcurrencyLimiter();
+        assertTrue(limiter.getIntentLimits().isEmpty());
+        assertEquals(50, limiter.getGlobalLimit().getLimit());
+        assertFalse(metrics.getSnapshotJson(), metrics.getSnapshotJson().contains("Weather"));
+        assertFalse(metrics.getSnapshotJson(), metrics.getSnapshotJson().contains("LaunchRequest"));
+    }
+
+    @Test
+    public void warmsUpHandlersBoundAfterActivation() throws Exception {
+        this.speechlet.activate(new HashMap<>());
+        final RecordingHandler weather = bind("Weather");
+        activateAndAwaitReady();
+
+        final RecordingHandler traffic = bind("Traffic");
+
+        assertFalse(this.servlet.isReady());
+        awaitReady();
+        assertEquals(ITERATIONS, traffic.requestIds.size());
+        assertEquals(2 * ITERATIONS, weather.requestIds.size());
+    }
+
+    @Test
+    public void warmsUpSpeechletsBoundAfterActivation() throws Exception {
+        this.speechlet.activate(new HashMap<>());
+        activateAndAwaitReady();
+        final AlexaSlingSpeechlet other = new AlexaSlingSpeechlet();
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put("skill", "other");
+        properties.put("applicationIds", new String[]{"amzn1.ask.skill.other"});
+        other.activate(properties);
+        final RecordingHandler handler = bind(other, "Order", true);
+
+        this.servlet.bindSlingSpeechlet(other);
+
+        assertFalse(this.servlet.isReady());
+        awaitReady();
+        assertEquals(ITERATIONS, handler.requestIds.size());
+    }
+
+    @Test
+    public void skipsHandlersOptingOut() throws Exception {
+        this.speechlet.activate(new HashMap<>());
+        final RecordingHandler weather = bind("Weather");
+        final RecordingHandler order = bind(this.speechlet, "Order", false);
+        final AtomicInteger launches = new AtomicInteger();
+        final LaunchHandler launchHandler = requestEnvelope -> {
+            launches.incrementAndGet();
+            return SpeechletResponse.newTellResponse(new PlainTextOutputSpeech());
+        };
+        this.speechlet.bindLaunchHandler(launchHandler,
+                Collections.singletonMap(SkillConstants.WARMUP_PROPERTY, false));
+
+        activateAndAwaitReady();
+
+        assertEquals(ITERATIONS, weather.requestIds.size());
+        assertTrue(order.requestIds.isEmpty());
+        assertEquals(0, launches.get());
+    }
+
+    private RecordingHandler bind(final String intentName) {
+        return bind(this.speechlet, intentName, true);
+    }
+
+    private static RecordingHandler bind(final AlexaSlingSpeechlet speechlet, final String intentName,
+                                         final boolean warmedUp) {
+        final RecordingHandler handler = new RecordingHandler();
+        final Map<String, Object> properties = new HashMap<>();
+        properties.put(IntentHandler.INTENTS_PROPERTY, new String[]{intentName});
+        properties.put(SkillConstants.WARMUP_PROPERTY, warmedUp);
+        speechlet.bindIntentHandler(handler, properties);
+        return handler;
+    }
+
+    private void activateAndAwaitReady() throws Exception {
+        this.servlet.bindSlingSpeechlet(this.speechlet);
+        final Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(AlexaSlingSpeechletServlet.WARMUP_ENABLED_PROPERTY, true);
+        properties.put(AlexaSlingSpeechletServlet.WARMUP_ITERATIONS_PROPERTY, ITERATIONS);
+        this.servlet.activate(ServletMocks.componentContext(properties));
+        awaitReady();
+    }
+
+    private void awaitReady() throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!this.servlet.isReady()) {
+            assertTrue("warm-up didn't finish", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Records the request ids it was called with, each warm-up pass has to send new envelopes.
+     */
+    private static final class RecordingHandler implements IntentHandler {
+
+        final Set<String> requestIds = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public boolean supportsIntent(final String intentName) {
+            return false;
+        }
+
+        @Override
+        public SpeechletResponse handleIntent(final SpeechletRequestEnvelope<IntentRequest> requestEnvelope) {
+            this.requestIds.add(requestEnvelope.getRequest().getRequestId());
+            final PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+            speech.setText("Sunny");
+            return SpeechletResponse.newTellResponse(speech);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.authentication;
+
+import eu.zacheusz.alexa.LocalCertificateAuthority;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link SigningCertificateChainCache} against the chain server of a {@link LocalCertificateAuthority}.
+ *
+ * @author zacheusz
+ */
+public class SigningCertificateChainCacheTest {
+
+    private LocalCertificateAuthority authority;
+
+    private String chainUrl;
+
+    private String base;
+
+    @Before
+    public void setUp() throws Exception {
+        this.authority = new LocalCertificateAuthority();
+        this.chainUrl = this.authority.startChainServer();
+        this.base = this.chainUrl.substring(0, this.chainUrl.length() - LocalCertificateAuthority.CHAIN_PATH.length());
+    }
+
+    @After
+    public void tearDown() {
+        this.authority.close();
+    }
+
+    @Test
+    public void downloadsChainOnce() throws Exception {
+        final SigningCertificateChainCache cache = newCache(4);
+
+        cache.getSigningCertificate(this.chainUrl);
+        cache.getSigningCertificate(this.chainUrl);
+
+        assertEquals(1, this.authority.getChainRequestCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void concurrentLookupsShareOneDownload() throws Exception {
+        final SigningCertificateChainCache cache = newCache(4);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Callable<Object>> lookups = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                lookups.add(() -> cache.getSigningCertificate(this.chainUrl));
+            }
+            for (final Future<Object> lookup : executor.invokeAll(lookups)) {
+                assertEquals(this.authority.getSigningCertificate(), lookup.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, this.authority.getChainRequestCount());
+    }
+
+    @Test
+    public void equivalentUrlsShareOneEntry() throws Exception {
+        final SigningCertificateChainCache cache = newCache(4);
+
+        cache.getSigningCertificate(this.chainUrl);
+        cache.getSigningCertificate(this.base.toUpperCase() + "/echo.api/./echo-api-cert.pem");
+        cache.getSigningCertificate(this.base + "/echo.api/other/../echo-api-cert.pem");
+
+        assertEquals(1, cache.size());
+        assertEquals(1, this.authority.getChainRequestCount());
+    }
+
+    @Test
+    public void canonicalUrlDropsDefaultPortAndKeepsPathCase() {
+        assertEquals("https://s3.amazonaws.com/echo.api/Echo-Api-Cert.pem",
+                SigningCertificateChainCache.canonicalUrl("HTTPS://S3.Amazonaws.com:443/echo.api/../echo.api/Echo-Api-Cert.pem"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedChain() throws Exception {
+        final SigningCertificateChainCache cache = newCache(2);
+        final String first = this.chainUrl + "?v=1";
+        final String second = this.chainUrl + "?v=2";
+        final String third = this.chainUrl + "?v=3";
+
+        cache.getSigningCertificate(first);
+        cache.getSigningCertificate(second);
+        cache.getSigningCertificate(first);
+        cache.getSigningCertificate(third);
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, this.authority.getChainRequestCount());
+        cache.getSigningCertificate(first);
+        assertEquals(3, this.authority.getChainRequestCount());
+        cache.getSigningCertificate(second);
+        assertEquals(4, this.authority.getChainRequestCount());
+    }
+
+    @Test
+    public void downloadsChainAgainAfterExpiry() throws Exception {
+        final SigningCertificateChainCache cache = newCache(4);
+        cache.getSigningCertificate(this.chainUrl);
+
+        final long afterExpiry = this.authority.getSigningCertificate().getNotAfter().getTime() + 1;
+        try {
+            cache.getSigningCertificate(this.chainUrl, afterExpiry);
+            fail("Expired signing certificate accepted");
+        } catch (SecurityException expected) {
+            assertEquals(2, this.authority.getChainRequestCount());
+        }
+    }
+
+    @Test
+    public void failedDownloadIsNotCached() throws Exception {
+        final SigningCertificateChainCache cache = newCache(4);
+        final String missing = this.base + "/other/echo-api-cert.pem";
+        for (int i = 0; i < 2; i++) {
+            try {
+                cache.getSigningCertificate(missing);
+                fail("Missing chain accepted");
+            } catch (SecurityException expected) {
+                assertEquals(0, cache.size());
+            }
+        }
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void verifiesRequestSignature() throws Exception {
+        final SigningCertificateChainCache cache = newCache(4);
+        final byte[] body = "{\"version\":\"1.0\"}".getBytes(StandardCharsets.UTF_8);
+
+        cache.checkRequestSignature(body, this.authority.sign(body), this.chainUrl);
+        try {
+            cache.checkRequestSignature("{}".getBytes(StandardCharsets.UTF_8), this.authority.sign(body), this.chainUrl);
+            fail("Signature of another body accepted");
+        } catch (SecurityException expected) {
+            assertEquals(1, this.authority.getChainRequestCount());
+        }
+    }
+
+    @Test(expected = SecurityException.class)
+    public void rejectsNonAmazonUrlWhenCheckingUrls() throws Exception {
+        new SigningCertificateChainCache(this.authority.trustManager(), true, 4,
+                SigningCertificateChainCache.DEFAULT_TIMEOUT_MILLIS).getSigningCertificate(this.chainUrl);
+    }
+
+    private SigningCertificateChainCache newCache(final int maxEntries) throws Exception {
+        return new SigningCertificateChainCache(this.authority.trustManager(), false, maxEntries,
+                SigningCertificateChainCache.DEFAULT_TIMEOUT_MILLIS);
+    }
+}
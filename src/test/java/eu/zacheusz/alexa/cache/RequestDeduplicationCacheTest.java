@@ -0,0 +1,96 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.cache;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * {@link RequestDeduplicationCache} claims, expiry and eviction.
+ *
+ * @author zacheusz
+ */
+public class RequestDeduplicationCacheTest {
+
+    @Test
+    public void sharesExecutionOfFirstRequest() {
+        final RequestDeduplicationCache cache = new RequestDeduplicationCache(10, 60000);
+        final CompletableFuture<byte[]> first = new CompletableFuture<>();
+
+        assertNull(cache.claim("request", first));
+        assertSame(first, cache.claim("request", new CompletableFuture<>()));
+        first.complete(new byte[]{1});
+        assertSame(first, cache.claim("request", new CompletableFuture<>()));
+        assertEquals(2, cache.getDuplicateCount());
+    }
+
+    @Test
+    public void forgetsFailedExecution() {
+        final RequestDeduplicationCache cache = new RequestDeduplicationCache(10, 60000);
+        final CompletableFuture<byte[]> first = new CompletableFuture<>();
+        cache.claim("request", first);
+
+        first.completeExceptionally(new StackOverflowError());
+
+        assertEquals(0, cache.size());
+        assertNull(cache.claim("request", new CompletableFuture<>()));
+    }
+
+    @Test
+    public void releasesOnlyOwnClaim() {
+        final RequestDeduplicationCache cache = new RequestDeduplicationCache(10, 60000);
+        final CompletableFuture<byte[]> first = new CompletableFuture<>();
+        cache.claim("request", first);
+
+        cache.release("request", new CompletableFuture<>());
+        assertEquals(1, cache.size());
+        cache.release("request", first);
+
+        assertEquals(0, cache.size());
+        assertNull(cache.claim("request", new CompletableFuture<>()));
+    }
+
+    @Test
+    public void expiresRequestIds() throws InterruptedException {
+        final RequestDeduplicationCache cache = new RequestDeduplicationCache(10, 1);
+        cache.claim("request", CompletableFuture.completedFuture(new byte[0]));
+        Thread.sleep(10);
+
+        assertNull(cache.claim("request", new CompletableFuture<>()));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void evictsOldestRequestIdWhenFull() {
+        final RequestDeduplicationCache cache = new RequestDeduplicationCache(2, 60000);
+        cache.claim("first", new CompletableFuture<>());
+        cache.claim("second", new CompletableFuture<>());
+        cache.claim("third", new CompletableFuture<>());
+
+        assertEquals(2, cache.size());
+        assertNull(cache.claim("first", new CompletableFuture<>()));
+    }
+}
@@ -0,0 +1,148 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.cache;
+
+import com.amazon.speech.slu.Intent;
+import com.amazon.speech.slu.Slot;
+import com.amazon.speech.speechlet.IntentRequest;
+import com.amazon.speech.speechlet.SpeechletResponse;
+import com.amazon.speech.ui.PlainTextOutputSpeech;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ResponseCache} keys, expiry and eviction.
+ *
+ * @author zacheusz
+ */
+public class ResponseCacheTest {
+
+    private final SpeechletResponse response = tell("Sunny");
+
+    @Test
+    public void keyIgnoresSlotOrder() {
+        final Map<String, Slot> cityFirst = new LinkedHashMap<>();
+        cityFirst.put("City", Slot.builder().withName("City").withValue("Seattle").build());
+        cityFirst.put("Day", Slot.builder().withName("Day").withValue("today").build());
+        final Map<String, Slot> dayFirst = new LinkedHashMap<>();
+        dayFirst.put("Day", cityFirst.get("Day"));
+        dayFirst.put("City", cityFirst.get("City"));
+
+        assertEquals(ResponseCache.key(request("Weather", cityFirst, Locale.US)),
+                ResponseCache.key(request("Weather", dayFirst, Locale.US)));
+        assertNotEquals(ResponseCache.key(request("Weather", cityFirst, Locale.US)),
+                ResponseCache.key(request("Weather", cityFirst, Locale.UK)));
+    }
+
+    @Test
+    public void keySeparatesEmptySlotFromSpokenNull() {
+        final Slot empty = Slot.builder().withName("City").build();
+        final Slot spokenNull = Slot.builder().withName("City").withValue("null").build();
+
+        assertNotEquals(ResponseCache.key(request("Weather", Collections.singletonMap("City", empty), Locale.US)),
+                ResponseCache.key(request("Weather", Collections.singletonMap("City", spokenNull), Locale.US)));
+    }
+
+    @Test
+    public void returnsCachedResponseUntilExpiry() throws InterruptedException {
+        final ResponseCache cache = new ResponseCache(4);
+        cache.put("fresh", this.response, 60000);
+        cache.put("stale", this.response, 1);
+        Thread.sleep(10);
+
+        assertSame(this.response, cache.get("fresh"));
+        assertNull(cache.get("stale"));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void doesNotCacheWithoutTimeToLive() {
+        final ResponseCache cache = new ResponseCache(4);
+        cache.put("key", this.response, 0);
+
+        assertNull(cache.get("key"));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedResponse() {
+        final ResponseCache cache = new ResponseCache(2);
+        cache.put("first", this.response, 60000);
+        cache.put("second", this.response, 60000);
+        cache.get("first");
+        cache.put("third", this.response, 60000);
+
+        assertEquals(2, cache.size());
+        assertSame(this.response, cache.get("first"));
+        assertNull(cache.get("second"));
+        assertSame(this.response, cache.get("third"));
+    }
+
+    @Test
+    public void boundsSegmentedCache() {
+        final ResponseCache cache = new ResponseCache(4096);
+        for (int i = 0; i < 10000; i++) {
+            cache.put("key" + i, this.response, 60000);
+        }
+
+        assertTrue(cache.size() <= 4096);
+        assertSame(this.response, cache.get("key9999"));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void invalidatesResponsesOfOneIntent() {
+        final ResponseCache cache = new ResponseCache(4);
+        final String weather = ResponseCache.key(request("Weather", Collections.emptyMap(), Locale.US));
+        final String news = ResponseCache.key(request("News", Collections.emptyMap(), Locale.US));
+        cache.put(weather, this.response, 60000);
+        cache.put(news, this.response, 60000);
+
+        cache.invalidate("Weather");
+
+        assertNull(cache.get(weather));
+        assertSame(this.response, cache.get(news));
+    }
+
+    private static IntentRequest request(final String intentName, final Map<String, Slot> slots, final Locale locale) {
+        return IntentRequest.builder().withRequestId("request").withLocale(locale)
+                .withIntent(Intent.builder().withName(intentName).withSlots(slots).build()).build();
+    }
+
+    private static SpeechletResponse tell(final String text) {
+        final PlainTextOutputSpeech speech = new PlainTextOutputSpeech();
+        speech.setText(text);
+        return SpeechletResponse.newTellResponse(speech);
+    }
+}
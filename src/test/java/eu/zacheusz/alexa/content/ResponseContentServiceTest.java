@@ -0,0 +1,242 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.content;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.resource.ResourceResolverFactory;
+import org.apache.sling.api.wrappers.ValueMapDecorator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link ResponseContentService} over an in-memory repository.
+ *
+ * @author zacheusz
+ */
+public class ResponseContentServiceTest {
+
+    private static final String ROOT = "/apps/alexa/content";
+
+    private final Repository repository = new Repository();
+
+    private final ResponseContentService service = new ResponseContentService();
+
+    @Before
+    public void setUp() {
+        this.repository.put(ROOT + "/default/weather/sunny", "It is sunny, {temperature} degrees.");
+        this.repository.put(ROOT + "/de/weather/sunny", "Es ist sonnig, {temperature} Grad.");
+        this.service.bindResourceResolverFactory(this.repository.factory());
+        this.service.activate(Collections.singletonMap("rootPath", (Object) (ROOT + "/")));
+    }
+
+    @After
+    public void tearDown() {
+        this.service.deactivate();
+    }
+
+    @Test
+    public void fallsBackToLanguageAndDefaultLocale() {
+        assertEquals(ROOT + "/de/weather/sunny", this.service.getContent(Locale.GERMANY, "weather/sunny").getPath());
+        assertEquals(ROOT + "/default/weather/sunny",
+                this.service.getContent(Locale.FRANCE, "/weather/sunny").getPath());
+        assertNull(this.service.getContent(Locale.US, "weather/rainy"));
+    }
+
+    @Test
+    public void rendersPreloadedTextWithoutRepositoryAccess() {
+        final int logins = this.repository.logins.get();
+
+        assertEquals("Es ist sonnig, 21 Grad.", this.service.render(Locale.GERMAN, "weather/sunny",
+                ResponseContentService.TEXT_PROPERTY, Collections.singletonMap("temperature", 21)));
+        assertEquals(logins, this.repository.logins.get());
+    }
+
+    @Test
+    public void cachesMissingKey() {
+        this.service.getContent(null, "weather/rainy");
+        final int logins = this.repository.logins.get();
+
+        assertNull(this.service.getContent(null, "weather/rainy"));
+        assertEquals(logins, this.repository.logins.get());
+    }
+
+    @Test
+    public void reloadsChangedContent() {
+        this.repository.put(ROOT + "/default/weather/sunny", "Sunny.");
+        this.service.invalidate(ROOT + "/default/weather/sunny/text");
+
+        assertEquals("Sunny.", this.service.render(null, "weather/sunny", ResponseContentService.TEXT_PROPERTY,
+                Collections.emptyMap()));
+    }
+
+    @Test
+    public void loadRacingInvalidationIsNotCached() throws Exception {
+        final String path = ROOT + "/default/weather/windy";
+        this.repository.put(path, "Windy.");
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        this.repository.block(path, loading, release);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<String> stale = executor.submit(() -> this.service.render(null, "weather/windy",
+                    ResponseContentService.TEXT_PROPERTY, Collections.emptyMap()));
+            assertTrue(loading.await(1, TimeUnit.SECONDS));
+            this.repository.put(path, "Stormy.");
+            this.service.invalidate(path);
+            release.countDown();
+            assertEquals("Windy.", stale.get(1, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals("Stormy.", this.service.render(null, "weather/windy", ResponseContentService.TEXT_PROPERTY,
+                Collections.emptyMap()));
+    }
+
+    /**
+     * Resources with a single text property, keyed by path.
+     */
+    private static final class Repository {
+
+        final Map<String, String> texts = new ConcurrentHashMap<>();
+
+        final AtomicInteger logins = new AtomicInteger();
+
+        private volatile String blockedPath;
+
+        private volatile CountDownLatch loading;
+
+        private volatile CountDownLatch release;
+
+        void put(final String path, final String text) {
+            this.texts.put(path, text);
+        }
+
+        /**
+         * Hold the next read of the path until released, reading its text first.
+         */
+        void block(final String path, final CountDownLatch loading, final CountDownLatch release) {
+            this.loading = loading;
+            this.release = release;
+            this.blockedPath = path;
+        }
+
+        ResourceResolverFactory factory() {
+            return proxy(ResourceResolverFactory.class, (method, args) -> {
+                if ("getServiceResourceResolver".equals(method)) {
+                    this.logins.incrementAndGet();
+                    return resolver();
+                }
+                return null;
+            });
+        }
+
+        private ResourceResolver resolver() {
+            return proxy(ResourceResolver.class, (method, args) ->
+                    "getResource".equals(method) && args.length == 1 ? read((String) args[0]) : null);
+        }
+
+        private Resource read(final String path) throws InterruptedException {
+            if (!this.texts.containsKey(path) && !hasChildren(path)) {
+                return null;
+            }
+            final Resource resource = resource(path, this.texts.get(path));
+            if (path.equals(this.blockedPath)) {
+                this.blockedPath = null;
+                this.loading.countDown();
+                this.release.await(1, TimeUnit.SECONDS);
+            }
+            return resource;
+        }
+
+        private boolean hasChildren(final String path) {
+            return this.texts.keySet().stream().anyMatch(text -> text.startsWith(path + '/'));
+        }
+
+        private Resource resource(final String path, final String text) {
+            final Map<String, Object> properties = new HashMap<>();
+            if (text != null) {
+                properties.put(ResponseContentService.TEXT_PROPERTY, text);
+                properties.put("jcr:primaryType", "nt:unstructured");
+            }
+            return proxy(Resource.class, (method, args) -> {
+                switch (method) {
+                    case "getPath":
+                        return path;
+                    case "getValueMap":
+                        return new ValueMapDecorator(properties);
+                    case "getChildren":
+                        return children(path);
+                    default:
+                        return null;
+                }
+            });
+        }
+
+        private List<Resource> children(final String path) {
+            final List<String> names = new ArrayList<>();
+            for (final String text : this.texts.keySet()) {
+                if (text.startsWith(path + '/')) {
+                    final String name = text.substring(path.length() + 1).split("/")[0];
+                    if (!names.contains(name)) {
+                        names.add(name);
+                    }
+                }
+            }
+            final List<Resource> children = new ArrayList<>();
+            for (final String name : names) {
+                children.add(resource(path + '/' + name, this.texts.get(path + '/' + name)));
+            }
+            return children;
+        }
+
+        private static <T> T proxy(final Class<T> type, final Handler handler) {
+            return type.cast(Proxy.newProxyInstance(ResponseContentServiceTest.class.getClassLoader(),
+                    new Class<?>[]{type}, (proxy, method, args) -> handler.invoke(method.getName(),
+                            args == null ? new Object[0] : args)));
+        }
+    }
+
+    private interface Handler {
+        Object invoke(String method, Object[] args) throws Exception;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.handler;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link FanOut} results, fallbacks and the deadline.
+ *
+ * @author zacheusz
+ */
+public class FanOutTest {
+
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    @Test
+    public void joinsAllCalls() throws Exception {
+        final FanOut fanOut = new FanOut(this.executor, 1000);
+        final FanOut.Call<String> weather = fanOut.call(() -> "Sunny", "unknown");
+        final FanOut.Call<Integer> traffic = fanOut.call(() -> 12, -1);
+
+        fanOut.join().toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+        assertEquals("Sunny", weather.get());
+        assertEquals(Integer.valueOf(12), traffic.get());
+    }
+
+    @Test
+    public void failedCallReturnsFallback() throws Exception {
+        final FanOut fanOut = new FanOut(this.executor, 1000);
+        final FanOut.Call<String> weather = fanOut.call(() -> {
+            throw new IllegalStateException("backend down");
+        }, "unknown");
+
+        fanOut.join().toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+        assertFalse(weather.isAvailable());
+        assertEquals("unknown", weather.get());
+    }
+
+    @Test
+    public void cancelsLateCallAtDeadline() throws Exception {
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final FanOut fanOut = new FanOut(this.executor, 100);
+        final FanOut.Call<String> fast = fanOut.call(() -> "Sunny", "unknown");
+        final FanOut.Call<String> slow = fanOut.call(() -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException ex) {
+                interrupted.countDown();
+            }
+            return "late";
+        }, "unknown");
+
+        fanOut.join().toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+        assertEquals("Sunny", fast.get());
+        assertEquals("unknown", slow.get());
+        assertTrue("late call wasn't interrupted", interrupted.await(1, TimeUnit.SECONDS));
+        // the late result completes nothing after the deadline
+        Thread.sleep(50);
+        assertFalse(slow.isAvailable());
+        assertEquals("unknown", slow.get());
+    }
+}
@@ -0,0 +1,173 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.io;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * {@link RequestBodyReader} limits and allocations.
+ *
+ * @author zacheusz
+ */
+public class RequestBodyReaderTest {
+
+    private static final int BODY_BYTES = 20 * 1024;
+
+    private final byte[] body = randomBody(BODY_BYTES);
+
+    private final RequestBodyReader reader = new RequestBodyReader(64 * 1024, 4 * 1024, 4);
+
+    @Test
+    public void readsBodyOfKnownLength() throws IOException {
+        assertArrayEquals(this.body, this.reader.read(new TrickleInputStream(this.body), this.body.length));
+    }
+
+    @Test
+    public void readsBodyOfUnknownLength() throws IOException {
+        assertArrayEquals(this.body, this.reader.read(new TrickleInputStream(this.body), -1));
+    }
+
+    @Test
+    public void readsBodyOfExactlyTheMaximumSize() throws IOException {
+        final byte[] maximum = randomBody(this.reader.getMaxBodyBytes());
+        assertArrayEquals(maximum, this.reader.read(new ByteArrayInputStream(maximum), -1));
+    }
+
+    @Test(expected = RequestBodyTooLargeException.class)
+    public void rejectsDeclaredLengthOverMaximum() throws IOException {
+        this.reader.read(new ByteArrayInputStream(new byte[0]), this.reader.getMaxBodyBytes() + 1L);
+    }
+
+    @Test(expected = RequestBodyTooLargeException.class)
+    public void rejectsStreamedBodyOverMaximum() throws IOException {
+        this.reader.read(new ByteArrayInputStream(randomBody(this.reader.getMaxBodyBytes() + 1)), -1);
+    }
+
+    @Test(expected = EOFException.class)
+    public void rejectsBodyShorterThanContentLength() throws IOException {
+        this.reader.read(new ByteArrayInputStream(this.body), this.body.length + 1L);
+    }
+
+    @Test
+    public void presizedReadAllocatesLessThanCopyingRead() throws IOException {
+        final com.sun.management.ThreadMXBean threads = allocationCounter();
+        final long presized = minAllocation(threads, () -> this.reader.read(new ByteArrayInputStream(this.body), BODY_BYTES));
+        final long copying = minAllocation(threads, () -> IOUtils.toByteArray(new ByteArrayInputStream(this.body)));
+
+        // the body itself plus the array header, IOUtils grows a buffer and copies it out
+        assertTrue("presized read allocated " + presized, presized < BODY_BYTES + 1024);
+        assertTrue("presized " + presized + " vs copying " + copying, 2 * presized < copying);
+    }
+
+    @Test
+    public void unknownLengthReadReusesPooledBuffer() throws IOException {
+        final com.sun.management.ThreadMXBean threads = allocationCounter();
+        final byte[] small = randomBody(2 * 1024);
+        final long pooled = minAllocation(threads, () -> this.reader.read(new ByteArrayInputStream(small), -1));
+
+        // only the copy of the body, the 4 KiB buffer comes from the pool
+        assertTrue("unknown length read allocated " + pooled, pooled < small.length + 1024);
+    }
+
+    @Test
+    public void failedReadReturnsPooledBuffer() throws IOException {
+        final com.sun.management.ThreadMXBean threads = allocationCounter();
+        final byte[] small = randomBody(2 * 1024);
+        final long pooled = minAllocation(threads, () -> {
+            try {
+                this.reader.read(new FailingInputStream(), -1);
+            } catch (IOException expected) {
+                // the buffer goes back to the pool
+            }
+            return this.reader.read(new ByteArrayInputStream(small), -1);
+        });
+
+        assertTrue("read after a failure allocated " + pooled, pooled < small.length + 2048);
+    }
+
+    private static long minAllocation(final com.sun.management.ThreadMXBean threads, final Read read)
+            throws IOException {
+        final long threadId = Thread.currentThread().getId();
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < 200; i++) {
+            final long before = threads.getThreadAllocatedBytes(threadId);
+            read.run();
+            min = Math.min(min, threads.getThreadAllocatedBytes(threadId) - before);
+        }
+        return min;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    private static byte[] randomBody(final int size) {
+        final byte[] body = new byte[size];
+        new Random(size).nextBytes(body);
+        return body;
+    }
+
+    private interface Read {
+        Object run() throws IOException;
+    }
+
+    /**
+     * Returns at most 1000 bytes per read, like a socket stream.
+     */
+    private static final class TrickleInputStream extends ByteArrayInputStream {
+
+        TrickleInputStream(final byte[] body) {
+            super(body);
+        }
+
+        @Override
+        public synchronized int read(final byte[] b, final int off, final int len) {
+            return super.read(b, off, Math.min(len, 1000));
+        }
+    }
+
+    /**
+     * Fails the read to make sure a failed read doesn't lose the pooled buffer.
+     */
+    private static final class FailingInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            throw new IOException("connection reset");
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.io;
+
+import eu.zacheusz.alexa.Envelopes;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link RequestEnvelopeHeader} scanning.
+ *
+ * @author zacheusz
+ */
+public class RequestEnvelopeHeaderTest {
+
+    @Test
+    public void readsRoutingFields() throws IOException {
+        final RequestEnvelopeHeader header = RequestEnvelopeHeader.parse(
+                Envelopes.intentRequest("Weather", Collections.singletonMap("City", "Seattle")));
+
+        assertEquals("IntentRequest", header.getRequestType());
+        assertEquals("Weather", header.getIntentName());
+        assertEquals(Envelopes.APPLICATION_ID, header.getApplicationId());
+        assertTrue(header.getRequestId().startsWith("amzn1.echo-api.request."));
+        assertTrue(Math.abs(System.currentTimeMillis() - header.getTimestamp()) < 60000);
+        assertFalse(header.isNewSession());
+    }
+
+    @Test
+    public void readsNewSessionFlag() throws IOException {
+        final String envelope = new String(Envelopes.launchRequest(), StandardCharsets.UTF_8)
+                .replace("\"new\":false", "\"new\":true");
+
+        assertTrue(RequestEnvelopeHeader.parse(envelope.getBytes(StandardCharsets.UTF_8)).isNewSession());
+    }
+
+    @Test
+    public void treatsEnvelopeWithoutSessionAsNew() throws IOException {
+        final RequestEnvelopeHeader header = RequestEnvelopeHeader.parse(("{\"version\":\"1.0\","
+                + "\"context\":{\"System\":{\"application\":{\"applicationId\":\"app\"}}},"
+                + "\"request\":{\"type\":\"IntentRequest\",\"intent\":{\"name\":\"Weather\"}}}")
+                .getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(header.isNewSession());
+        assertEquals("app", header.getApplicationId());
+        assertEquals(RequestEnvelopeHeader.UNKNOWN_TIMESTAMP, header.getTimestamp());
+    }
+
+    @Test
+    public void readsSessionApplicationIdWithoutContext() throws IOException {
+        final RequestEnvelopeHeader header = RequestEnvelopeHeader.parse(("{\"session\":{\"new\":false,"
+                + "\"application\":{\"applicationId\":\"app\"},\"attributes\":{\"new\":true}},"
+                + "\"request\":{\"type\":\"IntentRequest\"}}").getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("app", header.getApplicationId());
+        assertFalse(header.isNewSession());
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsNonObjectEnvelope() throws IOException {
+        RequestEnvelopeHeader.parse("[]".getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.limit;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link AdaptiveConcurrencyLimit} admission and adaptation.
+ *
+ * @author zacheusz
+ */
+public class AdaptiveConcurrencyLimitTest {
+
+    private static final long TARGET_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 20, 100);
+
+    @Test
+    public void rejectsCallsOverLimit() {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(this.limit.tryAcquire());
+        }
+        assertFalse(this.limit.tryAcquire());
+        assertEquals(1, this.limit.getRejectedCount());
+        this.limit.cancel();
+        assertTrue(this.limit.tryAcquire());
+    }
+
+    @Test
+    public void raisesNearlyUsedLimitAfterFastCalls() {
+        acquire(6);
+        this.limit.release(TARGET_NANOS / 2, true);
+
+        assertEquals(11, this.limit.getLimit());
+    }
+
+    @Test
+    public void keepsLimitAfterFastCallsWhenMostlyUnused() {
+        acquire(1);
+        this.limit.release(TARGET_NANOS / 2, true);
+
+        assertEquals(10, this.limit.getLimit());
+    }
+
+    @Test
+    public void lowersLimitOncePerSamplingWindow() {
+        final long now = System.nanoTime() + TARGET_NANOS;
+        acquire(10);
+        for (int i = 0; i < 5; i++) {
+            this.limit.release(2 * TARGET_NANOS, true, now + i);
+        }
+        assertEquals(9, this.limit.getLimit());
+
+        this.limit.release(2 * TARGET_NANOS, false, now + TARGET_NANOS);
+        assertEquals(8, this.limit.getLimit());
+    }
+
+    private void acquire(final int calls) {
+        for (int i = 0; i < calls; i++) {
+            assertTrue(this.limit.tryAcquire());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.limit;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * {@link ConcurrencyLimiter} global and per-intent limits.
+ *
+ * @author zacheusz
+ */
+public class ConcurrencyLimiterTest {
+
+    @Test
+    public void slowIntentKeepsLimitsOfOtherIntents() {
+        // every call is slower than a zero latency target
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 20, 10, 20, 0L);
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire("Slow").release(true);
+        }
+
+        assertEquals(5, limiter.getIntentLimits().get("Slow").getLimit());
+        assertNotNull(limiter.acquire("Fast"));
+        assertEquals(10, limiter.getIntentLimits().get("Fast").getLimit());
+    }
+
+    @Test
+    public void slowCallsOfIntentsWithOwnLimitsLowerGlobalLimit() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 20, 10, 20, 0L);
+        for (final String intent : new String[]{"Weather", "Traffic", "News", "Sports", "Music"}) {
+            limiter.acquire(intent).release(true);
+        }
+
+        assertEquals(5, limiter.getIntentLimits().size());
+        assertEquals(5, limiter.getGlobalLimit().getLimit());
+        for (final AdaptiveConcurrencyLimit intent : limiter.getIntentLimits().values()) {
+            assertEquals(9, intent.getLimit());
+        }
+    }
+
+    @Test
+    public void failedCallsOfIntentsWithOwnLimitsLowerGlobalLimit() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 20, 10, 20, 60000L);
+        limiter.acquire("Weather").release(false);
+
+        assertEquals(9, limiter.getGlobalLimit().getLimit());
+        assertEquals(9, limiter.getIntentLimits().get("Weather").getLimit());
+    }
+
+    @Test
+    public void rejectsCallOverIntentLimitWithoutHoldingGlobalPermit() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 20, 1, 20, 1000L);
+        assertNotNull(limiter.acquire("Weather"));
+
+        assertNull(limiter.acquire("Weather"));
+        assertEquals(1, limiter.getGlobalLimit().getInFlight());
+        assertEquals(1, limiter.getRejectedCount());
+    }
+
+    @Test
+    public void rejectsCallOverGlobalLimit() {
+        final ConcurrencyLimiter limiter = new ConcurrencyLimiter(2, 20, 10, 20, 1000L);
+        assertNotNull(limiter.acquire("Weather"));
+        assertNotNull(limiter.acquire("Traffic"));
+
+        assertNull(limiter.acquire("News"));
+    }
+}
@@ -0,0 +1,216 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.progressive;
+
+import com.amazon.speech.json.SpeechletRequestEnvelope;
+import com.amazon.speech.speechlet.Context;
+import com.amazon.speech.speechlet.LaunchRequest;
+import com.amazon.speech.speechlet.interfaces.system.SystemState;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * {@link ProgressiveResponseClient} against a local stand-in of the Alexa directive endpoint.
+ *
+ * @author zacheusz
+ */
+public class ProgressiveResponseClientTest {
+
+    private static final String TOKEN = "api-access-token";
+
+    private final BlockingQueue<Directive> directives = new LinkedBlockingQueue<>();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private final ExecutorService serverThreads = Executors.newCachedThreadPool();
+
+    private final ProgressiveResponseClient client = new ProgressiveResponseClient();
+
+    private HttpServer server;
+
+    private volatile int status = 204;
+
+    private volatile boolean stall;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext(ProgressiveResponseClient.DIRECTIVES_PATH, this::answer);
+        this.server.setExecutor(this.serverThreads);
+        this.server.start();
+        this.client.start("", 1000, 300, 2, 16);
+    }
+
+    @After
+    public void tearDown() {
+        this.release.countDown();
+        this.client.deactivate();
+        this.server.stop(0);
+        this.serverThreads.shutdownNow();
+    }
+
+    @Test
+    public void postsSpeakDirective() throws Exception {
+        final ProgressiveResponse response = this.client.forRequest(envelope(TOKEN));
+
+        assertTrue(response.isAvailable());
+        assertEquals(204, response.speak("Looking it up").get(2, TimeUnit.SECONDS).intValue());
+
+        final Directive directive = this.directives.poll(1, TimeUnit.SECONDS);
+        assertNotNull(directive);
+        assertEquals("POST", directive.method);
+        assertEquals("Bearer " + TOKEN, directive.authorization);
+        assertEquals("application/json", directive.contentType);
+        assertEquals("{\"header\":{\"requestId\":\"amzn1.echo-api.request.progressive\"},"
+                + "\"directive\":{\"type\":\"VoicePlayer.Speak\",\"speech\":\"Looking it up\"}}", directive.body);
+    }
+
+    @Test
+    public void sendsAtMostFiveDirectivesPerRequest() throws Exception {
+        final ProgressiveResponse response = this.client.forRequest(envelope(TOKEN));
+        final List<CompletableFuture<Integer>> sent = new ArrayList<>();
+        for (int i = 0; i < ProgressiveResponse.MAX_DIRECTIVES + 1; i++) {
+            sent.add(response.speak("Still working " + i));
+        }
+
+        for (int i = 0; i < ProgressiveResponse.MAX_DIRECTIVES; i++) {
+            assertEquals(204, sent.get(i).get(2, TimeUnit.SECONDS).intValue());
+        }
+        assertFailedWith(sent.get(ProgressiveResponse.MAX_DIRECTIVES), IllegalStateException.class);
+        assertEquals(ProgressiveResponse.MAX_DIRECTIVES, this.directives.size());
+    }
+
+    @Test
+    public void reportsErrorStatus() throws Exception {
+        this.status = 403;
+        assertEquals(403, this.client.forRequest(envelope(TOKEN)).speak("Hi").get(2, TimeUnit.SECONDS).intValue());
+
+        this.status = 500;
+        assertEquals(500, this.client.forRequest(envelope(TOKEN)).speak("Hi").get(2, TimeUnit.SECONDS).intValue());
+    }
+
+    @Test
+    public void failsWhenEndpointDoesNotAnswerInTime() throws Exception {
+        this.stall = true;
+
+        assertFailedWith(this.client.forRequest(envelope(TOKEN)).speak("Hi"), SocketTimeoutException.class);
+    }
+
+    @Test
+    public void sendsNothingWithoutAccessToken() throws Exception {
+        final ProgressiveResponse response = this.client.forRequest(envelope(null));
+
+        assertFalse(response.isAvailable());
+        assertFailedWith(response.speak("Hi"), IllegalStateException.class);
+        assertTrue(this.directives.isEmpty());
+    }
+
+    private void answer(final HttpExchange exchange) throws IOException {
+        try {
+            this.directives.add(new Directive(exchange.getRequestMethod(),
+                    exchange.getRequestHeaders().getFirst("Authorization"),
+                    exchange.getRequestHeaders().getFirst("Content-Type"), read(exchange.getRequestBody())));
+            if (this.stall) {
+                this.release.await(5, TimeUnit.SECONDS);
+            }
+            exchange.sendResponseHeaders(this.status, -1);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private SpeechletRequestEnvelope<LaunchRequest> envelope(final String apiAccessToken) {
+        final String base = "http://" + this.server.getAddress().getHostString() + ':'
+                + this.server.getAddress().getPort();
+        return SpeechletRequestEnvelope.<LaunchRequest>builder()
+                .withRequest(LaunchRequest.builder().withRequestId("amzn1.echo-api.request.progressive").build())
+                .withContext(Context.builder().addState(SystemState.builder()
+                        .withApiEndpoint(base).withApiAccessToken(apiAccessToken).build()).build())
+                .build();
+    }
+
+    private static void assertFailedWith(final CompletableFuture<Integer> future, final Class<?> cause)
+            throws Exception {
+        try {
+            future.get(2, TimeUnit.SECONDS);
+            fail("Directive sent");
+        } catch (ExecutionException expected) {
+            assertTrue(String.valueOf(expected.getCause()), cause.isInstance(expected.getCause()));
+        }
+    }
+
+    private static String read(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[256];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static final class Directive {
+
+        private final String method;
+
+        private final String authorization;
+
+        private final String contentType;
+
+        private final String body;
+
+        Directive(final String method, final String authorization, final String contentType, final String body) {
+            this.method = method;
+            this.authorization = authorization;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.session;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link SessionStateService} write-behind and eviction against an in-memory repository.
+ *
+ * @author zacheusz
+ */
+public class SessionStateServiceTest {
+
+    private static final long NO_BACKGROUND_FLUSH = TimeUnit.HOURS.toMillis(1);
+
+    private final InMemoryPersistence persistence = new InMemoryPersistence();
+
+    private final SessionStateService service = new SessionStateService();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        this.persistence.release();
+        this.executor.shutdownNow();
+        this.service.deactivate();
+    }
+
+    @Test
+    public void loadsStoredAttributes() throws IOException {
+        this.persistence.stored.put("user", Collections.singletonMap("visits", 3L));
+        this.service.start(this.persistence, true, 10, NO_BACKGROUND_FLUSH, 10);
+
+        assertEquals(3L, this.service.get("user").getAttribute("visits"));
+        assertSame(this.service.get("user"), this.service.get("user"));
+        assertEquals(1, this.persistence.loads.get());
+    }
+
+    @Test
+    public void writesChangedStatesInTheBackground() throws Exception {
+        this.service.start(this.persistence, true, 10, 20, 10);
+        this.service.get("user").setAttribute("visits", 1L);
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!this.persistence.stored.containsKey("user") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(Collections.singletonMap("visits", 1L), this.persistence.stored.get("user"));
+        assertEquals(0, this.service.getDirtyCount());
+    }
+
+    @Test
+    public void writesInBatches() throws IOException {
+        this.service.start(this.persistence, true, 10, NO_BACKGROUND_FLUSH, 2);
+        for (int i = 0; i < 5; i++) {
+            this.service.get("user" + i).setAttribute("visits", 1L);
+        }
+
+        this.service.flushDirty();
+
+        assertEquals(5, this.persistence.stored.size());
+        assertEquals(3, this.persistence.stores.get());
+    }
+
+    @Test
+    public void keepsEvictedChangesUntilWritten() throws IOException {
+        this.service.start(this.persistence, true, 1, NO_BACKGROUND_FLUSH, 10);
+        final SessionState first = this.service.get("first");
+        first.setAttribute("visits", 1L);
+        this.service.get("second");
+
+        assertEquals(1, this.service.size());
+        assertSame(first, this.service.get("first"));
+        assertEquals(2, this.persistence.loads.get());
+    }
+
+    @Test
+    public void keepsEvictedStateVisibleWhileItIsWritten() throws Exception {
+        this.service.start(this.persistence, true, 1, NO_BACKGROUND_FLUSH, 10);
+        final SessionState first = this.service.get("first");
+        first.setAttribute("visits", 1L);
+        this.persistence.block();
+        final Future<?> flush = this.executor.submit(this.service::flushDirty);
+        assertTrue(this.persistence.storing.await(5, TimeUnit.SECONDS));
+
+        this.service.get("second");
+        final SessionState reloaded = this.service.get("first");
+        reloaded.setAttribute("name", "Ada");
+        this.persistence.release();
+        flush.get(5, TimeUnit.SECONDS);
+        this.service.flushDirty();
+
+        assertSame(first, reloaded);
+        final Map<String, Object> expected = new HashMap<>();
+        expected.put("visits", 1L);
+        expected.put("name", "Ada");
+        assertEquals(expected, this.persistence.stored.get("first"));
+    }
+
+    @Test
+    public void retriesFailedWrites() throws IOException {
+        this.service.start(this.persistence, true, 10, NO_BACKGROUND_FLUSH, 10);
+        this.service.get("user").setAttribute("visits", 1L);
+        this.persistence.failures.set(1);
+
+        this.service.flushDirty();
+        assertEquals(1, this.service.getDirtyCount());
+        this.service.flushDirty();
+
+        assertEquals(0, this.service.getDirtyCount());
+        assertEquals(Collections.singletonMap("visits", 1L), this.persistence.stored.get("user"));
+    }
+
+    @Test
+    public void writesRemovedAttributes() throws IOException {
+        this.persistence.stored.put("user", Collections.singletonMap("visits", 3L));
+        this.service.start(this.persistence, true, 10, NO_BACKGROUND_FLUSH, 10);
+
+        this.service.get("user").removeAttribute("visits");
+        this.service.flushDirty();
+
+        assertEquals(Collections.emptyMap(), this.persistence.stored.get("user"));
+    }
+
+    /**
+     * Repository stand-in whose writes can be held back.
+     */
+    private static final class InMemoryPersistence implements SessionStatePersistence {
+
+        final Map<String, Map<String, Object>> stored = new ConcurrentHashMap<>();
+
+        final AtomicInteger loads = new AtomicInteger();
+
+        final AtomicInteger stores = new AtomicInteger();
+
+        final AtomicInteger failures = new AtomicInteger();
+
+        final CountDownLatch storing = new CountDownLatch(1);
+
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+
+        void block() {
+            this.gate = new CountDownLatch(1);
+        }
+
+        void release() {
+            this.gate.countDown();
+        }
+
+        @Override
+        public Map<String, Object> load(final String key) {
+            this.loads.incrementAndGet();
+            return this.stored.getOrDefault(key, Collections.emptyMap());
+        }
+
+        @Override
+        public void store(final Map<String, Map<String, Object>> batch) throws IOException {
+            this.storing.countDown();
+            try {
+                this.gate.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            }
+            if (this.failures.getAndDecrement() > 0) {
+                throw new IOException("repository unavailable");
+            }
+            this.stores.incrementAndGet();
+            this.stored.putAll(batch);
+        }
+    }
+}
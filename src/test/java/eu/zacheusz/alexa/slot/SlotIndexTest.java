@@ -0,0 +1,157 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.slot;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * {@link SlotIndex} exact, synonym and fuzzy lookups.
+ *
+ * @author zacheusz
+ */
+public class SlotIndexTest {
+
+    private final SlotIndex index = SlotIndex.build(Arrays.asList(
+            new SlotValue("1", "Kraków", "Cracow"),
+            new SlotValue("2", "Warsaw", "Warszawa"),
+            new SlotValue("3", "Gdańsk", "Danzig"),
+            new SlotValue("4", "Cracow")));
+
+    @Test
+    public void normalizesAccentsCaseAndPunctuation() {
+        assertEquals("krakow", SlotIndex.normalize("  Kraków!"));
+        assertEquals("new york city", SlotIndex.normalize("New-York   City"));
+        assertEquals("ohare", SlotIndex.normalize("O'Hare"));
+        assertEquals("", SlotIndex.normalize(null));
+    }
+
+    @Test
+    public void resolvesExactValueAndSynonym() {
+        final SlotMatch exact = this.index.resolve("krakow");
+        assertEquals("1", exact.getValue().getId());
+        assertEquals(SlotMatch.Type.EXACT, exact.getType());
+
+        final SlotMatch synonym = this.index.resolve("Warszawa");
+        assertEquals("2", synonym.getValue().getId());
+        assertEquals(SlotMatch.Type.SYNONYM, synonym.getType());
+    }
+
+    @Test
+    public void canonicalValueTakesPrecedenceOverSynonym() {
+        final SlotMatch match = this.index.resolve("Cracow");
+        assertEquals("4", match.getValue().getId());
+        assertEquals(SlotMatch.Type.EXACT, match.getType());
+    }
+
+    @Test
+    public void resolvesMisspelledValueWithinDefaultEdits() {
+        final SlotMatch match = this.index.resolve("gdansck");
+        assertEquals("3", match.getValue().getId());
+        assertEquals(SlotMatch.Type.FUZZY, match.getType());
+        assertEquals(1, match.getDistance());
+
+        assertNull(this.index.resolve("gdynia"));
+        assertNull(this.index.resolve("gdansck", 0));
+    }
+
+    @Test
+    public void fuzzyLookupFindsClosestName() {
+        final Random random = new Random(42);
+        final List<SlotValue> catalog = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            catalog.add(new SlotValue(Integer.toString(i), randomWord(random, 4 + random.nextInt(8))));
+        }
+        final SlotIndex large = SlotIndex.build(catalog);
+
+        for (int i = 0; i < 300; i++) {
+            final String spoken = mutate(random, catalog.get(random.nextInt(catalog.size())).getValue());
+            final int closest = closestDistance(catalog, spoken);
+            final SlotMatch match = large.resolve(spoken, 2);
+            if (closest > 2) {
+                assertNull(spoken, match);
+            } else {
+                assertEquals(spoken, closest, match.getDistance());
+                assertEquals(spoken, closest, distance(spoken, match.getValue().getValue()));
+            }
+        }
+    }
+
+    private static int closestDistance(final List<SlotValue> catalog, final String spoken) {
+        int closest = Integer.MAX_VALUE;
+        for (final SlotValue value : catalog) {
+            closest = Math.min(closest, distance(spoken, value.getValue()));
+        }
+        return closest;
+    }
+
+    private static int distance(final String a, final String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                final int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            final int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+
+    private static String mutate(final Random random, final String word) {
+        final StringBuilder mutated = new StringBuilder(word);
+        for (int edits = random.nextInt(4); edits > 0 && mutated.length() > 1; edits--) {
+            final int at = random.nextInt(mutated.length());
+            switch (random.nextInt(3)) {
+                case 0:
+                    mutated.deleteCharAt(at);
+                    break;
+                case 1:
+                    mutated.insert(at, (char) ('a' + random.nextInt(26)));
+                    break;
+                default:
+                    mutated.setCharAt(at, (char) ('a' + random.nextInt(26)));
+            }
+        }
+        return mutated.toString();
+    }
+
+    private static String randomWord(final Random random, final int length) {
+        final char[] word = new char[length];
+        for (int i = 0; i < length; i++) {
+            word[i] = (char) ('a' + random.nextInt(6));
+        }
+        return new String(word);
+    }
+}
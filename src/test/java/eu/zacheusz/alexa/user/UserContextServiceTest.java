@@ -0,0 +1,189 @@
+/*
+  Copyright (c) 2017 Zacheusz Siedlecki.
+
+  Licensed to the Apache Software Foundation (ASF) under one
+  or more contributor license agreements.  See the NOTICE file
+  distributed with this work for additional information
+  regarding copyright ownership.  The ASF licenses this file
+  to you under the Apache License, Version 2.0 (the
+  "License"); you may not use this file except in compliance
+  with the License.  You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+  Unless required by applicable law or agreed to in writing,
+  software distributed under the License is distributed on an
+  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+  KIND, either express or implied.  See the License for the
+  specific language governing permissions and limitations
+  under the License.
+ */
+package eu.zacheusz.alexa.user;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link UserContextService} caching, eviction and invalidation.
+ *
+ * @author zacheusz
+ */
+public class UserContextServiceTest {
+
+    private final CountingLoader loader = new CountingLoader();
+
+    private final UserContextService service = new UserContextService();
+
+    @After
+    public void tearDown() {
+        this.service.deactivate();
+    }
+
+    @Test
+    public void cachesContext() throws Exception {
+        start(10);
+
+        this.service.get("alice", "token");
+        this.service.get("alice", "token");
+
+        assertEquals(1, this.loader.loads.get());
+        assertEquals(1, this.service.getHitCount());
+    }
+
+    @Test
+    public void keepsFrequentUserOverOneOffUser() throws Exception {
+        start(2);
+        this.service.get("alice", null);
+        this.service.get("bob", null);
+        this.service.get("alice", null);
+
+        // carol replaces bob, the least recently used, only once she was requested as often
+        this.service.get("carol", null);
+        assertEquals(2, this.service.size());
+        this.service.get("carol", null);
+        this.service.get("alice", null);
+
+        assertEquals(4, this.loader.loads.get());
+        assertEquals(1, this.service.getEvictionCount());
+        this.service.get("bob", null);
+        assertEquals(5, this.loader.loads.get());
+    }
+
+    @Test
+    public void invalidationDiscardsLoadInFlight() throws Exception {
+        start(10);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        this.loader.blockFirstLoad(loading, release);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<UserContext> stale = executor.submit(() -> this.service.get("alice", "token"));
+            assertTrue(loading.await(1, TimeUnit.SECONDS));
+
+            this.service.invalidate("alice");
+            release.countDown();
+
+            assertEquals(1, stale.get(1, TimeUnit.SECONDS).getProfile());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(2, this.service.get("alice", "token").getProfile());
+        assertEquals(2, this.loader.loads.get());
+    }
+
+    @Test
+    public void invalidationKeepsLoadsOfOtherUsers() throws Exception {
+        // one segment holds both users
+        start(10);
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        this.loader.blockFirstLoad(loading, release);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<UserContext> load = executor.submit(() -> this.service.get("bob", "token"));
+            assertTrue(loading.await(1, TimeUnit.SECONDS));
+
+            this.service.invalidate("alice");
+            release.countDown();
+
+            assertEquals(1, load.get(1, TimeUnit.SECONDS).getProfile());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, this.service.get("bob", "token").getProfile());
+        assertEquals(1, this.loader.loads.get());
+    }
+
+    @Test
+    public void concurrentUsersOfLargeCache() throws Exception {
+        start(10000);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Callable<UserContext>> requests = new ArrayList<>();
+            for (int i = 0; i < 4000; i++) {
+                final String userId = "user-" + (i % 1000);
+                requests.add(() -> this.service.get(userId, null));
+            }
+            for (final Future<UserContext> request : executor.invokeAll(requests)) {
+                assertTrue(request.get().getUserId().startsWith("user-"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1000, this.service.size());
+        assertEquals(4000, this.service.getHitCount() + this.service.getMissCount());
+    }
+
+    private void start(final int maxEntries) {
+        this.service.start(maxEntries, TimeUnit.HOURS.toMillis(1), 0L, 1000L, 1);
+        this.service.bindLoader(this.loader);
+    }
+
+    /**
+     * Answers the number of loads so far as the profile.
+     */
+    private static final class CountingLoader implements UserContextLoader {
+
+        final AtomicInteger loads = new AtomicInteger();
+
+        private volatile CountDownLatch loading;
+
+        private volatile CountDownLatch release;
+
+        void blockFirstLoad(final CountDownLatch loading, final CountDownLatch release) {
+            this.loading = loading;
+            this.release = release;
+        }
+
+        @Override
+        public UserContext load(final String userId, final String accessToken) {
+            final int load = this.loads.incrementAndGet();
+            final CountDownLatch blocked = this.release;
+            if (blocked != null && load == 1) {
+                this.loading.countDown();
+                try {
+                    blocked.await(1, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return new UserContext(userId, accessToken, load, 0L);
+        }
+    }
+}